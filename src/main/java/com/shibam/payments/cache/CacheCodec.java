@@ -0,0 +1,330 @@
+package com.shibam.payments.cache;
+
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Redis value serializer that writes payments and the {@link #ABSENT} marker
+ * in a compact binary form and everything else as JSON.
+ *
+ * A binary value starts with a marker byte that can never start JSON, then
+ * its type and layout version. Fields follow at fixed width where they can:
+ * ids and amounts as longs (amounts in minor units with their scale),
+ * timestamps as epoch seconds and nanos, and currency, status and payment
+ * method as one-byte codes from append-only dictionaries, falling back to
+ * the text for values not in them. Nullable fields are flagged in one
+ * presence bitmask instead of taking space.
+ *
+ * Layouts only ever grow by appending fields in a new version. A reader
+ * ignores trailing fields from a newer version it does not know, and leaves
+ * fields a value from an older version lacks unset, so instances running
+ * different versions can share the cache during a rollout. Values written
+ * as JSON before this codec existed still read back.
+ */
+public class CacheCodec implements RedisSerializer<Object> {
+    
+    /**
+     * Cached in place of a value known not to exist. Reads back as this same
+     * instance, so callers can compare against it with {@code ==}.
+     */
+    public static final Object ABSENT = new Object() {
+        @Override
+        public String toString() {
+            return "ABSENT";
+        }
+    };
+    
+    // 0xF5 and above never appear in UTF-8, so no JSON value starts with it
+    private static final byte MARKER = (byte) 0xF5;
+    private static final byte PAYMENT = 1;
+    // Type 2 held merchants before they moved to an in-memory snapshot; do not reuse it
+    private static final byte ABSENT_TYPE = 3;
+    private static final byte PAYMENT_VERSION = 1;
+    
+    // Append-only: a value's code is its index plus one, and 0 means the text follows
+    private static final List<String> CURRENCIES = List.of("USD", "EUR", "GBP", "INR", "JPY", "CAD", "AUD");
+    private static final List<String> METHODS = List.of("CARD", "WALLET", "BANK_TRANSFER", "UPI", "NET_BANKING",
+            "CRYPTO");
+    // Codes are fixed here rather than taken from ordinals, so reordering the enum cannot corrupt cached values
+    private static final List<PaymentStatus> STATUSES = List.of(PaymentStatus.PENDING, PaymentStatus.AUTHORIZED,
+            PaymentStatus.CAPTURED, PaymentStatus.SETTLED, PaymentStatus.FAILED, PaymentStatus.REFUNDED,
+            PaymentStatus.CANCELLED, PaymentStatus.REVIEW, PaymentStatus.PROCESSING);
+    
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+    
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == ABSENT) {
+            return new byte[] {MARKER, ABSENT_TYPE, 1};
+        }
+        if (value instanceof Payment payment && fitsLayout(payment)) {
+            return encode(payment);
+        }
+        return json.serialize(value);
+    }
+    
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0 || bytes[0] != MARKER) {
+            return json.deserialize(bytes);
+        }
+        if (bytes.length < 3) {
+            throw new SerializationException("Truncated cache value of " + bytes.length + " bytes");
+        }
+        Reader reader = new Reader(bytes, 3);
+        try {
+            return switch (bytes[1]) {
+                case PAYMENT -> decodePayment(reader, bytes[2]);
+                case ABSENT_TYPE -> ABSENT;
+                default -> throw new SerializationException("Unknown cache value type " + bytes[1]);
+            };
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated cache value of type " + bytes[1], e);
+        }
+    }
+    
+    private static byte[] encode(Payment payment) {
+        Writer writer = new Writer(PAYMENT, PAYMENT_VERSION, 96);
+        int presence = present(0, payment.getId())
+                | present(1, payment.getUserId())
+                | present(2, payment.getAmount())
+                | present(3, payment.getStatus())
+                | present(4, payment.getCreatedAt())
+                | present(5, payment.getUpdatedAt());
+        writer.writeByte(presence);
+        if (payment.getId() != null) {
+            writer.writeLong(payment.getId());
+        }
+        if (payment.getUserId() != null) {
+            writer.writeLong(payment.getUserId());
+        }
+        if (payment.getAmount() != null) {
+            writer.writeLong(payment.getAmount().unscaledValue().longValueExact());
+            writer.writeByte(payment.getAmount().scale());
+        }
+        if (payment.getStatus() != null) {
+            writer.writeByte(STATUSES.indexOf(payment.getStatus()));
+        }
+        writeTime(writer, payment.getCreatedAt());
+        writeTime(writer, payment.getUpdatedAt());
+        writer.writeCoded(CURRENCIES, payment.getCurrency());
+        writer.writeCoded(METHODS, payment.getPaymentMethod());
+        writer.writeString(payment.getTransactionId());
+        writer.writeString(payment.getMerchantId());
+        writer.writeString(payment.getDescription());
+        writer.writeString(payment.getGatewayResponse());
+        writer.writeString(payment.getGateway());
+        return writer.toByteArray();
+    }
+    
+    private static Payment decodePayment(Reader reader, byte version) {
+        checkVersion(version, "payment");
+        Payment payment = new Payment();
+        int presence = reader.readByte();
+        if (isPresent(presence, 0)) {
+            payment.setId(reader.readLong());
+        }
+        if (isPresent(presence, 1)) {
+            payment.setUserId(reader.readLong());
+        }
+        if (isPresent(presence, 2)) {
+            long unscaled = reader.readLong();
+            payment.setAmount(BigDecimal.valueOf(unscaled, reader.readByte()));
+        }
+        if (isPresent(presence, 3)) {
+            payment.setStatus(STATUSES.get(reader.readByte()));
+        }
+        if (isPresent(presence, 4)) {
+            payment.setCreatedAt(reader.readTime());
+        }
+        if (isPresent(presence, 5)) {
+            payment.setUpdatedAt(reader.readTime());
+        }
+        payment.setCurrency(reader.readCoded(CURRENCIES));
+        payment.setPaymentMethod(reader.readCoded(METHODS));
+        payment.setTransactionId(reader.readString());
+        payment.setMerchantId(reader.readString());
+        payment.setDescription(reader.readString());
+        payment.setGatewayResponse(reader.readString());
+        payment.setGateway(reader.readString());
+        // Fields appended by newer versions follow here
+        return payment;
+    }
+    
+    /**
+     * Whether the payment's amount fits in a long of minor units and its
+     * status has a code; payments that do not are cached as JSON.
+     */
+    private static boolean fitsLayout(Payment payment) {
+        BigDecimal amount = payment.getAmount();
+        if (amount != null && (amount.unscaledValue().bitLength() >= Long.SIZE || amount.scale() < 0
+                || amount.scale() > 0xFF)) {
+            return false;
+        }
+        return payment.getStatus() == null || STATUSES.contains(payment.getStatus());
+    }
+    
+    private static void checkVersion(byte version, String type) {
+        // Newer versions only append fields, so they read fine; zero or less is not a version this codec wrote
+        if (version < 1) {
+            throw new SerializationException("Unknown " + type + " cache layout version " + version);
+        }
+    }
+    
+    private static int present(int bit, Object field) {
+        return field != null ? 1 << bit : 0;
+    }
+    
+    private static boolean isPresent(int presence, int bit) {
+        return (presence & (1 << bit)) != 0;
+    }
+    
+    private static void writeTime(Writer writer, LocalDateTime time) {
+        if (time != null) {
+            writer.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            writer.writeInt(time.getNano());
+        }
+    }
+    
+    private static final class Writer {
+        
+        private byte[] bytes;
+        private int position;
+        
+        Writer(byte type, byte version, int expectedSize) {
+            bytes = new byte[expectedSize];
+            bytes[0] = MARKER;
+            bytes[1] = type;
+            bytes[2] = version;
+            position = 3;
+        }
+        
+        void writeByte(int value) {
+            ensure(1);
+            bytes[position++] = (byte) value;
+        }
+        
+        void writeInt(int value) {
+            ensure(Integer.BYTES);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+        }
+        
+        void writeLong(long value) {
+            ensure(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+        }
+        
+        /**
+         * A varint of the UTF-8 length plus one, 0 for null, then the bytes.
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            int length = utf8.length + 1;
+            while (length >= 0x80) {
+                writeByte(length & 0x7F | 0x80);
+                length >>>= 7;
+            }
+            writeByte(length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, position, utf8.length);
+            position += utf8.length;
+        }
+        
+        void writeCoded(List<String> dictionary, String value) {
+            int code = value != null ? dictionary.indexOf(value) + 1 : 0;
+            writeByte(code);
+            if (code == 0) {
+                writeString(value);
+            }
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, position);
+        }
+        
+        private void ensure(int size) {
+            if (position + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + size));
+            }
+        }
+    }
+    
+    private static final class Reader {
+        
+        private final byte[] bytes;
+        private int position;
+        
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+        
+        int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+        
+        int readInt() {
+            int value = 0;
+            for (int i = 0; i < Integer.BYTES; i++) {
+                value = value << 8 | readByte();
+            }
+            return value;
+        }
+        
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value = value << 8 | readByte();
+            }
+            return value;
+        }
+        
+        LocalDateTime readTime() {
+            long seconds = readLong();
+            return LocalDateTime.ofEpochSecond(seconds, readInt(), ZoneOffset.UTC);
+        }
+        
+        String readString() {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                length |= (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+            }
+            if (length == 0) {
+                return null;
+            }
+            if (position + length - 1 > bytes.length) {
+                throw new ArrayIndexOutOfBoundsException(position + length - 1);
+            }
+            String value = new String(bytes, position, length - 1, StandardCharsets.UTF_8);
+            position += length - 1;
+            return value;
+        }
+        
+        String readCoded(List<String> dictionary) {
+            int code = readByte();
+            return code == 0 ? readString() : dictionary.get(code - 1);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.shibam.payments.cache;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded in-process cache of objects by string key, in front of Redis.
+ *
+ * Entries expire after at most {@code ttl}, which bounds how stale an entry
+ * can get if an invalidation from another instance is lost. Storage is split
+ * into independently locked stripes, each an open-addressing table of
+ * parallel arrays (key, key hash, value, expiry time, referenced bit) kept at
+ * most half full; a hit allocates nothing. A stripe that has reached its
+ * share of {@code maxEntries} makes room with the CLOCK algorithm: it sweeps
+ * its slots, dropping the first entry that is expired or has not been read
+ * since the last sweep passed it.
+ *
+ * Values are shared between readers, so they must not be modified once
+ * cached.
+ */
+public class LocalCache {
+    
+    private static final int STRIPES = 64;
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    
+    public LocalCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::currentTimeMillis);
+    }
+    
+    public LocalCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Local cache needs a positive size and TTL, not " + maxEntries + ", " + ttl);
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        int stripeEntries = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeEntries);
+        }
+    }
+    
+    /**
+     * The cached value, or null if the key is not cached or has expired.
+     */
+    public Object get(String key) {
+        int hash = hash(key);
+        return stripe(hash).get(key, hash, clock.getAsLong());
+    }
+    
+    /**
+     * Caches the value for at most {@code ttl}, capped at the cache's TTL.
+     */
+    public void put(String key, Object value, Duration ttl) {
+        int hash = hash(key);
+        stripe(hash).put(key, hash, value, expiresAt(ttl));
+    }
+    
+    /**
+     * The key's stripe version, which changes with every write or
+     * invalidation of a key in that stripe. Passing it to
+     * {@link #putIfUnchanged} keeps a value read from Redis before a
+     * concurrent write or invalidation from being cached over it.
+     */
+    public long stamp(String key) {
+        return stripe(hash(key)).version();
+    }
+    
+    /**
+     * Caches the value for the cache's TTL unless a key in its stripe was
+     * written or invalidated since {@code stamp} was taken. Returns whether
+     * it was cached.
+     */
+    public boolean putIfUnchanged(String key, Object value, long stamp) {
+        int hash = hash(key);
+        return stripe(hash).putIfUnchanged(key, hash, value, clock.getAsLong() + ttlMillis, stamp);
+    }
+    
+    public void invalidate(String key) {
+        int hash = hash(key);
+        if (stripe(hash).remove(key, hash)) {
+            invalidations.increment();
+        }
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Entries dropped to make room for new ones.
+     */
+    public long sizeEvictions() {
+        return sizeEvictions.sum();
+    }
+    
+    /**
+     * Entries dropped because they expired.
+     */
+    public long expirations() {
+        return expirations.sum();
+    }
+    
+    /**
+     * Entries dropped because they were invalidated.
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+    
+    private long expiresAt(Duration ttl) {
+        return clock.getAsLong() + Math.max(1, Math.min(ttl.toMillis(), ttlMillis));
+    }
+    
+    private Stripe stripe(int hash) {
+        return stripes[hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES))];
+    }
+    
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * One open-addressing table with linear probing. Removing an entry
+     * shifts the entries probed past it back, so lookups never need
+     * tombstones.
+     */
+    private final class Stripe {
+        
+        private final int maxEntries;
+        private final int mask;
+        private final String[] keys;
+        private final int[] hashes;
+        private final Object[] values;
+        private final long[] expiresAt;
+        private final boolean[] referenced;
+        private int size;
+        private int hand;
+        private long version;
+        
+        Stripe(int maxEntries) {
+            int capacity = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+            this.maxEntries = maxEntries;
+            this.mask = capacity - 1;
+            this.keys = new String[capacity];
+            this.hashes = new int[capacity];
+            this.values = new Object[capacity];
+            this.expiresAt = new long[capacity];
+            this.referenced = new boolean[capacity];
+        }
+        
+        synchronized Object get(String key, int hash, long now) {
+            int slot = find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            if (expiresAt[slot] <= now) {
+                removeAt(slot);
+                expirations.increment();
+                return null;
+            }
+            referenced[slot] = true;
+            return values[slot];
+        }
+        
+        synchronized void put(String key, int hash, Object value, long expiry) {
+            version++;
+            int slot = find(key, hash);
+            if (slot < 0) {
+                if (size >= maxEntries) {
+                    evictOne(clock.getAsLong());
+                }
+                slot = hash & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                hashes[slot] = hash;
+                size++;
+            }
+            values[slot] = value;
+            expiresAt[slot] = expiry;
+            referenced[slot] = false;
+        }
+        
+        synchronized boolean putIfUnchanged(String key, int hash, Object value, long expiry, long stamp) {
+            if (version != stamp) {
+                return false;
+            }
+            put(key, hash, value, expiry);
+            return true;
+        }
+        
+        synchronized boolean remove(String key, int hash) {
+            version++;
+            int slot = find(key, hash);
+            if (slot < 0) {
+                return false;
+            }
+            removeAt(slot);
+            return true;
+        }
+        
+        synchronized long version() {
+            return version;
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        private int find(String key, int hash) {
+            for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && keys[slot].equals(key)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        private void evictOne(long now) {
+            // At most two sweeps: the first clears every referenced bit it passes
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+                if (keys[slot] == null) {
+                    continue;
+                }
+                if (expiresAt[slot] <= now) {
+                    removeAt(slot);
+                    expirations.increment();
+                    return;
+                }
+                if (!referenced[slot]) {
+                    removeAt(slot);
+                    sizeEvictions.increment();
+                    return;
+                }
+                referenced[slot] = false;
+            }
+        }
+        
+        private void removeAt(int slot) {
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+                // An entry can fill the hole if the hole lies between its home slot and where it sits
+                int home = hashes[next] & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    hashes[hole] = hashes[next];
+                    values[hole] = values[next];
+                    expiresAt[hole] = expiresAt[next];
+                    referenced[hole] = referenced[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = null;
+            values[hole] = null;
+            referenced[hole] = false;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.shibam.payments.cache;
+
+import com.shibam.payments.model.Merchant;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable copy of the merchants table, indexed by merchant id and by
+ * country.
+ *
+ * A snapshot never changes once built: {@link #withChanges} returns a new
+ * one with the changed merchants replaced, so a reader holding a snapshot
+ * needs no lock and never sees half an update. Each change rebuilds the
+ * indexes, which is cheap for a table of merchants and keeps every read a
+ * single hash lookup. The merchants in a snapshot are shared by all its
+ * readers and must not be modified.
+ */
+public final class MerchantSnapshot {
+    
+    public static final MerchantSnapshot EMPTY = new MerchantSnapshot(Map.of(), null);
+    
+    // Table order, as the repository's list queries return them
+    private static final Comparator<Merchant> BY_ID =
+            Comparator.comparing(Merchant::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+    
+    private final Map<String, Merchant> byMerchantId;
+    private final Map<String, List<Merchant>> byCountry;
+    private final List<Merchant> active;
+    private final LocalDateTime lastUpdatedAt;
+    
+    private MerchantSnapshot(Map<String, Merchant> byMerchantId, LocalDateTime lastUpdatedAt) {
+        Map<String, List<Merchant>> countries = new HashMap<>();
+        List<Merchant> activeMerchants = new ArrayList<>();
+        for (Merchant merchant : byMerchantId.values()) {
+            if (merchant.getCountry() != null) {
+                countries.computeIfAbsent(merchant.getCountry(), country -> new ArrayList<>()).add(merchant);
+            }
+            if (Boolean.TRUE.equals(merchant.getIsActive())) {
+                activeMerchants.add(merchant);
+            }
+        }
+        countries.replaceAll((country, merchants) -> sorted(merchants));
+        
+        this.byMerchantId = Map.copyOf(byMerchantId);
+        this.byCountry = Map.copyOf(countries);
+        this.active = sorted(activeMerchants);
+        this.lastUpdatedAt = lastUpdatedAt;
+    }
+    
+    public static MerchantSnapshot of(Collection<Merchant> merchants) {
+        return EMPTY.withChanges(merchants);
+    }
+    
+    /**
+     * A snapshot with the given merchants added or replacing the ones with
+     * the same merchant id. A merchant older than the one already held, by
+     * {@code updatedAt}, is ignored, so a slow refresh cannot undo a newer
+     * change.
+     */
+    public MerchantSnapshot withChanges(Collection<Merchant> changed) {
+        if (changed.isEmpty()) {
+            return this;
+        }
+        Map<String, Merchant> merged = new HashMap<>(byMerchantId);
+        LocalDateTime newest = lastUpdatedAt;
+        for (Merchant merchant : changed) {
+            Merchant held = merged.get(merchant.getMerchantId());
+            if (held != null && isBefore(merchant.getUpdatedAt(), held.getUpdatedAt())) {
+                continue;
+            }
+            merged.put(merchant.getMerchantId(), merchant);
+            if (merchant.getUpdatedAt() != null && (newest == null || merchant.getUpdatedAt().isAfter(newest))) {
+                newest = merchant.getUpdatedAt();
+            }
+        }
+        return new MerchantSnapshot(merged, newest);
+    }
+    
+    public Optional<Merchant> find(String merchantId) {
+        return merchantId != null ? Optional.ofNullable(byMerchantId.get(merchantId)) : Optional.empty();
+    }
+    
+    public boolean isActive(String merchantId) {
+        Merchant merchant = merchantId != null ? byMerchantId.get(merchantId) : null;
+        return merchant != null && Boolean.TRUE.equals(merchant.getIsActive());
+    }
+    
+    public List<Merchant> active() {
+        return active;
+    }
+    
+    /**
+     * All merchants in the country, active or not.
+     */
+    public List<Merchant> inCountry(String country) {
+        return byCountry.getOrDefault(country, List.of());
+    }
+    
+    public int size() {
+        return byMerchantId.size();
+    }
+    
+    /**
+     * The newest {@code updatedAt} of any merchant in the snapshot, or null
+     * if none has one.
+     */
+    public LocalDateTime lastUpdatedAt() {
+        return lastUpdatedAt;
+    }
+    
+    private static boolean isBefore(LocalDateTime time, LocalDateTime other) {
+        return time != null && other != null && time.isBefore(other);
+    }
+    
+    private static List<Merchant> sorted(List<Merchant> merchants) {
+        merchants.sort(BY_ID);
+        return List.copyOf(merchants);
+    }
+}
@@ -0,0 +1,22 @@
+package com.shibam.payments.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.filter.ConcurrencyLimitFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ConcurrencyLimitConfig {
+    
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilter(PaymentProperties paymentProperties,
+                                                                                 ObjectMapper objectMapper,
+                                                                                 MeterRegistry meterRegistry) {
+        FilterRegistrationBean<ConcurrencyLimitFilter> registration = new FilterRegistrationBean<>(
+                new ConcurrencyLimitFilter(paymentProperties, objectMapper, meterRegistry));
+        registration.addUrlPatterns("/api/v1/payments/*");
+        return registration;
+    }
+}
\ No newline at end of file
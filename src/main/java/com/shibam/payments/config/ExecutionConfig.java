@@ -0,0 +1,58 @@
+package com.shibam.payments.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Execution mode for the blocking payment pipeline.
+ *
+ * With {@code spring.threads.virtual.enabled=true} on Java 21+, Spring Boot
+ * already serves Tomcat requests and runs scheduled jobs on virtual threads;
+ * {@code paymentTaskExecutor} follows the same switch for the work we fan out
+ * ourselves. Otherwise everything stays on bounded platform thread pools.
+ */
+@Configuration
+@Slf4j
+public class ExecutionConfig {
+    
+    @Bean
+    public AsyncTaskExecutor paymentTaskExecutor(Environment environment, PaymentProperties paymentProperties) {
+        boolean virtualThreads = Threading.VIRTUAL.isActive(environment);
+        if (!virtualThreads && environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            log.warn("Virtual threads requested but not supported on Java {}, using platform threads",
+                    JavaVersion.getJavaVersion());
+        }
+        
+        log.info("Payment pipeline running on {} threads", virtualThreads ? "virtual" : "platform");
+        return createTaskExecutor("payment-task-", virtualThreads, paymentProperties.getExecution());
+    }
+    
+    /**
+     * Builds an executor for the given mode. Platform executors are returned
+     * uninitialized so that the container (or caller) owns their lifecycle.
+     */
+    public static AsyncTaskExecutor createTaskExecutor(String threadNamePrefix, boolean virtualThreads,
+                                                       PaymentProperties.Execution execution) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(execution.getVirtualConcurrencyLimit());
+            return executor;
+        }
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(execution.getPoolSize());
+        executor.setMaxPoolSize(execution.getPoolSize());
+        executor.setQueueCapacity(execution.getQueueCapacity());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.shibam.payments.config;
+
+import com.shibam.payments.gateway.GatewayConnector;
+import com.shibam.payments.gateway.GatewayRouter;
+import com.shibam.payments.gateway.ResilientGatewayConnector;
+import com.shibam.payments.gateway.SimulatedGatewayConnector;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+public class GatewayConfig {
+    
+    @Bean
+    public GatewayRouter gatewayRouter(PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        PaymentProperties.Gateway gateway = paymentProperties.getGateway();
+        List<PaymentProperties.Gateway.Connector> connectors = gateway.getConnectors();
+        if (connectors.isEmpty()) {
+            PaymentProperties.Gateway.Connector simulator = new PaymentProperties.Gateway.Connector();
+            simulator.setName("simulator");
+            connectors = List.of(simulator);
+        }
+        
+        List<GatewayRouter.Route> routes = connectors.stream()
+                .map(connector -> new GatewayRouter.Route(
+                        new ResilientGatewayConnector(createConnector(connector), gateway, meterRegistry),
+                        connector.getAcquirer() != null ? connector.getAcquirer() : connector.getName(),
+                        connector.getPaymentMethods(), connector.getCurrencies(),
+                        gateway.getRouting().getLatencyWindow()))
+                .toList();
+        return new GatewayRouter(routes, gateway.getRouting(), meterRegistry);
+    }
+    
+    private static GatewayConnector createConnector(PaymentProperties.Gateway.Connector connector) {
+        return switch (connector.getType()) {
+            case "simulator" -> new SimulatedGatewayConnector(connector.getName());
+            default -> throw new IllegalStateException(
+                    "Unknown gateway connector type '" + connector.getType() + "' for " + connector.getName());
+        };
+    }
+}
\ No newline at end of file
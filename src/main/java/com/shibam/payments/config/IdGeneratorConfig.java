@@ -0,0 +1,15 @@
+package com.shibam.payments.config;
+
+import com.shibam.payments.service.NodeIdLease;
+import com.shibam.payments.service.TransactionIdGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdGeneratorConfig {
+    
+    @Bean
+    public TransactionIdGenerator transactionIdGenerator(NodeIdLease nodeIdLease) {
+        return new TransactionIdGenerator(nodeIdLease::currentNodeId, System::currentTimeMillis);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,361 @@
+package com.shibam.payments.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed binding for the custom {@code payment.*} properties in application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "payment")
+public class PaymentProperties {
+    
+    private Gateway gateway = new Gateway();
+    private Recovery recovery = new Recovery();
+    private Execution execution = new Execution();
+    private Async async = new Async();
+    private Batch batch = new Batch();
+    private Idempotency idempotency = new Idempotency();
+    private IdGenerator idGenerator = new IdGenerator();
+    private PreAuthorization preAuthorization = new PreAuthorization();
+    private Outbox outbox = new Outbox();
+    private ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+    private RateLimit rateLimit = new RateLimit();
+    private Velocity velocity = new Velocity();
+    private Fraud fraud = new Fraud();
+    private Cache cache = new Cache();
+    private Merchants merchants = new Merchants();
+    
+    @Data
+    public static class Gateway {
+        // Hard deadline for one gateway call; a call that misses it has an unknown outcome
+        private Duration timeout = Duration.ofSeconds(30);
+        // Calls in flight per connector; further calls fail fast instead of queueing
+        private int maxConcurrentCalls = 100;
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+        private Routing routing = new Routing();
+        // Connectors to route between; a single simulator when none are listed
+        private List<Connector> connectors = new ArrayList<>();
+        
+        @Data
+        public static class CircuitBreaker {
+            private boolean enabled = true;
+            // Consecutive failed or timed-out calls that open the circuit, and how long it stays open
+            private int failureThreshold = 5;
+            private Duration recoveryTimeout = Duration.ofSeconds(30);
+        }
+        
+        @Data
+        public static class Routing {
+            // Share of new payments sent to a random eligible connector, so every connector's stats stay current
+            private double explorationRate = 0.05;
+            private int latencyWindow = 1024;
+            // Send idempotent calls to a second connector once the first has been slower than its p95
+            private boolean hedging = true;
+            private Duration minHedgeDelay = Duration.ofMillis(20);
+        }
+        
+        @Data
+        public static class Connector {
+            private String name;
+            private String type = "simulator";
+            // Connectors of the same acquirer share its records, so follow-up calls may use any of them
+            private String acquirer;
+            // Empty means every payment method or currency
+            private List<String> paymentMethods = new ArrayList<>();
+            private List<String> currencies = new ArrayList<>();
+        }
+    }
+    
+    @Data
+    public static class Recovery {
+        // How long a payment may stay PROCESSING before its gateway outcome is treated as unknown;
+        // must exceed the gateway timeout
+        private Duration pendingTimeout = Duration.ofMinutes(2);
+        // How long a payment may wait PENDING for a worker before it is failed unsent
+        private Duration queuedTimeout = Duration.ofMinutes(15);
+        private Duration interval = Duration.ofMinutes(1);
+        private int batchSize = 100;
+    }
+    
+    @Data
+    public static class Execution {
+        // Platform thread pool, used when virtual threads are disabled or unsupported
+        private int poolSize = 50;
+        private int queueCapacity = 1000;
+        // Cap on concurrently running tasks in virtual thread mode, -1 for unbounded
+        private int virtualConcurrencyLimit = 10000;
+    }
+    
+    @Data
+    public static class Async {
+        // Workers draining the submitted-payment queue and the queue's capacity
+        private int workers = 50;
+        private int queueCapacity = 5000;
+        private Duration retryAfter = Duration.ofSeconds(1);
+    }
+    
+    @Data
+    public static class Batch {
+        // Payments of one batch screened or sent to the gateway at the same time
+        private int concurrency = 20;
+    }
+    
+    @Data
+    public static class Idempotency {
+        // How long a stored response is replayed for, in Redis and in-process
+        private Duration ttl = Duration.ofHours(24);
+        private Duration localTtl = Duration.ofMinutes(5);
+        // Claim lifetime for a request that is still running, in case its owner dies
+        private Duration inFlightTimeout = Duration.ofMinutes(1);
+        private int localMaxEntries = 100_000;
+    }
+    
+    @Data
+    public static class IdGenerator {
+        // Fixed node id (0-1023) for the transaction id generator, -1 to lease one from Redis
+        private int nodeId = -1;
+        private Duration leaseTtl = Duration.ofSeconds(30);
+        private Duration leaseRenewInterval = Duration.ofSeconds(10);
+    }
+    
+    @Data
+    public static class PreAuthorization {
+        // Deadline for the velocity, merchant and fraud checks together
+        private Duration timeout = Duration.ofSeconds(2);
+    }
+    
+    @Data
+    public static class Outbox {
+        // Events relayed to Kafka per round, and how long to wait for Kafka to acknowledge them
+        private int batchSize = 500;
+        private Duration sendTimeout = Duration.ofSeconds(10);
+        private Duration pollInterval = Duration.ofMillis(200);
+        // How long a claimed batch is left to its relay before another one sends it again
+        private Duration claimTimeout = Duration.ofMinutes(1);
+    }
+    
+    @Data
+    public static class ConcurrencyLimit {
+        private boolean enabled = true;
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+        // Latency growth over the no-load baseline accepted before the limit shrinks
+        private double tolerance = 1.5;
+        private double smoothing = 0.2;
+        private Duration window = Duration.ofMillis(250);
+        // Share of the limit only capture, refund, cancel and release may use
+        private double priorityReserve = 0.2;
+        private Duration retryAfter = Duration.ofSeconds(1);
+    }
+    
+    @Data
+    public static class RateLimit {
+        private boolean enabled = true;
+        // Applied to merchants without their own limit; 0 disables the limit
+        private int merchantPermitsPerSecond = 200;
+        private int merchantBurst = 400;
+        // Per-user quota across all merchants, 0 to disable
+        private int userPermitsPerSecond = 0;
+        private int userBurst = 10;
+        // How often merchant limits are reloaded from the database
+        private Duration refreshInterval = Duration.ofSeconds(30);
+        private Cluster cluster = new Cluster();
+        
+        @Data
+        public static class Cluster {
+            // Enforce limits across all instances through Redis instead of per instance
+            private boolean enabled = false;
+            // Tokens reserved from Redis per round trip, and how long an unused reservation may be spent
+            private int leaseSize = 10;
+            private Duration leaseTtl = Duration.ofMillis(500);
+        }
+    }
+    
+    @Data
+    public static class Velocity {
+        // Keys tracked across users, cards and merchants; each takes up to ~370 bytes of heap
+        private int maxKeys = 250_000;
+        private Duration evictionInterval = Duration.ofMinutes(5);
+        // Payments one user may start per minute before further attempts are refused
+        private int userAttemptsPerMinute = 5;
+        private Limits user = Limits.of(0, 30, 100, new BigDecimal("50000"));
+        private Limits card = Limits.of(3, 10, 20, new BigDecimal("20000"));
+        private Limits merchant = new Limits();
+        private Cluster cluster = new Cluster();
+        
+        @Data
+        public static class Cluster {
+            // Count payments across all instances in Redis instead of per instance
+            private boolean enabled = false;
+            // How long to use this instance's counters after Redis fails before trying it again
+            private Duration retryInterval = Duration.ofSeconds(5);
+        }
+        
+        @Data
+        public static class Limits {
+            // Payments over each window that mark a payment as fraudulent, 0 for no limit
+            private int perMinute;
+            private int perHour;
+            private int perDay;
+            // Total amount per day across currencies, null for no limit
+            private BigDecimal amountPerDay;
+            
+            static Limits of(int perMinute, int perHour, int perDay, BigDecimal amountPerDay) {
+                Limits limits = new Limits();
+                limits.setPerMinute(perMinute);
+                limits.setPerHour(perHour);
+                limits.setPerDay(perDay);
+                limits.setAmountPerDay(amountPerDay);
+                return limits;
+            }
+        }
+    }
+    
+    @Data
+    public static class Fraud {
+        // Payments above this amount are declined whatever their risk score
+        private BigDecimal maxAmount = new BigDecimal("10000.00");
+        // Risk score, the capped sum of the weights of matching rules, above which a payment is declined
+        private double riskThreshold = 0.8;
+        private List<AmountRule> amountRules = new ArrayList<>(List.of(AmountRule.of(new BigDecimal("1000"), 0.2)));
+        private Map<String, Double> methodWeights = new HashMap<>(Map.of("CRYPTO", 0.3));
+        private List<TimeWindow> timeWindows = new ArrayList<>(List.of(TimeWindow.of(23, 6, 0.1)));
+        // Per-merchant thresholds and method weights, keyed by merchant id
+        private Map<String, MerchantRules> merchants = new HashMap<>();
+        // Optional YAML file with payment.fraud.* rules that override these, reloaded when it changes
+        private String rulesFile;
+        private Duration reloadInterval = Duration.ofSeconds(30);
+        private Blocklist blocklist = new Blocklist();
+        private Checks checks = new Checks();
+        private Profile profile = new Profile();
+        private Deep deep = new Deep();
+        // Optional YAML file with payment.fraud.* rules scored alongside the live ones without affecting decisions
+        private String shadowRulesFile;
+        // Time the checks run before authorization should stay within; overruns are counted, not cut short
+        private Duration syncBudget = Duration.ofMillis(50);
+        
+        @Data
+        public static class AmountRule {
+            private BigDecimal over;
+            private double weight;
+            
+            static AmountRule of(BigDecimal over, double weight) {
+                AmountRule rule = new AmountRule();
+                rule.setOver(over);
+                rule.setWeight(weight);
+                return rule;
+            }
+        }
+        
+        @Data
+        public static class TimeWindow {
+            // Hours of the day, local time; a window may wrap past midnight
+            private int fromHour;
+            private int toHour;
+            private double weight;
+            
+            static TimeWindow of(int fromHour, int toHour, double weight) {
+                TimeWindow window = new TimeWindow();
+                window.setFromHour(fromHour);
+                window.setToHour(toHour);
+                window.setWeight(weight);
+                return window;
+            }
+        }
+        
+        @Data
+        public static class MerchantRules {
+            // Unset values fall back to the platform rules
+            private BigDecimal maxAmount;
+            private Double riskThreshold;
+            // Merged over the platform method weights
+            private Map<String, Double> methodWeights = new HashMap<>();
+        }
+        
+        @Data
+        public static class Blocklist {
+            // Blocked six-digit BINs, one per line as 400000 or 400000-400999
+            private String binRangesFile;
+            // Compromised card numbers, one per line; only their hashes are kept
+            private String compromisedCardsFile;
+            // Share of clean cards the compromised-card filter wrongly blocks
+            private double falsePositiveRate = 1e-6;
+            private Duration reloadInterval = Duration.ofMinutes(5);
+        }
+        
+        @Data
+        public static class Checks {
+            // Decisions waiting to be written to fraud_checks; past this they are dropped
+            private int queueCapacity = 10_000;
+            private int batchSize = 200;
+            // Longest a decision waits for its batch to fill
+            private Duration flushInterval = Duration.ofMillis(500);
+        }
+        
+        @Data
+        public static class Profile {
+            // Users with a behavioral profile; each takes up to ~110 bytes of heap
+            private int maxUsers = 500_000;
+            // Weight of the newest payment in the running mean and variance of a user's amount
+            private double smoothing = 0.1;
+            private Duration idleAfter = Duration.ofDays(90);
+            private Duration evictionInterval = Duration.ofHours(1);
+            // Payments a user needs before deviations from their profile are scored
+            private int minPayments = 5;
+            // Standard deviations above the user's mean amount that count as unusual
+            private double amountDeviation = 3.0;
+            // Hours of the day and payment methods used for less than this share of payments are unusual
+            private double unusualShare = 0.05;
+            // Risk weights of each kind of deviation, 0 to ignore it
+            private double amountWeight = 0.3;
+            private double merchantWeight = 0.1;
+            private double hourWeight = 0.1;
+            private double methodWeight = 0.2;
+        }
+        
+        @Data
+        public static class Deep {
+            // Risk score above which an authorized payment is held for review; above risk-threshold it is cancelled
+            private double reviewThreshold = 0.5;
+            private int workers = 4;
+            // Authorized payments waiting for deep scoring; past this they are captured without it
+            private int queueCapacity = 10_000;
+            // Longest a capture waits for the payment's deep scoring to finish
+            private Duration captureWait = Duration.ofSeconds(2);
+            // How long a payment stays marked as awaiting deep scoring if the instance scoring it goes away
+            private Duration pendingTtl = Duration.ofMinutes(5);
+        }
+    }
+    
+    @Data
+    public static class Cache {
+        // Keys kept in the in-process tier in front of Redis; leave empty to always go to Redis
+        private List<String> localKeyPrefixes = new ArrayList<>(List.of("payment:"));
+        private int localMaxEntries = 10_000;
+        // Also bounds how stale a local entry gets if an invalidation from another instance is lost
+        private Duration localTtl = Duration.ofSeconds(30);
+        // Redis pub/sub channel on which instances tell each other to drop local entries
+        private String invalidationChannel = "cache-invalidation";
+        // Loaded and backfilled entries live their TTL give or take this fraction, so they do not expire together
+        private double ttlJitter = 0.1;
+        // How long a lookup of something that does not exist is remembered
+        private Duration negativeTtl = Duration.ofSeconds(5);
+    }
+    
+    @Data
+    public static class Merchants {
+        // How often merchants updated in the database are merged into the in-memory snapshot
+        private Duration refreshInterval = Duration.ofSeconds(10);
+        // Re-read this far behind the newest updated_at already loaded, for clock skew and late commits
+        private Duration refreshOverlap = Duration.ofSeconds(5);
+    }
+}
@@ -1,10 +1,13 @@
 package com.shibam.payments.config;
 
+import com.shibam.payments.cache.CacheCodec;
+import com.shibam.payments.service.CacheService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
@@ -19,11 +22,27 @@ public class RedisConfig {
         template.setKeySerializer(new StringRedisSerializer());
         template.setHashKeySerializer(new StringRedisSerializer());
         
-        // Use JSON serializer for values
-        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
-        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+        // Compact binary for payments, JSON for other values
+        CacheCodec cacheCodec = new CacheCodec();
+        template.setValueSerializer(cacheCodec);
+        template.setHashValueSerializer(cacheCodec);
         
         template.afterPropertiesSet();
         return template;
     }
+    
+    /**
+     * Delivers cache invalidations published by other instances to this
+     * instance's {@link CacheService}.
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                   CacheService cacheService,
+                                                                   PaymentProperties paymentProperties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(cacheService,
+                new ChannelTopic(paymentProperties.getCache().getInvalidationChannel()));
+        return container;
+    }
 }
\ No newline at end of file
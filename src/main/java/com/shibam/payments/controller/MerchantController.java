@@ -1,7 +1,7 @@
 package com.shibam.payments.controller;
 
 import com.shibam.payments.model.Merchant;
-import com.shibam.payments.repository.MerchantRepository;
+import com.shibam.payments.service.MerchantService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -16,24 +16,24 @@ import java.util.List;
 @CrossOrigin(origins = "*")
 public class MerchantController {
     
-    private final MerchantRepository merchantRepository;
+    private final MerchantService merchantService;
     
     @GetMapping("/{merchantId}")
     public ResponseEntity<Merchant> getMerchant(@PathVariable String merchantId) {
-        return merchantRepository.findByMerchantId(merchantId)
+        return merchantService.findByMerchantId(merchantId)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
     
     @GetMapping
     public ResponseEntity<List<Merchant>> getAllMerchants() {
-        List<Merchant> merchants = merchantRepository.findByIsActive(true);
+        List<Merchant> merchants = merchantService.findActiveMerchants();
         return ResponseEntity.ok(merchants);
     }
     
     @GetMapping("/country/{country}")
     public ResponseEntity<List<Merchant>> getMerchantsByCountry(@PathVariable String country) {
-        List<Merchant> merchants = merchantRepository.findByCountry(country);
+        List<Merchant> merchants = merchantService.findByCountry(country);
         return ResponseEntity.ok(merchants);
     }
 }
\ No newline at end of file
@@ -1,7 +1,13 @@
 package com.shibam.payments.controller;
 
+import com.shibam.payments.dto.BatchPaymentRequest;
+import com.shibam.payments.dto.BatchPaymentResponse;
+import com.shibam.payments.dto.PaymentLookupRequest;
+import com.shibam.payments.dto.PaymentLookupResponse;
 import com.shibam.payments.dto.PaymentRequest;
 import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.PaymentException;
+import com.shibam.payments.service.IdempotencyService;
 import com.shibam.payments.service.PaymentService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +16,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
+import java.security.Principal;
 import java.util.List;
 
 @RestController
@@ -19,14 +27,20 @@ import java.util.List;
 @CrossOrigin(origins = "*")
 public class PaymentController {
     
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    
     private final PaymentService paymentService;
+    private final IdempotencyService idempotencyService;
     
     @PostMapping("/process")
-    public ResponseEntity<PaymentResponse> processPayment(@Valid @RequestBody PaymentRequest request) {
+    public ResponseEntity<PaymentResponse> processPayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                          Principal principal,
+                                                          @Valid @RequestBody PaymentRequest request) {
         log.info("Received payment request for user: {}", request.getUserId());
         
         try {
-            PaymentResponse response = paymentService.processPayment(request);
+            PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "process", request,
+                    () -> paymentService.processPayment(request));
             
             if (response.getStatus().toString().contains("FAILED")) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
@@ -34,6 +48,9 @@ public class PaymentController {
             
             return ResponseEntity.ok(response);
             
+        } catch (PaymentException e) {
+            // Idempotency conflicts and other payment errors are mapped by the exception handler
+            throw e;
         } catch (Exception e) {
             log.error("Payment processing error: {}", e.getMessage(), e);
             PaymentResponse errorResponse = PaymentResponse.error(null, "Internal server error");
@@ -41,6 +58,32 @@ public class PaymentController {
         }
     }
     
+    @PostMapping("/submit")
+    public ResponseEntity<PaymentResponse> submitPayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                         Principal principal,
+                                                         @Valid @RequestBody PaymentRequest request) {
+        log.info("Received async payment request for user: {}", request.getUserId());
+        
+        PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "submit", request,
+                () -> paymentService.submitPayment(request));
+        
+        if (response.getStatus().toString().contains("FAILED")) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+        
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/payments/" + response.getTransactionId()))
+                .body(response);
+    }
+    
+    @PostMapping("/batch")
+    public ResponseEntity<BatchPaymentResponse> processBatch(@Valid @RequestBody BatchPaymentRequest request) {
+        log.info("Received batch payment request with {} payments", request.getPayments().size());
+        
+        // Per-item failures are reported in the body; the batch itself succeeded
+        return ResponseEntity.ok(paymentService.processBatch(request.getPayments()));
+    }
+    
     @GetMapping("/{transactionId}")
     public ResponseEntity<PaymentResponse> getPaymentDetails(@PathVariable String transactionId) {
         log.info("Fetching payment details for transaction: {}", transactionId);
@@ -50,6 +93,14 @@ public class PaymentController {
                 .orElse(ResponseEntity.notFound().build());
     }
     
+    @PostMapping("/lookup")
+    public ResponseEntity<PaymentLookupResponse> lookupPayments(@Valid @RequestBody PaymentLookupRequest request) {
+        log.info("Looking up {} payments", request.getTransactionIds().size());
+        
+        // Unknown transaction IDs are listed in the body rather than failing the lookup
+        return ResponseEntity.ok(paymentService.getPaymentsByTransactionIds(request.getTransactionIds()));
+    }
+    
     @GetMapping("/user/{userId}")
     public ResponseEntity<List<PaymentResponse>> getUserPayments(@PathVariable Long userId) {
         log.info("Fetching payments for user: {}", userId);
@@ -59,11 +110,14 @@ public class PaymentController {
     }
     
     @PostMapping("/{transactionId}/refund")
-    public ResponseEntity<PaymentResponse> refundPayment(@PathVariable String transactionId) {
+    public ResponseEntity<PaymentResponse> refundPayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                         Principal principal,
+                                                         @PathVariable String transactionId) {
         log.info("Processing refund for transaction: {}", transactionId);
         
         try {
-            PaymentResponse response = paymentService.refundPayment(transactionId);
+            PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "refund", transactionId,
+                    () -> paymentService.refundPayment(transactionId));
             
             if (response.getStatus().toString().contains("FAILED")) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
@@ -71,6 +125,9 @@ public class PaymentController {
             
             return ResponseEntity.ok(response);
             
+        } catch (PaymentException e) {
+            // Idempotency conflicts and other payment errors are mapped by the exception handler
+            throw e;
         } catch (Exception e) {
             log.error("Refund processing error: {}", e.getMessage(), e);
             PaymentResponse errorResponse = PaymentResponse.error(transactionId, "Refund processing failed");
@@ -84,11 +141,14 @@ public class PaymentController {
     }
     
     @PostMapping("/{transactionId}/capture")
-    public ResponseEntity<PaymentResponse> capturePayment(@PathVariable String transactionId) {
+    public ResponseEntity<PaymentResponse> capturePayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                          Principal principal,
+                                                          @PathVariable String transactionId) {
         log.info("Capturing payment for transaction: {}", transactionId);
         
         try {
-            PaymentResponse response = paymentService.capturePayment(transactionId);
+            PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "capture", transactionId,
+                    () -> paymentService.capturePayment(transactionId));
             
             if (response.getStatus().toString().contains("FAILED")) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
@@ -96,6 +156,9 @@ public class PaymentController {
             
             return ResponseEntity.ok(response);
             
+        } catch (PaymentException e) {
+            // Idempotency conflicts and other payment errors are mapped by the exception handler
+            throw e;
         } catch (Exception e) {
             log.error("Payment capture error: {}", e.getMessage(), e);
             PaymentResponse errorResponse = PaymentResponse.error(transactionId, "Payment capture failed");
@@ -104,11 +167,14 @@ public class PaymentController {
     }
     
     @PostMapping("/{transactionId}/cancel")
-    public ResponseEntity<PaymentResponse> cancelPayment(@PathVariable String transactionId) {
+    public ResponseEntity<PaymentResponse> cancelPayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                         Principal principal,
+                                                         @PathVariable String transactionId) {
         log.info("Cancelling payment for transaction: {}", transactionId);
         
         try {
-            PaymentResponse response = paymentService.cancelPayment(transactionId);
+            PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "cancel", transactionId,
+                    () -> paymentService.cancelPayment(transactionId));
             
             if (response.getStatus().toString().contains("FAILED")) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
@@ -116,10 +182,44 @@ public class PaymentController {
             
             return ResponseEntity.ok(response);
             
+        } catch (PaymentException e) {
+            // Idempotency conflicts and other payment errors are mapped by the exception handler
+            throw e;
         } catch (Exception e) {
             log.error("Payment cancellation error: {}", e.getMessage(), e);
             PaymentResponse errorResponse = PaymentResponse.error(transactionId, "Payment cancellation failed");
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
         }
     }
+    
+    @PostMapping("/{transactionId}/release")
+    public ResponseEntity<PaymentResponse> releasePayment(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                          Principal principal,
+                                                          @PathVariable String transactionId) {
+        log.info("Releasing payment for transaction: {}", transactionId);
+        
+        try {
+            PaymentResponse response = idempotencyService.execute(caller(principal), idempotencyKey, "release", transactionId,
+                    () -> paymentService.releasePayment(transactionId));
+            
+            if (response.getStatus().toString().contains("FAILED")) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+            }
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (PaymentException e) {
+            // Idempotency conflicts and other payment errors are mapped by the exception handler
+            throw e;
+        } catch (Exception e) {
+            log.error("Payment release error: {}", e.getMessage(), e);
+            PaymentResponse errorResponse = PaymentResponse.error(transactionId, "Payment release failed");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
+    // Idempotency keys are scoped to the API client that sent them
+    private static String caller(Principal principal) {
+        return principal != null ? principal.getName() : "anonymous";
+    }
 }
\ No newline at end of file
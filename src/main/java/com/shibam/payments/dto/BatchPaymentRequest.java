@@ -0,0 +1,20 @@
+package com.shibam.payments.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPaymentRequest {
+    
+    @NotEmpty(message = "Payments are required")
+    @Size(max = 1000, message = "A batch may contain at most 1000 payments")
+    private List<@Valid PaymentRequest> payments;
+}
\ No newline at end of file
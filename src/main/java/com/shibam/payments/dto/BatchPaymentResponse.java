@@ -0,0 +1,35 @@
+package com.shibam.payments.dto;
+
+import com.shibam.payments.model.Payment.PaymentStatus;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchPaymentResponse {
+    
+    private int total;
+    private int succeeded;
+    private int failed;
+    // One result per submitted payment, in request order
+    private List<PaymentResponse> results;
+    
+    public static BatchPaymentResponse of(List<PaymentResponse> results) {
+        int failed = (int) results.stream()
+                .filter(result -> result.getStatus() == PaymentStatus.FAILED)
+                .count();
+        
+        return BatchPaymentResponse.builder()
+                .total(results.size())
+                .succeeded(results.size() - failed)
+                .failed(failed)
+                .results(results)
+                .build();
+    }
+}
\ No newline at end of file
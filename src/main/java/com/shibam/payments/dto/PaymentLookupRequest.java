@@ -0,0 +1,20 @@
+package com.shibam.payments.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentLookupRequest {
+    
+    @NotEmpty(message = "Transaction IDs are required")
+    @Size(max = 1000, message = "A lookup may contain at most 1000 transaction IDs")
+    private List<@NotBlank String> transactionIds;
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.shibam.payments.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PaymentLookupResponse {
+    
+    // Payments found, in the order their transaction IDs were requested
+    private List<PaymentResponse> payments;
+    private List<String> notFound;
+}
\ No newline at end of file
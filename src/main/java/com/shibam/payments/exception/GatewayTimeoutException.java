@@ -0,0 +1,13 @@
+package com.shibam.payments.exception;
+
+/**
+ * Thrown when a gateway call was sent but did not answer before its
+ * deadline. The acquirer may or may not have acted on it, so the outcome
+ * has to be settled later by an inquiry.
+ */
+public class GatewayTimeoutException extends PaymentException {
+    
+    public GatewayTimeoutException(String message) {
+        super(message, "GATEWAY_TIMEOUT");
+    }
+}
\ No newline at end of file
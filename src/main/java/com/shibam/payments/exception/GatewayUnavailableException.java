@@ -0,0 +1,13 @@
+package com.shibam.payments.exception;
+
+/**
+ * Thrown when a gateway call was not attempted because the connector's
+ * circuit is open or all of its call slots are busy. The acquirer never saw
+ * the request, so it is safe to fail or retry it.
+ */
+public class GatewayUnavailableException extends PaymentException {
+    
+    public GatewayUnavailableException(String message) {
+        super(message, "GATEWAY_UNAVAILABLE");
+    }
+}
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.shibam.payments.exception;
 
 import com.shibam.payments.dto.PaymentResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -23,6 +24,34 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
     }
     
+    @ExceptionHandler(ServiceBusyException.class)
+    public ResponseEntity<PaymentResponse> handleServiceBusyException(ServiceBusyException ex) {
+        log.warn("Shedding load: {}", ex.getMessage());
+        PaymentResponse response = PaymentResponse.error(null, ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(response);
+    }
+    
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<PaymentResponse> handleRateLimitExceededException(RateLimitExceededException ex) {
+        log.warn("Rate limited: {}", ex.getMessage());
+        PaymentResponse response = PaymentResponse.error(null, ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(response);
+    }
+    
+    @ExceptionHandler(IdempotencyConflictException.class)
+    public ResponseEntity<PaymentResponse> handleIdempotencyConflictException(IdempotencyConflictException ex) {
+        log.warn("Idempotency conflict: {}", ex.getMessage());
+        PaymentResponse response = PaymentResponse.error(null, ex.getMessage());
+        HttpStatus status = IdempotencyConflictException.IN_PROGRESS.equals(ex.getErrorCode())
+                ? HttpStatus.CONFLICT
+                : HttpStatus.UNPROCESSABLE_ENTITY;
+        return ResponseEntity.status(status).body(response);
+    }
+    
     @ExceptionHandler(PaymentNotFoundException.class)
     public ResponseEntity<PaymentResponse> handlePaymentNotFoundException(PaymentNotFoundException ex) {
         log.error("Payment not found: {}", ex.getMessage());
@@ -0,0 +1,26 @@
+package com.shibam.payments.exception;
+
+/**
+ * Thrown when an Idempotency-Key cannot be honoured: either the original
+ * request is still in flight (409 Conflict) or the key was already used for a
+ * different request (422 Unprocessable Entity).
+ */
+public class IdempotencyConflictException extends PaymentException {
+    
+    public static final String IN_PROGRESS = "IDEMPOTENCY_KEY_IN_PROGRESS";
+    public static final String REUSED = "IDEMPOTENCY_KEY_REUSED";
+    
+    private IdempotencyConflictException(String message, String errorCode) {
+        super(message, errorCode);
+    }
+    
+    public static IdempotencyConflictException inProgress(String key) {
+        return new IdempotencyConflictException(
+                "A request with Idempotency-Key " + key + " is still being processed", IN_PROGRESS);
+    }
+    
+    public static IdempotencyConflictException reused(String key) {
+        return new IdempotencyConflictException(
+                "Idempotency-Key " + key + " was already used for a different request", REUSED);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.shibam.payments.exception;
+
+/**
+ * Thrown when a merchant or user has used up its payment rate limit; mapped
+ * to 429 Too Many Requests with a Retry-After header.
+ */
+public class RateLimitExceededException extends PaymentException {
+    
+    private final long retryAfterSeconds;
+    
+    public RateLimitExceededException(String message, long retryAfterSeconds) {
+        super(message, "RATE_LIMITED");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.shibam.payments.exception;
+
+/**
+ * Thrown when the service sheds work instead of queueing it; mapped to
+ * 503 Service Unavailable with a Retry-After header.
+ */
+public class ServiceBusyException extends PaymentException {
+    
+    private final long retryAfterSeconds;
+    
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message, "SERVICE_BUSY");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.shibam.payments.filter;
+
+import com.shibam.payments.config.PaymentProperties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrency limit that adapts to the latency the service is delivering.
+ *
+ * Completed requests are grouped into short windows. A slow-moving average
+ * of the window latencies serves as the no-load baseline; each window's own
+ * average is compared against it. While latency stays within
+ * {@code tolerance} times the baseline the limit grows by about sqrt(limit)
+ * per window. Once it rises further the limit shrinks in proportion, down to
+ * half per window, and any 5xx in a window backs it off by 10%. Windows in
+ * which fewer than half the permits were in use say nothing about capacity
+ * and leave the limit alone.
+ *
+ * Part of the limit is reserved for priority requests: normal requests are
+ * admitted only while fewer than {@code (1 - priority-reserve) * limit} are
+ * in flight.
+ */
+public class AdaptiveConcurrencyLimiter {
+    
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    // Windows the baseline averages over
+    private static final double BASELINE_WINDOWS = 100;
+    private static final double DROP_BACKOFF = 0.9;
+    
+    private final PaymentProperties.ConcurrencyLimit config;
+    private final LongSupplier nanoClock;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    private volatile int limit;
+    private double estimatedLimit;
+    private double baselineNanos;
+    
+    private long windowStart;
+    private long windowLatencySum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    
+    public AdaptiveConcurrencyLimiter(PaymentProperties.ConcurrencyLimit config) {
+        this(config, System::nanoTime);
+    }
+    
+    public AdaptiveConcurrencyLimiter(PaymentProperties.ConcurrencyLimit config, LongSupplier nanoClock) {
+        this.config = config;
+        this.nanoClock = nanoClock;
+        this.windowNanos = config.getWindow().toNanos();
+        this.estimatedLimit = config.getInitialLimit();
+        this.limit = config.getInitialLimit();
+        this.windowStart = nanoClock.getAsLong();
+    }
+    
+    /**
+     * Takes a permit if the request fits under the limit. Every permit must be
+     * returned with {@link #release(long, boolean)}.
+     */
+    public boolean tryAcquire(boolean priority) {
+        int capacity = priority ? limit : Math.max(1, (int) (limit * (1 - config.getPriorityReserve())));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Returns a permit along with how long the request took and whether it
+     * failed on the server side.
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        synchronized (this) {
+            windowLatencySum += latencyNanos;
+            windowSamples++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+            windowDropped |= dropped;
+            
+            long now = nanoClock.getAsLong();
+            if (now - windowStart < windowNanos || windowSamples < MIN_WINDOW_SAMPLES) {
+                return;
+            }
+            update((double) windowLatencySum / windowSamples, windowMaxInFlight, windowDropped);
+            
+            windowStart = now;
+            windowLatencySum = 0;
+            windowSamples = 0;
+            windowMaxInFlight = 0;
+            windowDropped = false;
+        }
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    private void update(double latencyNanos, int maxInFlight, boolean dropped) {
+        if (baselineNanos == 0) {
+            baselineNanos = latencyNanos;
+        } else {
+            baselineNanos += (latencyNanos - baselineNanos) / BASELINE_WINDOWS;
+            // Latency fell well below the baseline, so the old baseline was measured under load
+            if (baselineNanos > latencyNanos * 2) {
+                baselineNanos = latencyNanos * 2;
+            }
+        }
+        
+        double newLimit;
+        if (dropped) {
+            newLimit = estimatedLimit * DROP_BACKOFF;
+        } else if (maxInFlight < estimatedLimit / 2) {
+            return;
+        } else {
+            double gradient = Math.max(0.5, Math.min(1.0, config.getTolerance() * baselineNanos / latencyNanos));
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        }
+        
+        double smoothing = config.getSmoothing();
+        estimatedLimit = Math.max(config.getMinLimit(),
+                Math.min(config.getMaxLimit(), estimatedLimit * (1 - smoothing) + newLimit * smoothing));
+        limit = (int) estimatedLimit;
+    }
+}
\ No newline at end of file
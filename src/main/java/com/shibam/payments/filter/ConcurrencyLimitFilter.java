@@ -0,0 +1,111 @@
+package com.shibam.payments.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Sheds load on the payment API once the service stops keeping up.
+ *
+ * Requests beyond the adaptive limit are answered right away with 503 and
+ * Retry-After, instead of waiting for a thread while everyone's latency
+ * grows. Capture, refund, cancel and release complete payments that are
+ * already in flight, so they may use the share of the limit that new
+ * authorizations and lookups cannot.
+ */
+@Slf4j
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+    
+    private static final String PAYMENTS_PATH = "/api/v1/payments/";
+    private static final String HEALTH_PATH = "/api/v1/payments/health";
+    private static final Pattern PRIORITY_PATH = Pattern.compile("^/api/v1/payments/[^/]+/(capture|refund|cancel|release)$");
+    
+    private final PaymentProperties.ConcurrencyLimit config;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ObjectMapper objectMapper;
+    private final Counter rejectedPriority;
+    private final Counter rejectedNormal;
+    
+    public ConcurrencyLimitFilter(PaymentProperties paymentProperties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.config = paymentProperties.getConcurrencyLimit();
+        this.limiter = new AdaptiveConcurrencyLimiter(config);
+        this.objectMapper = objectMapper;
+        
+        this.rejectedPriority = Counter.builder("payment.concurrency.rejected")
+                .description("Requests shed by the concurrency limit")
+                .tag("priority", "high")
+                .register(meterRegistry);
+        this.rejectedNormal = Counter.builder("payment.concurrency.rejected")
+                .description("Requests shed by the concurrency limit")
+                .tag("priority", "normal")
+                .register(meterRegistry);
+        Gauge.builder("payment.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("payment.concurrency.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Payment API requests in flight")
+                .register(meterRegistry);
+        Gauge.builder("payment.concurrency.utilization", limiter, l -> (double) l.getInFlight() / l.getLimit())
+                .description("In-flight requests as a share of the limit, for autoscaling")
+                .register(meterRegistry);
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = path(request);
+        return !config.isEnabled() || !path.startsWith(PAYMENTS_PATH) || path.equals(HEALTH_PATH);
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean priority = "POST".equals(request.getMethod()) && PRIORITY_PATH.matcher(path(request)).matches();
+        if (!limiter.tryAcquire(priority)) {
+            (priority ? rejectedPriority : rejectedNormal).increment();
+            log.debug("Shedding {} {}: {} requests in flight, limit {}", request.getMethod(), request.getRequestURI(),
+                    limiter.getInFlight(), limiter.getLimit());
+            reject(response);
+            return;
+        }
+        
+        long startTime = System.nanoTime();
+        boolean dropped = true;
+        try {
+            filterChain.doFilter(request, response);
+            dropped = response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+        } finally {
+            limiter.release(System.nanoTime() - startTime, dropped);
+        }
+    }
+    
+    AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+    
+    private void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(config.getRetryAfter().toSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                PaymentResponse.error(null, "Service is overloaded, please retry later"));
+    }
+    
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
\ No newline at end of file
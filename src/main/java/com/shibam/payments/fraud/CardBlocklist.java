@@ -0,0 +1,230 @@
+package com.shibam.payments.fraud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Blocked BIN ranges and a Bloom filter of compromised card numbers, held in
+ * direct buffers outside the heap.
+ *
+ * A blocklist with tens of millions of cards takes tens of megabytes, which
+ * the garbage collector then never has to scan or copy. Card numbers are
+ * only hashed into the filter, never stored. A lookup is a binary search over
+ * the merged ranges or a handful of bit reads, and allocates nothing. The
+ * filter has no false negatives; its false positive rate is chosen when it
+ * is built. A blocklist never changes once built; new entries mean a new
+ * {@code CardBlocklist}.
+ */
+public final class CardBlocklist {
+    
+    public static final CardBlocklist EMPTY = builder(0, 0.5).build();
+    
+    private static final int MAX_BIN = 999_999;
+    // Direct buffers are indexed by int, which caps the filter at 1 GiB
+    private static final long MAX_BLOOM_BITS = 1L << 33;
+    private static final int MAX_HASHES = 30;
+    private static final long MALFORMED = -1;
+    
+    private final IntBuffer rangeStarts;
+    private final IntBuffer rangeEnds;
+    private final int ranges;
+    private final LongBuffer bloom;
+    private final long bloomMask;
+    private final int hashes;
+    private final long cards;
+    
+    private CardBlocklist(IntBuffer rangeStarts, IntBuffer rangeEnds, int ranges, LongBuffer bloom, long bloomMask,
+                          int hashes, long cards) {
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+        this.ranges = ranges;
+        this.bloom = bloom;
+        this.bloomMask = bloomMask;
+        this.hashes = hashes;
+        this.cards = cards;
+    }
+    
+    /**
+     * Starts a blocklist whose filter is sized for {@code expectedCards}
+     * card numbers at the given false positive rate.
+     */
+    public static Builder builder(long expectedCards, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, not " + falsePositiveRate);
+        }
+        return new Builder(Math.max(expectedCards, 1), falsePositiveRate);
+    }
+    
+    /**
+     * Whether a six-digit BIN, as returned by {@link CardNumbers#bin(long)},
+     * falls in a blocked range.
+     */
+    public boolean isBinBlocked(int bin) {
+        // Last range starting at or before the BIN
+        int low = 0;
+        int high = ranges - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (rangeStarts.get(mid) <= bin) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && rangeEnds.get(high) >= bin;
+    }
+    
+    /**
+     * Whether a card number is, or with the filter's false positive rate
+     * might be, on the compromised list. Whitespace is ignored, as in
+     * {@link CardNumbers#inspect(CharSequence)}.
+     */
+    public boolean isCompromised(CharSequence number) {
+        if (cards == 0) {
+            return false;
+        }
+        long value = cardValue(number);
+        if (value == MALFORMED) {
+            return false;
+        }
+        long hash = mix(value);
+        long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = hash & bloomMask;
+            if ((bloom.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += step;
+        }
+        return true;
+    }
+    
+    public int binRanges() {
+        return ranges;
+    }
+    
+    public long compromisedCards() {
+        return cards;
+    }
+    
+    /**
+     * Packs the digits and their count into one long, so numbers that differ
+     * only by leading zeros hash apart. Card numbers have at most 19 digits,
+     * which fit as an unsigned value.
+     */
+    private static long cardValue(CharSequence number) {
+        if (number == null) {
+            return MALFORMED;
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 19) {
+                    return MALFORMED;
+                }
+                value = value * 10 + (c - '0');
+            } else if (!Character.isWhitespace(c)) {
+                return MALFORMED;
+            }
+        }
+        return digits == 0 ? MALFORMED : value * 0x9E3779B97F4A7C15L + digits;
+    }
+    
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+    
+    private static ByteBuffer allocate(long bytes) {
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+    
+    /**
+     * Collects BIN ranges on the heap, since there are few, and sets filter
+     * bits directly in the off-heap buffer, so {@link #build()} is called
+     * once. Not thread safe.
+     */
+    public static final class Builder {
+        
+        private final LongBuffer bloom;
+        private final long bloomMask;
+        private final int hashes;
+        private long[] binRanges = new long[16];
+        private int ranges;
+        private long cards;
+        
+        private Builder(long expectedCards, double falsePositiveRate) {
+            // Optimal size is n * -ln(p) / ln(2)^2 bits, rounded up to a power of two for masking
+            double optimalBits = expectedCards * -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            long bits = Math.min(MAX_BLOOM_BITS, Math.max(Long.SIZE, Long.highestOneBit((long) optimalBits - 1) << 1));
+            this.bloom = allocate(bits / Byte.SIZE).asLongBuffer();
+            this.bloomMask = bits - 1;
+            this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) bits / expectedCards * Math.log(2))));
+        }
+        
+        /**
+         * Blocks the six-digit BINs from {@code from} to {@code to}, inclusive.
+         */
+        public Builder addBinRange(int from, int to) {
+            if (from < 0 || to > MAX_BIN || from > to) {
+                throw new IllegalArgumentException("Invalid BIN range " + from + "-" + to);
+            }
+            if (ranges == binRanges.length) {
+                binRanges = Arrays.copyOf(binRanges, ranges * 2);
+            }
+            binRanges[ranges++] = (long) from << 32 | to;
+            return this;
+        }
+        
+        /**
+         * @throws IllegalArgumentException if the number has characters other than digits and whitespace
+         */
+        public Builder addCompromisedCard(CharSequence number) {
+            long value = cardValue(number);
+            if (value == MALFORMED) {
+                throw new IllegalArgumentException("Not a card number");
+            }
+            long hash = mix(value);
+            long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = hash & bloomMask;
+                int word = (int) (bit >>> 6);
+                bloom.put(word, bloom.get(word) | (1L << bit));
+                hash += step;
+            }
+            cards++;
+            return this;
+        }
+        
+        public CardBlocklist build() {
+            // Sorted by start; overlapping and adjacent ranges are merged so a lookup checks one range
+            long[] sorted = Arrays.copyOf(binRanges, ranges);
+            Arrays.sort(sorted);
+            int merged = 0;
+            for (long range : sorted) {
+                int start = (int) (range >>> 32);
+                int end = (int) range;
+                if (merged > 0 && start <= (int) sorted[merged - 1] + 1) {
+                    int previousStart = (int) (sorted[merged - 1] >>> 32);
+                    sorted[merged - 1] = (long) previousStart << 32 | Math.max(end, (int) sorted[merged - 1]);
+                } else {
+                    sorted[merged++] = range;
+                }
+            }
+            
+            IntBuffer starts = allocate((long) Math.max(merged, 1) * Integer.BYTES).asIntBuffer();
+            IntBuffer ends = allocate((long) Math.max(merged, 1) * Integer.BYTES).asIntBuffer();
+            for (int i = 0; i < merged; i++) {
+                starts.put(i, (int) (sorted[i] >>> 32));
+                ends.put(i, (int) sorted[i]);
+            }
+            return new CardBlocklist(starts, ends, merged, bloom, bloomMask, hashes, cards);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.shibam.payments.fraud;
+
+/**
+ * Card number checks done in one pass over the characters, without
+ * allocating.
+ *
+ * {@link #inspect(CharSequence)} checks the Luhn digit and length and, in the
+ * same pass, extracts the BIN (first six digits), the last four digits and
+ * the brand, packing them into one long that the static accessors read.
+ * Whitespace between digits is ignored; any other character makes the number
+ * malformed.
+ */
+public final class CardNumbers {
+    
+    public enum Brand {
+        UNKNOWN, VISA, MASTERCARD, AMEX, DISCOVER, JCB, DINERS, UNIONPAY
+    }
+    
+    private static final Brand[] BRANDS = Brand.values();
+    
+    private static final int MIN_DIGITS = 13;
+    private static final int MAX_DIGITS = 19;
+    private static final int BIN_DIGITS = 6;
+    
+    // Packed layout: last four in bits 0-13, BIN in 14-33, digit count in 34-38, brand in 39-42, valid in 43
+    private static final int BIN_SHIFT = 14;
+    private static final int DIGITS_SHIFT = 34;
+    private static final int BRAND_SHIFT = 39;
+    private static final long VALID = 1L << 43;
+    private static final long MALFORMED = 0;
+    
+    private CardNumbers() {
+    }
+    
+    /**
+     * Inspects a card number. The result is only meaningful to the accessors
+     * of this class.
+     */
+    public static long inspect(CharSequence number) {
+        if (number == null) {
+            return MALFORMED;
+        }
+        int digits = 0;
+        int bin = 0;
+        int lastFour = 0;
+        // Luhn sums with the digits at even or at odd positions from the left doubled
+        int evenDoubled = 0;
+        int oddDoubled = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                int digit = c - '0';
+                int doubled = digit < 5 ? digit * 2 : digit * 2 - 9;
+                if ((digits & 1) == 0) {
+                    evenDoubled += doubled;
+                    oddDoubled += digit;
+                } else {
+                    evenDoubled += digit;
+                    oddDoubled += doubled;
+                }
+                if (digits < BIN_DIGITS) {
+                    bin = bin * 10 + digit;
+                }
+                lastFour = (lastFour * 10 + digit) % 10_000;
+                digits++;
+            } else if (!Character.isWhitespace(c)) {
+                return MALFORMED;
+            }
+        }
+        
+        // The check digit is the last one, so the digits doubled are those an odd distance from the end
+        int luhnSum = (digits & 1) == 0 ? evenDoubled : oddDoubled;
+        boolean valid = digits >= MIN_DIGITS && digits <= MAX_DIGITS && luhnSum % 10 == 0;
+        return (valid ? VALID : 0)
+                | (long) brandOf(bin, digits).ordinal() << BRAND_SHIFT
+                | (long) Math.min(digits, 31) << DIGITS_SHIFT
+                | (long) bin << BIN_SHIFT
+                | lastFour;
+    }
+    
+    public static boolean isValid(long card) {
+        return (card & VALID) != 0;
+    }
+    
+    /**
+     * The first six digits, or fewer if the number is shorter.
+     */
+    public static int bin(long card) {
+        return (int) (card >>> BIN_SHIFT) & 0xFFFFF;
+    }
+    
+    public static int lastFour(long card) {
+        return (int) card & 0x3FFF;
+    }
+    
+    public static int digits(long card) {
+        return (int) (card >>> DIGITS_SHIFT) & 0x1F;
+    }
+    
+    public static Brand brand(long card) {
+        return BRANDS[(int) (card >>> BRAND_SHIFT) & 0xF];
+    }
+    
+    private static Brand brandOf(int bin, int digits) {
+        if (digits < BIN_DIGITS) {
+            return Brand.UNKNOWN;
+        }
+        int two = bin / 10_000;
+        int three = bin / 1_000;
+        int four = bin / 100;
+        if (bin / 100_000 == 4) {
+            return Brand.VISA;
+        }
+        if (two == 34 || two == 37) {
+            return Brand.AMEX;
+        }
+        if ((two >= 51 && two <= 55) || (four >= 2221 && four <= 2720)) {
+            return Brand.MASTERCARD;
+        }
+        if (four == 6011 || (three >= 644 && three <= 649) || two == 65) {
+            return Brand.DISCOVER;
+        }
+        if (four >= 3528 && four <= 3589) {
+            return Brand.JCB;
+        }
+        if ((three >= 300 && three <= 305) || two == 36 || two == 38) {
+            return Brand.DINERS;
+        }
+        if (two == 62) {
+            return Brand.UNIONPAY;
+        }
+        return Brand.UNKNOWN;
+    }
+}
@@ -0,0 +1,11 @@
+package com.shibam.payments.fraud;
+
+/**
+ * What a fraud evaluation decided, as recorded in {@code fraud_checks.decision}.
+ */
+public enum FraudDecision {
+    APPROVE,
+    // Hold the authorized payment until someone releases or cancels it
+    REVIEW,
+    DECLINE
+}
@@ -0,0 +1,39 @@
+package com.shibam.payments.fraud;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of the fraud rules for one payment: the risk score, the rules that
+ * matched, in evaluation order, the decision and, unless the payment was
+ * approved, the reason for it.
+ */
+public record FraudEvaluation(double riskScore, List<String> rulesTriggered, FraudDecision decision, String reason) {
+    
+    /**
+     * An approval, or a decline if there is a reason for one.
+     */
+    public FraudEvaluation(double riskScore, List<String> rulesTriggered, String declineReason) {
+        this(riskScore, rulesTriggered, declineReason != null ? FraudDecision.DECLINE : FraudDecision.APPROVE,
+                declineReason);
+    }
+    
+    public boolean isDeclined() {
+        return decision == FraudDecision.DECLINE;
+    }
+    
+    public boolean isFlaggedForReview() {
+        return decision == FraudDecision.REVIEW;
+    }
+    
+    /**
+     * This evaluation declined by a check outside the scoring rules, such as
+     * the card checks, with that check added to the rules triggered.
+     */
+    public FraudEvaluation declinedBy(String rule, String reason) {
+        List<String> rules = new ArrayList<>(rulesTriggered.size() + 1);
+        rules.addAll(rulesTriggered);
+        rules.add(rule);
+        return new FraudEvaluation(1.0, rules, reason);
+    }
+}
@@ -0,0 +1,359 @@
+package com.shibam.payments.fraud;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Evaluation plan compiled from the {@code payment.fraud} rules, in two
+ * stages.
+ *
+ * The fast stage runs while the payment is being authorized. The maximum
+ * amount is checked first and declines on its own; every other rule that
+ * only reads the request or the clock adds its weight to the risk score when
+ * it matches. The deep stage runs after authorization: it scores the same
+ * rules again, without counting their hits twice, plus the rules comparing
+ * the payment with the user's {@link UserProfile}, and flags the payment for
+ * review above {@code deep.review-threshold} or declines it above the risk
+ * threshold.
+ *
+ * Within a stage, cheaper rules run first and heavier rules before lighter
+ * ones, and evaluation stops as soon as the outcome is settled: once the
+ * score is past the highest threshold, or once the remaining rules could not
+ * move it past the next one even if they all matched. Scores are therefore
+ * lower bounds. Merchants with their own rules get a plan of their own,
+ * compiled up front, so picking one is a map lookup. Compiled rules never
+ * change; new rules mean a new {@code FraudRules}.
+ */
+public final class FraudRules {
+    
+    public static final String MAX_AMOUNT_RULE = "max-amount";
+    
+    private static final int COST_REQUEST = 0;
+    private static final int COST_CLOCK = 1;
+    // Rules at this cost and above only run in the deep stage
+    private static final int COST_PROFILE = 2;
+    // Rules in this group are mutually exclusive, since a payment has one method
+    private static final String METHOD_GROUP = "method";
+    
+    private final Plan defaultPlan;
+    private final Map<String, Plan> merchantPlans;
+    private final Function<Long, UserProfile> profiles;
+    private final Clock clock;
+    
+    private FraudRules(Plan defaultPlan, Map<String, Plan> merchantPlans, Function<Long, UserProfile> profiles,
+                       Clock clock) {
+        this.defaultPlan = defaultPlan;
+        this.merchantPlans = merchantPlans;
+        this.profiles = profiles;
+        this.clock = clock;
+    }
+    
+    /**
+     * Compiles the live rules.
+     *
+     * @see #compile(PaymentProperties.Fraud, Function, MeterRegistry, Clock, String)
+     */
+    public static FraudRules compile(PaymentProperties.Fraud config, Function<Long, UserProfile> profiles,
+                                     MeterRegistry meterRegistry, Clock clock) {
+        return compile(config, profiles, meterRegistry, clock, "live");
+    }
+    
+    /**
+     * Compiles the rules and registers a hit counter per rule.
+     *
+     * @param profiles looks up a user's profile, returning null for users without one
+     * @param name tags the hit counters, so shadow rules are counted apart from live ones
+     * @throws IllegalArgumentException if a rule is invalid, such as a negative weight
+     */
+    public static FraudRules compile(PaymentProperties.Fraud config, Function<Long, UserProfile> profiles,
+                                     MeterRegistry meterRegistry, Clock clock, String name) {
+        // Merchant plans add to the same per-rule counters as the default plan
+        Map<String, Counter> hitCounters = new HashMap<>();
+        Function<String, Counter> counters = rule -> hitCounters.computeIfAbsent(rule,
+                ruleName -> hitCounter(ruleName, name, meterRegistry));
+        Plan defaultPlan = compilePlan(config.getMaxAmount(), config.getRiskThreshold(), config.getMethodWeights(),
+                config, counters);
+        
+        Map<String, Plan> merchantPlans = new HashMap<>();
+        config.getMerchants().forEach((merchantId, merchant) -> {
+            Map<String, Double> methodWeights = new HashMap<>(config.getMethodWeights());
+            methodWeights.putAll(merchant.getMethodWeights());
+            merchantPlans.put(merchantId, compilePlan(
+                    merchant.getMaxAmount() != null ? merchant.getMaxAmount() : config.getMaxAmount(),
+                    merchant.getRiskThreshold() != null ? merchant.getRiskThreshold() : config.getRiskThreshold(),
+                    methodWeights, config, counters));
+        });
+        return new FraudRules(defaultPlan, Map.copyOf(merchantPlans), profiles, clock);
+    }
+    
+    /**
+     * The fast stage, run before the payment is authorized.
+     */
+    public FraudEvaluation evaluate(PaymentRequest request) {
+        return planFor(request).evaluate(request, profiles, clock);
+    }
+    
+    /**
+     * The deep stage, run after the payment is authorized and before it is
+     * captured.
+     */
+    public FraudEvaluation evaluateDeep(PaymentRequest request) {
+        return planFor(request).evaluateDeep(request, false, profiles, clock);
+    }
+    
+    /**
+     * The deep stage for rules that never ran the fast stage, such as shadow
+     * rules, so every hit is counted here.
+     */
+    public FraudEvaluation evaluateShadow(PaymentRequest request) {
+        return planFor(request).evaluateDeep(request, true, profiles, clock);
+    }
+    
+    private Plan planFor(PaymentRequest request) {
+        String merchantId = request.getMerchantId();
+        return merchantId != null ? merchantPlans.getOrDefault(merchantId, defaultPlan) : defaultPlan;
+    }
+    
+    private static Plan compilePlan(BigDecimal maxAmount, double riskThreshold, Map<String, Double> methodWeights,
+                                    PaymentProperties.Fraud config, Function<String, Counter> counters) {
+        if (maxAmount == null || maxAmount.signum() <= 0) {
+            throw new IllegalArgumentException("Fraud max-amount must be positive: " + maxAmount);
+        }
+        List<Rule> rules = new ArrayList<>();
+        
+        for (PaymentProperties.Fraud.AmountRule amountRule : config.getAmountRules()) {
+            BigDecimal over = amountRule.getOver();
+            if (over == null) {
+                throw new IllegalArgumentException("Fraud amount rule without an amount");
+            }
+            String name = "amount-over-" + over.toPlainString();
+            rules.add(new Rule(name, null, COST_REQUEST, checkWeight(name, amountRule.getWeight()), counters.apply(name),
+                    (request, hour, profile) -> request.getAmount() != null && request.getAmount().compareTo(over) > 0));
+        }
+        
+        methodWeights.forEach((configuredMethod, weight) -> {
+            String method = configuredMethod.toUpperCase(Locale.ROOT);
+            String name = "method-" + method;
+            rules.add(new Rule(name, METHOD_GROUP, COST_REQUEST, checkWeight(name, weight), counters.apply(name),
+                    (request, hour, profile) -> method.equals(request.getPaymentMethod())));
+        });
+        
+        for (PaymentProperties.Fraud.TimeWindow window : config.getTimeWindows()) {
+            int from = checkHour(window.getFromHour());
+            int to = checkHour(window.getToHour());
+            String name = "time-" + from + "-" + to;
+            rules.add(new Rule(name, null, COST_CLOCK, checkWeight(name, window.getWeight()), counters.apply(name),
+                    (request, hour, profile) -> from <= to ? hour >= from && hour < to : hour >= from || hour < to));
+        }
+        
+        // Deviations from the user's own baseline; no profile means no baseline to deviate from
+        PaymentProperties.Fraud.Profile profileRules = config.getProfile();
+        double amountDeviation = profileRules.getAmountDeviation();
+        double unusualShare = profileRules.getUnusualShare();
+        rules.add(new Rule("profile-amount", null, COST_PROFILE,
+                checkWeight("profile-amount", profileRules.getAmountWeight()), counters.apply("profile-amount"),
+                (request, hour, profile) -> profile != null && request.getAmount() != null
+                        && profile.amountDeviation(request.getAmount().doubleValue()) > amountDeviation));
+        rules.add(new Rule("profile-merchant", null, COST_PROFILE,
+                checkWeight("profile-merchant", profileRules.getMerchantWeight()), counters.apply("profile-merchant"),
+                (request, hour, profile) -> profile != null && request.getMerchantId() != null
+                        && !profile.isUsualMerchant(request.getMerchantId())));
+        rules.add(new Rule("profile-hour", null, COST_PROFILE,
+                checkWeight("profile-hour", profileRules.getHourWeight()), counters.apply("profile-hour"),
+                (request, hour, profile) -> profile != null && profile.hourShare(hour) < unusualShare));
+        rules.add(new Rule("profile-method", null, COST_PROFILE,
+                checkWeight("profile-method", profileRules.getMethodWeight()), counters.apply("profile-method"),
+                (request, hour, profile) -> profile != null && request.getPaymentMethod() != null
+                        && profile.methodShare(request.getPaymentMethod()) < unusualShare));
+        
+        rules.removeIf(rule -> rule.weight == 0);
+        rules.sort(Comparator.comparingInt((Rule rule) -> rule.cost).thenComparing(rule -> -rule.weight));
+        double reviewThreshold = config.getDeep().getReviewThreshold();
+        return new Plan(maxAmount, riskThreshold, Math.min(reviewThreshold, riskThreshold),
+                counters.apply(MAX_AMOUNT_RULE),
+                new Stage(rules.stream().filter(rule -> rule.cost < COST_PROFILE).toArray(Rule[]::new)),
+                new Stage(rules.stream().filter(rule -> rule.cost >= COST_PROFILE).toArray(Rule[]::new)));
+    }
+    
+    private static Counter hitCounter(String rule, String plan, MeterRegistry meterRegistry) {
+        return Counter.builder("payment.fraud.rule.hits")
+                .description("Payments matched by each fraud rule")
+                .tag("rule", rule)
+                .tag("plan", plan)
+                .register(meterRegistry);
+    }
+    
+    private static double checkWeight(String rule, Double weight) {
+        if (weight == null || !(weight >= 0) || weight.isInfinite()) {
+            throw new IllegalArgumentException("Fraud rule " + rule + " needs a weight of zero or more, not " + weight);
+        }
+        return weight;
+    }
+    
+    private static int checkHour(int hour) {
+        if (hour < 0 || hour > 23) {
+            throw new IllegalArgumentException("Fraud rule hours must be between 0 and 23, not " + hour);
+        }
+        return hour;
+    }
+    
+    @FunctionalInterface
+    private interface Condition {
+        boolean matches(PaymentRequest request, int hour, UserProfile profile);
+    }
+    
+    private record Rule(String name, String group, int cost, double weight, Counter hits, Condition condition) {
+    }
+    
+    private static final class Plan {
+        
+        private final BigDecimal maxAmount;
+        private final double riskThreshold;
+        private final double reviewThreshold;
+        private final Counter maxAmountHits;
+        private final Stage fast;
+        private final Stage deep;
+        
+        Plan(BigDecimal maxAmount, double riskThreshold, double reviewThreshold, Counter maxAmountHits, Stage fast,
+             Stage deep) {
+            this.maxAmount = maxAmount;
+            this.riskThreshold = riskThreshold;
+            this.reviewThreshold = reviewThreshold;
+            this.maxAmountHits = maxAmountHits;
+            this.fast = fast;
+            this.deep = deep;
+        }
+        
+        FraudEvaluation evaluate(PaymentRequest request, Function<Long, UserProfile> profiles, Clock clock) {
+            if (isOverMaxAmount(request)) {
+                maxAmountHits.increment();
+                return new FraudEvaluation(1.0, List.of(MAX_AMOUNT_RULE), "Transaction amount exceeds limit");
+            }
+            
+            Score score = new Score();
+            fast.run(request, score, riskThreshold, riskThreshold, 0, true, profiles, clock);
+            double riskScore = Math.min(score.value, 1.0);
+            return new FraudEvaluation(riskScore, score.triggered,
+                    score.value > riskThreshold ? "High risk score: " + riskScore : null);
+        }
+        
+        FraudEvaluation evaluateDeep(PaymentRequest request, boolean countFastHits,
+                                     Function<Long, UserProfile> profiles, Clock clock) {
+            if (isOverMaxAmount(request)) {
+                if (countFastHits) {
+                    maxAmountHits.increment();
+                }
+                return new FraudEvaluation(1.0, List.of(MAX_AMOUNT_RULE), "Transaction amount exceeds limit");
+            }
+            
+            // Unless told otherwise, the fast rules were counted when the payment was authorized
+            Score score = new Score();
+            fast.run(request, score, reviewThreshold, riskThreshold, deep.remainingWeight[0], countFastHits, profiles,
+                    clock);
+            deep.run(request, score, reviewThreshold, riskThreshold, 0, true, profiles, clock);
+            double riskScore = Math.min(score.value, 1.0);
+            if (score.value > riskThreshold) {
+                return new FraudEvaluation(riskScore, score.triggered, FraudDecision.DECLINE,
+                        "High risk score: " + riskScore);
+            }
+            if (score.value > reviewThreshold) {
+                return new FraudEvaluation(riskScore, score.triggered, FraudDecision.REVIEW,
+                        "Risk score needs review: " + riskScore);
+            }
+            return new FraudEvaluation(riskScore, score.triggered, FraudDecision.APPROVE, null);
+        }
+        
+        private boolean isOverMaxAmount(PaymentRequest request) {
+            return request.getAmount() != null && request.getAmount().compareTo(maxAmount) > 0;
+        }
+    }
+    
+    /**
+     * Running score of one evaluation across stages.
+     */
+    private static final class Score {
+        
+        double value;
+        List<String> triggered = List.of();
+        int hour = -1;
+        UserProfile profile;
+        boolean profileRead;
+    }
+    
+    private static final class Stage {
+        
+        private final Rule[] rules;
+        // The most rules[i..] can still add to the score
+        private final double[] remainingWeight;
+        
+        Stage(Rule[] rules) {
+            this.rules = rules;
+            this.remainingWeight = new double[rules.length + 1];
+            for (int i = 0; i < rules.length; i++) {
+                // Of mutually exclusive rules, only the heaviest one left can still match
+                Map<String, Double> heaviestInGroup = new HashMap<>();
+                double remaining = 0;
+                for (int j = i; j < rules.length; j++) {
+                    if (rules[j].group() == null) {
+                        remaining += rules[j].weight();
+                    } else {
+                        heaviestInGroup.merge(rules[j].group(), rules[j].weight(), Math::max);
+                    }
+                }
+                for (double weight : heaviestInGroup.values()) {
+                    remaining += weight;
+                }
+                remainingWeight[i] = remaining;
+            }
+        }
+        
+        /**
+         * Adds the weights of the matching rules to the score until no rule
+         * left, together with {@code laterWeight} from later stages, could
+         * move it across {@code lower} or {@code upper}.
+         */
+        void run(PaymentRequest request, Score score, double lower, double upper, double laterWeight, boolean countHits,
+                 Function<Long, UserProfile> profiles, Clock clock) {
+            for (int i = 0; i < rules.length; i++) {
+                if (band(score.value, lower, upper) == band(score.value + remainingWeight[i] + laterWeight, lower, upper)) {
+                    break;
+                }
+                Rule rule = rules[i];
+                if (rule.cost() >= COST_CLOCK && score.hour < 0) {
+                    score.hour = LocalTime.now(clock).getHour();
+                }
+                if (rule.cost() >= COST_PROFILE && !score.profileRead) {
+                    score.profile = profiles.apply(request.getUserId());
+                    score.profileRead = true;
+                }
+                if (rule.condition().matches(request, score.hour, score.profile)) {
+                    if (countHits) {
+                        rule.hits().increment();
+                    }
+                    if (score.triggered.isEmpty()) {
+                        score.triggered = new ArrayList<>(4);
+                    }
+                    score.triggered.add(rule.name());
+                    score.value += rule.weight();
+                }
+            }
+        }
+        
+        private static int band(double score, double lower, double upper) {
+            return score > upper ? 2 : score > lower ? 1 : 0;
+        }
+    }
+}
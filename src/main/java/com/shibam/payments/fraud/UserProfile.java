@@ -0,0 +1,98 @@
+package com.shibam.payments.fraud;
+
+/**
+ * A copy of one user's baseline from {@link UserProfiles}, read at the start
+ * of a fraud evaluation. Every question it answers is a fixed amount of
+ * work.
+ */
+public final class UserProfile {
+    
+    // A user who always pays the same amount still gets this much leeway, as a share of their mean
+    private static final double MIN_RELATIVE_SPREAD = 0.1;
+    
+    private final long payments;
+    private final double meanAmount;
+    private final double amountVariance;
+    private final long hourCounts;
+    private final long methods;
+    private final long moreMethods;
+    private final long merchants;
+    private final long moreMerchants;
+    
+    UserProfile(long payments, double meanAmount, double amountVariance, long hourCounts, long methods,
+                long moreMethods, long merchants, long moreMerchants) {
+        this.payments = payments;
+        this.meanAmount = meanAmount;
+        this.amountVariance = amountVariance;
+        this.hourCounts = hourCounts;
+        this.methods = methods;
+        this.moreMethods = moreMethods;
+        this.merchants = merchants;
+        this.moreMerchants = moreMerchants;
+    }
+    
+    public long payments() {
+        return payments;
+    }
+    
+    public double meanAmount() {
+        return meanAmount;
+    }
+    
+    public double amountStdDev() {
+        return Math.sqrt(amountVariance);
+    }
+    
+    /**
+     * How many standard deviations {@code amount} lies above the user's
+     * usual amount; negative for smaller amounts.
+     */
+    public double amountDeviation(double amount) {
+        double spread = Math.max(amountStdDev(), meanAmount * MIN_RELATIVE_SPREAD);
+        return spread > 0 ? (amount - meanAmount) / spread : 0;
+    }
+    
+    /**
+     * Share of the user's recent payments made in the same three-hour block
+     * of the day as {@code hour}.
+     */
+    public double hourShare(int hour) {
+        int total = 0;
+        for (int i = 0; i < UserProfiles.HOUR_BLOCKS; i++) {
+            total += UserProfiles.counter(hourCounts, i);
+        }
+        int count = UserProfiles.counter(hourCounts, hour / (24 / UserProfiles.HOUR_BLOCKS));
+        return total == 0 ? 0 : (double) count / total;
+    }
+    
+    /**
+     * Share of the user's recent payments made with {@code method}, 0 if it
+     * is not among their most used methods.
+     */
+    public double methodShare(String method) {
+        int fingerprint = UserProfiles.fingerprint(method);
+        int total = 0;
+        int count = 0;
+        for (int i = 0; i < UserProfiles.USE_SLOTS; i++) {
+            int entry = UserProfiles.useSlot(methods, moreMethods, i);
+            total += entry & 0xFF;
+            if (entry >>> 8 == fingerprint) {
+                count = entry & 0xFF;
+            }
+        }
+        return total == 0 ? 0 : (double) count / total;
+    }
+    
+    /**
+     * Whether the merchant is among the user's most used ones.
+     */
+    public boolean isUsualMerchant(String merchantId) {
+        int fingerprint = UserProfiles.fingerprint(merchantId);
+        for (int i = 0; i < UserProfiles.USE_SLOTS; i++) {
+            if (UserProfiles.useSlot(merchants, moreMerchants, i) >>> 8 == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
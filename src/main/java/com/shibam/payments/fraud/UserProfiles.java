@@ -0,0 +1,354 @@
+package com.shibam.payments.fraud;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-user behavioral baselines, updated one payment at a time.
+ *
+ * Each profile keeps an exponentially weighted mean and variance of the
+ * amount, how often the user pays in each three-hour block of the day, and
+ * their four most used payment methods and merchants with a count for each.
+ * Counters are single bytes that are all halved when one fills up, so old
+ * habits fade; a method or merchant the profile does not hold yet replaces
+ * the least used one. Updating or reading a profile is a fixed amount of
+ * work whatever the user's history, and never touches the payments table.
+ *
+ * A profile is 80 bytes in primitive arrays split into independently locked
+ * stripes of an open-addressing table, like the velocity counters. Memory is
+ * bounded by {@code maxUsers}; users without a payment for {@code idleAfter}
+ * are dropped by {@link #evictIdle()}, and until then a stripe that has
+ * reached its share of {@code maxUsers} does not profile new users.
+ */
+public class UserProfiles {
+    
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    // Keeps field indexes within an int
+    private static final int MAX_STRIPE_CAPACITY = 1 << 26;
+    
+    // Fields of a profile, one long each
+    private static final int PAYMENTS = 0;
+    private static final int LAST_SEEN = 1;
+    private static final int MEAN_AMOUNT = 2;
+    private static final int AMOUNT_VARIANCE = 3;
+    private static final int HOURS = 4;
+    // Methods and merchants take two fields each, see Stripe#recordUse
+    private static final int METHODS = 5;
+    private static final int MERCHANTS = 7;
+    private static final int FIELDS = 9;
+    
+    static final int HOUR_BLOCKS = 8;
+    // Methods or merchants held per profile
+    static final int USE_SLOTS = 4;
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final double alpha;
+    private final long idleAfterMillis;
+    private final LongSupplier clock;
+    
+    public UserProfiles(int maxUsers, double alpha, Duration idleAfter) {
+        this(maxUsers, alpha, idleAfter, System::currentTimeMillis);
+    }
+    
+    /**
+     * @param alpha weight of the newest payment in the amount mean and variance
+     */
+    public UserProfiles(int maxUsers, double alpha, Duration idleAfter, LongSupplier clock) {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("Profile smoothing must be in (0, 1], not " + alpha);
+        }
+        this.alpha = alpha;
+        this.idleAfterMillis = idleAfter.toMillis();
+        this.clock = clock;
+        // Rounded down to a power of two, so a full table never holds more than maxUsers
+        long stripeSlots = Math.max(INITIAL_STRIPE_CAPACITY, (long) maxUsers * 4 / 3 / STRIPES);
+        int maxStripeCapacity = (int) Math.min(MAX_STRIPE_CAPACITY, Long.highestOneBit(stripeSlots));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxStripeCapacity);
+        }
+    }
+    
+    /**
+     * Adds a payment to the user's profile. Returns false if the user is not
+     * profiled because their stripe is full.
+     *
+     * @param hour hour of the day of the payment, 0 to 23
+     */
+    public boolean record(long userId, double amount, int hour, CharSequence method, CharSequence merchantId) {
+        long key = keyOf(userId);
+        return stripe(key).record(key, Math.max(0, amount), hour / (24 / HOUR_BLOCKS), fingerprint(method),
+                fingerprint(merchantId), clock.getAsLong());
+    }
+    
+    /**
+     * Returns a copy of the user's profile, or null if the user has none.
+     */
+    public UserProfile read(long userId) {
+        long key = keyOf(userId);
+        return stripe(key).read(key);
+    }
+    
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Stripe stripe : stripes) {
+            stripe.evictIdle(now);
+        }
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+    
+    private Stripe stripe(long key) {
+        return stripes[(int) (key >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)))];
+    }
+    
+    // 24 bits, never 0, which marks an empty slot; 0 for a missing value
+    static int fingerprint(CharSequence value) {
+        if (value == null) {
+            return 0;
+        }
+        int fingerprint = (int) (hash(value) >>> 40);
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+    
+    static int counter(long counters, int slot) {
+        return (int) (counters >>> (slot * Byte.SIZE)) & 0xFF;
+    }
+    
+    // A slot of a method or merchant pair of fields: the fingerprint over an 8-bit count
+    static int useSlot(long first, long second, int slot) {
+        return (int) ((slot < 2 ? first : second) >>> ((slot & 1) * Integer.SIZE));
+    }
+    
+    private static long keyOf(long userId) {
+        long key = mix(userId * 0x9E3779B97F4A7C15L);
+        return key != 0 ? key : 1;
+    }
+    
+    private static long hash(CharSequence value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+    
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+    
+    /**
+     * Adds one to a byte counter, first halving all eight if it is full.
+     */
+    private static long increment(long counters, int slot) {
+        if (counter(counters, slot) == 0xFF) {
+            counters = (counters >>> 1) & 0x7F7F7F7F7F7F7F7FL;
+        }
+        return counters + (1L << (slot * Byte.SIZE));
+    }
+    
+    /**
+     * One open-addressing table with linear probing. Slot {@code s} owns
+     * {@code keys[s]} and the profile fields in {@code fields[s * FIELDS ...]}.
+     * Entries are never removed one by one; eviction rebuilds the table
+     * without them.
+     */
+    private final class Stripe {
+        
+        private final int maxCapacity;
+        
+        private long[] keys;
+        private long[] fields;
+        private int size;
+        
+        Stripe(int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            allocate(Math.min(INITIAL_STRIPE_CAPACITY, maxCapacity));
+        }
+        
+        synchronized boolean record(long key, double amount, int hourBlock, int method, int merchant, long now) {
+            int slot = findOrInsert(key, now);
+            if (slot < 0) {
+                return false;
+            }
+            int base = slot * FIELDS;
+            long payments = fields[base + PAYMENTS];
+            double mean = Double.longBitsToDouble(fields[base + MEAN_AMOUNT]);
+            double variance = Double.longBitsToDouble(fields[base + AMOUNT_VARIANCE]);
+            if (payments == 0) {
+                mean = amount;
+            } else {
+                double deviation = amount - mean;
+                double increment = alpha * deviation;
+                mean += increment;
+                variance = (1 - alpha) * (variance + deviation * increment);
+            }
+            fields[base + PAYMENTS] = payments + 1;
+            fields[base + LAST_SEEN] = now;
+            fields[base + MEAN_AMOUNT] = Double.doubleToRawLongBits(mean);
+            fields[base + AMOUNT_VARIANCE] = Double.doubleToRawLongBits(variance);
+            fields[base + HOURS] = increment(fields[base + HOURS], hourBlock);
+            if (method != 0) {
+                recordUse(base + METHODS, method);
+            }
+            if (merchant != 0) {
+                recordUse(base + MERCHANTS, merchant);
+            }
+            return true;
+        }
+        
+        synchronized UserProfile read(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            int base = slot * FIELDS;
+            return new UserProfile(fields[base + PAYMENTS],
+                    Double.longBitsToDouble(fields[base + MEAN_AMOUNT]),
+                    Double.longBitsToDouble(fields[base + AMOUNT_VARIANCE]),
+                    fields[base + HOURS], fields[base + METHODS], fields[base + METHODS + 1],
+                    fields[base + MERCHANTS], fields[base + MERCHANTS + 1]);
+        }
+        
+        /**
+         * Counts a use of a method or merchant in the two fields at
+         * {@code index}, which hold four slots of a 24-bit fingerprint over an
+         * 8-bit count. A value not yet held replaces the one with the lowest
+         * count.
+         */
+        private void recordUse(int index, int fingerprint) {
+            int leastUsed = 0;
+            int leastCount = Integer.MAX_VALUE;
+            for (int i = 0; i < USE_SLOTS; i++) {
+                int entry = entry(index, i);
+                if (entry >>> 8 == fingerprint) {
+                    int count = entry & 0xFF;
+                    if (count == 0xFF) {
+                        halveUseCounts(index);
+                        count = entry(index, i) & 0xFF;
+                    }
+                    setEntry(index, i, fingerprint << 8 | (count + 1));
+                    return;
+                }
+                if ((entry & 0xFF) < leastCount) {
+                    leastCount = entry & 0xFF;
+                    leastUsed = i;
+                }
+            }
+            setEntry(index, leastUsed, fingerprint << 8 | 1);
+        }
+        
+        private void halveUseCounts(int index) {
+            for (int i = 0; i < USE_SLOTS; i++) {
+                int entry = entry(index, i);
+                setEntry(index, i, (entry & 0xFFFFFF00) | ((entry & 0xFF) >>> 1));
+            }
+        }
+        
+        private int entry(int index, int slot) {
+            return useSlot(fields[index], fields[index + 1], slot);
+        }
+        
+        private void setEntry(int index, int slot, int entry) {
+            index += slot >> 1;
+            int shift = (slot & 1) * Integer.SIZE;
+            fields[index] = (fields[index] & ~(0xFFFFFFFFL << shift)) | (Integer.toUnsignedLong(entry) << shift);
+        }
+        
+        synchronized void evictIdle(long now) {
+            int live = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0 && !isIdle(fields, slot, now)) {
+                    live++;
+                }
+            }
+            if (live == size) {
+                return;
+            }
+            rebuild(capacityFor(live), now);
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        private int findOrInsert(long key, long now) {
+            int slot = find(key);
+            if (slot >= 0) {
+                return slot;
+            }
+            if ((size + 1) * 4L > keys.length * 3L) {
+                if (keys.length >= maxCapacity) {
+                    return -1;
+                }
+                rebuild(capacityFor(size + 1), now);
+            }
+            
+            int mask = keys.length - 1;
+            slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            size++;
+            return slot;
+        }
+        
+        private boolean isIdle(long[] fields, int slot, long now) {
+            return now - fields[slot * FIELDS + LAST_SEEN] >= idleAfterMillis;
+        }
+        
+        private int capacityFor(int entries) {
+            int capacity = INITIAL_STRIPE_CAPACITY;
+            while (capacity < maxCapacity && entries * 4L > capacity * 3L) {
+                capacity <<= 1;
+            }
+            return Math.min(capacity, maxCapacity);
+        }
+        
+        private void rebuild(int capacity, long now) {
+            long[] oldKeys = keys;
+            long[] oldFields = fields;
+            allocate(capacity);
+            
+            int mask = capacity - 1;
+            for (int old = 0; old < oldKeys.length; old++) {
+                long key = oldKeys[old];
+                if (key == 0 || isIdle(oldFields, old, now)) {
+                    continue;
+                }
+                int slot = (int) key & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                System.arraycopy(oldFields, old * FIELDS, fields, slot * FIELDS, FIELDS);
+                size++;
+            }
+        }
+        
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            fields = new long[capacity * FIELDS];
+            size = 0;
+        }
+    }
+}
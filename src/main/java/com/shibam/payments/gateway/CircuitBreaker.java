@@ -0,0 +1,90 @@
+package com.shibam.payments.gateway;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Consecutive-failure circuit breaker for one gateway connector.
+ *
+ * After {@code failureThreshold} failures in a row the circuit opens and
+ * calls fail fast. Once {@code recoveryTimeout} has passed a single trial
+ * call is let through: if it succeeds the circuit closes, otherwise it opens
+ * again for another recovery period.
+ */
+public class CircuitBreaker {
+    
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final int failureThreshold;
+    private final long recoveryTimeoutNanos;
+    private final LongSupplier nanoClock;
+    
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    
+    public CircuitBreaker(int failureThreshold, Duration recoveryTimeout) {
+        this(failureThreshold, recoveryTimeout, System::nanoTime);
+    }
+    
+    public CircuitBreaker(int failureThreshold, Duration recoveryTimeout, LongSupplier nanoClock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1");
+        }
+        this.failureThreshold = failureThreshold;
+        this.recoveryTimeoutNanos = recoveryTimeout.toNanos();
+        this.nanoClock = nanoClock;
+    }
+    
+    /**
+     * Returns whether a call may go ahead. Every permitted call must be
+     * followed by {@link #onSuccess()}, {@link #onFailure()} or
+     * {@link #release()}.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAt < recoveryTimeoutNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+    
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+    
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+        }
+    }
+    
+    /**
+     * Gives back a permission whose call was never made.
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+}
\ No newline at end of file
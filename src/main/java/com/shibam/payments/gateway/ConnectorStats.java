@@ -0,0 +1,76 @@
+package com.shibam.payments.gateway;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling latency and success rate of one connector.
+ *
+ * Latencies of the last {@code window} calls are kept in a ring buffer. The
+ * p95 is recomputed from it at most every 100 ms, so routing decisions do
+ * not sort the window on every payment. The success rate is an exponentially
+ * weighted average in which a decline counts as a success: only errors and
+ * timeouts lower it.
+ */
+public class ConnectorStats {
+    
+    // Minimum number of samples before the p95 is trusted for hedging
+    public static final int MIN_SAMPLES = 20;
+    
+    private static final double SUCCESS_WEIGHT = 0.05;
+    private static final long RECOMPUTE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    private final long[] latencies;
+    private int next;
+    private int count;
+    private double successRate = 1.0;
+    
+    private volatile long p95Nanos;
+    private volatile long computedAt;
+    private volatile int computedCount;
+    
+    public ConnectorStats(int window) {
+        this.latencies = new long[window];
+    }
+    
+    public synchronized void record(long latencyNanos, boolean success) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+        successRate += SUCCESS_WEIGHT * ((success ? 1.0 : 0.0) - successRate);
+    }
+    
+    public long p95Nanos() {
+        long now = System.nanoTime();
+        if (now - computedAt > RECOMPUTE_INTERVAL_NANOS || computedCount < MIN_SAMPLES) {
+            recompute(now);
+        }
+        return p95Nanos;
+    }
+    
+    public synchronized double successRate() {
+        return successRate;
+    }
+    
+    public synchronized int sampleCount() {
+        return count;
+    }
+    
+    /**
+     * Lower is better: the p95 inflated by the share of failed calls.
+     */
+    public double score() {
+        return p95Nanos() / Math.max(successRate(), 0.01);
+    }
+    
+    private synchronized void recompute(long now) {
+        if (count == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        p95Nanos = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+        computedCount = count;
+        computedAt = now;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.shibam.payments.gateway;
+
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.model.Payment;
+
+/**
+ * A connection to one acquirer or payment gateway.
+ *
+ * Implementations report the acquirer's answer, including declines, as a
+ * {@link PaymentResponse}. They throw only when the outcome is not known,
+ * for example when the connection breaks after the request was sent.
+ */
+public interface GatewayConnector {
+    
+    /**
+     * Short, stable name used in logs and metric tags.
+     */
+    String name();
+    
+    /**
+     * Whether the acquirer honours the transaction id as an idempotency key:
+     * a repeated request for the same transaction id returns the outcome of
+     * the first one instead of being processed again. Only then may an
+     * operation that moves money be sent twice. Return true only for an
+     * acquirer documented to do this; a connector that merely keeps no state
+     * between calls does not qualify, since every repeat would be decided
+     * afresh.
+     */
+    default boolean deduplicatesRequests() {
+        return false;
+    }
+    
+    PaymentResponse authorize(Payment payment);
+    
+    PaymentResponse capture(Payment payment);
+    
+    PaymentResponse cancel(Payment payment);
+    
+    PaymentResponse refund(Payment payment);
+    
+    /**
+     * Asks the acquirer for the outcome of an earlier authorization. A
+     * {@code PENDING} status means the acquirer could not confirm it yet.
+     */
+    PaymentResponse inquire(Payment payment);
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.shibam.payments.gateway;
+
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.model.Payment;
+
+import java.util.function.BiFunction;
+
+/**
+ * The operations a {@link GatewayConnector} offers, as values that can be
+ * passed around and routed.
+ */
+public enum GatewayOperation {
+    
+    AUTHORIZE(GatewayConnector::authorize),
+    CAPTURE(GatewayConnector::capture),
+    CANCEL(GatewayConnector::cancel),
+    REFUND(GatewayConnector::refund),
+    INQUIRE(GatewayConnector::inquire);
+    
+    private final BiFunction<GatewayConnector, Payment, PaymentResponse> call;
+    
+    GatewayOperation(BiFunction<GatewayConnector, Payment, PaymentResponse> call) {
+        this.call = call;
+    }
+    
+    public PaymentResponse apply(GatewayConnector connector, Payment payment) {
+        return call.apply(connector, payment);
+    }
+    
+    /**
+     * Whether the operation only reads state at the acquirer, so sending it
+     * twice is always safe.
+     */
+    public boolean isReadOnly() {
+        return this == INQUIRE;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,278 @@
+package com.shibam.payments.gateway;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.GatewayTimeoutException;
+import com.shibam.payments.exception.GatewayUnavailableException;
+import com.shibam.payments.model.Payment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Chooses the gateway connector for each payment and call.
+ *
+ * New payments go to the connector with the best recent authorization
+ * latency and success rate among those that accept the payment method and
+ * currency and whose circuit is not open. A small share is sent to a random
+ * eligible connector so that every connector's stats stay current.
+ *
+ * Follow-up calls stay with the acquirer that authorized the payment, but
+ * may use any of its connectors. A call that was never started because its
+ * connector is unavailable moves on to the next one. Calls that are safe to
+ * send twice are hedged: inquiries, and other calls only when both the first
+ * and the second connector deduplicate requests by transaction id. If the
+ * first connector has not answered within its p95 for that operation, the
+ * call also goes to the next connector and the first successful answer wins. Hedging never crosses acquirers, since a
+ * second acquirer would treat the request as a new payment.
+ */
+@Slf4j
+public class GatewayRouter implements AutoCloseable {
+    
+    private final List<Route> routes;
+    private final Map<String, Route> routesByName = new LinkedHashMap<>();
+    private final String defaultAcquirer;
+    private final PaymentProperties.Gateway.Routing config;
+    private final MeterRegistry meterRegistry;
+    
+    public GatewayRouter(List<Route> routes, PaymentProperties.Gateway.Routing config, MeterRegistry meterRegistry) {
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("At least one gateway connector is required");
+        }
+        this.routes = List.copyOf(routes);
+        this.defaultAcquirer = routes.get(0).acquirer;
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        
+        for (Route route : routes) {
+            if (routesByName.put(route.name(), route) != null) {
+                throw new IllegalArgumentException("Duplicate gateway connector name: " + route.name());
+            }
+            Gauge.builder("payment.gateway.latency.p95", route, r -> r.stats(GatewayOperation.AUTHORIZE).p95Nanos() / 1e6)
+                    .description("Rolling p95 authorization latency")
+                    .baseUnit("milliseconds")
+                    .tag("connector", route.name())
+                    .register(meterRegistry);
+            Gauge.builder("payment.gateway.success.rate", route, r -> r.stats(GatewayOperation.AUTHORIZE).successRate())
+                    .description("Share of authorizations answered without error or timeout")
+                    .tag("connector", route.name())
+                    .register(meterRegistry);
+        }
+    }
+    
+    /**
+     * Returns the name of the connector a new payment should use.
+     */
+    public String select(Payment payment) {
+        List<Route> eligible = routes.stream().filter(route -> route.supports(payment)).toList();
+        if (eligible.isEmpty()) {
+            throw new GatewayUnavailableException("No gateway accepts " + payment.getPaymentMethod()
+                    + " payments in " + payment.getCurrency());
+        }
+        
+        List<Route> available = eligible.stream().filter(Route::isAvailable).toList();
+        List<Route> choices = available.isEmpty() ? eligible : available;
+        if (choices.size() > 1 && ThreadLocalRandom.current().nextDouble() < config.getExplorationRate()) {
+            return choices.get(ThreadLocalRandom.current().nextInt(choices.size())).name();
+        }
+        return choices.stream().min(Comparator.comparingDouble(Route::score)).orElseThrow().name();
+    }
+    
+    public PaymentResponse execute(GatewayOperation operation, Payment payment) {
+        List<Route> candidates = candidates(payment);
+        Route primary = candidates.get(0);
+        if (config.isHedging() && candidates.size() > 1
+                && (operation.isReadOnly() || (primary.connector.deduplicatesRequests()
+                        && candidates.get(1).connector.deduplicatesRequests()))) {
+            return hedged(operation, payment, candidates);
+        }
+        return withFailover(operation, payment, candidates);
+    }
+    
+    public List<Route> getRoutes() {
+        return routes;
+    }
+    
+    @Override
+    public void close() {
+        routes.forEach(route -> route.connector.close());
+    }
+    
+    /**
+     * The connectors that may serve a call for this payment, best first: the
+     * one it was routed to, then the other connectors of the same acquirer.
+     */
+    private List<Route> candidates(Payment payment) {
+        Route recorded = null;
+        if (payment.getGateway() != null) {
+            recorded = routesByName.get(payment.getGateway());
+            if (recorded == null) {
+                throw new GatewayUnavailableException("Gateway " + payment.getGateway() + " is not configured");
+            }
+        }
+        
+        String acquirer = recorded != null ? recorded.acquirer : defaultAcquirer;
+        Route first = recorded;
+        List<Route> candidates = new ArrayList<>(routes.stream()
+                .filter(route -> route != first && route.acquirer.equals(acquirer) && route.supports(payment))
+                .sorted(Comparator.comparing((Route route) -> !route.isAvailable()).thenComparingDouble(Route::score))
+                .toList());
+        if (recorded != null) {
+            candidates.add(0, recorded);
+        }
+        if (candidates.isEmpty()) {
+            throw new GatewayUnavailableException("No gateway of " + acquirer + " accepts " + payment.getPaymentMethod()
+                    + " payments in " + payment.getCurrency());
+        }
+        return candidates;
+    }
+    
+    private PaymentResponse withFailover(GatewayOperation operation, Payment payment, List<Route> candidates) {
+        GatewayUnavailableException unavailable = null;
+        for (Route route : candidates) {
+            CompletableFuture<PaymentResponse> call;
+            try {
+                call = start(route, operation, payment);
+            } catch (GatewayUnavailableException e) {
+                // Never reached the acquirer, so another connector can take it
+                unavailable = e;
+                continue;
+            }
+            return ResilientGatewayConnector.await(call, operation);
+        }
+        throw unavailable;
+    }
+    
+    private PaymentResponse hedged(GatewayOperation operation, Payment payment, List<Route> candidates) {
+        Route primary = candidates.get(0);
+        CompletableFuture<PaymentResponse> first;
+        try {
+            first = start(primary, operation, payment);
+        } catch (GatewayUnavailableException e) {
+            return withFailover(operation, payment, candidates.subList(1, candidates.size()));
+        }
+        
+        long hedgeDelayNanos = hedgeDelayNanos(primary.stats(operation));
+        if (hedgeDelayNanos < 0) {
+            return ResilientGatewayConnector.await(first, operation);
+        }
+        try {
+            return first.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Slower than usual; hedge below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GatewayTimeoutException("Interrupted while waiting for gateway " + operation);
+        } catch (ExecutionException e) {
+            return ResilientGatewayConnector.await(first, operation);
+        }
+        
+        Route backup = candidates.get(1);
+        CompletableFuture<PaymentResponse> second;
+        try {
+            second = start(backup, operation, payment);
+        } catch (GatewayUnavailableException e) {
+            return ResilientGatewayConnector.await(first, operation);
+        }
+        
+        log.debug("Hedging {} for {} on {} after {} ms", operation, payment.getTransactionId(), backup.name(),
+                TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos));
+        Counter.builder("payment.gateway.hedged")
+                .description("Gateway calls also sent to a second connector")
+                .tags("connector", primary.name(), "operation", operation.name())
+                .register(meterRegistry)
+                .increment();
+        return ResilientGatewayConnector.await(firstSuccessful(first, second), operation);
+    }
+    
+    private long hedgeDelayNanos(ConnectorStats stats) {
+        if (stats.sampleCount() < ConnectorStats.MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(stats.p95Nanos(), config.getMinHedgeDelay().toNanos());
+    }
+    
+    private static CompletableFuture<PaymentResponse> start(Route route, GatewayOperation operation, Payment payment) {
+        long startTime = System.nanoTime();
+        CompletableFuture<PaymentResponse> call = route.connector.submit(operation, payment);
+        call.whenComplete((response, error) -> route.stats(operation).record(System.nanoTime() - startTime, error == null));
+        return call;
+    }
+    
+    private static CompletableFuture<PaymentResponse> firstSuccessful(CompletableFuture<PaymentResponse> first,
+                                                                      CompletableFuture<PaymentResponse> second) {
+        CompletableFuture<PaymentResponse> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<PaymentResponse, Throwable> settle = (response, error) -> {
+            if (error == null) {
+                winner.complete(response);
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(settle);
+        second.whenComplete(settle);
+        return winner;
+    }
+    
+    /**
+     * A connector together with where it may be used and how it has been doing.
+     */
+    public static final class Route {
+        
+        private final ResilientGatewayConnector connector;
+        private final String acquirer;
+        private final Set<String> paymentMethods;
+        private final Set<String> currencies;
+        private final Map<GatewayOperation, ConnectorStats> stats = new EnumMap<>(GatewayOperation.class);
+        
+        public Route(ResilientGatewayConnector connector, String acquirer, Collection<String> paymentMethods,
+                     Collection<String> currencies, int latencyWindow) {
+            this.connector = connector;
+            this.acquirer = acquirer;
+            this.paymentMethods = Set.copyOf(paymentMethods);
+            this.currencies = Set.copyOf(currencies);
+            for (GatewayOperation operation : GatewayOperation.values()) {
+                stats.put(operation, new ConnectorStats(latencyWindow));
+            }
+        }
+        
+        public String name() {
+            return connector.name();
+        }
+        
+        public ConnectorStats stats(GatewayOperation operation) {
+            return stats.get(operation);
+        }
+        
+        boolean supports(Payment payment) {
+            return (paymentMethods.isEmpty() || paymentMethods.contains(payment.getPaymentMethod()))
+                    && (currencies.isEmpty() || currencies.contains(payment.getCurrency()));
+        }
+        
+        boolean isAvailable() {
+            return connector.getCircuitState() != CircuitBreaker.State.OPEN;
+        }
+        
+        double score() {
+            return stats(GatewayOperation.AUTHORIZE).score();
+        }
+    }
+}
\ No newline at end of file
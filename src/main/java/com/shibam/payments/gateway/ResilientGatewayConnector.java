@@ -0,0 +1,244 @@
+package com.shibam.payments.gateway;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.GatewayTimeoutException;
+import com.shibam.payments.exception.GatewayUnavailableException;
+import com.shibam.payments.model.Payment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Wraps a connector with a bulkhead, a hard deadline and a circuit breaker.
+ *
+ * Calls run on the connector's own pool, at most {@code max-concurrent-calls}
+ * at a time: when every slot is busy, or the circuit is open, the call fails
+ * fast with {@link GatewayUnavailableException} instead of waiting. The caller waits at most {@code timeout} for an answer; after
+ * that the call is interrupted and reported as
+ * {@link GatewayTimeoutException}, since the acquirer may have acted on it.
+ * A slow acquirer therefore ties up its own slots, never the caller's threads.
+ *
+ * Timeouts and errors count towards opening the circuit; declines are normal
+ * answers and do not.
+ */
+@Slf4j
+public class ResilientGatewayConnector implements GatewayConnector, AutoCloseable {
+    
+    private final GatewayConnector delegate;
+    private final long timeoutMillis;
+    private final Semaphore callSlots;
+    private final ThreadPoolExecutor executor;
+    private final CircuitBreaker circuitBreaker;
+    
+    private final Counter bulkheadRejections;
+    private final Counter circuitRejections;
+    private final Counter timeouts;
+    
+    public ResilientGatewayConnector(GatewayConnector delegate, PaymentProperties.Gateway config,
+                                     MeterRegistry meterRegistry) {
+        this(delegate, config, meterRegistry, System::nanoTime);
+    }
+    
+    public ResilientGatewayConnector(GatewayConnector delegate, PaymentProperties.Gateway config,
+                                     MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.timeoutMillis = config.getTimeout().toMillis();
+        // The semaphore is the bulkhead; it keeps the queue short enough that tasks never wait in it for long
+        this.callSlots = new Semaphore(config.getMaxConcurrentCalls());
+        this.executor = new ThreadPoolExecutor(config.getMaxConcurrentCalls(), config.getMaxConcurrentCalls(),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("gateway-" + delegate.name() + "-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        
+        PaymentProperties.Gateway.CircuitBreaker breaker = config.getCircuitBreaker();
+        this.circuitBreaker = breaker.isEnabled()
+                ? new CircuitBreaker(breaker.getFailureThreshold(), breaker.getRecoveryTimeout(), nanoClock)
+                : null;
+        
+        String connector = delegate.name();
+        this.bulkheadRejections = Counter.builder("payment.gateway.rejected")
+                .description("Gateway calls failed fast without reaching the acquirer")
+                .tags("connector", connector, "reason", "bulkhead_full")
+                .register(meterRegistry);
+        this.circuitRejections = Counter.builder("payment.gateway.rejected")
+                .description("Gateway calls failed fast without reaching the acquirer")
+                .tags("connector", connector, "reason", "circuit_open")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("payment.gateway.timeouts")
+                .description("Gateway calls that missed their deadline")
+                .tag("connector", connector)
+                .register(meterRegistry);
+        Gauge.builder("payment.gateway.active.calls", callSlots,
+                        slots -> config.getMaxConcurrentCalls() - slots.availablePermits())
+                .description("Gateway calls in flight")
+                .tag("connector", connector)
+                .register(meterRegistry);
+        if (circuitBreaker != null) {
+            Gauge.builder("payment.gateway.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+                    .description("Circuit state: 0 closed, 1 open, 2 half-open")
+                    .tag("connector", connector)
+                    .register(meterRegistry);
+        }
+    }
+    
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+    
+    @Override
+    public boolean deduplicatesRequests() {
+        return delegate.deduplicatesRequests();
+    }
+    
+    @Override
+    public PaymentResponse authorize(Payment payment) {
+        return call(GatewayOperation.AUTHORIZE, payment);
+    }
+    
+    @Override
+    public PaymentResponse capture(Payment payment) {
+        return call(GatewayOperation.CAPTURE, payment);
+    }
+    
+    @Override
+    public PaymentResponse cancel(Payment payment) {
+        return call(GatewayOperation.CANCEL, payment);
+    }
+    
+    @Override
+    public PaymentResponse refund(Payment payment) {
+        return call(GatewayOperation.REFUND, payment);
+    }
+    
+    @Override
+    public PaymentResponse inquire(Payment payment) {
+        return call(GatewayOperation.INQUIRE, payment);
+    }
+    
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker != null ? circuitBreaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Starts the operation without waiting for it. The returned future is
+     * completed within the deadline, with {@link GatewayTimeoutException} if
+     * the acquirer has not answered by then. A call that cannot be started
+     * throws {@link GatewayUnavailableException} right away.
+     */
+    public CompletableFuture<PaymentResponse> submit(GatewayOperation operation, Payment payment) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            circuitRejections.increment();
+            throw new GatewayUnavailableException("Gateway " + name() + " circuit is open");
+        }
+        
+        if (!callSlots.tryAcquire()) {
+            if (circuitBreaker != null) {
+                circuitBreaker.release();
+            }
+            bulkheadRejections.increment();
+            throw new GatewayUnavailableException("Gateway " + name() + " has no free call slots");
+        }
+        
+        // The slot is held until the call really ends, even if the caller gave up on it earlier
+        CompletableFuture<PaymentResponse> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                PaymentResponse response = null;
+                Throwable failure = null;
+                try {
+                    response = operation.apply(delegate, payment);
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    callSlots.release();
+                }
+                // Complete only once the slot is free, so the caller can start its next call straight away
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callSlots.release();
+            if (circuitBreaker != null) {
+                circuitBreaker.release();
+            }
+            throw new GatewayUnavailableException("Gateway " + name() + " is shut down");
+        }
+        
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((response, error) -> settle(operation, payment, task, response, error));
+    }
+    
+    private PaymentResponse settle(GatewayOperation operation, Payment payment, Future<?> task,
+                                   PaymentResponse response, Throwable error) {
+        if (error == null) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess();
+            }
+            return response;
+        }
+        
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure();
+        }
+        Throwable cause = unwrap(error);
+        if (cause instanceof TimeoutException) {
+            task.cancel(true);
+            timeouts.increment();
+            log.warn("Gateway {} {} for {} timed out after {} ms", name(), operation, payment.getTransactionId(), timeoutMillis);
+            throw new GatewayTimeoutException("Gateway " + operation + " timed out after " + timeoutMillis + " ms");
+        }
+        throw cause instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new IllegalStateException("Gateway " + operation + " failed", cause);
+    }
+    
+    private PaymentResponse call(GatewayOperation operation, Payment payment) {
+        return await(submit(operation, payment), operation);
+    }
+    
+    /**
+     * Waits for a submitted call and rethrows its failure as it was raised.
+     */
+    static PaymentResponse await(CompletableFuture<PaymentResponse> future, GatewayOperation operation) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GatewayTimeoutException("Interrupted while waiting for gateway " + operation);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e.getCause());
+            throw cause instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new IllegalStateException("Gateway " + operation + " failed", cause);
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,194 @@
+package com.shibam.payments.gateway;
+
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The in-process gateway simulator: random latency and a fixed share of
+ * declines per operation, with no state kept between calls.
+ */
+@Slf4j
+public class SimulatedGatewayConnector implements GatewayConnector {
+    
+    private final String name;
+    
+    public SimulatedGatewayConnector() {
+        this("simulator");
+    }
+    
+    public SimulatedGatewayConnector(String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public String name() {
+        return name;
+    }
+    
+    @Override
+    public PaymentResponse authorize(Payment payment) {
+        log.info("Processing payment with gateway: {}", payment.getTransactionId());
+        
+        try {
+            // Simulate gateway processing time
+            Thread.sleep(100 + ThreadLocalRandom.current().nextInt(200));
+            
+            // Simulate gateway response (90% success rate)
+            boolean isSuccessful = ThreadLocalRandom.current().nextDouble() > 0.1;
+            
+            if (isSuccessful) {
+                PaymentStatus status = determinePaymentStatus(payment);
+                String message = getSuccessMessage(status);
+                
+                log.info("Payment gateway success: {} - {}", payment.getTransactionId(), status);
+                return PaymentResponse.success(payment.getTransactionId(), status, message);
+            } else {
+                String errorMessage = getRandomErrorMessage();
+                log.warn("Payment gateway failed: {} - {}", payment.getTransactionId(), errorMessage);
+                return PaymentResponse.error(payment.getTransactionId(), errorMessage);
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Payment processing interrupted: {}", payment.getTransactionId());
+            return PaymentResponse.error(payment.getTransactionId(), "Payment processing interrupted");
+        } catch (Exception e) {
+            log.error("Payment gateway error: {}", e.getMessage(), e);
+            return PaymentResponse.error(payment.getTransactionId(), "Gateway processing error");
+        }
+    }
+    
+    @Override
+    public PaymentResponse refund(Payment payment) {
+        log.info("Processing refund with gateway: {}", payment.getTransactionId());
+        
+        try {
+            // Simulate refund processing
+            Thread.sleep(150 + ThreadLocalRandom.current().nextInt(100));
+            
+            // Simulate refund response (95% success rate for refunds)
+            boolean isSuccessful = ThreadLocalRandom.current().nextDouble() > 0.05;
+            
+            if (isSuccessful) {
+                log.info("Refund gateway success: {}", payment.getTransactionId());
+                return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.REFUNDED, "Refund processed successfully");
+            } else {
+                log.warn("Refund gateway failed: {}", payment.getTransactionId());
+                return PaymentResponse.error(payment.getTransactionId(), "Refund processing failed at gateway");
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PaymentResponse.error(payment.getTransactionId(), "Refund processing interrupted");
+        }
+    }
+    
+    private PaymentStatus determinePaymentStatus(Payment payment) {
+        // For card payments, go through authorization -> capture -> settlement
+        if ("CARD".equals(payment.getPaymentMethod())) {
+            return PaymentStatus.AUTHORIZED; // Would be captured and settled later
+        }
+        
+        // For digital wallets, direct settlement
+        if ("WALLET".equals(payment.getPaymentMethod())) {
+            return PaymentStatus.SETTLED;
+        }
+        
+        // For bank transfers, captured status
+        if ("BANK_TRANSFER".equals(payment.getPaymentMethod())) {
+            return PaymentStatus.CAPTURED;
+        }
+        
+        return PaymentStatus.AUTHORIZED;
+    }
+    
+    private String getSuccessMessage(PaymentStatus status) {
+        return switch (status) {
+            case AUTHORIZED -> "Payment authorized successfully";
+            case CAPTURED -> "Payment captured successfully";
+            case SETTLED -> "Payment settled successfully";
+            default -> "Payment processed successfully";
+        };
+    }
+    
+    @Override
+    public PaymentResponse capture(Payment payment) {
+        log.info("Processing capture with gateway: {}", payment.getTransactionId());
+        
+        try {
+            Thread.sleep(50 + ThreadLocalRandom.current().nextInt(100));
+            
+            boolean isSuccessful = ThreadLocalRandom.current().nextDouble() > 0.02;
+            
+            if (isSuccessful) {
+                log.info("Capture gateway success: {}", payment.getTransactionId());
+                return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.CAPTURED, "Payment captured successfully");
+            } else {
+                log.warn("Capture gateway failed: {}", payment.getTransactionId());
+                return PaymentResponse.error(payment.getTransactionId(), "Capture processing failed at gateway");
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PaymentResponse.error(payment.getTransactionId(), "Capture processing interrupted");
+        }
+    }
+    
+    @Override
+    public PaymentResponse cancel(Payment payment) {
+        log.info("Processing cancellation with gateway: {}", payment.getTransactionId());
+        
+        try {
+            Thread.sleep(30 + ThreadLocalRandom.current().nextInt(70));
+            
+            boolean isSuccessful = ThreadLocalRandom.current().nextDouble() > 0.01;
+            
+            if (isSuccessful) {
+                log.info("Cancellation gateway success: {}", payment.getTransactionId());
+                return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.CANCELLED, "Payment cancelled successfully");
+            } else {
+                log.warn("Cancellation gateway failed: {}", payment.getTransactionId());
+                return PaymentResponse.error(payment.getTransactionId(), "Cancellation processing failed at gateway");
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PaymentResponse.error(payment.getTransactionId(), "Cancellation processing interrupted");
+        }
+    }
+    
+    @Override
+    public PaymentResponse inquire(Payment payment) {
+        log.info("Querying gateway for payment outcome: {}", payment.getTransactionId());
+        
+        try {
+            Thread.sleep(20 + ThreadLocalRandom.current().nextInt(30));
+            
+            // The simulator keeps no authorization records. Having no record is not a decline: the
+            // authorization may still be in flight at the acquirer, so the outcome stays unknown
+            return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.PENDING,
+                    "No authorization record at gateway yet");
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.PENDING, "Gateway inquiry interrupted");
+        }
+    }
+    
+    private String getRandomErrorMessage() {
+        String[] errorMessages = {
+            "Insufficient funds",
+            "Card declined by issuer",
+            "Invalid card details",
+            "Transaction limit exceeded",
+            "Gateway timeout",
+            "Network error",
+            "Invalid merchant configuration"
+        };
+        
+        return errorMessages[ThreadLocalRandom.current().nextInt(errorMessages.length)];
+    }}
\ No newline at end of file
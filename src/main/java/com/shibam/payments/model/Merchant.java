@@ -44,6 +44,13 @@ public class Merchant {
     @Column(name = "is_active")
     private Boolean isActive = true;
     
+    // Payments per second and burst allowed for this merchant; null uses the platform default, 0 means unlimited
+    @Column(name = "rate_limit_per_second")
+    private Integer rateLimitPerSecond;
+    
+    @Column(name = "rate_limit_burst")
+    private Integer rateLimitBurst;
+    
     @CreationTimestamp
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -0,0 +1,46 @@
+package com.shibam.payments.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "outbox_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEvent {
+    
+    // Pooled sequence ids are assigned before the INSERT, so Hibernate can batch
+    // inserts. They are not in insert order across instances; the relay
+    // publishes in createdAt order instead.
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_event_seq")
+    @SequenceGenerator(name = "outbox_event_seq", sequenceName = "outbox_event_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(name = "topic", nullable = false)
+    private String topic;
+    
+    @Column(name = "message_key", nullable = false)
+    private String messageKey;
+    
+    // Class the payload is published as, so consumers see the same type headers as before
+    @Column(name = "payload_type", nullable = false)
+    private String payloadType;
+    
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+    
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+    
+    // Set while a relay is sending the event, so other relays leave it alone until then
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+}
\ No newline at end of file
@@ -17,8 +17,11 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class Payment {
     
+    // Pooled sequence ids are assigned before the INSERT, so Hibernate can batch
+    // inserts; IDENTITY would force one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_seq")
+    @SequenceGenerator(name = "payment_seq", sequenceName = "payment_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "transaction_id", unique = true, nullable = false)
@@ -49,6 +52,10 @@ public class Payment {
     @Column(name = "gateway_response")
     private String gatewayResponse;
     
+    // Connector chosen by GatewayRouter when the payment was created
+    @Column(name = "gateway", length = 50)
+    private String gateway;
+    
     @CreationTimestamp
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -58,6 +65,6 @@ public class Payment {
     private LocalDateTime updatedAt;
     
     public enum PaymentStatus {
-        PENDING, AUTHORIZED, CAPTURED, SETTLED, FAILED, REFUNDED, CANCELLED
+        PENDING, PROCESSING, AUTHORIZED, CAPTURED, SETTLED, FAILED, REFUNDED, CANCELLED, REVIEW
     }
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.shibam.payments.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket shared by all instances through Redis.
+ *
+ * Instead of a Redis round trip per request, the bucket reserves a small
+ * batch of tokens at a time and hands them out locally until the batch is
+ * spent. A reservation is only honoured for {@code leaseTtl}; tokens left
+ * over after that are discarded rather than spent late, so an instance can
+ * never exceed the shared rate by more than one batch. When Redis cannot be
+ * reached the bucket falls back to enforcing the same limit per instance.
+ */
+@Slf4j
+public class ClusterTokenBucket implements RateLimiter {
+    
+    private static final Lease EMPTY = new Lease(0, 0);
+    
+    private final String key;
+    private final RedisTokenLeases leases;
+    private final TokenBucket fallback;
+    private final int leaseSize;
+    private final long leaseTtlNanos;
+    private final LongSupplier nanoClock;
+    // Held during the Redis call; a lock rather than synchronized so waiting virtual threads unmount
+    private final ReentrantLock refillLock = new ReentrantLock();
+    
+    private volatile Lease lease = EMPTY;
+    private volatile long emptyUntil;
+    private volatile int permitsPerSecond;
+    private volatile int burst;
+    
+    public ClusterTokenBucket(String key, int permitsPerSecond, int burst, RedisTokenLeases leases,
+                              int leaseSize, Duration leaseTtl) {
+        this(key, permitsPerSecond, burst, leases, leaseSize, leaseTtl, System::nanoTime);
+    }
+    
+    public ClusterTokenBucket(String key, int permitsPerSecond, int burst, RedisTokenLeases leases,
+                              int leaseSize, Duration leaseTtl, LongSupplier nanoClock) {
+        this.key = key;
+        this.leases = leases;
+        this.fallback = new TokenBucket(permitsPerSecond, burst, nanoClock);
+        this.leaseSize = Math.max(1, leaseSize);
+        this.leaseTtlNanos = leaseTtl.toNanos();
+        this.nanoClock = nanoClock;
+        this.emptyUntil = nanoClock.getAsLong();
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+    }
+    
+    @Override
+    public long tryAcquire() {
+        long now = nanoClock.getAsLong();
+        if (lease.take(now)) {
+            return 0;
+        }
+        // Redis said the bucket is empty; no point asking again before a token is due
+        long wait = emptyUntil - now;
+        if (wait > 0) {
+            return wait;
+        }
+        
+        refillLock.lock();
+        try {
+            now = nanoClock.getAsLong();
+            if (lease.take(now)) {
+                return 0;
+            }
+            return refill(now);
+        } finally {
+            refillLock.unlock();
+        }
+    }
+    
+    @Override
+    public void setRate(int permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        fallback.setRate(permitsPerSecond, burst);
+    }
+    
+    @Override
+    public boolean isIdle() {
+        return !lease.isLive(nanoClock.getAsLong()) && fallback.isIdle();
+    }
+    
+    private long refill(long now) {
+        long reserved;
+        try {
+            // A batch larger than the burst could never be granted in one go
+            reserved = leases.reserve(key, permitsPerSecond, burst, Math.min(leaseSize, Math.max(1, burst)));
+        } catch (RuntimeException e) {
+            log.warn("Could not reserve tokens for {} from Redis, limiting this instance only: {}", key, e.getMessage());
+            return fallback.tryAcquire();
+        }
+        
+        if (reserved <= 0) {
+            long waitNanos = TimeUnit.MICROSECONDS.toNanos(-reserved);
+            emptyUntil = now + waitNanos;
+            return Math.max(1, waitNanos);
+        }
+        // One of the reserved tokens is spent by this request
+        lease = new Lease((int) reserved - 1, now + leaseTtlNanos);
+        return 0;
+    }
+    
+    private static final class Lease {
+        
+        private final AtomicInteger remaining;
+        private final long expiresAt;
+        
+        Lease(int tokens, long expiresAt) {
+            this.remaining = new AtomicInteger(tokens);
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isLive(long now) {
+            return now - expiresAt < 0 && remaining.get() > 0;
+        }
+        
+        boolean take(long now) {
+            if (now - expiresAt >= 0) {
+                return false;
+            }
+            int current;
+            do {
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.shibam.payments.ratelimit;
+
+/**
+ * Admission check against a rate of permits per second with a burst
+ * allowance.
+ */
+public interface RateLimiter {
+    
+    /**
+     * Takes one permit if available. Returns 0 when the permit was granted,
+     * otherwise the number of nanoseconds until one becomes available.
+     */
+    long tryAcquire();
+    
+    /**
+     * Changes the rate and burst in place, keeping what was already consumed.
+     */
+    void setRate(int permitsPerSecond, int burst);
+    
+    /**
+     * Whether the limiter is back at full burst, so dropping it and starting
+     * a fresh one would change nothing.
+     */
+    boolean isIdle();
+}
\ No newline at end of file
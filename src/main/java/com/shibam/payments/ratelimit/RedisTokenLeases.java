@@ -0,0 +1,48 @@
+package com.shibam.payments.ratelimit;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * Reserves tokens from buckets kept in Redis, so that all instances draw on
+ * the same limit. The bucket lives in one key and is updated by a Lua script
+ * against the Redis clock, which keeps reservations atomic and independent
+ * of clock skew between instances.
+ */
+public class RedisTokenLeases {
+    
+    private static final RedisScript<Long> TOKEN_LEASE = tokenLeaseScript();
+    
+    private final StringRedisTemplate redisTemplate;
+    
+    public RedisTokenLeases(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+    
+    /**
+     * Reserves up to {@code tokens} tokens. Returns how many were granted, or
+     * minus the microseconds until the next token when none were.
+     *
+     * @throws org.springframework.dao.DataAccessException if Redis cannot be reached
+     */
+    public long reserve(String key, int permitsPerSecond, int burst, int tokens) {
+        long intervalMicros = Math.max(1, 1_000_000L / permitsPerSecond);
+        Long result = redisTemplate.execute(TOKEN_LEASE, List.of(key),
+                String.valueOf(intervalMicros), String.valueOf(intervalMicros * Math.max(1, burst)), String.valueOf(tokens));
+        if (result == null) {
+            throw new IllegalStateException("Token lease script returned no result for " + key);
+        }
+        return result;
+    }
+    
+    private static RedisScript<Long> tokenLeaseScript() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/token-lease.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.shibam.payments.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket for one instance.
+ *
+ * The bucket is stored as a single timestamp, the time at which it will be
+ * full again (the GCRA formulation of a token bucket). Taking a permit moves
+ * that time forward by one emission interval, and the permit is refused if
+ * that would put it more than {@code burst} intervals ahead of now. The
+ * whole state change is one compare-and-set, so concurrent requests never
+ * block each other and there is no refill task.
+ */
+public class TokenBucket implements RateLimiter {
+    
+    private final LongSupplier nanoClock;
+    private final AtomicLong fullAt;
+    
+    private volatile Rate rate;
+    
+    public TokenBucket(int permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+    
+    public TokenBucket(int permitsPerSecond, int burst, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.rate = Rate.of(permitsPerSecond, burst);
+        this.fullAt = new AtomicLong(nanoClock.getAsLong());
+    }
+    
+    @Override
+    public long tryAcquire() {
+        Rate current = rate;
+        while (true) {
+            long now = nanoClock.getAsLong();
+            long previous = fullAt.get();
+            long next = Math.max(previous, now) + current.intervalNanos();
+            long excess = next - now - current.capacityNanos();
+            if (excess > 0) {
+                return excess;
+            }
+            if (fullAt.compareAndSet(previous, next)) {
+                return 0;
+            }
+        }
+    }
+    
+    @Override
+    public void setRate(int permitsPerSecond, int burst) {
+        rate = Rate.of(permitsPerSecond, burst);
+    }
+    
+    @Override
+    public boolean isIdle() {
+        return fullAt.get() - nanoClock.getAsLong() <= 0;
+    }
+    
+    record Rate(long intervalNanos, long capacityNanos) {
+        
+        static Rate of(int permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0) {
+                throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+            }
+            long intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            return new Rate(intervalNanos, intervalNanos * Math.max(1, burst));
+        }
+    }
+}
\ No newline at end of file
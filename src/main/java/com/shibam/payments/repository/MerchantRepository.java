@@ -4,6 +4,7 @@ import com.shibam.payments.model.Merchant;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,4 +18,8 @@ public interface MerchantRepository extends JpaRepository<Merchant, Long> {
     List<Merchant> findByCountry(String country);
     
     boolean existsByMerchantId(String merchantId);
+    
+    List<Merchant> findByRateLimitPerSecondIsNotNull();
+    
+    List<Merchant> findByUpdatedAtGreaterThanEqual(LocalDateTime since);
 }
\ No newline at end of file
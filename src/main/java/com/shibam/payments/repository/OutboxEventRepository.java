@@ -0,0 +1,24 @@
+package com.shibam.payments.repository;
+
+import com.shibam.payments.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+    
+    // NOWAIT fails fast if another relay is claiming the head of the outbox, so only one relay claims at a time
+    @Query(value = "SELECT * FROM outbox_events ORDER BY created_at, id LIMIT :limit FOR UPDATE NOWAIT",
+           nativeQuery = true)
+    List<OutboxEvent> lockNextBatch(@Param("limit") int limit);
+    
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE OutboxEvent e SET e.claimedUntil = :claimedUntil WHERE e.id IN :ids")
+    int updateClaimedUntil(@Param("ids") List<Long> ids, @Param("claimedUntil") LocalDateTime claimedUntil);
+}
\ No newline at end of file
@@ -2,13 +2,16 @@ package com.shibam.payments.repository;
 
 import com.shibam.payments.model.Payment;
 import com.shibam.payments.model.Payment.PaymentStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,6 +20,8 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
     
     Optional<Payment> findByTransactionId(String transactionId);
     
+    List<Payment> findByTransactionIdIn(Collection<String> transactionIds);
+    
     List<Payment> findByUserId(Long userId);
     
     List<Payment> findByUserIdAndStatus(Long userId, PaymentStatus status);
@@ -38,4 +43,16 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
     Long countRecentPaymentsByUser(@Param("userId") Long userId, @Param("since") LocalDateTime since);
     
     boolean existsByTransactionId(String transactionId);
+    
+    List<Payment> findByStatusAndUpdatedAtBefore(PaymentStatus status, LocalDateTime cutoff, Pageable pageable);
+    
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Payment p SET p.status = :target, " +
+           "p.gatewayResponse = COALESCE(:gatewayResponse, p.gatewayResponse), p.updatedAt = :updatedAt " +
+           "WHERE p.transactionId = :transactionId AND p.status = :expected")
+    int updateStatusIfCurrent(@Param("transactionId") String transactionId,
+                              @Param("expected") PaymentStatus expected,
+                              @Param("target") PaymentStatus target,
+                              @Param("gatewayResponse") String gatewayResponse,
+                              @Param("updatedAt") LocalDateTime updatedAt);
 }
\ No newline at end of file
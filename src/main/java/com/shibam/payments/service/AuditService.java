@@ -3,7 +3,6 @@ package com.shibam.payments.service;
 import com.shibam.payments.model.Payment;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -15,7 +14,7 @@ import java.util.Map;
 @Slf4j
 public class AuditService {
     
-    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final OutboxService outboxService;
     
     public void auditPaymentCreated(Payment payment) {
         Map<String, Object> auditEvent = createAuditEvent("PAYMENT_CREATED", payment);
@@ -57,12 +56,9 @@ public class AuditService {
         return auditEvent;
     }
     
+    // Joins the caller's transaction, so the event commits or rolls back with the payment change
     private void publishAuditEvent(Map<String, Object> auditEvent) {
-        try {
-            kafkaTemplate.send("audit-events", auditEvent.get("transactionId").toString(), auditEvent);
-            log.info("Audit event published: {}", auditEvent.get("eventType"));
-        } catch (Exception e) {
-            log.error("Failed to publish audit event: {}", e.getMessage(), e);
-        }
+        outboxService.enqueue("audit-events", auditEvent.get("transactionId").toString(), auditEvent);
+        log.info("Audit event queued: {}", auditEvent.get("eventType"));
     }
 }
\ No newline at end of file
@@ -1,47 +1,377 @@
 package com.shibam.payments.service;
 
-import lombok.RequiredArgsConstructor;
+import com.shibam.payments.cache.CacheCodec;
+import com.shibam.payments.cache.LocalCache;
+import com.shibam.payments.config.PaymentProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
+/**
+ * Key-value cache in Redis, with an in-process tier in front of it for keys
+ * under {@code payment.cache.local-key-prefixes}.
+ *
+ * Reads of those keys are answered from a bounded {@link LocalCache} when
+ * they can and fall through to Redis otherwise. Writes and deletes go to
+ * Redis first and, in the same pipeline, publish an invalidation on
+ * {@code payment.cache.invalidation-channel}; every other instance drops its
+ * local copy when it hears it. An instance that misses an invalidation serves
+ * the old value for at most {@code local-ttl}. Other keys, such as leases,
+ * idempotency records and counters, always go straight to Redis.
+ *
+ * {@link #getOrLoad} puts a loader behind the cache: concurrent misses on a
+ * key share one load, a load that finds nothing is remembered as
+ * {@link #ABSENT} for {@code negative-ttl}, and loaded entries get a TTL
+ * jittered by {@code ttl-jitter} so entries loaded together do not all
+ * expire together.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
-public class CacheService {
+public class CacheService implements MessageListener {
+    
+    /**
+     * Cached for keys whose value is known not to exist.
+     */
+    public static final Object ABSENT = CacheCodec.ABSENT;
+    
+    private static final RedisScript<Long> COUNTER_INCREMENT = script("scripts/counter-increment.lua");
+    private static final RedisScript<Long> LEASE_RENEW = script("scripts/lease-renew.lua");
+    private static final RedisScript<Long> LEASE_RELEASE = script("scripts/lease-release.lua");
     
     private final RedisTemplate<String, Object> redisTemplate;
+    private final List<String> localKeyPrefixes;
+    private final LocalCache localCache;
+    private final byte[] invalidationChannel;
+    private final double ttlJitter;
+    private final Duration negativeTtl;
+    // Loads in progress, by key; concurrent misses wait on these instead of loading again
+    private final Map<String, CompletableFuture<Object>> loads = new ConcurrentHashMap<>();
+    // Tags this instance's invalidations, so it does not drop what it just cached
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+    private final Counter coalescedLoads;
+    private final Counter negativeHits;
+    
+    public CacheService(RedisTemplate<String, Object> redisTemplate, PaymentProperties paymentProperties,
+                        MeterRegistry meterRegistry) {
+        PaymentProperties.Cache config = paymentProperties.getCache();
+        this.redisTemplate = redisTemplate;
+        this.localKeyPrefixes = List.copyOf(config.getLocalKeyPrefixes());
+        this.localCache = new LocalCache(config.getLocalMaxEntries(), config.getLocalTtl());
+        this.invalidationChannel = config.getInvalidationChannel().getBytes(StandardCharsets.UTF_8);
+        this.ttlJitter = config.getTtlJitter();
+        this.negativeTtl = config.getNegativeTtl();
+        this.localHits = tierCounter("payment.cache.hits", "local", meterRegistry);
+        this.localMisses = tierCounter("payment.cache.misses", "local", meterRegistry);
+        this.redisHits = tierCounter("payment.cache.hits", "redis", meterRegistry);
+        this.redisMisses = tierCounter("payment.cache.misses", "redis", meterRegistry);
+        this.coalescedLoads = Counter.builder("payment.cache.loads.coalesced")
+                .description("Cache misses that waited for another caller's load of the same key")
+                .register(meterRegistry);
+        this.negativeHits = Counter.builder("payment.cache.negative.hits")
+                .description("Lookups answered by a cached record that the value does not exist")
+                .register(meterRegistry);
+        
+        evictionCounter("size", localCache, LocalCache::sizeEvictions, meterRegistry);
+        evictionCounter("expired", localCache, LocalCache::expirations, meterRegistry);
+        evictionCounter("invalidated", localCache, LocalCache::invalidations, meterRegistry);
+        Gauge.builder("payment.cache.size", localCache, LocalCache::size)
+                .description("Entries in the in-process cache tier")
+                .tag("tier", "local")
+                .register(meterRegistry);
+    }
     
     public void set(String key, Object value, Duration ttl) {
         try {
-            redisTemplate.opsForValue().set(key, value, ttl.toSeconds(), TimeUnit.SECONDS);
+            if (isLocal(key)) {
+                byte[] rawKey = rawKey(key);
+                byte[] rawValue = rawValue(value);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    connection.stringCommands().set(rawKey, rawValue, Expiration.seconds(ttl.toSeconds()),
+                            RedisStringCommands.SetOption.upsert());
+                    connection.publish(invalidationChannel, invalidation(key));
+                    return null;
+                });
+                // After the Redis write, so a read that raced with it cannot cache the old value over this one
+                localCache.put(key, value, ttl);
+            } else {
+                redisTemplate.opsForValue().set(key, value, ttl.toSeconds(), TimeUnit.SECONDS);
+            }
             log.debug("Cached value for key: {}", key);
         } catch (Exception e) {
+            if (isLocal(key)) {
+                localCache.invalidate(key);
+            }
             log.error("Failed to cache value for key: {}", key, e);
         }
     }
     
+    /**
+     * Backfills the entries that have no value yet, in one pipeline of
+     * SET NX, so a value written since the caller read its source is never
+     * replaced by the older one. Each entry's TTL is jittered, so a backfill
+     * does not all expire at once. Nothing changes for other instances, so no
+     * invalidations are published.
+     */
+    public void setAllIfAbsent(Map<String, ?> entries, Duration ttl) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> keys = new ArrayList<>(entries.size());
+            List<byte[]> rawKeys = new ArrayList<>(entries.size());
+            List<byte[]> rawValues = new ArrayList<>(entries.size());
+            List<Duration> ttls = new ArrayList<>(entries.size());
+            List<Long> stamps = new ArrayList<>(entries.size());
+            entries.forEach((key, value) -> {
+                keys.add(key);
+                rawKeys.add(rawKey(key));
+                rawValues.add(rawValue(value));
+                ttls.add(jittered(ttl));
+                stamps.add(isLocal(key) ? localCache.stamp(key) : null);
+            });
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < rawKeys.size(); i++) {
+                    connection.stringCommands().set(rawKeys.get(i), rawValues.get(i),
+                            Expiration.milliseconds(ttls.get(i).toMillis()), RedisStringCommands.SetOption.ifAbsent());
+                }
+                return null;
+            });
+            int set = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                if (!Boolean.TRUE.equals(results.get(i))) {
+                    continue;
+                }
+                set++;
+                // Unless this instance wrote or dropped the key since the stamp, the backfilled value is current
+                if (stamps.get(i) != null) {
+                    localCache.putIfUnchanged(keys.get(i), entries.get(keys.get(i)), stamps.get(i));
+                }
+            }
+            log.debug("Backfilled {} of {} values", set, entries.size());
+        } catch (Exception e) {
+            log.error("Failed to backfill {} values", entries.size(), e);
+        }
+    }
+    
+    public Boolean setIfAbsent(String key, Object value, Duration ttl) {
+        try {
+            boolean set = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value, ttl));
+            if (set && isLocal(key)) {
+                localCache.invalidate(key);
+            }
+            return set;
+        } catch (Exception e) {
+            log.error("Failed to set value if absent for key: {}", key, e);
+            return null;
+        }
+    }
+    
     public Object get(String key) {
+        if (!isLocal(key)) {
+            return getFromRedis(key);
+        }
+        
+        Object value = localCache.get(key);
+        if (value != null) {
+            localHits.increment();
+            return value;
+        }
+        localMisses.increment();
+        long stamp = localCache.stamp(key);
+        value = getFromRedis(key);
+        if (value != null) {
+            localCache.putIfUnchanged(key, value, stamp);
+        }
+        return value;
+    }
+    
+    /**
+     * The cached value of the key, or else the loader's, which is cached for
+     * a jittered {@code ttl}. Concurrent misses on the same key share one
+     * call to the loader. A loader that returns null is not called again for
+     * the key until {@code negative-ttl} has passed, and null is returned.
+     * A loader's exception is thrown to every caller sharing its load.
+     *
+     * The loaded value is only cached if the key is still empty, so a value
+     * written while the loader ran, which is newer than what it read, is
+     * kept in Redis and in the local tier.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(String key, Duration ttl, Supplier<T> loader) {
+        Object cached = get(key);
+        if (cached == ABSENT) {
+            negativeHits.increment();
+            return null;
+        }
+        if (cached != null) {
+            return (T) cached;
+        }
+        
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            coalescedLoads.increment();
+            return (T) await(inFlight);
+        }
         try {
-            Object value = redisTemplate.opsForValue().get(key);
-            log.debug("Retrieved cached value for key: {}", key);
+            long stamp = localCache.stamp(key);
+            T value = loader.get();
+            if (value != null) {
+                cacheLoaded(key, value, jittered(ttl), stamp);
+            } else {
+                cacheLoaded(key, ABSENT, negativeTtl, stamp);
+            }
+            load.complete(value);
             return value;
+        } catch (RuntimeException | Error e) {
+            // Waiters would otherwise block forever
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+    
+    private void cacheLoaded(String key, Object value, Duration ttl, long stamp) {
+        try {
+            boolean set = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value, ttl));
+            // Unless this instance wrote or dropped the key while loading, the loaded value is current
+            if (set && isLocal(key)) {
+                localCache.putIfUnchanged(key, value, stamp);
+            }
         } catch (Exception e) {
-            log.error("Failed to retrieve cached value for key: {}", key, e);
-            return null;
+            log.error("Failed to cache loaded value for key: {}", key, e);
         }
     }
     
+    /**
+     * The cached values of the keys that have one. Keys in the local tier
+     * are answered from it where they can; all the others are read from
+     * Redis with a single MGET.
+     */
+    public Map<String, Object> getAll(Collection<String> keys) {
+        Map<String, Object> found = new HashMap<>();
+        List<String> remoteKeys = new ArrayList<>(keys.size());
+        List<Long> stamps = new ArrayList<>(keys.size());
+        for (String key : new LinkedHashSet<>(keys)) {
+            if (!isLocal(key)) {
+                remoteKeys.add(key);
+                stamps.add(null);
+                continue;
+            }
+            Object value = localCache.get(key);
+            if (value != null) {
+                localHits.increment();
+                if (value == ABSENT) {
+                    negativeHits.increment();
+                }
+                found.put(key, value);
+                continue;
+            }
+            localMisses.increment();
+            remoteKeys.add(key);
+            stamps.add(localCache.stamp(key));
+        }
+        if (remoteKeys.isEmpty()) {
+            return found;
+        }
+        
+        List<Object> values;
+        try {
+            values = redisTemplate.opsForValue().multiGet(remoteKeys);
+        } catch (Exception e) {
+            log.error("Failed to retrieve {} cached values", remoteKeys.size(), e);
+            return found;
+        }
+        for (int i = 0; i < remoteKeys.size(); i++) {
+            Object value = values != null ? values.get(i) : null;
+            if (value == null) {
+                redisMisses.increment();
+                continue;
+            }
+            redisHits.increment();
+            if (value == ABSENT) {
+                negativeHits.increment();
+            }
+            found.put(remoteKeys.get(i), value);
+            if (stamps.get(i) != null) {
+                localCache.putIfUnchanged(remoteKeys.get(i), value, stamps.get(i));
+            }
+        }
+        log.debug("Retrieved {} of {} cached values", found.size(), keys.size());
+        return found;
+    }
+    
     public void delete(String key) {
         try {
-            redisTemplate.delete(key);
+            if (isLocal(key)) {
+                byte[] rawKey = rawKey(key);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    connection.keyCommands().del(rawKey);
+                    connection.publish(invalidationChannel, invalidation(key));
+                    return null;
+                });
+            } else {
+                redisTemplate.delete(key);
+            }
             log.debug("Deleted cached value for key: {}", key);
         } catch (Exception e) {
             log.error("Failed to delete cached value for key: {}", key, e);
+        } finally {
+            if (isLocal(key)) {
+                localCache.invalidate(key);
+            }
+        }
+    }
+    
+    /**
+     * Drops the local copy of a key another instance wrote or deleted.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String invalidation = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = invalidation.indexOf(' ');
+        if (separator < 0 || invalidation.substring(0, separator).equals(instanceId)) {
+            return;
         }
+        String key = invalidation.substring(separator + 1);
+        localCache.invalidate(key);
+        log.debug("Invalidated local cache entry for key: {}", key);
     }
     
     public boolean exists(String key) {
@@ -53,26 +383,148 @@ public class CacheService {
         }
     }
     
+    /**
+     * Adds {@code delta} to the counter and sets its TTL if it has none, in a
+     * single round trip, so a counter can never be left without an expiry.
+     */
     public void incrementCounter(String key, long delta, Duration ttl) {
         try {
-            Long count = redisTemplate.opsForValue().increment(key, delta);
-            if (count != null && count == delta) {
-                // First time setting, apply TTL
-                redisTemplate.expire(key, ttl.toSeconds(), TimeUnit.SECONDS);
-            }
+            // Arguments are plain numbers, not JSON values
+            Long count = redisTemplate.execute(COUNTER_INCREMENT, RedisSerializer.string(),
+                    new GenericToStringSerializer<>(Long.class), List.of(key),
+                    String.valueOf(delta), String.valueOf(Math.max(1, ttl.toMillis())));
             log.debug("Incremented counter for key: {} to {}", key, count);
         } catch (Exception e) {
             log.error("Failed to increment counter for key: {}", key, e);
         }
     }
     
+    /**
+     * Extends the TTL of {@code key} if it still holds {@code owner}, in a
+     * single step, so a lease is never renewed once someone else has taken
+     * it. Returns null if Redis could not be reached.
+     */
+    public Boolean renewIfOwner(String key, Object owner, Duration ttl) {
+        try {
+            // The owner is compared with the stored bytes, so it is serialized like the value it was set with
+            Long renewed = redisTemplate.execute(LEASE_RENEW, RedisSerializer.byteArray(),
+                    new GenericToStringSerializer<>(Long.class), List.of(key), rawValue(owner),
+                    String.valueOf(Math.max(1, ttl.toMillis())).getBytes(StandardCharsets.UTF_8));
+            return renewed != null && renewed == 1;
+        } catch (Exception e) {
+            log.error("Failed to renew lease for key: {}", key, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Deletes {@code key} if it still holds {@code owner}, in a single step,
+     * so a lease that expired and was taken by someone else is left alone.
+     * Returns null if Redis could not be reached.
+     */
+    public Boolean deleteIfOwner(String key, Object owner) {
+        try {
+            Long deleted = redisTemplate.execute(LEASE_RELEASE, RedisSerializer.byteArray(),
+                    new GenericToStringSerializer<>(Long.class), List.of(key), rawValue(owner));
+            return deleted != null && deleted == 1;
+        } catch (Exception e) {
+            log.error("Failed to release lease for key: {}", key, e);
+            return null;
+        }
+    }
+    
     public Long getCounter(String key) {
         try {
-            String value = (String) redisTemplate.opsForValue().get(key);
-            return value != null ? Long.parseLong(value) : 0L;
+            // INCRBY stores a bare integer, which the JSON serializer reads back as a number
+            Object value = redisTemplate.opsForValue().get(key);
+            return value instanceof Number number ? number.longValue() : 0L;
         } catch (Exception e) {
             log.error("Failed to get counter for key: {}", key, e);
             return 0L;
         }
     }
+    
+    private Object getFromRedis(String key) {
+        try {
+            Object value = redisTemplate.opsForValue().get(key);
+            if (value != null) {
+                redisHits.increment();
+            } else {
+                redisMisses.increment();
+            }
+            log.debug("Retrieved cached value for key: {}", key);
+            return value;
+        } catch (Exception e) {
+            log.error("Failed to retrieve cached value for key: {}", key, e);
+            return null;
+        }
+    }
+    
+    /**
+     * The TTL scaled by a random factor within {@code ttl-jitter} of 1.
+     */
+    private Duration jittered(Duration ttl) {
+        if (ttlJitter <= 0) {
+            return ttl;
+        }
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-ttlJitter, ttlJitter);
+        return Duration.ofMillis(Math.max(1, (long) (ttl.toMillis() * factor)));
+    }
+    
+    private static Object await(CompletableFuture<Object> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    private boolean isLocal(String key) {
+        for (String prefix : localKeyPrefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private byte[] invalidation(String key) {
+        return (instanceId + ' ' + key).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] rawKey(String key) {
+        return RedisSerializer.string().serialize(key);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private byte[] rawValue(Object value) {
+        return ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(value);
+    }
+    
+    private static Counter tierCounter(String name, String tier, MeterRegistry meterRegistry) {
+        return Counter.builder(name)
+                .description("Cache lookups by the tier that answered or missed them")
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+    
+    private static void evictionCounter(String cause, LocalCache localCache,
+                                        ToDoubleFunction<LocalCache> count,
+                                        MeterRegistry meterRegistry) {
+        FunctionCounter.builder("payment.cache.evictions", localCache, count)
+                .description("Entries dropped from the in-process cache tier")
+                .tag("tier", "local")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+    
+    private static RedisScript<Long> script(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(Long.class);
+        return script;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.fraud.CardBlocklist;
+import com.shibam.payments.fraud.CardNumbers;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the current {@link CardBlocklist} and rebuilds it when its files
+ * change.
+ *
+ * The files named by {@code payment.fraud.blocklist} are checked every
+ * {@code reload-interval}. The check and the rebuild run on the service's own
+ * thread, so reading a large card file never holds up the shared scheduler.
+ * When either file has changed, a new blocklist is built next to the current
+ * one and replaces it in a single write, so payments keep being checked
+ * against the old list while the new one loads. Files that cannot be read or
+ * parsed leave the current blocklist in place. The first load happens before
+ * the service is ready.
+ */
+@Service
+@Slf4j
+public class CardBlocklistService {
+    
+    private final PaymentProperties.Fraud.Blocklist config;
+    private final Counter binHits;
+    private final Counter cardHits;
+    private final Counter reloadFailures;
+    private final ExecutorService rebuilder;
+    
+    private volatile CardBlocklist blocklist = CardBlocklist.EMPTY;
+    // Only touched on the rebuilder thread
+    private long binRangesModified = Long.MIN_VALUE;
+    private long compromisedCardsModified = Long.MIN_VALUE;
+    private CompletableFuture<Void> rebuild = CompletableFuture.completedFuture(null);
+    
+    public CardBlocklistService(PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        this.config = paymentProperties.getFraud().getBlocklist();
+        this.binHits = hitCounter("bin", meterRegistry);
+        this.cardHits = hitCounter("card", meterRegistry);
+        this.reloadFailures = Counter.builder("payment.fraud.blocklist.reload.failures")
+                .description("Blocklist files that could not be loaded")
+                .register(meterRegistry);
+        Gauge.builder("payment.fraud.blocklist.bin.ranges", this, service -> service.blocklist.binRanges())
+                .description("Blocked BIN ranges after merging")
+                .register(meterRegistry);
+        Gauge.builder("payment.fraud.blocklist.cards", this, service -> service.blocklist.compromisedCards())
+                .description("Compromised card numbers in the filter")
+                .register(meterRegistry);
+        
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("card-blocklist-");
+        threadFactory.setDaemon(true);
+        this.rebuilder = Executors.newSingleThreadExecutor(threadFactory);
+        rebuildIfChanged().join();
+    }
+    
+    /**
+     * Whether the card's BIN is blocked or the card is on the compromised list.
+     *
+     * @param card the result of {@link CardNumbers#inspect(CharSequence)} for {@code cardNumber}
+     */
+    public boolean isBlocked(CharSequence cardNumber, long card) {
+        CardBlocklist current = blocklist;
+        if (current.isBinBlocked(CardNumbers.bin(card))) {
+            binHits.increment();
+            return true;
+        }
+        if (current.isCompromised(cardNumber)) {
+            cardHits.increment();
+            return true;
+        }
+        return false;
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.fraud.blocklist.reload-interval:300000}")
+    public void reload() {
+        rebuildIfChanged();
+    }
+    
+    /**
+     * Starts rebuilding the blocklist on the rebuilder thread if either file
+     * changed since it was last loaded. A rebuild already running is not
+     * started again.
+     *
+     * @return completes once the check, and any rebuild, has finished
+     */
+    public synchronized CompletableFuture<Void> rebuildIfChanged() {
+        if (rebuild.isDone()) {
+            rebuild = CompletableFuture.runAsync(this::rebuild, rebuilder);
+        }
+        return rebuild;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        rebuilder.shutdownNow();
+    }
+    
+    private void rebuild() {
+        Path binRanges = pathOf(config.getBinRangesFile());
+        Path compromisedCards = pathOf(config.getCompromisedCardsFile());
+        if (binRanges == null && compromisedCards == null) {
+            return;
+        }
+        
+        try {
+            long binModified = binRanges != null ? Files.getLastModifiedTime(binRanges).toMillis() : 0;
+            long cardsModified = compromisedCards != null ? Files.getLastModifiedTime(compromisedCards).toMillis() : 0;
+            if (binModified == binRangesModified && cardsModified == compromisedCardsModified) {
+                return;
+            }
+            
+            long startTime = System.nanoTime();
+            CardBlocklist loaded = load(binRanges, compromisedCards);
+            blocklist = loaded;
+            binRangesModified = binModified;
+            compromisedCardsModified = cardsModified;
+            log.info("Loaded {} blocked BIN ranges and {} compromised cards in {} ms", loaded.binRanges(),
+                    loaded.compromisedCards(), (System.nanoTime() - startTime) / 1_000_000);
+        } catch (Exception e) {
+            reloadFailures.increment();
+            log.warn("Could not load the card blocklist, keeping the current one: {}", e.getMessage());
+        }
+    }
+    
+    private CardBlocklist load(Path binRanges, Path compromisedCards) throws IOException {
+        // The filter is sized up front, so the card file is read twice rather than held in memory
+        long expectedCards = 0;
+        if (compromisedCards != null) {
+            try (BufferedReader reader = Files.newBufferedReader(compromisedCards)) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!isSkipped(line)) {
+                        expectedCards++;
+                    }
+                }
+            }
+        }
+        CardBlocklist.Builder builder = CardBlocklist.builder(expectedCards, config.getFalsePositiveRate());
+        
+        if (binRanges != null) {
+            readLines(binRanges, line -> {
+                int dash = line.indexOf('-');
+                if (dash < 0) {
+                    int bin = Integer.parseInt(line);
+                    builder.addBinRange(bin, bin);
+                } else {
+                    builder.addBinRange(Integer.parseInt(line.substring(0, dash).trim()),
+                            Integer.parseInt(line.substring(dash + 1).trim()));
+                }
+            });
+        }
+        if (compromisedCards != null) {
+            readLines(compromisedCards, line -> builder.addCompromisedCard(line));
+        }
+        return builder.build();
+    }
+    
+    private static void readLines(Path path, Consumer<String> handler) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (isSkipped(line)) {
+                    continue;
+                }
+                try {
+                    handler.accept(line.trim());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(path + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+    
+    private static boolean isSkipped(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() || trimmed.startsWith("#");
+    }
+    
+    private static Path pathOf(String file) {
+        return file == null || file.isBlank() ? null : Path.of(file);
+    }
+    
+    private static Counter hitCounter(String list, MeterRegistry meterRegistry) {
+        return Counter.builder("payment.fraud.blocklist.hits")
+                .description("Payments blocked by the card blocklist")
+                .tag("list", list)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,164 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.fraud.FraudEvaluation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes fraud decisions to {@code fraud_checks} in batches, off the payment
+ * path.
+ *
+ * {@link #record} only offers the decision to a bounded queue; when the
+ * queue is full the decision is dropped and counted rather than making the
+ * payment wait. One writer thread inserts what is queued once a batch is
+ * full or the oldest decision has waited {@code flush-interval}. With
+ * {@code rewriteBatchedStatements} on the MySQL URL, each batch goes to the
+ * database as a single multi-row insert. A batch that fails to insert is
+ * dropped and counted too.
+ */
+@Component
+@Slf4j
+public class FraudCheckWriter {
+    
+    private static final String INSERT_SQL = "INSERT INTO fraud_checks "
+            + "(transaction_id, risk_score, rules_triggered, decision, reason, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<FraudCheck> queue;
+    private final Counter dropped;
+    private final Counter written;
+    private final Thread writer;
+    
+    private volatile boolean running = true;
+    
+    public FraudCheckWriter(PaymentProperties paymentProperties, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this(paymentProperties, jdbcTemplate, meterRegistry, Clock.systemUTC());
+    }
+    
+    FraudCheckWriter(PaymentProperties paymentProperties, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+                     Clock clock) {
+        PaymentProperties.Fraud.Checks checks = paymentProperties.getFraud().getChecks();
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+        this.batchSize = checks.getBatchSize();
+        this.flushIntervalNanos = checks.getFlushInterval().toNanos();
+        this.queue = new ArrayBlockingQueue<>(checks.getQueueCapacity());
+        this.dropped = Counter.builder("payment.fraud.checks.dropped")
+                .description("Fraud decisions not written because the queue was full or the insert failed")
+                .register(meterRegistry);
+        this.written = Counter.builder("payment.fraud.checks.written")
+                .description("Fraud decisions written to fraud_checks")
+                .register(meterRegistry);
+        Gauge.builder("payment.fraud.checks.queue.depth", queue, BlockingQueue::size)
+                .description("Fraud decisions waiting to be written")
+                .register(meterRegistry);
+        
+        this.writer = new CustomizableThreadFactory("fraud-check-writer-").newThread(this::run);
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Queues the decision for a payment without blocking.
+     */
+    public void record(String transactionId, FraudEvaluation evaluation) {
+        FraudCheck check = new FraudCheck(transactionId, evaluation, clock.instant());
+        if (!queue.offer(check)) {
+            dropped.increment();
+        }
+    }
+    
+    private void run() {
+        List<FraudCheck> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(batch);
+            } catch (InterruptedException e) {
+                // Write whatever is already queued, then stop
+                running = false;
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Waits for a first decision, then takes more until the batch is full or
+     * the first one has waited the flush interval.
+     */
+    private void fill(List<FraudCheck> batch) throws InterruptedException {
+        FraudCheck first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            FraudCheck next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+    
+    private void write(List<FraudCheck> batch) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (statement, check) -> {
+                FraudEvaluation evaluation = check.evaluation();
+                statement.setString(1, check.transactionId());
+                statement.setBigDecimal(2, BigDecimal.valueOf(evaluation.riskScore()).setScale(4, RoundingMode.HALF_UP));
+                statement.setString(3, evaluation.rulesTriggered().isEmpty()
+                        ? null : String.join(",", evaluation.rulesTriggered()));
+                statement.setString(4, evaluation.decision().name());
+                statement.setString(5, evaluation.reason());
+                statement.setTimestamp(6, Timestamp.from(check.checkedAt()));
+            });
+            written.increment(batch.size());
+        } catch (Exception e) {
+            dropped.increment(batch.size());
+            log.warn("Could not write {} fraud decisions: {}", batch.size(), e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // The writer notices within one flush interval, without interrupting an insert
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (writer.isAlive() || !queue.isEmpty()) {
+            log.warn("Fraud check writer stopped with {} decisions unwritten", queue.size());
+        }
+    }
+    
+    private record FraudCheck(String transactionId, FraudEvaluation evaluation, Instant checkedAt) {
+    }
+}
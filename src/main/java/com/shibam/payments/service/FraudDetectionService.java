@@ -1,106 +1,112 @@
 package com.shibam.payments.service;
 
+import com.shibam.payments.config.PaymentProperties;
 import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.CardNumbers;
+import com.shibam.payments.fraud.FraudEvaluation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The fraud checks that run before authorization: amount limits and the
+ * rules that only read the request, card validation and blocklists, and
+ * velocity. They are meant to stay within {@code payment.fraud.sync-budget};
+ * checks that need the user's history run after authorization in
+ * {@link FraudReviewService}.
+ */
 @Service
 @Slf4j
 public class FraudDetectionService {
     
-    private static final BigDecimal MAX_TRANSACTION_AMOUNT = new BigDecimal("10000.00");
     private static final List<String> BLOCKED_COUNTRIES = List.of("XX", "YY"); // Example blocked countries
     
-    public boolean isPaymentSafe(PaymentRequest request) {
-        log.info("Running fraud detection for user: {}, amount: {}", request.getUserId(), request.getAmount());
-        
-        // Amount-based check
-        if (request.getAmount().compareTo(MAX_TRANSACTION_AMOUNT) > 0) {
-            log.warn("Transaction amount exceeds limit: {}", request.getAmount());
-            return false;
-        }
-        
-        // Velocity check (simplified)
-        if (isHighVelocityTransaction(request)) {
-            log.warn("High velocity transaction detected for user: {}", request.getUserId());
-            return false;
-        }
-        
-        // Card validation (if card payment)
-        if ("CARD".equals(request.getPaymentMethod()) && !isValidCard(request)) {
-            log.warn("Invalid card details detected");
-            return false;
-        }
-        
-        // Risk scoring (simplified ML-like logic)
-        double riskScore = calculateRiskScore(request);
-        if (riskScore > 0.8) {
-            log.warn("High risk score detected: {}", riskScore);
-            return false;
-        }
-        
-        log.info("Payment passed fraud detection checks");
-        return true;
-    }
-    
-    private boolean isHighVelocityTransaction(PaymentRequest request) {
-        // Simplified velocity check - in real implementation, this would check database
-        // for recent transactions by the same user
-        return false;
-    }
+    private final FraudRuleService fraudRuleService;
+    private final CardBlocklistService cardBlocklistService;
+    private final FraudCheckWriter fraudCheckWriter;
+    private final long syncBudgetNanos;
+    private final Timer syncTimer;
+    private final Counter overBudget;
     
-    private boolean isValidCard(PaymentRequest request) {
-        if (request.getCardNumber() == null || request.getCardNumber().length() < 13) {
-            return false;
-        }
-        
-        // Luhn algorithm check (simplified)
-        return isValidLuhn(request.getCardNumber().replaceAll("\\s+", ""));
+    public FraudDetectionService(FraudRuleService fraudRuleService, CardBlocklistService cardBlocklistService,
+                                 FraudCheckWriter fraudCheckWriter, PaymentProperties paymentProperties,
+                                 MeterRegistry meterRegistry) {
+        this.fraudRuleService = fraudRuleService;
+        this.cardBlocklistService = cardBlocklistService;
+        this.fraudCheckWriter = fraudCheckWriter;
+        this.syncBudgetNanos = paymentProperties.getFraud().getSyncBudget().toNanos();
+        this.syncTimer = Timer.builder("payment.fraud.sync")
+                .description("Time spent on fraud checks before authorization")
+                .register(meterRegistry);
+        this.overBudget = Counter.builder("payment.fraud.sync.over.budget")
+                .description("Payments whose fraud checks before authorization ran past the sync budget")
+                .register(meterRegistry);
     }
     
-    private boolean isValidLuhn(String cardNumber) {
-        int sum = 0;
-        boolean alternate = false;
-        
-        for (int i = cardNumber.length() - 1; i >= 0; i--) {
-            int n = Integer.parseInt(cardNumber.substring(i, i + 1));
-            
-            if (alternate) {
-                n *= 2;
-                if (n > 9) {
-                    n = (n % 10) + 1;
-                }
+    /**
+     * Runs the checks cheapest first: the configured fraud rules, card
+     * validation and the blocklist, then the velocity limits, which
+     * {@link VelocityService#reserve} has already checked against the
+     * counters. The decision is recorded in fraud_checks under the payment's
+     * transaction id.
+     *
+     * @param velocityBreach the velocity limit the payment exceeds, or null
+     */
+    public boolean isPaymentSafe(PaymentRequest request, String transactionId, VelocityService.Breach velocityBreach) {
+        long startTime = System.nanoTime();
+        try {
+            return runChecks(request, transactionId, velocityBreach);
+        } finally {
+            long elapsed = System.nanoTime() - startTime;
+            syncTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            if (elapsed > syncBudgetNanos) {
+                overBudget.increment();
             }
-            
-            sum += n;
-            alternate = !alternate;
         }
-        
-        return (sum % 10 == 0);
     }
     
-    private double calculateRiskScore(PaymentRequest request) {
-        double score = 0.0;
+    private boolean runChecks(PaymentRequest request, String transactionId, VelocityService.Breach breach) {
+        log.info("Running fraud detection for user: {}, amount: {}", request.getUserId(), request.getAmount());
         
-        // Amount-based risk
-        if (request.getAmount().compareTo(new BigDecimal("1000")) > 0) {
-            score += 0.2;
+        // Amount limit and risk scoring rules from payment.fraud
+        FraudEvaluation evaluation = fraudRuleService.evaluate(request);
+        if (evaluation.isDeclined()) {
+            log.warn("Payment declined by fraud rules {}: {}", evaluation.rulesTriggered(), evaluation.reason());
+            return decline(transactionId, evaluation);
         }
         
-        // Payment method risk
-        if ("CRYPTO".equals(request.getPaymentMethod())) {
-            score += 0.3;
+        // Card validation and blocklist (if card payment)
+        if ("CARD".equals(request.getPaymentMethod())) {
+            // Length and Luhn check in one pass, without copying the number
+            long card = CardNumbers.inspect(request.getCardNumber());
+            if (!CardNumbers.isValid(card)) {
+                log.warn("Invalid card details detected");
+                return decline(transactionId, evaluation.declinedBy("invalid-card", "Invalid card details"));
+            }
+            if (cardBlocklistService.isBlocked(request.getCardNumber(), card)) {
+                log.warn("Blocklisted card or BIN for user: {}", request.getUserId());
+                return decline(transactionId, evaluation.declinedBy("card-blocklist", "Card or BIN is blocklisted"));
+            }
         }
         
-        // Time-based risk (night transactions are riskier)
-        int hour = java.time.LocalTime.now().getHour();
-        if (hour < 6 || hour > 22) {
-            score += 0.1;
+        // Velocity limits across the user, card and merchant
+        if (breach != null) {
+            log.warn("High velocity transaction detected for user: {}, limit: {}", request.getUserId(), breach);
+            return decline(transactionId, evaluation.declinedBy("velocity", "Velocity limit exceeded: " + breach));
         }
         
-        return Math.min(score, 1.0);
+        log.info("Payment passed fraud detection checks");
+        fraudCheckWriter.record(transactionId, evaluation);
+        return true;
+    }
+    
+    private boolean decline(String transactionId, FraudEvaluation evaluation) {
+        fraudCheckWriter.record(transactionId, evaluation);
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,219 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.FraudDecision;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Deep fraud scoring of authorized payments, off the authorization path.
+ *
+ * Once the gateway authorizes a payment, {@link #review(Payment)} queues it
+ * to be scored against all the fraud rules, including the ones comparing it
+ * with the user's profile. A payment scored past
+ * {@code payment.fraud.deep.review-threshold} moves to REVIEW until someone
+ * releases or cancels it; past the risk threshold it is cancelled.
+ *
+ * A payment waiting to be scored is marked in Redis, so a capture that
+ * reaches any instance waits up to {@code capture-wait} for the scoring to
+ * finish, then goes ahead without it. The mark expires after
+ * {@code pending-ttl} if the instance scoring the payment goes away. Payments
+ * that found the queue full, or whose mark could not be read, are captured
+ * without waiting: deep scoring fails open, since the payment already passed
+ * the checks before authorization.
+ *
+ * Shadow rules, if any, are scored next to the live ones and only counted.
+ */
+@Service
+@Slf4j
+public class FraudReviewService {
+    
+    private static final String PENDING_PREFIX = "fraud-review:";
+    private static final long PENDING_POLL_MILLIS = 20;
+    
+    private final FraudRuleService fraudRuleService;
+    private final FraudCheckWriter fraudCheckWriter;
+    private final UserProfileService userProfileService;
+    private final PaymentStateService paymentStateService;
+    private final CacheService cacheService;
+    private final MeterRegistry meterRegistry;
+    private final Duration captureWait;
+    private final Duration pendingTtl;
+    private final ThreadPoolExecutor executor;
+    private final Counter skipped;
+    // Payments this instance is scoring or waiting to, by transaction id
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    
+    public FraudReviewService(FraudRuleService fraudRuleService, FraudCheckWriter fraudCheckWriter,
+                              UserProfileService userProfileService, PaymentStateService paymentStateService,
+                              CacheService cacheService, PaymentProperties paymentProperties,
+                              MeterRegistry meterRegistry) {
+        PaymentProperties.Fraud.Deep deep = paymentProperties.getFraud().getDeep();
+        this.fraudRuleService = fraudRuleService;
+        this.fraudCheckWriter = fraudCheckWriter;
+        this.userProfileService = userProfileService;
+        this.paymentStateService = paymentStateService;
+        this.cacheService = cacheService;
+        this.meterRegistry = meterRegistry;
+        this.captureWait = deep.getCaptureWait();
+        this.pendingTtl = deep.getPendingTtl();
+        this.executor = new ThreadPoolExecutor(deep.getWorkers(), deep.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(deep.getQueueCapacity()), new CustomizableThreadFactory("fraud-review-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.skipped = Counter.builder("payment.fraud.deep.skipped")
+                .description("Authorized payments not deep scored because the queue was full")
+                .register(meterRegistry);
+        
+        Gauge.builder("payment.fraud.deep.queue.depth", executor, e -> e.getQueue().size())
+                .description("Authorized payments waiting for deep fraud scoring")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Queues an authorized payment for deep scoring.
+     */
+    public void review(Payment payment) {
+        String transactionId = payment.getTransactionId();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        inFlight.put(transactionId, done);
+        cacheService.set(PENDING_PREFIX + transactionId, "pending", pendingTtl);
+        try {
+            executor.execute(() -> {
+                try {
+                    score(payment);
+                } catch (Exception e) {
+                    log.error("Deep fraud scoring failed for {}: {}", transactionId, e.getMessage(), e);
+                } finally {
+                    finished(transactionId, done);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finished(transactionId, done);
+            skipped.increment();
+            log.warn("Deep fraud queue is full, payment {} is not deep scored", transactionId);
+        }
+    }
+    
+    /**
+     * Waits for the payment's deep scoring, if it is still pending on any
+     * instance, for at most {@code capture-wait}.
+     */
+    public void awaitReview(String transactionId) {
+        try {
+            CompletableFuture<Void> review = inFlight.get(transactionId);
+            if (review != null) {
+                review.get(captureWait.toMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            // Scored on another instance, or already done
+            long deadline = System.nanoTime() + captureWait.toNanos();
+            while (cacheService.exists(PENDING_PREFIX + transactionId)) {
+                if (deadline - System.nanoTime() <= 0) {
+                    throw new TimeoutException();
+                }
+                Thread.sleep(PENDING_POLL_MILLIS);
+            }
+        } catch (TimeoutException e) {
+            log.warn("Deep fraud scoring of {} still pending after {}, going ahead without it", transactionId,
+                    captureWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Scoring errors are logged by the task, which always completes normally
+        }
+    }
+    
+    private void finished(String transactionId, CompletableFuture<Void> done) {
+        cacheService.delete(PENDING_PREFIX + transactionId);
+        inFlight.remove(transactionId);
+        done.complete(null);
+    }
+    
+    private void score(Payment payment) {
+        String transactionId = payment.getTransactionId();
+        PaymentRequest request = toRequest(payment);
+        FraudEvaluation evaluation = fraudRuleService.evaluateDeep(request);
+        fraudCheckWriter.record(transactionId, evaluation);
+        meterRegistry.counter("payment.fraud.deep.outcomes", "decision", evaluation.decision().name()).increment();
+        compareWithShadow(transactionId, request, evaluation);
+        
+        switch (evaluation.decision()) {
+            // Only payments that pass shape what counts as normal for the user
+            case APPROVE -> userProfileService.record(request);
+            case REVIEW -> move(transactionId, PaymentStatus.REVIEW, evaluation);
+            case DECLINE -> move(transactionId, PaymentStatus.CANCELLED, evaluation);
+        }
+    }
+    
+    private void move(String transactionId, PaymentStatus target, FraudEvaluation evaluation) {
+        paymentStateService.transition(transactionId, PaymentStatus.AUTHORIZED, target, evaluation.reason())
+                .ifPresentOrElse(moved -> {
+                    cacheService.set("payment:" + transactionId, moved, Duration.ofMinutes(15));
+                    log.warn("Payment {} moved to {} by deep fraud scoring {}: {}", transactionId, target,
+                            evaluation.rulesTriggered(), evaluation.reason());
+                }, () -> log.info("Payment {} left AUTHORIZED before deep fraud scoring could move it to {}",
+                        transactionId, target));
+    }
+    
+    private void compareWithShadow(String transactionId, PaymentRequest request, FraudEvaluation live) {
+        FraudEvaluation shadow;
+        try {
+            shadow = fraudRuleService.evaluateShadow(request);
+        } catch (Exception e) {
+            log.warn("Shadow fraud rules failed for {}: {}", transactionId, e.getMessage());
+            return;
+        }
+        if (shadow == null) {
+            return;
+        }
+        
+        FraudDecision liveDecision = live.decision();
+        FraudDecision shadowDecision = shadow.decision();
+        meterRegistry.counter("payment.fraud.shadow.decisions",
+                "live", liveDecision.name(), "shadow", shadowDecision.name()).increment();
+        if (shadowDecision != liveDecision) {
+            log.info("Shadow fraud rules would {} payment {} instead of {}: {} {}", shadowDecision, transactionId,
+                    liveDecision, shadow.rulesTriggered(), shadow.riskScore());
+        }
+    }
+    
+    private static PaymentRequest toRequest(Payment payment) {
+        PaymentRequest request = new PaymentRequest();
+        request.setUserId(payment.getUserId());
+        request.setAmount(payment.getAmount());
+        request.setCurrency(payment.getCurrency());
+        request.setPaymentMethod(payment.getPaymentMethod());
+        request.setMerchantId(payment.getMerchantId());
+        request.setDescription(payment.getDescription());
+        return request;
+    }
+    
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            int abandoned = executor.shutdownNow().size();
+            log.warn("Deep fraud scoring stopped with {} payments still queued; they stay AUTHORIZED", abandoned);
+        }
+    }
+}
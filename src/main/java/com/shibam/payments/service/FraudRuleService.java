@@ -0,0 +1,173 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.fraud.FraudRules;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySource;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the compiled {@link FraudRules} and swaps in new ones when the rules
+ * file changes.
+ *
+ * Rules come from {@code payment.fraud} in application.yml. If
+ * {@code payment.fraud.rules-file} points to a YAML file with the same
+ * properties, it is checked every {@code reload-interval} and, when it has
+ * changed, compiled into a new plan that replaces the current one in a single
+ * write. Payments being evaluated finish on the plan they started with, so a
+ * reload never pauses traffic. A file that does not parse or compile leaves
+ * the current rules in place.
+ *
+ * {@code payment.fraud.shadow-rules-file}, in the same format, holds rules
+ * being tried out: they are reloaded the same way and scored next to the live
+ * rules by {@link FraudReviewService}, but never decide anything.
+ */
+@Service
+@Slf4j
+public class FraudRuleService {
+    
+    private final PaymentProperties.Fraud config;
+    private final Environment environment;
+    private final UserProfileService userProfileService;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+    private final Timer evaluationTimer;
+    private final Timer deepEvaluationTimer;
+    private final Counter reloadFailures;
+    
+    private volatile FraudRules rules;
+    private volatile FraudRules shadowRules;
+    private long rulesFileModified = Long.MIN_VALUE;
+    private long shadowRulesFileModified = Long.MIN_VALUE;
+    
+    @Autowired
+    public FraudRuleService(PaymentProperties paymentProperties, Environment environment,
+                            UserProfileService userProfileService, MeterRegistry meterRegistry) {
+        this(paymentProperties, environment, userProfileService, meterRegistry, Clock.systemDefaultZone());
+    }
+    
+    public FraudRuleService(PaymentProperties paymentProperties, Environment environment,
+                            UserProfileService userProfileService, MeterRegistry meterRegistry, Clock clock) {
+        this.config = paymentProperties.getFraud();
+        this.environment = environment;
+        this.userProfileService = userProfileService;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+        this.evaluationTimer = Timer.builder("payment.fraud.evaluation")
+                .description("Time to evaluate the fraud rules for one payment")
+                .register(meterRegistry);
+        this.deepEvaluationTimer = Timer.builder("payment.fraud.deep.evaluation")
+                .description("Time to score one authorized payment against the fraud rules and the user's profile")
+                .register(meterRegistry);
+        this.reloadFailures = Counter.builder("payment.fraud.rules.reload.failures")
+                .description("Rules files that could not be loaded")
+                .register(meterRegistry);
+        
+        this.rules = FraudRules.compile(config, userProfileService::profileOf, meterRegistry, clock);
+        reload();
+    }
+    
+    /**
+     * Scores a payment before authorization, without the profile rules.
+     */
+    public FraudEvaluation evaluate(PaymentRequest request) {
+        long startTime = System.nanoTime();
+        try {
+            return rules.evaluate(request);
+        } finally {
+            evaluationTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    /**
+     * Scores an authorized payment against all the rules, deciding whether it
+     * can be captured, held for review or cancelled.
+     */
+    public FraudEvaluation evaluateDeep(PaymentRequest request) {
+        long startTime = System.nanoTime();
+        try {
+            return rules.evaluateDeep(request);
+        } finally {
+            deepEvaluationTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    /**
+     * Scores an authorized payment against the shadow rules, or returns null
+     * if there are none.
+     */
+    public FraudEvaluation evaluateShadow(PaymentRequest request) {
+        FraudRules shadow = shadowRules;
+        return shadow != null ? shadow.evaluateShadow(request) : null;
+    }
+    
+    /**
+     * Compiles the rules files that changed since they were last loaded.
+     */
+    @Scheduled(fixedDelayString = "${payment.fraud.reload-interval:30000}")
+    public synchronized void reload() {
+        rulesFileModified = reload(config.getRulesFile(), rulesFileModified, "live",
+                loaded -> rules = loaded);
+        shadowRulesFileModified = reload(config.getShadowRulesFile(), shadowRulesFileModified, "shadow",
+                loaded -> shadowRules = loaded);
+    }
+    
+    /**
+     * Compiles {@code rulesFile} and hands the rules to {@code swap} if it was
+     * modified after {@code lastModified}, returning the modification time the
+     * loaded rules correspond to.
+     */
+    private long reload(String rulesFile, long lastModified, String name, Consumer<FraudRules> swap) {
+        if (rulesFile == null || rulesFile.isBlank()) {
+            return lastModified;
+        }
+        
+        Path path = Path.of(rulesFile);
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            if (modified == lastModified) {
+                return lastModified;
+            }
+            swap.accept(FraudRules.compile(loadRulesFile(path), userProfileService::profileOf, meterRegistry, clock,
+                    name));
+            log.info("Loaded {} fraud rules from {}", name, path);
+            return modified;
+        } catch (Exception e) {
+            reloadFailures.increment();
+            log.warn("Could not load {} fraud rules from {}, keeping the current ones: {}", name, path, e.getMessage());
+            return lastModified;
+        }
+    }
+    
+    private PaymentProperties.Fraud loadRulesFile(Path path) throws IOException {
+        List<PropertySource<?>> file = new YamlPropertySourceLoader().load("fraud-rules", new FileSystemResource(path));
+        List<ConfigurationPropertySource> sources = new ArrayList<>();
+        ConfigurationPropertySources.from(file).forEach(sources::add);
+        // Whatever the file leaves out keeps its application.yml value
+        ConfigurationPropertySources.get(environment).forEach(sources::add);
+        return new Binder(sources).bind("payment.fraud", PaymentProperties.Fraud.class)
+                .orElseGet(PaymentProperties.Fraud::new);
+    }
+}
@@ -0,0 +1,218 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.IdempotencyConflictException;
+import com.shibam.payments.exception.PaymentException;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates client retries carrying the same Idempotency-Key.
+ *
+ * Keys belong to the caller that sent them, so two API clients can pick the
+ * same key without colliding. The first request with a key claims it, runs,
+ * and stores its response; later requests with the same key get that
+ * response replayed without touching the database or the gateway. A
+ * duplicate arriving while the original is still running is rejected
+ * instead of being processed twice.
+ *
+ * Only responses that took effect are stored. A FAILED response means
+ * nothing was charged, and is often transient (gateway unavailable, a
+ * failed insert), so its key is released and a retry runs again.
+ *
+ * A request is recognised by a SHA-256 fingerprint of its operation and
+ * business fields. Card numbers and CVVs are left out, so that nothing
+ * derived from them is stored.
+ *
+ * Keys are tracked in two tiers: an in-process map that answers retries
+ * hitting the same instance without a network round trip, and Redis, which
+ * makes the claim visible to every instance. If Redis is unavailable the
+ * in-process tier still protects against duplicates on this instance.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IdempotencyService {
+    
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final int MAX_KEY_LENGTH = 255;
+    
+    private final CacheService cacheService;
+    private final PaymentProperties paymentProperties;
+    private final MeterRegistry meterRegistry;
+    
+    private final Map<String, LocalEntry> localEntries = new ConcurrentHashMap<>();
+    
+    /**
+     * Runs {@code action} once per key of {@code scope}, the authenticated
+     * caller. {@code operation} and {@code request}, a {@link PaymentRequest}
+     * or a transaction ID, identify what the key was used for; reusing the
+     * key for anything else is rejected. Without a key the action simply
+     * runs.
+     */
+    public PaymentResponse execute(String scope, String key, String operation, Object request,
+                                   Supplier<PaymentResponse> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new PaymentException("Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters",
+                    "INVALID_IDEMPOTENCY_KEY");
+        }
+        
+        PaymentProperties.Idempotency config = paymentProperties.getIdempotency();
+        // Encoded so that no scope and key pair can spell another's
+        String storeKey = KEY_PREFIX + URLEncoder.encode(scope, StandardCharsets.UTF_8) + ":" + key;
+        String fingerprint = fingerprint(operation, request);
+        
+        // 1. Claim the key on this instance; retries landing here never leave the process
+        long now = System.currentTimeMillis();
+        LocalEntry claim = new LocalEntry(fingerprint, null, now + config.getInFlightTimeout().toMillis());
+        LocalEntry current = localEntries.compute(storeKey,
+                (k, existing) -> existing == null || existing.expiresAt() <= now ? claim : existing);
+        if (current != claim) {
+            return replay(key, fingerprint, current.fingerprint(), current.response());
+        }
+        
+        // 2. Claim the key across instances
+        StoredResponse stored = claimShared(storeKey, fingerprint, config);
+        if (stored != null) {
+            if (stored.getResponse() != null) {
+                remember(storeKey, claim, fingerprint, stored.getResponse(), config);
+            } else {
+                localEntries.remove(storeKey, claim);
+            }
+            return replay(key, fingerprint, stored.getFingerprint(), stored.getResponse());
+        }
+        
+        // 3. First request with this key: run it and store the response
+        PaymentResponse response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            // Nothing was recorded for the key, so the client may retry with it
+            cacheService.delete(storeKey);
+            localEntries.remove(storeKey, claim);
+            throw e;
+        }
+        
+        if (response.getStatus() == PaymentStatus.FAILED) {
+            cacheService.delete(storeKey);
+            localEntries.remove(storeKey, claim);
+            return response;
+        }
+        
+        cacheService.set(storeKey, new StoredResponse(fingerprint, response), config.getTtl());
+        remember(storeKey, claim, fingerprint, response, config);
+        return response;
+    }
+    
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        localEntries.values().removeIf(entry -> entry.expiresAt() <= now);
+    }
+    
+    private StoredResponse claimShared(String storeKey, String fingerprint, PaymentProperties.Idempotency config) {
+        Boolean claimed = cacheService.setIfAbsent(storeKey, new StoredResponse(fingerprint, null),
+                config.getInFlightTimeout());
+        if (!Boolean.FALSE.equals(claimed)) {
+            // Claimed, or Redis is down and only the local tier applies
+            return null;
+        }
+        
+        Object value = cacheService.get(storeKey);
+        if (value instanceof StoredResponse stored) {
+            return stored;
+        }
+        // The other claim expired between the two calls; let the client retry
+        return new StoredResponse(fingerprint, null);
+    }
+    
+    private void remember(String storeKey, LocalEntry claim, String fingerprint, PaymentResponse response,
+                          PaymentProperties.Idempotency config) {
+        if (localEntries.size() >= config.getLocalMaxEntries()) {
+            // Redis still has the response; just stop growing the local tier
+            localEntries.remove(storeKey, claim);
+            return;
+        }
+        LocalEntry completed = new LocalEntry(fingerprint, response,
+                System.currentTimeMillis() + config.getLocalTtl().toMillis());
+        localEntries.replace(storeKey, claim, completed);
+    }
+    
+    private PaymentResponse replay(String key, String fingerprint, String storedFingerprint, PaymentResponse response) {
+        if (!fingerprint.equals(storedFingerprint)) {
+            meterRegistry.counter("payment.idempotency.rejected", "reason", "reused").increment();
+            throw IdempotencyConflictException.reused(key);
+        }
+        if (response == null) {
+            meterRegistry.counter("payment.idempotency.rejected", "reason", "in_progress").increment();
+            throw IdempotencyConflictException.inProgress(key);
+        }
+        
+        log.info("Replaying stored response for Idempotency-Key {}: {}", key, response.getTransactionId());
+        meterRegistry.counter("payment.idempotency.replayed").increment();
+        return response;
+    }
+    
+    private String fingerprint(String operation, Object request) {
+        String fields = request instanceof PaymentRequest payment ? describe(payment) : String.valueOf(request);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((operation + ":" + fields).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * The fields that make two payment requests the same payment. Of the card
+     * only the last four digits and the expiry are used.
+     */
+    private static String describe(PaymentRequest request) {
+        String cardNumber = request.getCardNumber();
+        String lastFour = cardNumber != null && cardNumber.length() >= 4
+                ? cardNumber.substring(cardNumber.length() - 4)
+                : null;
+        BigDecimal amount = request.getAmount() != null ? request.getAmount().stripTrailingZeros() : null;
+        return String.join("|", String.valueOf(request.getUserId()),
+                amount != null ? amount.toPlainString() : "null",
+                request.getCurrency(), request.getPaymentMethod(), request.getMerchantId(), request.getDescription(),
+                lastFour, request.getExpiryMonth(), request.getExpiryYear());
+    }
+    
+    private record LocalEntry(String fingerprint, PaymentResponse response, long expiresAt) {
+    }
+    
+    /**
+     * Value kept in Redis for a key; a null response marks a request in flight.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class StoredResponse {
+        private String fingerprint;
+        private PaymentResponse response;
+    }
+}
\ No newline at end of file
@@ -1,47 +1,162 @@
 package com.shibam.payments.service;
 
+import com.shibam.payments.cache.MerchantSnapshot;
+import com.shibam.payments.config.PaymentProperties;
 import com.shibam.payments.model.Merchant;
 import com.shibam.payments.repository.MerchantRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Merchant lookups, answered from an in-memory {@link MerchantSnapshot} of
+ * the merchants table rather than a query per payment.
+ *
+ * The snapshot is loaded in full at startup. Every
+ * {@code payment.merchants.refresh-interval} after that, the merchants
+ * updated since the newest {@code updated_at} it holds, less
+ * {@code refresh-overlap} for clock skew and late commits, are merged into a
+ * new snapshot. Merchants created or updated through this service are merged
+ * as soon as their transaction commits; other instances see them at their
+ * next refresh. Each new snapshot replaces the old one in a single write, so
+ * reads never lock. Until the first load succeeds, lookups go to the
+ * database.
+ *
+ * Merchants are deactivated rather than deleted; a row deleted from the
+ * table stays in the snapshot until restart.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
-@Transactional
 public class MerchantService {
     
     private final MerchantRepository merchantRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Duration refreshOverlap;
+    private final Counter refreshFailures;
+    
+    // Null until the first full load succeeds
+    private volatile MerchantSnapshot snapshot;
+    
+    public MerchantService(MerchantRepository merchantRepository, ApplicationEventPublisher eventPublisher,
+                           PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        this.merchantRepository = merchantRepository;
+        this.eventPublisher = eventPublisher;
+        this.refreshOverlap = paymentProperties.getMerchants().getRefreshOverlap();
+        this.refreshFailures = Counter.builder("payment.merchants.refresh.failures")
+                .description("Merchant snapshot refreshes that could not read the database")
+                .register(meterRegistry);
+        Gauge.builder("payment.merchants.snapshot.size", this, MerchantService::snapshotSize)
+                .description("Merchants in the in-memory snapshot")
+                .register(meterRegistry);
+        
+        refresh();
+    }
     
-    @Transactional(readOnly = true)
     public Optional<Merchant> findByMerchantId(String merchantId) {
-        return merchantRepository.findByMerchantId(merchantId);
+        MerchantSnapshot current = snapshot;
+        return current != null ? current.find(merchantId) : merchantRepository.findByMerchantId(merchantId);
     }
     
-    @Transactional(readOnly = true)
     public List<Merchant> findActiveMerchants() {
-        return merchantRepository.findByIsActive(true);
+        MerchantSnapshot current = snapshot;
+        return current != null ? current.active() : merchantRepository.findByIsActive(true);
+    }
+    
+    public List<Merchant> findByCountry(String country) {
+        MerchantSnapshot current = snapshot;
+        return current != null ? current.inCountry(country) : merchantRepository.findByCountry(country);
     }
     
-    @Transactional(readOnly = true)
     public boolean isValidMerchant(String merchantId) {
+        MerchantSnapshot current = snapshot;
+        if (current != null) {
+            return current.isActive(merchantId);
+        }
         return merchantRepository.findByMerchantId(merchantId)
                 .map(Merchant::getIsActive)
                 .orElse(false);
     }
     
+    @Transactional
     public Merchant createMerchant(Merchant merchant) {
         log.info("Creating new merchant: {}", merchant.getMerchantId());
-        return merchantRepository.save(merchant);
+        Merchant saved = merchantRepository.save(merchant);
+        eventPublisher.publishEvent(new MerchantChanged(saved));
+        return saved;
     }
     
+    @Transactional
     public Merchant updateMerchant(Merchant merchant) {
         log.info("Updating merchant: {}", merchant.getMerchantId());
-        return merchantRepository.save(merchant);
+        Merchant saved = merchantRepository.save(merchant);
+        eventPublisher.publishEvent(new MerchantChanged(saved));
+        return saved;
+    }
+    
+    /**
+     * Merges a merchant into the snapshot once the transaction that created
+     * or updated it has committed.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMerchantChanged(MerchantChanged event) {
+        merge(List.of(event.merchant()));
+    }
+    
+    /**
+     * Loads every merchant if the snapshot is not loaded yet, and otherwise
+     * merges the ones updated since the last refresh.
+     */
+    @Scheduled(fixedDelayString = "${payment.merchants.refresh-interval:10000}")
+    public void refresh() {
+        try {
+            MerchantSnapshot current = snapshot;
+            if (current == null) {
+                load(merchantRepository.findAll());
+                log.info("Loaded {} merchants", snapshot.size());
+            } else if (current.lastUpdatedAt() == null) {
+                merge(merchantRepository.findAll());
+            } else {
+                List<Merchant> changed = merchantRepository.findByUpdatedAtGreaterThanEqual(
+                        current.lastUpdatedAt().minus(refreshOverlap));
+                merge(changed);
+                log.debug("Merged {} recently updated merchants", changed.size());
+            }
+        } catch (Exception e) {
+            refreshFailures.increment();
+            log.warn("Could not refresh merchants, keeping the current snapshot: {}", e.getMessage());
+        }
+    }
+    
+    private synchronized void load(Collection<Merchant> merchants) {
+        snapshot = snapshot != null ? snapshot.withChanges(merchants) : MerchantSnapshot.of(merchants);
+    }
+    
+    private synchronized void merge(Collection<Merchant> merchants) {
+        // Before the first load, lookups still go to the database, which already has the change
+        if (snapshot != null) {
+            snapshot = snapshot.withChanges(merchants);
+        }
+    }
+    
+    private int snapshotSize() {
+        MerchantSnapshot current = snapshot;
+        return current != null ? current.size() : 0;
+    }
+    
+    /**
+     * Published when a merchant is created or updated.
+     */
+    public record MerchantChanged(Merchant merchant) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assigns this instance a node id for {@link TransactionIdGenerator}.
+ *
+ * A node id set in {@code payment.id-generator.node-id} always wins. Otherwise
+ * each pod leases a free id in Redis, starting from a hash of its pod name, and
+ * keeps renewing it while running. If Redis cannot be reached at startup the
+ * hash itself is used, which is unique with high probability for a handful of
+ * replicas but not guaranteed.
+ *
+ * Renewal runs on its own thread, so slow scheduled jobs cannot delay it, and
+ * only extends the lease if this pod still holds it. A lease found expired or
+ * taken is re-acquired, possibly under another node id. Until a lease is held
+ * again, and once the last renewal is older than the lease TTL, no ids are
+ * issued: {@link #currentNodeId()} throws rather than risk a collision.
+ */
+@Component
+@Slf4j
+public class NodeIdLease {
+    
+    private static final String KEY_PREFIX = "txn-node:";
+    
+    private final CacheService cacheService;
+    private final Duration leaseTtl;
+    private final String owner;
+    private final boolean leased;
+    private final ScheduledExecutorService renewer;
+    
+    private volatile int nodeId;
+    // System.nanoTime() after which the lease may have expired in Redis
+    private volatile long leaseValidUntil;
+    
+    public NodeIdLease(CacheService cacheService, PaymentProperties paymentProperties, Environment environment) {
+        PaymentProperties.IdGenerator config = paymentProperties.getIdGenerator();
+        this.cacheService = cacheService;
+        this.leaseTtl = config.getLeaseTtl();
+        this.owner = podName(environment);
+        
+        if (config.getNodeId() >= 0) {
+            this.nodeId = config.getNodeId();
+            this.leased = false;
+            this.renewer = null;
+            log.info("Using configured transaction id node {}", nodeId);
+            return;
+        }
+        
+        int preferred = Math.floorMod(owner.hashCode(), TransactionIdGenerator.MAX_NODE_ID + 1);
+        long startTime = System.nanoTime();
+        int acquired = acquire(preferred);
+        this.leased = acquired >= 0;
+        this.nodeId = leased ? acquired : preferred;
+        if (!leased) {
+            this.renewer = null;
+            log.warn("Could not lease a transaction id node, falling back to hashed node {} for {}", nodeId, owner);
+            return;
+        }
+        
+        this.leaseValidUntil = startTime + leaseTtl.toNanos();
+        log.info("Leased transaction id node {} for {}", nodeId, owner);
+        
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("txn-node-lease-");
+        threadFactory.setDaemon(true);
+        this.renewer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long interval = config.getLeaseRenewInterval().toMillis();
+        renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * The node id to stamp on new transaction ids.
+     *
+     * @throws IllegalStateException if the leased node id may now belong to another pod
+     */
+    public int currentNodeId() {
+        if (leased && leaseValidUntil - System.nanoTime() <= 0) {
+            throw new IllegalStateException("Transaction id node lease for " + owner + " has lapsed");
+        }
+        return nodeId;
+    }
+    
+    public void renew() {
+        if (!leased) {
+            return;
+        }
+        try {
+            long startTime = System.nanoTime();
+            Boolean renewed = cacheService.renewIfOwner(KEY_PREFIX + nodeId, owner, leaseTtl);
+            if (Boolean.TRUE.equals(renewed)) {
+                leaseValidUntil = startTime + leaseTtl.toNanos();
+            } else if (renewed == null) {
+                // Redis still holds the lease until it expires; ids stop once it may have
+                log.warn("Could not renew transaction id node {}, lease lapses in {} ms", nodeId,
+                        TimeUnit.NANOSECONDS.toMillis(Math.max(0, leaseValidUntil - System.nanoTime())));
+            } else {
+                leaseValidUntil = startTime;
+                log.error("Lost the lease on transaction id node {}, re-acquiring", nodeId);
+                reacquire(startTime);
+            }
+        } catch (Exception e) {
+            log.error("Transaction id node lease renewal failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    @PreDestroy
+    public void release() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+        }
+        if (leased) {
+            cacheService.deleteIfOwner(KEY_PREFIX + nodeId, owner);
+        }
+    }
+    
+    private void reacquire(long startTime) {
+        int acquired = acquire(nodeId);
+        if (acquired < 0) {
+            log.error("Could not lease a transaction id node; transaction ids are suspended");
+            return;
+        }
+        nodeId = acquired;
+        leaseValidUntil = startTime + leaseTtl.toNanos();
+        log.info("Leased transaction id node {} for {}", nodeId, owner);
+    }
+    
+    private int acquire(int preferred) {
+        for (int i = 0; i <= TransactionIdGenerator.MAX_NODE_ID; i++) {
+            int candidate = (preferred + i) & TransactionIdGenerator.MAX_NODE_ID;
+            Boolean claimed = cacheService.setIfAbsent(KEY_PREFIX + candidate, owner, leaseTtl);
+            if (claimed == null) {
+                return -1;
+            }
+            if (claimed || owner.equals(cacheService.get(KEY_PREFIX + candidate))) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+    
+    private static String podName(Environment environment) {
+        String podName = environment.getProperty("POD_NAME", environment.getProperty("HOSTNAME"));
+        if (podName != null) {
+            return podName;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown-" + ProcessHandle.current().pid();
+        }
+    }
+}
\ No newline at end of file
@@ -2,57 +2,47 @@ package com.shibam.payments.service;
 
 import com.shibam.payments.model.Payment;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 @Service
 @Slf4j
 public class NotificationService {
     
-    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final OutboxService outboxService;
     
-    public NotificationService(KafkaTemplate<String, Object> kafkaTemplate) {
-        this.kafkaTemplate = kafkaTemplate;
+    public NotificationService(OutboxService outboxService) {
+        this.outboxService = outboxService;
     }
     
+    // Notifications go through the outbox in the caller's transaction; OutboxRelay sends them to Kafka
     public void sendPaymentNotification(Payment payment) {
-        try {
-            PaymentNotificationEvent event = PaymentNotificationEvent.builder()
-                    .transactionId(payment.getTransactionId())
-                    .userId(payment.getUserId())
-                    .amount(payment.getAmount())
-                    .currency(payment.getCurrency())
-                    .status(payment.getStatus().toString())
-                    .paymentMethod(payment.getPaymentMethod())
-                    .merchantId(payment.getMerchantId())
-                    .timestamp(payment.getUpdatedAt())
-                    .build();
-            
-            kafkaTemplate.send("payment-notifications", payment.getTransactionId(), event);
-            log.info("Payment notification sent: {}", payment.getTransactionId());
-            
-        } catch (Exception e) {
-            log.error("Failed to send payment notification: {}", e.getMessage(), e);
-        }
+        PaymentNotificationEvent event = PaymentNotificationEvent.builder()
+                .transactionId(payment.getTransactionId())
+                .userId(payment.getUserId())
+                .amount(payment.getAmount())
+                .currency(payment.getCurrency())
+                .status(payment.getStatus().toString())
+                .paymentMethod(payment.getPaymentMethod())
+                .merchantId(payment.getMerchantId())
+                .timestamp(payment.getUpdatedAt())
+                .build();
+        
+        outboxService.enqueue("payment-notifications", payment.getTransactionId(), event);
+        log.info("Payment notification queued: {}", payment.getTransactionId());
     }
     
     public void sendRefundNotification(Payment payment) {
-        try {
-            RefundNotificationEvent event = RefundNotificationEvent.builder()
-                    .transactionId(payment.getTransactionId())
-                    .userId(payment.getUserId())
-                    .amount(payment.getAmount())
-                    .currency(payment.getCurrency())
-                    .merchantId(payment.getMerchantId())
-                    .timestamp(payment.getUpdatedAt())
-                    .build();
-            
-            kafkaTemplate.send("refund-notifications", payment.getTransactionId(), event);
-            log.info("Refund notification sent: {}", payment.getTransactionId());
-            
-        } catch (Exception e) {
-            log.error("Failed to send refund notification: {}", e.getMessage(), e);
-        }
+        RefundNotificationEvent event = RefundNotificationEvent.builder()
+                .transactionId(payment.getTransactionId())
+                .userId(payment.getUserId())
+                .amount(payment.getAmount())
+                .currency(payment.getCurrency())
+                .merchantId(payment.getMerchantId())
+                .timestamp(payment.getUpdatedAt())
+                .build();
+        
+        outboxService.enqueue("refund-notifications", payment.getTransactionId(), event);
+        log.info("Refund notification queued: {}", payment.getTransactionId());
     }
     
     // Email notification (simplified)
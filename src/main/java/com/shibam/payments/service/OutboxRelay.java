@@ -0,0 +1,198 @@
+package com.shibam.payments.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.model.OutboxEvent;
+import com.shibam.payments.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains the outbox table to Kafka.
+ *
+ * Each round claims the oldest events in a short transaction, sends them as
+ * one batch with no transaction or row lock held, and then, in a second
+ * transaction, deletes the ones Kafka acknowledged and releases the rest.
+ * Events are sent in outbox order and only an unbroken prefix of
+ * acknowledged events is deleted, so a failed event is retried before
+ * anything after it: delivery is at-least-once and ordered per key.
+ *
+ * Only one relay publishes at a time. Claiming locks the head of the outbox
+ * with NOWAIT, and a head that holds another relay's claim is left alone
+ * until the claim expires after {@code payment.outbox.claim-timeout}, so the
+ * events of a relay that died mid-send are sent again.
+ */
+@Component
+@Slf4j
+public class OutboxRelay {
+    
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final PaymentProperties.Outbox config;
+    
+    private final Counter published;
+    private final Counter failures;
+    private final AtomicLong lagMillis = new AtomicLong();
+    
+    public OutboxRelay(OutboxEventRepository outboxEventRepository, KafkaTemplate<String, Object> kafkaTemplate,
+                       ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                       PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.config = paymentProperties.getOutbox();
+        
+        this.published = Counter.builder("payment.outbox.published")
+                .description("Outbox events delivered to Kafka")
+                .register(meterRegistry);
+        this.failures = Counter.builder("payment.outbox.failures")
+                .description("Outbox events that could not be delivered on a relay round")
+                .register(meterRegistry);
+        Gauge.builder("payment.outbox.lag", lagMillis, AtomicLong::get)
+                .description("Age of the oldest undelivered outbox event")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.outbox.poll-interval:200}")
+    public void relay() {
+        // Keep going while rounds come back full, so a backlog drains without waiting for the next poll
+        int delivered;
+        do {
+            delivered = relayBatch();
+        } while (delivered == config.getBatchSize());
+    }
+    
+    /**
+     * Publishes one batch and returns how many events were delivered.
+     */
+    public int relayBatch() {
+        List<OutboxEvent> batch;
+        try {
+            batch = transactionTemplate.execute(status -> claimNextBatch());
+        } catch (PessimisticLockingFailureException e) {
+            log.debug("Another relay is claiming the outbox, skipping this round");
+            return 0;
+        }
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+        
+        List<Long> delivered = publish(batch);
+        List<Long> undelivered = ids(batch.subList(delivered.size(), batch.size()));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!delivered.isEmpty()) {
+                    outboxEventRepository.deleteAllByIdInBatch(delivered);
+                }
+                if (!undelivered.isEmpty()) {
+                    outboxEventRepository.updateClaimedUntil(undelivered, null);
+                }
+            });
+        } catch (DataAccessException e) {
+            // The claim expires and the batch is sent again
+            log.warn("Could not record delivery of {} outbox events: {}", delivered.size(), e.getMessage());
+            return 0;
+        }
+        
+        published.increment(delivered.size());
+        log.debug("Relayed {} of {} outbox events", delivered.size(), batch.size());
+        return delivered.size();
+    }
+    
+    private List<OutboxEvent> claimNextBatch() {
+        List<OutboxEvent> head = outboxEventRepository.lockNextBatch(config.getBatchSize());
+        if (head.isEmpty()) {
+            lagMillis.set(0);
+            return head;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        lagMillis.set(Duration.between(head.get(0).getCreatedAt(), now).toMillis());
+        
+        boolean claimed = head.stream()
+                .anyMatch(event -> event.getClaimedUntil() != null && event.getClaimedUntil().isAfter(now));
+        if (claimed) {
+            log.debug("Another relay is publishing the outbox, skipping this round");
+            return List.of();
+        }
+        outboxEventRepository.updateClaimedUntil(ids(head), now.plus(config.getClaimTimeout()));
+        return head;
+    }
+    
+    /**
+     * Sends the batch and returns the ids of the unbroken prefix Kafka acknowledged.
+     */
+    private List<Long> publish(List<OutboxEvent> batch) {
+        // Send the whole batch before waiting, so the producer can pack it into few requests
+        List<CompletableFuture<SendResult<String, Object>>> sends = new ArrayList<>(batch.size());
+        for (OutboxEvent event : batch) {
+            sends.add(send(event));
+        }
+        
+        List<Long> delivered = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxEvent event = batch.get(i);
+            if (sends.get(i) == null) {
+                // Undecodable payloads can never be delivered; drop them rather than block the outbox
+                delivered.add(event.getId());
+                continue;
+            }
+            try {
+                sends.get(i).get(config.getSendTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                delivered.add(event.getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // Later events stay in the outbox too, so they cannot overtake this one
+                failures.increment();
+                log.warn("Failed to deliver outbox event {} to {}: {}", event.getId(), event.getTopic(), e.getMessage());
+                break;
+            }
+        }
+        return delivered;
+    }
+    
+    private CompletableFuture<SendResult<String, Object>> send(OutboxEvent event) {
+        Object payload;
+        try {
+            payload = objectMapper.readValue(event.getPayload(), Class.forName(event.getPayloadType()));
+        } catch (Exception e) {
+            failures.increment();
+            log.error("Dropping outbox event {} with undecodable {} payload: {}", event.getId(),
+                    event.getPayloadType(), event.getPayload(), e);
+            return null;
+        }
+        
+        try {
+            return kafkaTemplate.send(event.getTopic(), event.getMessageKey(), payload);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    private static List<Long> ids(List<OutboxEvent> events) {
+        return events.stream().map(OutboxEvent::getId).toList();
+    }
+}
\ No newline at end of file
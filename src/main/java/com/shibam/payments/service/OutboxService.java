@@ -0,0 +1,41 @@
+package com.shibam.payments.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.model.OutboxEvent;
+import com.shibam.payments.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Records Kafka events in the outbox table instead of sending them inline.
+ *
+ * Called inside the transaction that changes the payment, so the event is
+ * stored if and only if the change commits. {@link OutboxRelay} delivers it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxService {
+    
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+    
+    @Transactional
+    public void enqueue(String topic, String key, Object payload) {
+        OutboxEvent event = new OutboxEvent();
+        event.setTopic(topic);
+        event.setMessageKey(key);
+        event.setPayloadType(payload.getClass().getName());
+        try {
+            event.setPayload(objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize " + topic + " event for " + key, e);
+        }
+        
+        outboxEventRepository.save(event);
+        log.debug("Queued {} event for {}", topic, key);
+    }
+}
\ No newline at end of file
@@ -1,13 +1,17 @@
 package com.shibam.payments.service;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class PaymentNotificationEvent {
     private String transactionId;
     private Long userId;
@@ -21,6 +25,8 @@ public class PaymentNotificationEvent {
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 class RefundNotificationEvent {
     private String transactionId;
     private Long userId;
@@ -0,0 +1,70 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.repository.PaymentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Periodically resolves payments whose gateway outcome was never recorded.
+ *
+ * Payments claimed for a gateway call more than {@code pending-timeout} ago
+ * are settled by asking the gateway; the timeout is longer than any gateway
+ * call, so a live worker is never overtaken. Payments still PENDING may be
+ * waiting in a work queue, so they are left alone until
+ * {@code queued-timeout}, and are then failed without a gateway call.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentRecoveryJob {
+    
+    private final PaymentRepository paymentRepository;
+    private final PaymentService paymentService;
+    private final PaymentProperties paymentProperties;
+    private final AsyncTaskExecutor paymentTaskExecutor;
+    
+    @Scheduled(fixedDelayString = "${payment.recovery.interval:60000}")
+    public void recoverPendingPayments() {
+        PaymentProperties.Recovery recovery = paymentProperties.getRecovery();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minus(recovery.getPendingTimeout());
+        LocalDateTime queuedCutoff = now.minus(recovery.getQueuedTimeout());
+        
+        List<Payment> stale = new ArrayList<>(paymentRepository.findByStatusAndUpdatedAtBefore(
+                PaymentStatus.PROCESSING, cutoff, PageRequest.of(0, recovery.getBatchSize())));
+        stale.addAll(paymentRepository.findByStatusAndUpdatedAtBefore(
+                PaymentStatus.PENDING, queuedCutoff, PageRequest.of(0, recovery.getBatchSize())));
+        if (stale.isEmpty()) {
+            return;
+        }
+        
+        log.info("Found {} payments processing since before {} or queued since before {}", stale.size(), cutoff,
+                queuedCutoff);
+        
+        // Gateway inquiries are independent, so run them concurrently rather than one round trip at a time
+        CompletableFuture<?>[] resolutions = stale.stream()
+                .map(payment -> CompletableFuture.runAsync(() -> resolve(payment), paymentTaskExecutor))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(resolutions).join();
+    }
+    
+    private void resolve(Payment payment) {
+        try {
+            paymentService.resolvePendingPayment(payment);
+        } catch (Exception e) {
+            log.error("Failed to resolve pending payment {}: {}", payment.getTransactionId(), e.getMessage(), e);
+        }
+    }
+}
\ No newline at end of file
@@ -1,110 +1,456 @@
 package com.shibam.payments.service;
 
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.BatchPaymentResponse;
+import com.shibam.payments.dto.PaymentLookupResponse;
 import com.shibam.payments.dto.PaymentRequest;
 import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.RateLimitExceededException;
+import com.shibam.payments.exception.ServiceBusyException;
 import com.shibam.payments.model.Payment;
 import com.shibam.payments.model.Payment.PaymentStatus;
 import com.shibam.payments.repository.PaymentRepository;
+import com.shibam.payments.service.PreAuthorizationService.Screening;
+import com.shibam.payments.service.VelocityService.Reservation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-@Transactional
 public class PaymentService {
     
     private final PaymentRepository paymentRepository;
-    private final FraudDetectionService fraudDetectionService;
     private final PaymentGatewayService paymentGatewayService;
-    private final NotificationService notificationService;
-    private final MerchantService merchantService;
-    private final AuditService auditService;
     private final CacheService cacheService;
+    private final PaymentStateService paymentStateService;
+    private final FraudReviewService fraudReviewService;
+    private final PreAuthorizationService preAuthorizationService;
+    private final RateLimitService rateLimitService;
+    private final PaymentWorkQueue paymentWorkQueue;
+    private final PaymentProperties paymentProperties;
+    private final TaskExecutor paymentTaskExecutor;
+    private final TransactionIdGenerator transactionIdGenerator;
     
+    /**
+     * Runs the payment through validation, fraud checks and the gateway.
+     *
+     * No transaction spans this method: the PENDING insert, the PROCESSING
+     * claim and the final status update are separate short transactions, and
+     * the gateway call runs without holding a database connection. A crash or
+     * gateway error after the claim leaves the payment PROCESSING, where
+     * {@link #resolvePendingPayment(Payment)} picks it up.
+     *
+     * @throws RateLimitExceededException if the merchant or user is over its rate limit
+     */
     public PaymentResponse processPayment(PaymentRequest request) {
         log.info("Processing payment for user: {}, amount: {}", request.getUserId(), request.getAmount());
+        rateLimitService.checkPayment(request);
         
+        Admission admission;
         try {
-            // 1. Generate unique transaction ID
-            String transactionId = generateTransactionId();
-            
-            // 2. Validate payment request
-            validatePaymentRequest(request);
-            
-            // 2.1. Validate merchant
-            if (!merchantService.isValidMerchant(request.getMerchantId())) {
-                log.warn("Invalid merchant: {}", request.getMerchantId());
-                return PaymentResponse.error(transactionId, "Invalid merchant ID");
-            }
-            
-            // 3. Fraud detection check
-            if (!fraudDetectionService.isPaymentSafe(request)) {
-                log.warn("Payment blocked by fraud detection: {}", transactionId);
-                return PaymentResponse.error(transactionId, "Payment blocked by security checks");
-            }
-            
-            // 4. Create payment record
-            Payment payment = createPayment(request, transactionId);
-            payment = paymentRepository.save(payment);
-            
-            // 4.1. Audit payment creation
-            auditService.auditPaymentCreated(payment);
-            
-            // 4.2. Cache payment for quick lookup
-            cacheService.set("payment:" + transactionId, payment, java.time.Duration.ofMinutes(15));
-            
-            // 5. Process with payment gateway
-            PaymentResponse gatewayResponse = paymentGatewayService.processPayment(payment);
-            
-            // 6. Update payment status
-            PaymentStatus oldStatus = payment.getStatus();
-            payment.setStatus(gatewayResponse.getStatus());
-            payment.setGatewayResponse(gatewayResponse.getMessage());
-            payment = paymentRepository.save(payment);
-            
-            // 6.1. Audit status change
-            auditService.auditPaymentStatusChanged(payment, oldStatus.toString(), payment.getStatus().toString());
-            
-            // 6.2. Update cache
-            cacheService.set("payment:" + transactionId, payment, java.time.Duration.ofMinutes(15));
-            
-            // 7. Send notification
-            notificationService.sendPaymentNotification(payment);
-            
-            log.info("Payment processed successfully: {}", transactionId);
-            return mapToResponse(payment);
-            
+            // Nobody polls for a payment processed synchronously, so only its outcome is cached
+            admission = admit(request, false);
         } catch (Exception e) {
             log.error("Payment processing failed: {}", e.getMessage(), e);
             return PaymentResponse.error(null, "Payment processing failed: " + e.getMessage());
         }
+        if (admission.rejection() != null) {
+            return admission.rejection();
+        }
+        
+        // 5-7. Authorize with the gateway and record the outcome; from here on a failure is not a decline
+        return authorizeSafely(admission.payment());
     }
     
-    @Transactional(readOnly = true)
+    /**
+     * Validates and records the payment, then hands gateway processing to the
+     * bounded {@link PaymentWorkQueue} and returns immediately with the PENDING
+     * payment. Callers poll {@link #getPaymentByTransactionId(String)} for the
+     * outcome.
+     *
+     * @throws ServiceBusyException if the work queue is full
+     * @throws RateLimitExceededException if the merchant or user is over its rate limit
+     */
+    public PaymentResponse submitPayment(PaymentRequest request) {
+        log.info("Submitting payment for user: {}, amount: {}", request.getUserId(), request.getAmount());
+        rateLimitService.checkPayment(request);
+        
+        // Refuse before persisting anything if there is no room to process the payment
+        if (!paymentWorkQueue.hasCapacity()) {
+            throw serviceBusy();
+        }
+        
+        Admission admission;
+        try {
+            admission = admit(request, true);
+        } catch (Exception e) {
+            log.error("Payment submission failed: {}", e.getMessage(), e);
+            return PaymentResponse.error(null, "Payment processing failed: " + e.getMessage());
+        }
+        if (admission.rejection() != null) {
+            return admission.rejection();
+        }
+        
+        Payment payment = admission.payment();
+        try {
+            paymentWorkQueue.submit(() -> authorizeQueued(payment));
+        } catch (RejectedExecutionException e) {
+            log.warn("Payment queue filled up before {} could be queued", payment.getTransactionId());
+            paymentStateService.transition(payment.getTransactionId(), PaymentStatus.PENDING, PaymentStatus.FAILED,
+                    "Payment queue is full");
+            throw serviceBusy();
+        }
+        
+        PaymentResponse response = mapToResponse(payment);
+        response.setMessage("Payment accepted for processing");
+        return response;
+    }
+    
+    /**
+     * Processes a batch of payments, such as marketplace payouts or
+     * subscription renewals, and returns one result per request in request
+     * order.
+     *
+     * Validation and fraud checks run in parallel, every admitted payment is
+     * inserted as PENDING in a single batched transaction, and the gateway
+     * calls are dispatched with at most {@code payment.batch.concurrency} in
+     * flight. A rejected item does not affect the rest of the batch.
+     */
+    public BatchPaymentResponse processBatch(List<PaymentRequest> requests) {
+        log.info("Processing batch of {} payments", requests.size());
+        int concurrency = paymentProperties.getBatch().getConcurrency();
+        
+        // 1-3. Validate, merchant and fraud check every payment in parallel
+        List<Admission> screenings = mapBounded(requests, concurrency, this::screenBatchItem);
+        
+        // 4. Record all admitted payments as PENDING in one transaction
+        List<Payment> admitted = screenings.stream()
+                .map(Admission::payment)
+                .filter(Objects::nonNull)
+                .toList();
+        List<PaymentResponse> outcomes;
+        try {
+            List<Payment> saved = paymentStateService.createPendingBatch(admitted);
+            saved.forEach(this::cachePayment);
+            
+            // 5-7. Authorize with the gateway and record the outcomes
+            outcomes = mapBounded(saved, concurrency, this::authorizeSafely);
+        } catch (Exception e) {
+            // The batch insert rolled back, so none of the admitted payments exist or count towards velocity
+            log.error("Batch insert of {} payments failed: {}", admitted.size(), e.getMessage(), e);
+            screenings.stream()
+                    .filter(screening -> screening.payment() != null)
+                    .forEach(screening -> preAuthorizationService.release(screening.reservation()));
+            outcomes = admitted.stream()
+                    .map(payment -> PaymentResponse.error(null, "Payment processing failed: " + e.getMessage()))
+                    .toList();
+        }
+        
+        // Put rejections and gateway outcomes back into request order
+        List<PaymentResponse> results = new ArrayList<>(requests.size());
+        Iterator<PaymentResponse> outcome = outcomes.iterator();
+        for (Admission screening : screenings) {
+            results.add(screening.rejection() != null ? screening.rejection() : outcome.next());
+        }
+        
+        log.info("Batch processed: {} payments, {} admitted", requests.size(), admitted.size());
+        return BatchPaymentResponse.of(results);
+    }
+    
+    /**
+     * Steps 1-4 shared by the synchronous and asynchronous flows: validation,
+     * merchant and fraud checks, then the PENDING insert. The PENDING payment
+     * is only cached when {@code cachePending} is set, for callers that poll
+     * for it.
+     */
+    private Admission admit(PaymentRequest request, boolean cachePending) {
+        Admission admission = screen(request, true);
+        if (admission.rejection() != null) {
+            return admission;
+        }
+        
+        // 4. Record the payment as PENDING, taking it back out of the velocity counters if that fails
+        Payment payment;
+        try {
+            payment = paymentStateService.createPending(admission.payment());
+        } catch (RuntimeException e) {
+            preAuthorizationService.release(admission.reservation());
+            throw e;
+        }
+        if (cachePending) {
+            cachePayment(payment);
+        }
+        
+        return Admission.accepted(payment, admission.reservation());
+    }
+    
+    /**
+     * Steps 1-3: validation, then the velocity, merchant and fraud checks. An
+     * accepted admission carries a payment that has not been persisted yet.
+     * Batch items are already screened in parallel with each other, so they
+     * run their checks one after another instead of fanning out again.
+     */
+    private Admission screen(PaymentRequest request, boolean parallelChecks) {
+        // 1. Generate unique transaction ID
+        String transactionId = generateTransactionId();
+        
+        // 2. Validate payment request
+        validatePaymentRequest(request);
+        
+        // 3. Velocity, merchant and fraud checks
+        Screening screening = parallelChecks
+                ? preAuthorizationService.check(request, transactionId)
+                : preAuthorizationService.checkSequentially(request, transactionId);
+        if (screening.rejection() != null) {
+            return Admission.rejected(screening.rejection());
+        }
+        
+        return Admission.accepted(createPayment(request, transactionId), screening.reservation());
+    }
+    
+    private Admission screenBatchItem(PaymentRequest request) {
+        try {
+            rateLimitService.checkPayment(request);
+            return screen(request, false);
+        } catch (Exception e) {
+            log.warn("Batch payment rejected for user {}: {}", request.getUserId(), e.getMessage());
+            return Admission.rejected(PaymentResponse.error(null, "Payment processing failed: " + e.getMessage()));
+        }
+    }
+    
+    // Audit events and notifications are written by PaymentStateService with each change
+    private void cachePayment(Payment payment) {
+        cacheService.set("payment:" + payment.getTransactionId(), payment, java.time.Duration.ofMinutes(15));
+    }
+    
+    private PaymentResponse authorizeSafely(Payment payment) {
+        try {
+            return authorize(payment);
+        } catch (Exception e) {
+            // The payment is persisted as PENDING or PROCESSING, so recovery will settle it
+            log.error("Authorization failed for {}: {}", payment.getTransactionId(), e.getMessage(), e);
+            return outcomeUnknown(payment);
+        }
+    }
+    
+    /**
+     * Applies {@code task} to every item on the payment executor with at most
+     * {@code concurrency} tasks in flight, preserving item order. The task
+     * must not throw. If the executor is saturated, the caller runs the task.
+     */
+    private <T, R> List<R> mapBounded(List<T> items, int concurrency, Function<T, R> task) {
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+        
+        for (T item : items) {
+            permits.acquireUninterruptibly();
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> task.apply(item), paymentTaskExecutor)
+                        .whenComplete((result, error) -> permits.release()));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                futures.add(CompletableFuture.completedFuture(task.apply(item)));
+            }
+        }
+        
+        return futures.stream()
+                .map(CompletableFuture::join)
+                .toList();
+    }
+    
+    private void authorizeQueued(Payment payment) {
+        try {
+            authorize(payment);
+        } catch (Exception e) {
+            // Whatever happened, the payment is still PENDING or PROCESSING and recovery will settle it
+            log.error("Asynchronous processing failed for {}: {}", payment.getTransactionId(), e.getMessage(), e);
+        }
+    }
+    
+    private ServiceBusyException serviceBusy() {
+        return new ServiceBusyException("Payment queue is full, please retry later",
+                paymentProperties.getAsync().getRetryAfter().toSeconds());
+    }
+    
+    private PaymentResponse authorize(Payment payment) {
+        String transactionId = payment.getTransactionId();
+        
+        // 5. Claim the payment, unless recovery expired it while it was queued
+        if (!paymentStateService.claim(transactionId)) {
+            log.warn("Payment {} is no longer PENDING, not sending it to the gateway", transactionId);
+            return currentState(transactionId);
+        }
+        payment.setStatus(PaymentStatus.PROCESSING);
+        
+        // 5.1. Process with payment gateway
+        PaymentResponse gatewayResponse;
+        try {
+            gatewayResponse = paymentGatewayService.processPayment(payment);
+        } catch (Exception e) {
+            // The acquirer may or may not have authorized the payment, so leave it PROCESSING for recovery
+            log.error("Gateway outcome unknown for payment {}: {}", transactionId, e.getMessage(), e);
+            return outcomeUnknown(payment);
+        }
+        if (gatewayResponse.getStatus() == PaymentStatus.PENDING) {
+            return outcomeUnknown(payment);
+        }
+        
+        // 6. Update payment status
+        Optional<Payment> updated = paymentStateService.transition(
+                transactionId, PaymentStatus.PROCESSING, gatewayResponse.getStatus(), gatewayResponse.getMessage());
+        if (updated.isEmpty()) {
+            return currentState(transactionId);
+        }
+        
+        // 6.1. Cache the final state
+        payment = updated.get();
+        cachePayment(payment);
+        
+        // 7. Deep fraud scoring runs after authorization and before capture
+        if (payment.getStatus() == PaymentStatus.AUTHORIZED) {
+            fraudReviewService.review(payment);
+        }
+        
+        log.info("Payment processed successfully: {}", transactionId);
+        return mapToResponse(payment);
+    }
+    
+    /**
+     * Settles a payment that {@link PaymentRecoveryJob} found stuck.
+     *
+     * A PROCESSING payment was claimed for a gateway call whose outcome was
+     * never recorded, typically because the process died or the call failed
+     * after the claim. The gateway is asked for the authoritative outcome;
+     * payments it still cannot confirm stay PROCESSING.
+     *
+     * A PENDING payment was never claimed, so it never reached the gateway:
+     * the queue that held it was lost or is far behind. It is failed, and a
+     * worker that dequeues it later finds it no longer PENDING and skips it.
+     */
+    public void resolvePendingPayment(Payment payment) {
+        String transactionId = payment.getTransactionId();
+        if (payment.getStatus() == PaymentStatus.PENDING) {
+            log.warn("Payment {} was never sent to the gateway, failing it", transactionId);
+            paymentStateService.transition(transactionId, PaymentStatus.PENDING, PaymentStatus.FAILED,
+                    "Payment was not processed in time").ifPresent(this::cachePayment);
+            return;
+        }
+        log.info("Resolving payment with unknown outcome: {}", transactionId);
+        
+        PaymentResponse inquiry = paymentGatewayService.inquirePayment(payment);
+        if (inquiry.getStatus() == PaymentStatus.PENDING) {
+            log.warn("Gateway could not confirm outcome for {}, will retry", transactionId);
+            return;
+        }
+        
+        paymentStateService.transition(transactionId, PaymentStatus.PROCESSING, inquiry.getStatus(), inquiry.getMessage())
+                .ifPresent(resolved -> {
+                    cachePayment(resolved);
+                    log.info("Recovered payment {} as {}", transactionId, resolved.getStatus());
+                    if (resolved.getStatus() == PaymentStatus.AUTHORIZED) {
+                        fraudReviewService.review(resolved);
+                    }
+                });
+    }
+    
+    private PaymentResponse currentState(String transactionId) {
+        return paymentRepository.findByTransactionId(transactionId)
+                .map(this::mapToResponse)
+                .orElseGet(() -> PaymentResponse.error(transactionId, "Payment not found"));
+    }
+    
+    private PaymentResponse outcomeUnknown(Payment payment) {
+        PaymentResponse response = mapToResponse(payment);
+        response.setMessage("Payment outcome pending confirmation from gateway");
+        return response;
+    }
+    
+    /**
+     * Looks the payment up in the cache, then the database. Concurrent pollers
+     * of an uncached payment share one query, and a transaction ID that does
+     * not exist is remembered for {@code payment.cache.negative-ttl}.
+     */
     public Optional<PaymentResponse> getPaymentByTransactionId(String transactionId) {
-        // Try cache first
-        Payment cachedPayment = (Payment) cacheService.get("payment:" + transactionId);
-        if (cachedPayment != null) {
-            log.debug("Payment found in cache: {}", transactionId);
-            return Optional.of(mapToResponse(cachedPayment));
+        Payment payment = cacheService.getOrLoad("payment:" + transactionId, java.time.Duration.ofMinutes(15),
+                () -> paymentRepository.findByTransactionId(transactionId).orElse(null));
+        return Optional.ofNullable(payment).map(this::mapToResponse);
+    }
+    
+    /**
+     * Looks up many payments at once, for reconciliation and support tooling.
+     *
+     * Cached payments are read in one cache round trip and the rest with a
+     * single query, whose results are cached in one pipeline. Transaction
+     * IDs the query does not find are cached as absent, like single lookups.
+     * Only keys still missing are filled, so a status change cached after the
+     * query is never replaced with what it read.
+     */
+    public PaymentLookupResponse getPaymentsByTransactionIds(List<String> transactionIds) {
+        List<String> requested = transactionIds.stream().distinct().toList();
+        Map<String, Object> cached = cacheService.getAll(requested.stream()
+                .map(transactionId -> "payment:" + transactionId)
+                .toList());
+        
+        Map<String, Payment> found = new HashMap<>();
+        List<String> uncached = new ArrayList<>();
+        for (String transactionId : requested) {
+            Object payment = cached.get("payment:" + transactionId);
+            if (payment instanceof Payment cachedPayment) {
+                found.put(transactionId, cachedPayment);
+            } else if (payment != CacheService.ABSENT) {
+                uncached.add(transactionId);
+            }
         }
         
-        // Fallback to database
-        Optional<Payment> payment = paymentRepository.findByTransactionId(transactionId);
-        if (payment.isPresent()) {
-            // Cache for future requests
-            cacheService.set("payment:" + transactionId, payment.get(), java.time.Duration.ofMinutes(15));
+        if (!uncached.isEmpty()) {
+            Map<String, Payment> loaded = new HashMap<>();
+            for (Payment payment : paymentRepository.findByTransactionIdIn(uncached)) {
+                found.put(payment.getTransactionId(), payment);
+                loaded.put("payment:" + payment.getTransactionId(), payment);
+            }
+            cacheService.setAllIfAbsent(loaded, java.time.Duration.ofMinutes(15));
+            
+            Map<String, Object> absent = new HashMap<>();
+            for (String transactionId : uncached) {
+                if (!found.containsKey(transactionId)) {
+                    absent.put("payment:" + transactionId, CacheService.ABSENT);
+                }
+            }
+            cacheService.setAllIfAbsent(absent, paymentProperties.getCache().getNegativeTtl());
         }
+        log.debug("Looked up {} payments, {} from cache and {} in the database", requested.size(),
+                requested.size() - uncached.size(), uncached.size());
         
-        return payment.map(this::mapToResponse);
+        List<PaymentResponse> payments = new ArrayList<>(found.size());
+        List<String> notFound = new ArrayList<>();
+        for (String transactionId : requested) {
+            Payment payment = found.get(transactionId);
+            if (payment != null) {
+                payments.add(mapToResponse(payment));
+            } else {
+                notFound.add(transactionId);
+            }
+        }
+        return PaymentLookupResponse.builder()
+                .payments(payments)
+                .notFound(notFound)
+                .build();
     }
     
     @Transactional(readOnly = true)
@@ -131,14 +477,20 @@ public class PaymentService {
         try {
             // Process refund with gateway
             PaymentResponse refundResponse = paymentGatewayService.refundPayment(payment);
+            if (refundResponse.getStatus() != PaymentStatus.REFUNDED) {
+                log.warn("Refund declined by gateway: {} - {}", transactionId, refundResponse.getMessage());
+                return refundResponse;
+            }
             
             // Update payment status
-            payment.setStatus(PaymentStatus.REFUNDED);
-            payment.setUpdatedAt(LocalDateTime.now());
-            paymentRepository.save(payment);
+            Optional<Payment> refunded = paymentStateService.transition(
+                    transactionId, PaymentStatus.SETTLED, PaymentStatus.REFUNDED, refundResponse.getMessage());
+            if (refunded.isEmpty()) {
+                log.error("Refund succeeded at gateway but payment {} changed concurrently", transactionId);
+                return PaymentResponse.error(transactionId, "Payment cannot be refunded");
+            }
             
-            // Send notification
-            notificationService.sendRefundNotification(payment);
+            cachePayment(refunded.get());
             
             log.info("Refund processed successfully: {}", transactionId);
             return refundResponse;
@@ -150,7 +502,7 @@ public class PaymentService {
     }
     
     private String generateTransactionId() {
-        return "TXN_" + UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+        return transactionIdGenerator.nextTransactionId();
     }
     
     private void validatePaymentRequest(PaymentRequest request) {
@@ -161,14 +513,6 @@ public class PaymentService {
         if (!isValidCurrency(request.getCurrency())) {
             throw new IllegalArgumentException("Invalid currency code");
         }
-        
-        // Check for duplicate transaction (velocity check)
-        Long recentPayments = paymentRepository.countRecentPaymentsByUser(
-            request.getUserId(), LocalDateTime.now().minusMinutes(1));
-        
-        if (recentPayments > 5) {
-            throw new IllegalArgumentException("Too many payment attempts. Please try again later.");
-        }
     }
     
     private boolean isValidCurrency(String currency) {
@@ -185,11 +529,17 @@ public class PaymentService {
         payment.setMerchantId(request.getMerchantId());
         payment.setDescription(request.getDescription());
         payment.setStatus(PaymentStatus.PENDING);
+        payment.setGateway(paymentGatewayService.selectGateway(payment));
         return payment;
     }
     
+    /**
+     * Captures an authorized payment, once its deep fraud scoring has had a
+     * chance to hold or cancel it.
+     */
     public PaymentResponse capturePayment(String transactionId) {
         log.info("Capturing payment for transaction: {}", transactionId);
+        fraudReviewService.awaitReview(transactionId);
         
         Optional<Payment> paymentOpt = paymentRepository.findByTransactionId(transactionId);
         if (paymentOpt.isEmpty()) {
@@ -203,16 +553,15 @@ public class PaymentService {
         
         try {
             PaymentStatus oldStatus = payment.getStatus();
-            payment.setStatus(PaymentStatus.CAPTURED);
-            payment.setUpdatedAt(LocalDateTime.now());
-            paymentRepository.save(payment);
+            Optional<Payment> captured = paymentStateService.transition(transactionId, oldStatus, PaymentStatus.CAPTURED, null);
+            if (captured.isEmpty()) {
+                return PaymentResponse.error(transactionId, "Payment cannot be captured. Status changed concurrently");
+            }
             
-            auditService.auditPaymentStatusChanged(payment, oldStatus.toString(), payment.getStatus().toString());
-            cacheService.set("payment:" + transactionId, payment, java.time.Duration.ofMinutes(15));
-            notificationService.sendPaymentNotification(payment);
+            cachePayment(captured.get());
             
             log.info("Payment captured successfully: {}", transactionId);
-            return mapToResponse(payment);
+            return mapToResponse(captured.get());
             
         } catch (Exception e) {
             log.error("Payment capture failed: {}", e.getMessage(), e);
@@ -229,22 +578,22 @@ public class PaymentService {
         }
         
         Payment payment = paymentOpt.get();
-        if (payment.getStatus() != PaymentStatus.PENDING && payment.getStatus() != PaymentStatus.AUTHORIZED) {
+        if (payment.getStatus() != PaymentStatus.PENDING && payment.getStatus() != PaymentStatus.AUTHORIZED
+                && payment.getStatus() != PaymentStatus.REVIEW) {
             return PaymentResponse.error(transactionId, "Payment cannot be cancelled. Current status: " + payment.getStatus());
         }
         
         try {
             PaymentStatus oldStatus = payment.getStatus();
-            payment.setStatus(PaymentStatus.CANCELLED);
-            payment.setUpdatedAt(LocalDateTime.now());
-            paymentRepository.save(payment);
+            Optional<Payment> cancelled = paymentStateService.transition(transactionId, oldStatus, PaymentStatus.CANCELLED, null);
+            if (cancelled.isEmpty()) {
+                return PaymentResponse.error(transactionId, "Payment cannot be cancelled. Status changed concurrently");
+            }
             
-            auditService.auditPaymentStatusChanged(payment, oldStatus.toString(), payment.getStatus().toString());
-            cacheService.set("payment:" + transactionId, payment, java.time.Duration.ofMinutes(15));
-            notificationService.sendPaymentNotification(payment);
+            cachePayment(cancelled.get());
             
             log.info("Payment cancelled successfully: {}", transactionId);
-            return mapToResponse(payment);
+            return mapToResponse(cancelled.get());
             
         } catch (Exception e) {
             log.error("Payment cancellation failed: {}", e.getMessage(), e);
@@ -252,6 +601,40 @@ public class PaymentService {
         }
     }
     
+    /**
+     * Releases a payment held for review by deep fraud scoring, so it can be
+     * captured.
+     */
+    public PaymentResponse releasePayment(String transactionId) {
+        log.info("Releasing payment for transaction: {}", transactionId);
+        
+        Optional<Payment> paymentOpt = paymentRepository.findByTransactionId(transactionId);
+        if (paymentOpt.isEmpty()) {
+            return PaymentResponse.error(transactionId, "Payment not found");
+        }
+        
+        Payment payment = paymentOpt.get();
+        if (payment.getStatus() != PaymentStatus.REVIEW) {
+            return PaymentResponse.error(transactionId, "Payment cannot be released. Current status: " + payment.getStatus());
+        }
+        
+        try {
+            Optional<Payment> released = paymentStateService.transition(transactionId, PaymentStatus.REVIEW, PaymentStatus.AUTHORIZED, null);
+            if (released.isEmpty()) {
+                return PaymentResponse.error(transactionId, "Payment cannot be released. Status changed concurrently");
+            }
+            
+            cachePayment(released.get());
+            
+            log.info("Payment released successfully: {}", transactionId);
+            return mapToResponse(released.get());
+            
+        } catch (Exception e) {
+            log.error("Payment release failed: {}", e.getMessage(), e);
+            return PaymentResponse.error(transactionId, "Payment release failed");
+        }
+    }
+    
     private PaymentResponse mapToResponse(Payment payment) {
         return PaymentResponse.builder()
                 .transactionId(payment.getTransactionId())
@@ -267,4 +650,15 @@ public class PaymentService {
                 .updatedAt(payment.getUpdatedAt())
                 .build();
     }
+    
+    private record Admission(Payment payment, PaymentResponse rejection, Reservation reservation) {
+        
+        static Admission accepted(Payment payment, Reservation reservation) {
+            return new Admission(payment, null, reservation);
+        }
+        
+        static Admission rejected(PaymentResponse rejection) {
+            return new Admission(null, rejection, null);
+        }
+    }
 }
\ No newline at end of file
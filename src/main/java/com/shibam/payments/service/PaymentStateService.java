@@ -0,0 +1,92 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.repository.PaymentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Short, self-contained persistence steps for the payment lifecycle.
+ *
+ * Each method runs in its own transaction so that no database connection is
+ * held while the caller talks to the payment gateway. Status changes are
+ * compare-and-set updates: a transition only applies if the row is still in
+ * the expected status, which makes concurrent workers and crash recovery safe.
+ *
+ * The audit events and notifications for each step are written to the outbox
+ * in the same transaction, so they are published if and only if the change
+ * itself commits.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentStateService {
+    
+    private final PaymentRepository paymentRepository;
+    private final AuditService auditService;
+    private final NotificationService notificationService;
+    
+    @Transactional
+    public Payment createPending(Payment payment) {
+        payment.setStatus(PaymentStatus.PENDING);
+        Payment saved = paymentRepository.save(payment);
+        auditService.auditPaymentCreated(saved);
+        return saved;
+    }
+    
+    /**
+     * Inserts all payments as PENDING in one transaction. With sequence ids
+     * and {@code hibernate.jdbc.batch_size} the rows go out as batched INSERTs.
+     */
+    @Transactional
+    public List<Payment> createPendingBatch(List<Payment> payments) {
+        payments.forEach(payment -> payment.setStatus(PaymentStatus.PENDING));
+        List<Payment> saved = paymentRepository.saveAll(payments);
+        saved.forEach(auditService::auditPaymentCreated);
+        return saved;
+    }
+    
+    /**
+     * Moves a PENDING payment to PROCESSING before its gateway call, so that
+     * only one worker ever sends it and recovery knows it may have reached
+     * the gateway. Returns false if the payment is no longer PENDING. The
+     * claim is internal bookkeeping and publishes no events.
+     */
+    @Transactional
+    public boolean claim(String transactionId) {
+        return paymentRepository.updateStatusIfCurrent(
+                transactionId, PaymentStatus.PENDING, PaymentStatus.PROCESSING, null, LocalDateTime.now()) == 1;
+    }
+    
+    @Transactional
+    public Optional<Payment> transition(String transactionId, PaymentStatus expected, PaymentStatus target, String gatewayResponse) {
+        int updated = paymentRepository.updateStatusIfCurrent(
+                transactionId, expected, target, gatewayResponse, LocalDateTime.now());
+        
+        if (updated == 0) {
+            log.warn("Skipped status change {} -> {} for {}: payment is no longer {}", expected, target, transactionId, expected);
+            return Optional.empty();
+        }
+        
+        Optional<Payment> payment = paymentRepository.findByTransactionId(transactionId);
+        payment.ifPresent(changed -> publishStatusChange(changed, expected));
+        return payment;
+    }
+    
+    private void publishStatusChange(Payment payment, PaymentStatus oldStatus) {
+        if (payment.getStatus() == PaymentStatus.REFUNDED) {
+            auditService.auditRefundProcessed(payment);
+            notificationService.sendRefundNotification(payment);
+        } else {
+            auditService.auditPaymentStatusChanged(payment, oldStatus.toString(), payment.getStatus().toString());
+            notificationService.sendPaymentNotification(payment);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of accepted payments waiting for gateway processing.
+ *
+ * The queue never grows past its capacity: callers check {@link #hasCapacity()}
+ * before accepting work and get a {@link RejectedExecutionException} if they
+ * lose the race for the last slot. Payments still queued at shutdown stay
+ * PENDING and are failed by {@link PaymentRecoveryJob} once
+ * {@code payment.recovery.queued-timeout} has passed.
+ */
+@Component
+@Slf4j
+public class PaymentWorkQueue {
+    
+    private final ThreadPoolExecutor executor;
+    
+    public PaymentWorkQueue(PaymentProperties paymentProperties, Environment environment, MeterRegistry meterRegistry) {
+        PaymentProperties.Async async = paymentProperties.getAsync();
+        ThreadFactory threadFactory = Threading.VIRTUAL.isActive(environment)
+                ? new VirtualThreadTaskExecutor("payment-async-").getVirtualThreadFactory()
+                : new CustomizableThreadFactory("payment-async-");
+        
+        this.executor = new ThreadPoolExecutor(async.getWorkers(), async.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(async.getQueueCapacity()), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        
+        Gauge.builder("payment.async.queue.depth", executor, e -> e.getQueue().size())
+                .description("Accepted payments waiting for a gateway worker")
+                .register(meterRegistry);
+        Gauge.builder("payment.async.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Payments currently being processed asynchronously")
+                .register(meterRegistry);
+    }
+    
+    public boolean hasCapacity() {
+        return executor.getQueue().remainingCapacity() > 0 || executor.getActiveCount() < executor.getMaximumPoolSize();
+    }
+    
+    public void submit(Runnable task) {
+        executor.execute(task);
+    }
+    
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            int abandoned = executor.shutdownNow().size();
+            log.warn("Payment work queue stopped with {} payments still queued; recovery will resolve them", abandoned);
+        }
+    }
+}
\ No newline at end of file
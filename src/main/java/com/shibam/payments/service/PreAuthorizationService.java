@@ -0,0 +1,183 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.service.VelocityService.Reservation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the checks a payment must pass before it is recorded: the velocity
+ * limits, merchant validation and fraud screening.
+ *
+ * Merchant validation and fraud screening run in parallel on the payment
+ * executor, so the stage takes as long as the slower of them rather than the
+ * sum. The first rejection decides the outcome without waiting for the other
+ * check, and the whole stage is bounded by
+ * {@code payment.pre-authorization.timeout}.
+ * A payment whose checks do not finish in time is rejected, never let through.
+ *
+ * Before the checks start, the payment is counted by {@link VelocityService},
+ * which decides the velocity limits from the counts that include it. A
+ * payment that is rejected for any reason is taken back out, so the counters
+ * hold only admitted payments and those still being checked. An admitted
+ * payment that then fails to be recorded is taken back out by the caller,
+ * through {@link #release}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PreAuthorizationService {
+    
+    private final VelocityService velocityService;
+    private final MerchantService merchantService;
+    private final FraudDetectionService fraudDetectionService;
+    private final PaymentProperties paymentProperties;
+    private final TaskExecutor paymentTaskExecutor;
+    
+    /**
+     * Returns the rejection for the payment, or if every check passed, the
+     * velocity reservation it now holds. A velocity violation is thrown as
+     * {@link IllegalArgumentException}, like the other request validation
+     * errors.
+     */
+    public Screening check(PaymentRequest request, String transactionId) {
+        return withReservation(request, reservation -> checkInParallel(request, transactionId, reservation));
+    }
+    
+    /**
+     * Runs the same checks one after another on the calling thread, for
+     * callers that already parallelize across payments.
+     */
+    public Screening checkSequentially(PaymentRequest request, String transactionId) {
+        return withReservation(request, reservation -> Optional.ofNullable(checkMerchant(request, transactionId))
+                .or(() -> Optional.ofNullable(checkFraud(request, transactionId, reservation))));
+    }
+    
+    /**
+     * Takes an admitted payment back out of the velocity counters, for a
+     * payment that could not be recorded after all.
+     */
+    public void release(Reservation reservation) {
+        velocityService.release(reservation);
+    }
+    
+    private Screening withReservation(PaymentRequest request,
+                                      Function<Reservation, Optional<PaymentResponse>> checks) {
+        Reservation reservation = velocityService.reserve(request);
+        boolean admitted = false;
+        try {
+            if (reservation.overAttemptLimit()) {
+                throw new IllegalArgumentException("Too many payment attempts. Please try again later.");
+            }
+            Optional<PaymentResponse> rejection = checks.apply(reservation);
+            admitted = rejection.isEmpty();
+            return rejection.map(Screening::rejected).orElseGet(() -> Screening.admitted(reservation));
+        } finally {
+            if (!admitted) {
+                velocityService.release(reservation);
+            }
+        }
+    }
+    
+    private Optional<PaymentResponse> checkInParallel(PaymentRequest request, String transactionId,
+                                                      Reservation reservation) {
+        List<CompletableFuture<PaymentResponse>> checks = List.of(
+                runCheck(() -> checkMerchant(request, transactionId)),
+                runCheck(() -> checkFraud(request, transactionId, reservation)));
+        
+        CompletableFuture<PaymentResponse> outcome = new CompletableFuture<>();
+        for (CompletableFuture<PaymentResponse> check : checks) {
+            check.whenComplete((rejection, error) -> {
+                // Short-circuit on the first check that rejects or fails
+                if (error != null) {
+                    outcome.completeExceptionally(error);
+                } else if (rejection != null) {
+                    outcome.complete(rejection);
+                }
+            });
+        }
+        CompletableFuture.allOf(checks.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+            if (error != null) {
+                outcome.completeExceptionally(error);
+            } else {
+                outcome.complete(checks.stream()
+                        .map(CompletableFuture::join)
+                        .filter(Objects::nonNull)
+                        .findFirst()
+                        .orElse(null));
+            }
+        });
+        
+        long timeoutMillis = paymentProperties.getPreAuthorization().getTimeout().toMillis();
+        try {
+            return Optional.ofNullable(outcome.get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            log.warn("Pre-authorization checks for {} did not finish within {} ms", transactionId, timeoutMillis);
+            return Optional.of(PaymentResponse.error(transactionId, "Payment checks timed out, please retry"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.of(PaymentResponse.error(transactionId, "Payment checks interrupted"));
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } finally {
+            checks.forEach(check -> check.cancel(false));
+        }
+    }
+    
+    private CompletableFuture<PaymentResponse> runCheck(Supplier<PaymentResponse> check) {
+        return CompletableFuture.supplyAsync(check, paymentTaskExecutor);
+    }
+    
+    private PaymentResponse checkMerchant(PaymentRequest request, String transactionId) {
+        if (!merchantService.isValidMerchant(request.getMerchantId())) {
+            log.warn("Invalid merchant: {}", request.getMerchantId());
+            return PaymentResponse.error(transactionId, "Invalid merchant ID");
+        }
+        return null;
+    }
+    
+    private PaymentResponse checkFraud(PaymentRequest request, String transactionId, Reservation reservation) {
+        if (!fraudDetectionService.isPaymentSafe(request, transactionId, reservation.breach())) {
+            log.warn("Payment blocked by fraud detection: {}", transactionId);
+            return PaymentResponse.error(transactionId, "Payment blocked by security checks");
+        }
+        return null;
+    }
+    
+    private static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new IllegalStateException("Pre-authorization check failed", cause);
+    }
+    
+    /**
+     * Outcome of the checks: the rejection, or for an admitted payment the
+     * velocity reservation it holds.
+     */
+    public record Screening(PaymentResponse rejection, Reservation reservation) {
+        
+        public static Screening admitted(Reservation reservation) {
+            return new Screening(null, reservation);
+        }
+        
+        public static Screening rejected(PaymentResponse rejection) {
+            return new Screening(rejection, null);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.exception.RateLimitExceededException;
+import com.shibam.payments.model.Merchant;
+import com.shibam.payments.ratelimit.ClusterTokenBucket;
+import com.shibam.payments.ratelimit.RateLimiter;
+import com.shibam.payments.ratelimit.RedisTokenLeases;
+import com.shibam.payments.ratelimit.TokenBucket;
+import com.shibam.payments.repository.MerchantRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-merchant and per-user payment quotas, so one merchant's flash sale
+ * cannot take the capacity every other merchant relies on.
+ *
+ * Each merchant gets a token bucket with the rate and burst set on its
+ * {@link Merchant} row, or the platform default when none is set. The limits
+ * are reloaded from the database every {@code payment.rate-limit.refresh-interval}
+ * and applied to existing buckets in place, so changes take effect without a
+ * restart. Buckets live in this instance unless
+ * {@code payment.rate-limit.cluster.enabled} is set, in which case all
+ * instances share them through Redis.
+ */
+@Service
+@Slf4j
+public class RateLimitService {
+    
+    private static final String MERCHANT_KEY_PREFIX = "ratelimit:merchant:";
+    private static final String USER_KEY_PREFIX = "ratelimit:user:";
+    
+    private final MerchantRepository merchantRepository;
+    private final PaymentProperties.RateLimit config;
+    private final RedisTokenLeases leases;
+    private final Counter merchantRejections;
+    private final Counter userRejections;
+    
+    private final ConcurrentMap<String, RateLimiter> merchantLimiters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, RateLimiter> userLimiters = new ConcurrentHashMap<>();
+    // Merchants with their own limit; everyone else uses the default
+    private volatile Map<String, Limit> merchantLimits = Map.of();
+    
+    public RateLimitService(MerchantRepository merchantRepository, StringRedisTemplate stringRedisTemplate,
+                            PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        this.merchantRepository = merchantRepository;
+        this.config = paymentProperties.getRateLimit();
+        this.leases = config.getCluster().isEnabled() ? new RedisTokenLeases(stringRedisTemplate) : null;
+        
+        this.merchantRejections = Counter.builder("payment.ratelimit.rejected")
+                .description("Payments refused because a rate limit was used up")
+                .tag("scope", "merchant")
+                .register(meterRegistry);
+        this.userRejections = Counter.builder("payment.ratelimit.rejected")
+                .description("Payments refused because a rate limit was used up")
+                .tag("scope", "user")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Takes a permit from the user's and then the merchant's bucket. The user
+     * is checked first, so a single user hammering a merchant does not use up
+     * the merchant's quota for everyone else.
+     *
+     * @throws RateLimitExceededException if either quota is used up
+     */
+    public void checkPayment(PaymentRequest request) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        
+        Limit userLimit = Limit.of(config.getUserPermitsPerSecond(), config.getUserBurst());
+        if (userLimit != null && request.getUserId() != null) {
+            RateLimiter limiter = userLimiters.computeIfAbsent(request.getUserId(),
+                    userId -> newLimiter(USER_KEY_PREFIX + userId, userLimit));
+            long waitNanos = limiter.tryAcquire();
+            if (waitNanos > 0) {
+                userRejections.increment();
+                throw new RateLimitExceededException("Too many payments for this user, please retry later",
+                        retryAfterSeconds(waitNanos));
+            }
+        }
+        
+        String merchantId = request.getMerchantId();
+        Limit merchantLimit = merchantLimit(merchantId);
+        if (merchantLimit != null && merchantId != null) {
+            RateLimiter limiter = merchantLimiters.computeIfAbsent(merchantId,
+                    id -> newLimiter(MERCHANT_KEY_PREFIX + id, merchantLimit));
+            long waitNanos = limiter.tryAcquire();
+            if (waitNanos > 0) {
+                merchantRejections.increment();
+                throw new RateLimitExceededException("Too many payments for merchant " + merchantId + ", please retry later",
+                        retryAfterSeconds(waitNanos));
+            }
+        }
+    }
+    
+    /**
+     * Reloads merchant limits from the database and applies them to the
+     * existing buckets. Buckets that have refilled completely are dropped,
+     * since a new bucket would behave the same, which keeps the per-user map
+     * from growing without bound.
+     */
+    @Scheduled(fixedDelayString = "${payment.rate-limit.refresh-interval:30000}")
+    public void refresh() {
+        try {
+            List<Merchant> merchants = merchantRepository.findByRateLimitPerSecondIsNotNull();
+            Map<String, Limit> limits = new HashMap<>();
+            for (Merchant merchant : merchants) {
+                int burst = merchant.getRateLimitBurst() != null
+                        ? merchant.getRateLimitBurst()
+                        : merchant.getRateLimitPerSecond();
+                limits.put(merchant.getMerchantId(), Limit.unlimitedOr(merchant.getRateLimitPerSecond(), burst));
+            }
+            merchantLimits = Map.copyOf(limits);
+        } catch (Exception e) {
+            log.warn("Could not reload merchant rate limits, keeping the current ones: {}", e.getMessage());
+        }
+        
+        merchantLimiters.forEach((merchantId, limiter) -> {
+            Limit limit = merchantLimit(merchantId);
+            if (limit == null) {
+                merchantLimiters.remove(merchantId, limiter);
+            } else {
+                limiter.setRate(limit.permitsPerSecond(), limit.burst());
+            }
+        });
+        Limit userLimit = Limit.of(config.getUserPermitsPerSecond(), config.getUserBurst());
+        if (userLimit == null) {
+            userLimiters.clear();
+        } else {
+            userLimiters.values().forEach(limiter -> limiter.setRate(userLimit.permitsPerSecond(), userLimit.burst()));
+        }
+        
+        merchantLimiters.values().removeIf(RateLimiter::isIdle);
+        userLimiters.values().removeIf(RateLimiter::isIdle);
+    }
+    
+    private Limit merchantLimit(String merchantId) {
+        Limit limit = merchantLimits.get(merchantId);
+        if (limit != null) {
+            return limit.isUnlimited() ? null : limit;
+        }
+        return Limit.of(config.getMerchantPermitsPerSecond(), config.getMerchantBurst());
+    }
+    
+    private RateLimiter newLimiter(String key, Limit limit) {
+        if (leases == null) {
+            return new TokenBucket(limit.permitsPerSecond(), limit.burst());
+        }
+        PaymentProperties.RateLimit.Cluster cluster = config.getCluster();
+        return new ClusterTokenBucket(key, limit.permitsPerSecond(), limit.burst(), leases,
+                cluster.getLeaseSize(), cluster.getLeaseTtl());
+    }
+    
+    private static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+    
+    private record Limit(int permitsPerSecond, int burst) {
+        
+        private static final Limit UNLIMITED = new Limit(0, 0);
+        
+        // Null when the rate disables the limit
+        static Limit of(int permitsPerSecond, int burst) {
+            return permitsPerSecond > 0 ? new Limit(permitsPerSecond, Math.max(1, burst)) : null;
+        }
+        
+        // A merchant's explicit 0 overrides the default, so it has to be kept rather than mapped to null
+        static Limit unlimitedOr(int permitsPerSecond, int burst) {
+            Limit limit = of(permitsPerSecond, burst);
+            return limit != null ? limit : UNLIMITED;
+        }
+        
+        boolean isUnlimited() {
+            return permitsPerSecond <= 0;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.shibam.payments.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates time-ordered transaction ids without coordinating between nodes.
+ *
+ * Each id packs 41 bits of milliseconds since 2024-01-01, a 10-bit node id and
+ * a 12-bit per-millisecond sequence, rendered as {@code TXN_} plus 16 hex
+ * digits. Ids from one node are strictly increasing, so inserts land at the
+ * right-hand edge of the transaction_id index instead of splitting random
+ * pages, and ids from different nodes never collide as long as node ids are
+ * unique (see {@link NodeIdLease}).
+ *
+ * Generation is a single CAS on the packed (timestamp, sequence) state. When
+ * the sequence runs out within a millisecond, or the wall clock steps back,
+ * the generator keeps counting on its own logical clock rather than blocking,
+ * so ids stay unique and ordered; it resyncs once the wall clock catches up.
+ *
+ * The node id is read for every id, so a generator backed by a lease picks
+ * up a re-acquired node id, and stops issuing ids while it holds none.
+ */
+public class TransactionIdGenerator {
+    
+    public static final int NODE_ID_BITS = 10;
+    public static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+    
+    private static final int SEQUENCE_BITS = 12;
+    private static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    private final IntSupplier nodeId;
+    private final LongSupplier clock;
+    // Last issued (timestamp << SEQUENCE_BITS | sequence)
+    private final AtomicLong state = new AtomicLong();
+    
+    public TransactionIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+    
+    public TransactionIdGenerator(int nodeId, LongSupplier clock) {
+        this(() -> nodeId, clock);
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+    }
+    
+    /**
+     * @param nodeId supplies the current node id, 0 to {@link #MAX_NODE_ID},
+     *               or throws if this instance holds none
+     */
+    public TransactionIdGenerator(IntSupplier nodeId, LongSupplier clock) {
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+    
+    public long nextId() {
+        long nodeBits = (long) (nodeId.getAsInt() & MAX_NODE_ID) << SEQUENCE_BITS;
+        long now = (clock.getAsLong() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long last = state.get();
+            // A new millisecond restarts the sequence; otherwise count on, carrying into the timestamp
+            long next = now > last ? now : last + 1;
+            if (state.compareAndSet(last, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return timestamp << (NODE_ID_BITS + SEQUENCE_BITS) | nodeBits | sequence;
+            }
+        }
+    }
+    
+    public String nextTransactionId() {
+        long id = nextId();
+        char[] chars = new char[20];
+        chars[0] = 'T';
+        chars[1] = 'X';
+        chars[2] = 'N';
+        chars[3] = '_';
+        for (int i = 19; i >= 4; i--) {
+            chars[i] = HEX[(int) (id & 0xF)];
+            id >>>= 4;
+        }
+        return new String(chars);
+    }
+    
+    public static int nodeIdOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.UserProfile;
+import com.shibam.payments.fraud.UserProfiles;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalTime;
+
+/**
+ * Learns each user's usual amounts, hours, payment methods and merchants
+ * from the payments that pass fraud detection, so the fraud rules can score
+ * how far a payment strays from the user's own baseline.
+ *
+ * Profiles are per instance and kept in memory by {@link UserProfiles}; a
+ * user's profile is only used once it has seen
+ * {@code payment.fraud.profile.min-payments} payments.
+ */
+@Service
+@Slf4j
+public class UserProfileService {
+    
+    private final PaymentProperties.Fraud.Profile config;
+    private final UserProfiles profiles;
+    private final Clock clock;
+    
+    @Autowired
+    public UserProfileService(PaymentProperties paymentProperties, MeterRegistry meterRegistry) {
+        this(paymentProperties, meterRegistry, Clock.systemDefaultZone());
+    }
+    
+    public UserProfileService(PaymentProperties paymentProperties, MeterRegistry meterRegistry, Clock clock) {
+        this.config = paymentProperties.getFraud().getProfile();
+        this.profiles = new UserProfiles(config.getMaxUsers(), config.getSmoothing(), config.getIdleAfter(),
+                clock::millis);
+        this.clock = clock;
+        
+        Gauge.builder("payment.fraud.profile.users", profiles, UserProfiles::size)
+                .description("Users with a behavioral profile in this instance")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * The user's profile, or null if they have too few payments for one.
+     */
+    public UserProfile profileOf(Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        UserProfile profile = profiles.read(userId);
+        return profile != null && profile.payments() >= config.getMinPayments() ? profile : null;
+    }
+    
+    /**
+     * Adds an approved payment to its user's profile.
+     */
+    public void record(PaymentRequest request) {
+        if (request.getUserId() == null) {
+            return;
+        }
+        double amount = request.getAmount() != null ? request.getAmount().doubleValue() : 0;
+        if (!profiles.record(request.getUserId(), amount, LocalTime.now(clock).getHour(), request.getPaymentMethod(),
+                request.getMerchantId())) {
+            log.warn("User profiles are full ({} users), payment for user {} is not profiled",
+                    profiles.size(), request.getUserId());
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.fraud.profile.eviction-interval:3600000}")
+    public void evictIdle() {
+        profiles.evictIdle();
+    }
+}
@@ -0,0 +1,182 @@
+package com.shibam.payments.service;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.velocity.ClusterVelocityStore;
+import com.shibam.payments.velocity.RedisVelocityWindows;
+import com.shibam.payments.velocity.VelocityEngine;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import com.shibam.payments.velocity.VelocitySnapshot;
+import com.shibam.payments.velocity.VelocityStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How many payments, and how much money, each user, card and merchant has
+ * put through recently, kept in memory by a {@link VelocityEngine} instead of
+ * being counted from the payments table on every request.
+ *
+ * A payment is counted when pre-authorization starts and taken back out if
+ * it is rejected, so the counts cover the payments that passed plus those
+ * still being screened, and two payments screened at once can never both
+ * pass on the same count. Counters are per instance unless
+ * {@code payment.velocity.cluster.enabled} is set, in which case all
+ * instances share them through Redis.
+ */
+@Service
+@Slf4j
+public class VelocityService {
+    
+    // Reused for every key a thread counts, so counting a payment allocates no totals
+    private static final ThreadLocal<VelocitySnapshot> TOTALS = ThreadLocal.withInitial(VelocitySnapshot::new);
+    
+    private final PaymentProperties.Velocity config;
+    private final VelocityStore store;
+    
+    public VelocityService(PaymentProperties paymentProperties, StringRedisTemplate stringRedisTemplate,
+                           MeterRegistry meterRegistry) {
+        this(paymentProperties, newStore(paymentProperties.getVelocity(), stringRedisTemplate), meterRegistry);
+    }
+    
+    public VelocityService(PaymentProperties paymentProperties, VelocityStore store, MeterRegistry meterRegistry) {
+        this.config = paymentProperties.getVelocity();
+        this.store = store;
+        
+        Gauge.builder("payment.velocity.keys", store, VelocityStore::size)
+                .description("Users, cards and merchants with velocity counters in this instance")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Counts the payment against its user, card and merchant, and checks the
+     * limits against the totals that include it. Counting and reading happen
+     * in one step per key, so concurrent payments cannot all pass on the same
+     * count. A payment that is then rejected, by these limits or any other
+     * check, must be given back with {@link #release}.
+     */
+    public Reservation reserve(PaymentRequest request) {
+        long amount = minorUnits(request.getAmount());
+        VelocitySnapshot velocity = TOTALS.get();
+        List<Long> counted = new ArrayList<>(3);
+        Breach breach = null;
+        boolean overAttemptLimit = false;
+        boolean tracked = true;
+        if (request.getUserId() != null) {
+            long key = VelocityEngine.keyOf(Dimension.USER, request.getUserId());
+            boolean counts = count(key, amount, velocity, counted);
+            if (counts) {
+                overAttemptLimit = exceeds(velocity.count(Window.MINUTE), config.getUserAttemptsPerMinute());
+                breach = findBreach(Dimension.USER, velocity, config.getUser());
+            }
+            tracked &= counts;
+        }
+        if (request.getCardNumber() != null) {
+            long key = VelocityEngine.keyOf(Dimension.CARD, request.getCardNumber());
+            boolean counts = count(key, amount, velocity, counted);
+            if (breach == null && counts) {
+                breach = findBreach(Dimension.CARD, velocity, config.getCard());
+            }
+            tracked &= counts;
+        }
+        if (request.getMerchantId() != null) {
+            long key = VelocityEngine.keyOf(Dimension.MERCHANT, request.getMerchantId());
+            boolean counts = count(key, amount, velocity, counted);
+            if (breach == null && counts) {
+                breach = findBreach(Dimension.MERCHANT, velocity, config.getMerchant());
+            }
+            tracked &= counts;
+        }
+        if (!tracked) {
+            log.warn("Velocity counters are full ({} keys), payment for user {} is not fully counted",
+                    store.size(), request.getUserId());
+        }
+        return new Reservation(List.copyOf(counted), amount, breach, overAttemptLimit);
+    }
+    
+    /**
+     * Takes a rejected payment back out of the counters {@link #reserve} added it to.
+     */
+    public void release(Reservation reservation) {
+        for (long key : reservation.keys()) {
+            store.release(key, reservation.amount());
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${payment.velocity.eviction-interval:300000}")
+    public void evictIdle() {
+        store.evictIdle();
+    }
+    
+    private static VelocityStore newStore(PaymentProperties.Velocity config, StringRedisTemplate stringRedisTemplate) {
+        VelocityEngine local = new VelocityEngine(config.getMaxKeys());
+        if (!config.getCluster().isEnabled()) {
+            return local;
+        }
+        return new ClusterVelocityStore(new RedisVelocityWindows(stringRedisTemplate), local,
+                config.getCluster().getRetryInterval());
+    }
+    
+    // One call records the payment in every window and reads the totals, a single round trip in Redis
+    private boolean count(long key, long amount, VelocitySnapshot velocity, List<Long> counted) {
+        if (!store.record(key, amount, velocity)) {
+            return false;
+        }
+        counted.add(key);
+        return true;
+    }
+    
+    // The totals already include the payment being checked
+    private static Breach findBreach(Dimension dimension, VelocitySnapshot velocity,
+                                     PaymentProperties.Velocity.Limits limits) {
+        if (exceeds(velocity.count(Window.MINUTE), limits.getPerMinute())) {
+            return new Breach(dimension, Window.MINUTE, "count");
+        }
+        if (exceeds(velocity.count(Window.HOUR), limits.getPerHour())) {
+            return new Breach(dimension, Window.HOUR, "count");
+        }
+        if (exceeds(velocity.count(Window.DAY), limits.getPerDay())) {
+            return new Breach(dimension, Window.DAY, "count");
+        }
+        BigDecimal amountPerDay = limits.getAmountPerDay();
+        if (amountPerDay != null && amountPerDay.signum() > 0
+                && velocity.amount(Window.DAY) > minorUnits(amountPerDay)) {
+            return new Breach(dimension, Window.DAY, "amount");
+        }
+        return null;
+    }
+    
+    private static boolean exceeds(long value, int limit) {
+        return limit > 0 && value > limit;
+    }
+    
+    // Amounts are summed in hundredths regardless of currency
+    private static long minorUnits(BigDecimal amount) {
+        return amount != null ? amount.movePointRight(2).longValue() : 0;
+    }
+    
+    /**
+     * A payment counted by {@link #reserve}: the keys it was added to, and the
+     * first limit it exceeds, or null if it stays within all of them.
+     */
+    public record Reservation(List<Long> keys, long amount, Breach breach, boolean overAttemptLimit) {
+        
+        public static final Reservation NONE = new Reservation(List.of(), 0, null, false);
+    }
+    
+    public record Breach(Dimension dimension, Window window, String measure) {
+        
+        @Override
+        public String toString() {
+            return dimension.name().toLowerCase() + " " + measure + " per " + window.name().toLowerCase();
+        }
+    }
+}
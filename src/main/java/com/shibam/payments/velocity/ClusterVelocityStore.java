@@ -0,0 +1,101 @@
+package com.shibam.payments.velocity;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Velocity counters shared by all instances through Redis, so a fraudster
+ * cannot stay under the limits by spreading attempts across pods.
+ *
+ * Every payment is also counted in a local {@link VelocityEngine}. When Redis
+ * cannot be reached, reads are answered from it until {@code retryInterval}
+ * has passed, which enforces the limits on this instance's share of the
+ * traffic instead of not at all.
+ */
+@Slf4j
+public class ClusterVelocityStore implements VelocityStore {
+    
+    private final RedisVelocityWindows windows;
+    private final VelocityEngine local;
+    private final long retryIntervalNanos;
+    private final LongSupplier nanoClock;
+    
+    private volatile long redisDownUntil;
+    
+    public ClusterVelocityStore(RedisVelocityWindows windows, VelocityEngine local, Duration retryInterval) {
+        this(windows, local, retryInterval, System::nanoTime);
+    }
+    
+    public ClusterVelocityStore(RedisVelocityWindows windows, VelocityEngine local, Duration retryInterval,
+                                LongSupplier nanoClock) {
+        this.windows = windows;
+        this.local = local;
+        this.retryIntervalNanos = retryInterval.toNanos();
+        this.nanoClock = nanoClock;
+        this.redisDownUntil = nanoClock.getAsLong();
+    }
+    
+    @Override
+    public boolean record(long key, long amount, VelocitySnapshot totals) {
+        boolean tracked = local.record(key, amount, totals);
+        if (isRedisUp()) {
+            try {
+                // Totals are only written once the script has answered, so a failure leaves the local ones
+                windows.record(key, amount, totals);
+                return true;
+            } catch (RuntimeException e) {
+                redisFailed(e);
+            }
+        }
+        return tracked;
+    }
+    
+    // A release that cannot reach Redis leaves the payment counted there, which errs on the strict side
+    @Override
+    public void release(long key, long amount) {
+        local.release(key, amount);
+        if (isRedisUp()) {
+            try {
+                windows.release(key, amount);
+            } catch (RuntimeException e) {
+                redisFailed(e);
+            }
+        }
+    }
+    
+    @Override
+    public void read(long key, VelocitySnapshot totals) {
+        if (isRedisUp()) {
+            try {
+                windows.read(key, totals);
+                return;
+            } catch (RuntimeException e) {
+                redisFailed(e);
+            }
+        }
+        local.read(key, totals);
+    }
+    
+    // Keys in Redis expire on their own
+    @Override
+    public void evictIdle() {
+        local.evictIdle();
+    }
+    
+    @Override
+    public int size() {
+        return local.size();
+    }
+    
+    private boolean isRedisUp() {
+        return nanoClock.getAsLong() - redisDownUntil >= 0;
+    }
+    
+    private void redisFailed(RuntimeException e) {
+        log.warn("Velocity counters unavailable in Redis, using this instance's counters for {} ms: {}",
+                retryIntervalNanos / 1_000_000, e.getMessage());
+        redisDownUntil = nanoClock.getAsLong() + retryIntervalNanos;
+    }
+}
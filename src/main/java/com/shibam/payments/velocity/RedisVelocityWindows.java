@@ -0,0 +1,85 @@
+package com.shibam.payments.velocity;
+
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * Sliding-window counters kept in Redis, so that every instance sees the
+ * same payments for a key. Each key is one hash updated by a Lua script
+ * against the Redis clock: recording a payment and reading back all of the
+ * key's windows takes a single round trip.
+ */
+public class RedisVelocityWindows {
+    
+    private static final String KEY_PREFIX = "velocity:";
+    private static final Window[] WINDOWS = Window.values();
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> VELOCITY = velocityScript();
+    
+    private final StringRedisTemplate redisTemplate;
+    
+    public RedisVelocityWindows(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+    
+    /**
+     * Adds one payment of {@code amount} minor units to every window and
+     * writes the totals including it into {@code totals}.
+     *
+     * @throws org.springframework.dao.DataAccessException if Redis cannot be reached
+     */
+    public void record(long key, long amount, VelocitySnapshot totals) {
+        execute(key, 1, Math.max(0, amount), totals);
+    }
+    
+    /**
+     * Takes back one payment of {@code amount} minor units recorded moments ago.
+     *
+     * @throws org.springframework.dao.DataAccessException if Redis cannot be reached
+     */
+    public void release(long key, long amount) {
+        execute(key, -1, Math.max(0, amount), null);
+    }
+    
+    /**
+     * @throws org.springframework.dao.DataAccessException if Redis cannot be reached
+     */
+    public void read(long key, VelocitySnapshot totals) {
+        execute(key, 0, 0, totals);
+    }
+    
+    private void execute(long key, int payments, long amount, VelocitySnapshot totals) {
+        String[] args = new String[WINDOWS.length + 3];
+        args[0] = String.valueOf(payments);
+        args[1] = String.valueOf(amount);
+        args[2] = String.valueOf(VelocityEngine.BUCKETS);
+        for (Window window : WINDOWS) {
+            args[window.ordinal() + 3] = String.valueOf(window.bucketMillis());
+        }
+        
+        List<?> result = redisTemplate.execute(VELOCITY, List.of(KEY_PREFIX + Long.toHexString(key)), (Object[]) args);
+        if (result == null || result.size() != WINDOWS.length * 2) {
+            throw new IllegalStateException("Velocity script returned " + result + " for " + Long.toHexString(key));
+        }
+        if (totals == null) {
+            return;
+        }
+        for (Window window : WINDOWS) {
+            totals.set(window, ((Number) result.get(window.ordinal() * 2)).longValue(),
+                    ((Number) result.get(window.ordinal() * 2 + 1)).longValue());
+        }
+    }
+    
+    @SuppressWarnings("rawtypes")
+    private static RedisScript<List> velocityScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/velocity.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+}
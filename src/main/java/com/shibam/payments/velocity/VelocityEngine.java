@@ -0,0 +1,381 @@
+package com.shibam.payments.velocity;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory sliding-window counters of payment count and amount per key,
+ * over the last minute, hour and day.
+ *
+ * Keys are 64-bit hashes of a dimension (user, card, merchant) and its
+ * value, so card numbers and ids are never stored. Each key owns a ring of
+ * ten buckets per window; a bucket packs the payment count and amount sum
+ * into one long, and a window's total is the sum of its buckets, so the
+ * window slides in steps of a tenth of its length. All state lives in
+ * primitive arrays split into independently locked stripes of an
+ * open-addressing table, and totals are written into the caller's
+ * {@link VelocitySnapshot}: recording or reading a key allocates nothing.
+ *
+ * Memory is bounded by {@code maxKeys}: each key takes about 270 bytes and
+ * tables are kept at most three quarters full, so a full engine uses up to
+ * about 370 bytes per key. Keys with no payment in the last day are dropped
+ * by {@link #evictIdle()}; until then a stripe that has reached its share of
+ * {@code maxKeys} does not track new keys.
+ */
+public class VelocityEngine implements VelocityStore {
+    
+    public enum Dimension {
+        USER, CARD, MERCHANT
+    }
+    
+    public enum Window {
+        MINUTE(Duration.ofMinutes(1)),
+        HOUR(Duration.ofHours(1)),
+        DAY(Duration.ofDays(1));
+        
+        private final long bucketMillis;
+        
+        Window(Duration length) {
+            this.bucketMillis = length.toMillis() / BUCKETS;
+        }
+        
+        public long bucketMillis() {
+            return bucketMillis;
+        }
+    }
+    
+    // Buckets per window
+    static final int BUCKETS = 10;
+    private static final Window[] WINDOWS = Window.values();
+    private static final int SLOT_BUCKETS = BUCKETS * WINDOWS.length;
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    // Keeps bucket indexes within an int
+    private static final int MAX_STRIPE_CAPACITY = 1 << 26;
+    
+    // A bucket holds the count in its low bits and the amount, in minor units, above it
+    private static final int COUNT_BITS = 24;
+    private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+    private static final long MAX_AMOUNT = (1L << (Long.SIZE - COUNT_BITS)) - 1;
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongSupplier clock;
+    
+    public VelocityEngine(int maxKeys) {
+        this(maxKeys, System::currentTimeMillis);
+    }
+    
+    public VelocityEngine(int maxKeys, LongSupplier clock) {
+        this.clock = clock;
+        // Rounded down to a power of two, so a full engine never holds more than maxKeys
+        long stripeSlots = Math.max(INITIAL_STRIPE_CAPACITY, (long) maxKeys * 4 / 3 / STRIPES);
+        int maxStripeCapacity = (int) Math.min(MAX_STRIPE_CAPACITY, Long.highestOneBit(stripeSlots));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxStripeCapacity);
+        }
+    }
+    
+    public static long keyOf(Dimension dimension, long id) {
+        return nonZero(mix(id * 0x9E3779B97F4A7C15L + dimension.ordinal()));
+    }
+    
+    /**
+     * Hashes a textual key such as a card number or merchant id. Whitespace
+     * is ignored, so formatted and unformatted card numbers match.
+     */
+    public static long keyOf(Dimension dimension, CharSequence value) {
+        long hash = 0xCBF29CE484222325L + dimension.ordinal();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                hash = (hash ^ c) * 0x100000001B3L;
+            }
+        }
+        return nonZero(mix(hash));
+    }
+    
+    /**
+     * Adds one payment of {@code amount} minor units to every window of the
+     * key and writes the totals including it into {@code totals}. Returns
+     * false if the key is not tracked because its stripe is full.
+     */
+    @Override
+    public boolean record(long key, long amount, VelocitySnapshot totals) {
+        return stripe(key).record(key, Math.max(0, amount), clock.getAsLong(), totals);
+    }
+    
+    @Override
+    public void release(long key, long amount) {
+        stripe(key).release(key, Math.max(0, amount), clock.getAsLong());
+    }
+    
+    @Override
+    public void read(long key, VelocitySnapshot totals) {
+        stripe(key).read(key, clock.getAsLong(), totals);
+    }
+    
+    public long count(long key, Window window) {
+        return stripe(key).sum(key, window, clock.getAsLong()) & MAX_COUNT;
+    }
+    
+    public long amount(long key, Window window) {
+        return stripe(key).sum(key, window, clock.getAsLong()) >>> COUNT_BITS;
+    }
+    
+    /**
+     * Drops keys without a payment in the last day and shrinks stripes that
+     * have emptied out.
+     */
+    @Override
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Stripe stripe : stripes) {
+            stripe.evictIdle(now);
+        }
+    }
+    
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+    
+    private Stripe stripe(long key) {
+        return stripes[(int) (key >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)))];
+    }
+    
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+    
+    private static long nonZero(long key) {
+        return key != 0 ? key : 1;
+    }
+    
+    private static long add(long bucket, long amount) {
+        long count = Math.min(MAX_COUNT, (bucket & MAX_COUNT) + 1);
+        long sum = Math.min(MAX_AMOUNT, (bucket >>> COUNT_BITS) + Math.min(amount, MAX_AMOUNT));
+        return sum << COUNT_BITS | count;
+    }
+    
+    private static long subtract(long bucket, long amount) {
+        long count = (bucket & MAX_COUNT) - 1;
+        long sum = Math.max(0, (bucket >>> COUNT_BITS) - amount);
+        return sum << COUNT_BITS | count;
+    }
+    
+    private static long merge(long total, long bucket) {
+        long count = Math.min(MAX_COUNT, (total & MAX_COUNT) + (bucket & MAX_COUNT));
+        long sum = Math.min(MAX_AMOUNT, (total >>> COUNT_BITS) + (bucket >>> COUNT_BITS));
+        return sum << COUNT_BITS | count;
+    }
+    
+    /**
+     * One open-addressing table with linear probing. Slot {@code s} owns
+     * {@code keys[s]}, the newest bucket epoch of each window in
+     * {@code heads[s * 3 + window]} and its buckets in
+     * {@code buckets[s * 30 ...]}. Entries are never removed one by one;
+     * eviction rebuilds the table without them.
+     */
+    private static final class Stripe {
+        
+        private final int maxCapacity;
+        
+        private long[] keys;
+        private long[] heads;
+        private long[] buckets;
+        private int size;
+        
+        Stripe(int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            allocate(Math.min(INITIAL_STRIPE_CAPACITY, maxCapacity));
+        }
+        
+        synchronized boolean record(long key, long amount, long now, VelocitySnapshot totals) {
+            int slot = findOrInsert(key, now);
+            if (slot < 0) {
+                return false;
+            }
+            for (Window window : WINDOWS) {
+                int index = advance(slot, window, now);
+                buckets[index] = add(buckets[index], amount);
+                long sum = total(slot, window, now);
+                totals.set(window, sum & MAX_COUNT, sum >>> COUNT_BITS);
+            }
+            return true;
+        }
+        
+        synchronized void release(long key, long amount, long now) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            for (Window window : WINDOWS) {
+                // Usually the head bucket, unless the window has slid since; the newest bucket holding a payment
+                long head = heads[slot * WINDOWS.length + window.ordinal()];
+                long oldest = Math.max(head, now / window.bucketMillis) - BUCKETS + 1;
+                for (long epoch = head; epoch >= oldest; epoch--) {
+                    int index = bucketIndex(slot, window, epoch);
+                    if ((buckets[index] & MAX_COUNT) > 0) {
+                        buckets[index] = subtract(buckets[index], amount);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        synchronized long sum(long key, Window window, long now) {
+            int slot = find(key);
+            return slot < 0 ? 0 : total(slot, window, now);
+        }
+        
+        synchronized void read(long key, long now, VelocitySnapshot totals) {
+            int slot = find(key);
+            if (slot < 0) {
+                totals.clear();
+                return;
+            }
+            for (Window window : WINDOWS) {
+                long sum = total(slot, window, now);
+                totals.set(window, sum & MAX_COUNT, sum >>> COUNT_BITS);
+            }
+        }
+        
+        private long total(int slot, Window window, long now) {
+            long head = heads[slot * WINDOWS.length + window.ordinal()];
+            // Buckets that have slid out of the window are skipped, not cleared, so reads never write
+            long oldest = Math.max(head, now / window.bucketMillis) - BUCKETS + 1;
+            long total = 0;
+            for (long epoch = oldest; epoch <= head; epoch++) {
+                total = merge(total, buckets[bucketIndex(slot, window, epoch)]);
+            }
+            return total;
+        }
+        
+        synchronized void evictIdle(long now) {
+            int live = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0 && !isIdle(heads, slot, now)) {
+                    live++;
+                }
+            }
+            if (live == size) {
+                return;
+            }
+            rebuild(capacityFor(live), now);
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        private int findOrInsert(long key, long now) {
+            int slot = find(key);
+            if (slot >= 0) {
+                return slot;
+            }
+            if ((size + 1) * 4L > keys.length * 3L) {
+                // A full stripe waits for the next eviction instead of scanning for idle keys on every insert
+                if (keys.length >= maxCapacity) {
+                    return -1;
+                }
+                rebuild(capacityFor(size + 1), now);
+            }
+            
+            int mask = keys.length - 1;
+            slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            for (Window window : WINDOWS) {
+                heads[slot * WINDOWS.length + window.ordinal()] = now / window.bucketMillis;
+            }
+            size++;
+            return slot;
+        }
+        
+        /**
+         * Moves the window's head up to the current bucket, clearing the
+         * buckets it passes over, and returns the current bucket's index.
+         * A clock that steps back keeps writing into the newest bucket.
+         */
+        private int advance(int slot, Window window, long now) {
+            int headIndex = slot * WINDOWS.length + window.ordinal();
+            long head = heads[headIndex];
+            long epoch = now / window.bucketMillis;
+            if (epoch > head) {
+                long cleared = Math.max(head + 1, epoch - BUCKETS + 1);
+                for (long e = cleared; e <= epoch; e++) {
+                    buckets[bucketIndex(slot, window, e)] = 0;
+                }
+                heads[headIndex] = epoch;
+                head = epoch;
+            }
+            return bucketIndex(slot, window, head);
+        }
+        
+        // No payment in any bucket of the longest window
+        private static boolean isIdle(long[] heads, int slot, long now) {
+            long head = heads[slot * WINDOWS.length + Window.DAY.ordinal()];
+            return now / Window.DAY.bucketMillis - head >= BUCKETS;
+        }
+        
+        private int capacityFor(int entries) {
+            int capacity = INITIAL_STRIPE_CAPACITY;
+            while (capacity < maxCapacity && entries * 4L > capacity * 3L) {
+                capacity <<= 1;
+            }
+            return Math.min(capacity, maxCapacity);
+        }
+        
+        private void rebuild(int capacity, long now) {
+            long[] oldKeys = keys;
+            long[] oldHeads = heads;
+            long[] oldBuckets = buckets;
+            allocate(capacity);
+            
+            int mask = capacity - 1;
+            for (int old = 0; old < oldKeys.length; old++) {
+                long key = oldKeys[old];
+                if (key == 0 || isIdle(oldHeads, old, now)) {
+                    continue;
+                }
+                int slot = (int) key & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                System.arraycopy(oldHeads, old * WINDOWS.length, heads, slot * WINDOWS.length, WINDOWS.length);
+                System.arraycopy(oldBuckets, old * SLOT_BUCKETS, buckets, slot * SLOT_BUCKETS, SLOT_BUCKETS);
+                size++;
+            }
+        }
+        
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            heads = new long[capacity * WINDOWS.length];
+            buckets = new long[capacity * SLOT_BUCKETS];
+            size = 0;
+        }
+        
+        private static int bucketIndex(int slot, Window window, long epoch) {
+            return slot * SLOT_BUCKETS + window.ordinal() * BUCKETS + (int) Math.floorMod(epoch, (long) BUCKETS);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.shibam.payments.velocity;
+
+import com.shibam.payments.velocity.VelocityEngine.Window;
+
+/**
+ * Payment count and amount of one key in each window, as of one read.
+ *
+ * A snapshot is a buffer that a {@link VelocityStore} fills in rather than a
+ * value it returns, so callers can keep one per thread and count a payment
+ * without allocating. It is not safe to share between threads.
+ */
+public final class VelocitySnapshot {
+    
+    private final long[] counts = new long[Window.values().length];
+    private final long[] amounts = new long[Window.values().length];
+    
+    public long count(Window window) {
+        return counts[window.ordinal()];
+    }
+    
+    public long amount(Window window) {
+        return amounts[window.ordinal()];
+    }
+    
+    void set(Window window, long count, long amount) {
+        counts[window.ordinal()] = count;
+        amounts[window.ordinal()] = amount;
+    }
+    
+    void clear() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+            amounts[i] = 0;
+        }
+    }
+}
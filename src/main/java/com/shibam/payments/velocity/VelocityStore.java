@@ -0,0 +1,37 @@
+package com.shibam.payments.velocity;
+
+/**
+ * Sliding-window payment counts and amounts per key, over the windows of
+ * {@link VelocityEngine.Window}. Keys come from {@link VelocityEngine#keyOf}.
+ */
+public interface VelocityStore {
+    
+    /**
+     * Adds one payment of {@code amount} minor units to every window of the
+     * key and writes the key's totals including it, read in the same step,
+     * into {@code totals}. Returns false, leaving {@code totals} unspecified,
+     * if the payment could not be counted.
+     */
+    boolean record(long key, long amount, VelocitySnapshot totals);
+    
+    /**
+     * Takes back one payment of {@code amount} minor units recorded moments
+     * ago, when the payment it was counted for is rejected after all.
+     */
+    void release(long key, long amount);
+    
+    /**
+     * Writes the key's totals for every window at once into {@code totals}.
+     */
+    void read(long key, VelocitySnapshot totals);
+    
+    /**
+     * Drops keys that have no payment left in any window.
+     */
+    void evictIdle();
+    
+    /**
+     * Keys held in this instance's memory.
+     */
+    int size();
+}
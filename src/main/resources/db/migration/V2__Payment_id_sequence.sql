@@ -0,0 +1,11 @@
+-- Sequence-style id allocation for payments, so inserts can be JDBC batched
+
+-- MySQL has no sequences; Hibernate emulates payment_seq with a single-row table
+CREATE TABLE payment_seq (
+    next_val BIGINT NOT NULL
+);
+
+-- Start past existing ids plus one allocation block (50), since the pooled
+-- optimizer hands out the block that ends at the stored value
+INSERT INTO payment_seq (next_val)
+SELECT COALESCE(MAX(id), 0) + 51 FROM payments;
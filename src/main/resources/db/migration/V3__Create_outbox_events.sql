@@ -0,0 +1,12 @@
+-- Transactional outbox for Kafka events
+
+-- Rows are written in the same transaction as the payment change they describe
+-- and deleted by OutboxRelay once Kafka has acknowledged them
+CREATE TABLE outbox_events (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    topic VARCHAR(100) NOT NULL,
+    message_key VARCHAR(100) NOT NULL,
+    payload_type VARCHAR(255) NOT NULL,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3)
+);
@@ -0,0 +1,6 @@
+-- Gateway connector each payment was routed to
+
+-- Follow-up operations (capture, cancel, refund, inquiry) must reach the
+-- acquirer that authorized the payment; NULL rows predate routing and use
+-- the default acquirer
+ALTER TABLE payments ADD COLUMN gateway VARCHAR(50);
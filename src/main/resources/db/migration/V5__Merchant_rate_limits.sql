@@ -0,0 +1,6 @@
+-- Per-merchant payment rate limits
+
+-- NULL means the merchant uses payment.rate-limit.merchant-permits-per-second
+-- and merchant-burst; 0 exempts the merchant from rate limiting
+ALTER TABLE merchants ADD COLUMN rate_limit_per_second INT;
+ALTER TABLE merchants ADD COLUMN rate_limit_burst INT;
@@ -0,0 +1,3 @@
+-- Authorized payments held by deep fraud scoring until released or cancelled
+
+ALTER TABLE payments MODIFY status ENUM('PENDING', 'AUTHORIZED', 'CAPTURED', 'SETTLED', 'FAILED', 'REFUNDED', 'CANCELLED', 'REVIEW') NOT NULL;
@@ -0,0 +1,3 @@
+-- Merchant snapshot refreshes read the merchants updated since the last one
+
+CREATE INDEX idx_merchants_updated_at ON merchants (updated_at);
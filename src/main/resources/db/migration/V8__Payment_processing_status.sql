@@ -0,0 +1,6 @@
+-- Payments claimed by a worker that is calling the gateway for them
+
+ALTER TABLE payments MODIFY status ENUM('PENDING', 'PROCESSING', 'AUTHORIZED', 'CAPTURED', 'SETTLED', 'FAILED', 'REFUNDED', 'CANCELLED', 'REVIEW') NOT NULL;
+
+-- Payments left PENDING before this release may already have reached the gateway, so recovery must ask about them
+UPDATE payments SET status = 'PROCESSING' WHERE status = 'PENDING';
@@ -0,0 +1,20 @@
+-- Pooled sequence ids for outbox events, so inserts can be JDBC batched,
+-- and a claim column so the relay can publish outside the database transaction
+
+-- Ids now come from outbox_event_seq, assigned by Hibernate before the INSERT
+ALTER TABLE outbox_events MODIFY id BIGINT NOT NULL;
+
+CREATE TABLE outbox_event_seq (
+    next_val BIGINT NOT NULL
+);
+
+-- Start past existing ids plus one allocation block (50), as for payment_seq
+INSERT INTO outbox_event_seq (next_val)
+SELECT COALESCE(MAX(id), 0) + 51 FROM outbox_events;
+
+-- Set while a relay is sending the event; a relay that dies mid-send leaves
+-- the claim to expire, after which the event is sent again
+ALTER TABLE outbox_events ADD COLUMN claimed_until TIMESTAMP(3) NULL;
+
+-- Pooled ids are not in insert order across instances, so the relay reads in created_at order
+CREATE INDEX idx_outbox_events_created_at ON outbox_events (created_at, id);
@@ -0,0 +1,7 @@
+-- Adds ARGV[1] to the counter at KEYS[1] and gives it a TTL of ARGV[2]
+-- milliseconds if it has none yet, in one step. Returns the new value.
+local count = redis.call('INCRBY', KEYS[1], ARGV[1])
+if redis.call('PTTL', KEYS[1]) < 0 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return count
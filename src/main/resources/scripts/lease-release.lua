@@ -0,0 +1,6 @@
+-- Deletes the lease at KEYS[1] if ARGV[1] still holds it, in one step.
+-- Returns 1 if deleted, 0 if the lease expired or someone else holds it.
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,7 @@
+-- Extends the lease at KEYS[1] to ARGV[2] milliseconds if ARGV[1] still
+-- holds it, in one step. Returns 1 if renewed, 0 if the lease expired or
+-- someone else holds it.
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
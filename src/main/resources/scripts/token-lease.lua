@@ -0,0 +1,26 @@
+-- Reserves up to ARGV[3] tokens from the token bucket stored at KEYS[1].
+--
+-- The bucket is the time (in microseconds, Redis clock) at which it will be
+-- full again; ARGV[1] is the emission interval and ARGV[2] the burst
+-- capacity, both in microseconds. Returns the number of tokens granted, or
+-- minus the microseconds until the next token when none are available.
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+local interval = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local requested = tonumber(ARGV[3])
+
+local full_at = tonumber(redis.call('GET', KEYS[1]) or now)
+if full_at < now then
+    full_at = now
+end
+
+local available = math.floor((now + capacity - full_at) / interval)
+if available <= 0 then
+    return -(full_at + interval - capacity - now)
+end
+
+local granted = math.min(requested, available)
+full_at = full_at + granted * interval
+redis.call('SET', KEYS[1], string.format('%d', full_at), 'PX', math.ceil((full_at - now) / 1000) + 1)
+return granted
@@ -0,0 +1,64 @@
+-- Records or releases a payment in, and reads the totals of, the sliding
+-- windows kept in the hash at KEYS[1].
+--
+-- ARGV[1] is 1 to record a payment, -1 to release one recorded moments ago,
+-- or 0 to only read, and ARGV[2] the payment amount in minor units. ARGV[3]
+-- is the number of buckets per window and ARGV[4..] the bucket length of each
+-- window in milliseconds (Redis clock). Bucket s of window w is stored in the
+-- fields "w:s:e" (its epoch), "w:s:c" (count) and "w:s:a" (amount); a bucket
+-- whose epoch has slid out of the window is reset before it is reused.
+-- Returns the count and amount of each window, in window order.
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local payments = tonumber(ARGV[1])
+local amount = tonumber(ARGV[2])
+local buckets = tonumber(ARGV[3])
+
+local totals = {}
+local ttl = 0
+for w = 4, #ARGV do
+    local length = tonumber(ARGV[w])
+    local epoch = math.floor(now / length)
+    local window = (w - 4) .. ':'
+
+    if payments > 0 then
+        local bucket = window .. (epoch % buckets) .. ':'
+        if tonumber(redis.call('HGET', KEYS[1], bucket .. 'e')) ~= epoch then
+            redis.call('HSET', KEYS[1], bucket .. 'e', string.format('%d', epoch), bucket .. 'c', 0, bucket .. 'a', 0)
+        end
+        redis.call('HINCRBY', KEYS[1], bucket .. 'c', 1)
+        redis.call('HINCRBY', KEYS[1], bucket .. 'a', string.format('%d', amount))
+    elseif payments < 0 then
+        -- The payment is in the current bucket unless the window has slid since; take it from the newest that holds one
+        for e = epoch, epoch - buckets + 1, -1 do
+            local bucket = window .. (e % buckets) .. ':'
+            local fields = redis.call('HMGET', KEYS[1], bucket .. 'e', bucket .. 'c', bucket .. 'a')
+            if tonumber(fields[1]) == e and tonumber(fields[2]) > 0 then
+                redis.call('HINCRBY', KEYS[1], bucket .. 'c', -1)
+                redis.call('HSET', KEYS[1], bucket .. 'a', string.format('%d', math.max(0, tonumber(fields[3]) - amount)))
+                break
+            end
+        end
+    end
+
+    local count = 0
+    local sum = 0
+    for s = 0, buckets - 1 do
+        local bucket = window .. s .. ':'
+        local fields = redis.call('HMGET', KEYS[1], bucket .. 'e', bucket .. 'c', bucket .. 'a')
+        local bucket_epoch = tonumber(fields[1])
+        if bucket_epoch and bucket_epoch > epoch - buckets and bucket_epoch <= epoch then
+            count = count + tonumber(fields[2])
+            sum = sum + tonumber(fields[3])
+        end
+    end
+    totals[#totals + 1] = count
+    totals[#totals + 1] = sum
+    ttl = math.max(ttl, length * buckets)
+end
+
+-- The hash outlives its longest window by one bucket at most
+if payments > 0 then
+    redis.call('PEXPIRE', KEYS[1], string.format('%d', ttl))
+end
+return totals
@@ -0,0 +1,116 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.filter.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+    
+    private static final long BASELINE_LATENCY = Duration.ofMillis(20).toNanos();
+    private static final int LIGHT_LOAD = 10;
+    
+    private final AtomicLong clock = new AtomicLong();
+    private PaymentProperties.ConcurrencyLimit config;
+    private AdaptiveConcurrencyLimiter limiter;
+    
+    @BeforeEach
+    void setUp() {
+        config = new PaymentProperties.ConcurrencyLimit();
+        limiter = new AdaptiveConcurrencyLimiter(config, clock::get);
+    }
+    
+    @Test
+    void testLimitShrinksWhenLatencyRisesAndRecovers() {
+        for (int i = 0; i < 20; i++) {
+            runSaturatedWindow(BASELINE_LATENCY, false);
+        }
+        int healthyLimit = limiter.getLimit();
+        assertTrue(healthyLimit > config.getInitialLimit(), "Limit should grow at baseline latency: " + healthyLimit);
+        
+        // The downstream slows down fivefold
+        for (int i = 0; i < 20; i++) {
+            runSaturatedWindow(BASELINE_LATENCY * 5, false);
+        }
+        int overloadedLimit = limiter.getLimit();
+        assertTrue(overloadedLimit < healthyLimit / 2,
+                "Limit should back off under latency: " + healthyLimit + " -> " + overloadedLimit);
+        assertTrue(overloadedLimit >= config.getMinLimit());
+        
+        for (int i = 0; i < 40; i++) {
+            runSaturatedWindow(BASELINE_LATENCY, false);
+        }
+        assertTrue(limiter.getLimit() > overloadedLimit * 2,
+                "Limit should recover once latency is back: " + overloadedLimit + " -> " + limiter.getLimit());
+    }
+    
+    @Test
+    void testServerErrorsBackOffEvenAtBaselineLatency() {
+        runSaturatedWindow(BASELINE_LATENCY, false);
+        int limitBefore = limiter.getLimit();
+        
+        runSaturatedWindow(BASELINE_LATENCY, true);
+        
+        assertTrue(limiter.getLimit() < limitBefore, limitBefore + " -> " + limiter.getLimit());
+    }
+    
+    @Test
+    void testLightlyUsedWindowsLeaveLimitAlone() {
+        int limitBefore = limiter.getLimit();
+        
+        for (int i = 0; i < 20; i++) {
+            // Slow, but only a few requests in flight: latency is not caused by our concurrency
+            runWindow(LIGHT_LOAD, BASELINE_LATENCY * (i == 0 ? 1 : 10), false);
+        }
+        
+        assertEquals(limitBefore, limiter.getLimit());
+    }
+    
+    @Test
+    void testPriorityRequestsCanUseReservedCapacity() {
+        int normalCapacity = (int) (config.getInitialLimit() * (1 - config.getPriorityReserve()));
+        for (int i = 0; i < normalCapacity; i++) {
+            assertTrue(limiter.tryAcquire(false));
+        }
+        assertFalse(limiter.tryAcquire(false), "Normal requests must not use the priority reserve");
+        
+        for (int i = normalCapacity; i < config.getInitialLimit(); i++) {
+            assertTrue(limiter.tryAcquire(true));
+        }
+        assertFalse(limiter.tryAcquire(true), "Priority requests are still bound by the limit");
+        assertEquals(config.getInitialLimit(), limiter.getInFlight());
+        
+        limiter.release(BASELINE_LATENCY, false);
+        assertFalse(limiter.tryAcquire(false));
+        assertTrue(limiter.tryAcquire(true));
+    }
+    
+    private void runSaturatedWindow(long latencyNanos, boolean dropped) {
+        int admitted = 0;
+        while (limiter.tryAcquire(true)) {
+            admitted++;
+        }
+        releaseWindow(admitted, latencyNanos, dropped);
+    }
+    
+    private void runWindow(int requests, long latencyNanos, boolean dropped) {
+        for (int i = 0; i < requests; i++) {
+            assertTrue(limiter.tryAcquire(false));
+        }
+        releaseWindow(requests, latencyNanos, dropped);
+    }
+    
+    private void releaseWindow(int requests, long latencyNanos, boolean dropped) {
+        for (int i = 0; i < requests - 1; i++) {
+            limiter.release(latencyNanos, dropped);
+        }
+        // The last request closes the window
+        clock.addAndGet(config.getWindow().toNanos());
+        limiter.release(latencyNanos, dropped);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.shibam.payments;
+
+import com.shibam.payments.cache.CacheCodec;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of cache value serialization: {@link CacheCodec} against
+ * the {@link GenericJackson2JsonRedisSerializer} it replaced, encoding and
+ * decoding a cached payment.
+ *
+ * Run after {@code mvn test-compile} with the test classpath, for example
+ * from the IDE, or with
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.shibam.payments.CacheCodecBenchmark}.
+ * Bytes per entry for each serializer are printed before the run; the GC
+ * profiler reports bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+    
+    @Param({"codec", "json"})
+    private String serializer;
+        
+    private RedisSerializer<Object> redisSerializer;
+    private Object value;
+    private byte[] encoded;
+    
+    @Setup
+    public void setUp() {
+        redisSerializer = serializer(serializer);
+        value = payment();
+        encoded = redisSerializer.serialize(value);
+    }
+    
+    @Benchmark
+    public byte[] encode() {
+        return redisSerializer.serialize(value);
+    }
+    
+    @Benchmark
+    public Object decode() {
+        return redisSerializer.deserialize(encoded);
+    }
+    
+    private static RedisSerializer<Object> serializer(String name) {
+        return name.equals("codec") ? new CacheCodec() : new GenericJackson2JsonRedisSerializer();
+    }
+    
+    private static Payment payment() {
+        Payment payment = new Payment();
+        payment.setId(1_048_576L);
+        payment.setTransactionId("TXN_1760606400000_5f3a9c2e");
+        payment.setUserId(12345L);
+        payment.setAmount(new BigDecimal("1499.99"));
+        payment.setCurrency("USD");
+        payment.setStatus(PaymentStatus.CAPTURED);
+        payment.setPaymentMethod("CARD");
+        payment.setMerchantId("MERCH_017");
+        payment.setDescription("Order #88231");
+        payment.setGatewayResponse("Approved");
+        payment.setGateway("primary");
+        payment.setCreatedAt(LocalDateTime.of(2026, 10, 16, 9, 0, 0, 123_000_000));
+        payment.setUpdatedAt(LocalDateTime.of(2026, 10, 16, 9, 0, 1, 456_000_000));
+        return payment;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        for (String serializer : new String[] {"codec", "json"}) {
+            System.out.printf("payment as %s: %d bytes%n", serializer,
+                    serializer(serializer).serialize(payment()).length);
+        }
+        new Runner(new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,100 @@
+package com.shibam.payments;
+
+import com.shibam.payments.cache.CacheCodec;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCodecTest {
+    
+    private final CacheCodec codec = new CacheCodec();
+    
+    @Test
+    void testPaymentRoundTrip() {
+        Payment payment = payment();
+        payment.setCreatedAt(LocalDateTime.of(2026, 3, 14, 9, 26, 53, 589_793_000));
+        payment.setUpdatedAt(LocalDateTime.of(2026, 3, 14, 9, 27, 0));
+        payment.setGatewayResponse("Approved: auth code 0042");
+        
+        assertEquals(payment, codec.deserialize(codec.serialize(payment)));
+    }
+    
+    @Test
+    void testNullFieldsStayNull() {
+        Payment payment = new Payment();
+        payment.setTransactionId("TXN_1");
+        
+        Payment decoded = (Payment) codec.deserialize(codec.serialize(payment));
+        
+        assertEquals(payment, decoded);
+        assertNull(decoded.getAmount());
+        assertNull(decoded.getStatus());
+    }
+    
+    @Test
+    void testValuesOutsideTheDictionariesRoundTrip() {
+        Payment payment = payment();
+        payment.setCurrency("SEK");
+        payment.setPaymentMethod("PIX");
+        payment.setAmount(new BigDecimal("0.005"));
+        
+        assertEquals(payment, codec.deserialize(codec.serialize(payment)));
+    }
+    
+    @Test
+    void testBinaryIsSmallerThanJson() {
+        Payment payment = payment();
+        
+        byte[] binary = codec.serialize(payment);
+        byte[] json = new GenericJackson2JsonRedisSerializer().serialize(payment);
+        
+        assertTrue(binary.length * 2 < json.length, binary.length + " bytes against " + json.length + " as JSON");
+    }
+    
+    @Test
+    void testOtherValuesAndExistingJsonEntriesStillRead() {
+        GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+        Payment payment = payment();
+        
+        // Payments cached as JSON before the codec was deployed
+        assertEquals(payment, codec.deserialize(json.serialize(payment)));
+        Map<String, String> idempotency = new HashMap<>(Map.of("state", "claimed"));
+        assertEquals(idempotency, codec.deserialize(codec.serialize(idempotency)));
+        assertEquals("authorized", codec.deserialize(codec.serialize("authorized")));
+        assertNull(codec.deserialize(null));
+    }
+    
+    @Test
+    void testReadsNewerVersionWithAppendedFields() {
+        byte[] current = codec.serialize(payment());
+        // A newer layout appends fields after the ones this version knows about
+        byte[] newer = Arrays.copyOf(current, current.length + 12);
+        newer[2]++;
+        
+        assertEquals(payment(), codec.deserialize(newer));
+    }
+    
+    private Payment payment() {
+        Payment payment = new Payment();
+        payment.setId(1_048_576L);
+        payment.setTransactionId("TXN_1760606400000_5f3a9c2e");
+        payment.setUserId(12345L);
+        payment.setAmount(new BigDecimal("1499.99"));
+        payment.setCurrency("USD");
+        payment.setStatus(PaymentStatus.AUTHORIZED);
+        payment.setPaymentMethod("CARD");
+        payment.setMerchantId("MERCH_001");
+        payment.setDescription("Order #88231");
+        payment.setGateway("primary");
+        return payment;
+    }
+}
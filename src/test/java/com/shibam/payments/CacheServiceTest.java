@@ -0,0 +1,241 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.service.CacheService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CacheServiceTest {
+    
+    private static final byte[] CHANNEL = "cache-invalidation".getBytes(StandardCharsets.UTF_8);
+    
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+    
+    @Mock
+    private ValueOperations<String, Object> valueOperations;
+    
+    @Mock
+    private RedisConnection connection;
+    
+    @Mock
+    private RedisStringCommands stringCommands;
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private CacheService cacheService;
+    
+    @BeforeEach
+    void setUp() {
+        cacheService = new CacheService(redisTemplate, new PaymentProperties(), meterRegistry);
+    }
+    
+    @Test
+    void testLocalTierAnswersRepeatedReads() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("payment:TXN_1")).thenReturn("authorized");
+        
+        assertEquals("authorized", cacheService.get("payment:TXN_1"));
+        assertEquals("authorized", cacheService.get("payment:TXN_1"));
+        
+        verify(valueOperations, times(1)).get("payment:TXN_1");
+        assertEquals(1, meterRegistry.get("payment.cache.hits").tag("tier", "local").counter().count());
+        assertEquals(1, meterRegistry.get("payment.cache.misses").tag("tier", "local").counter().count());
+        assertEquals(1, meterRegistry.get("payment.cache.hits").tag("tier", "redis").counter().count());
+    }
+    
+    @Test
+    void testOtherKeysAlwaysGoToRedis() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("idempotency:key")).thenReturn("claimed");
+        
+        cacheService.get("idempotency:key");
+        cacheService.get("idempotency:key");
+        
+        verify(valueOperations, times(2)).get("idempotency:key");
+    }
+    
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void testWritePublishesInvalidationInSamePipeline() {
+        when(redisTemplate.getValueSerializer()).thenReturn((RedisSerializer) RedisSerializer.string());
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        
+        cacheService.set("payment:TXN_1", "captured", Duration.ofMinutes(15));
+        
+        ArgumentCaptor<RedisCallback<Object>> pipeline = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redisTemplate).executePipelined(pipeline.capture());
+        pipeline.getValue().doInRedis(connection);
+        verify(stringCommands).set(eq("payment:TXN_1".getBytes(StandardCharsets.UTF_8)),
+                eq("captured".getBytes(StandardCharsets.UTF_8)), any(), any());
+        ArgumentCaptor<byte[]> invalidation = ArgumentCaptor.forClass(byte[].class);
+        verify(connection).publish(eq(CHANNEL), invalidation.capture());
+        assertTrue(new String(invalidation.getValue(), StandardCharsets.UTF_8).endsWith(" payment:TXN_1"));
+        
+        // Written locally too, so the next read does not go to Redis
+        assertEquals("captured", cacheService.get("payment:TXN_1"));
+        verify(redisTemplate, never()).opsForValue();
+    }
+    
+    @Test
+    void testGetAllReadsLocalMissesWithOneMget() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("payment:TXN_1")).thenReturn("authorized");
+        cacheService.get("payment:TXN_1");
+        when(valueOperations.multiGet(List.of("payment:TXN_2", "idempotency:key", "payment:TXN_3")))
+                .thenReturn(Arrays.asList("captured", "claimed", null));
+        
+        Map<String, Object> found = cacheService.getAll(
+                List.of("payment:TXN_1", "payment:TXN_2", "idempotency:key", "payment:TXN_3"));
+        
+        assertEquals(Map.of("payment:TXN_1", "authorized", "payment:TXN_2", "captured",
+                "idempotency:key", "claimed"), found);
+        // The Redis hit is now cached locally too
+        assertEquals(Map.of("payment:TXN_2", "captured"), cacheService.getAll(List.of("payment:TXN_2")));
+        verify(valueOperations, times(1)).multiGet(any());
+        assertEquals(1, meterRegistry.get("payment.cache.misses").tag("tier", "redis").counter().count());
+    }
+    
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void testSetAllIfAbsentBackfillsOnlyMissingKeysInOnePipeline() {
+        when(redisTemplate.getValueSerializer()).thenReturn((RedisSerializer) RedisSerializer.string());
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        // TXN_2 was written after the caller read its source
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(List.of(true, false));
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("payment:TXN_2")).thenReturn("refunded");
+        Map<String, Object> entries = new LinkedHashMap<>();
+        entries.put("payment:TXN_1", "authorized");
+        entries.put("payment:TXN_2", "captured");
+        
+        cacheService.setAllIfAbsent(entries, Duration.ofMinutes(15));
+        
+        ArgumentCaptor<RedisCallback<Object>> pipeline = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redisTemplate, times(1)).executePipelined(pipeline.capture());
+        pipeline.getValue().doInRedis(connection);
+        verify(stringCommands, times(2)).set(any(byte[].class), any(byte[].class), any(),
+                eq(RedisStringCommands.SetOption.ifAbsent()));
+        verify(connection, never()).publish(any(), any());
+        assertEquals("authorized", cacheService.get("payment:TXN_1"));
+        assertEquals("refunded", cacheService.get("payment:TXN_2"));
+        verify(valueOperations, never()).get("payment:TXN_1");
+    }
+    
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Callable<String> lookup = () -> cacheService.getOrLoad("payment:TXN_1", Duration.ofMinutes(15), () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "captured";
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(lookup);
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(lookup);
+            Counter coalesced = meterRegistry.get("payment.cache.loads.coalesced").counter();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (coalesced.count() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            
+            assertEquals("captured", first.get(5, TimeUnit.SECONDS));
+            assertEquals("captured", second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.get("payment.cache.loads.coalesced").counter().count());
+    }
+    
+    @Test
+    void testMissingValueIsRememberedAsAbsent() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("payment:TXN_404"), eq(CacheService.ABSENT), any(Duration.class)))
+                .thenReturn(true);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<String> loader = () -> {
+            loads.incrementAndGet();
+            return null;
+        };
+        
+        assertNull(cacheService.getOrLoad("payment:TXN_404", Duration.ofMinutes(15), loader));
+        assertNull(cacheService.getOrLoad("payment:TXN_404", Duration.ofMinutes(15), loader));
+        
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.get("payment.cache.negative.hits").counter().count());
+    }
+    
+    @Test
+    void testLoadDoesNotReplaceValueWrittenWhileLoading() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        // Captured after the loader read the payment as authorized
+        when(valueOperations.setIfAbsent(eq("payment:TXN_1"), eq("authorized"), any(Duration.class)))
+                .thenReturn(false);
+        
+        assertEquals("authorized", cacheService.getOrLoad("payment:TXN_1", Duration.ofMinutes(15), () -> "authorized"));
+        
+        when(valueOperations.get("payment:TXN_1")).thenReturn("captured");
+        assertEquals("captured", cacheService.get("payment:TXN_1"));
+        verify(valueOperations, never()).set(anyString(), any(), anyLong(), any());
+    }
+    
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void testInvalidationFromAnotherInstanceDropsLocalCopy() {
+        when(redisTemplate.getValueSerializer()).thenReturn((RedisSerializer) RedisSerializer.string());
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("payment:TXN_1")).thenReturn("cancelled");
+        cacheService.set("payment:TXN_1", "authorized", Duration.ofMinutes(15));
+        
+        cacheService.onMessage(new DefaultMessage(CHANNEL,
+                "other-instance payment:TXN_1".getBytes(StandardCharsets.UTF_8)), null);
+        
+        assertEquals("cancelled", cacheService.get("payment:TXN_1"));
+        assertEquals(1, meterRegistry.get("payment.cache.evictions")
+                .tags("tier", "local", "cause", "invalidated").functionCounter().count());
+    }
+}
@@ -0,0 +1,122 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.fraud.CardBlocklist;
+import com.shibam.payments.fraud.CardNumbers;
+import com.shibam.payments.service.CardBlocklistService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardBlocklistTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testOverlappingBinRangesAreMerged() {
+        CardBlocklist blocklist = CardBlocklist.builder(0, 0.01)
+                .addBinRange(500000, 500099)
+                .addBinRange(400000, 400099)
+                .addBinRange(400050, 400199)
+                .addBinRange(400200, 400200)
+                .build();
+        
+        assertEquals(2, blocklist.binRanges());
+        assertTrue(blocklist.isBinBlocked(400000));
+        assertTrue(blocklist.isBinBlocked(400150));
+        assertTrue(blocklist.isBinBlocked(400200));
+        assertTrue(blocklist.isBinBlocked(500099));
+        assertFalse(blocklist.isBinBlocked(399999));
+        assertFalse(blocklist.isBinBlocked(400201));
+        assertFalse(blocklist.isBinBlocked(500100));
+    }
+    
+    @Test
+    void testInvalidBinRangeIsRejected() {
+        CardBlocklist.Builder builder = CardBlocklist.builder(0, 0.01);
+        
+        assertThrows(IllegalArgumentException.class, () -> builder.addBinRange(400100, 400000));
+        assertThrows(IllegalArgumentException.class, () -> builder.addBinRange(0, 1_000_000));
+    }
+    
+    @Test
+    void testCompromisedCardsAreFoundWithFewFalsePositives() {
+        int cards = 100_000;
+        CardBlocklist.Builder builder = CardBlocklist.builder(cards, 0.001);
+        for (long i = 0; i < cards; i++) {
+            builder.addCompromisedCard(Long.toString(4000_0000_0000_0000L + i * 7));
+        }
+        CardBlocklist blocklist = builder.build();
+        
+        for (long i = 0; i < cards; i++) {
+            assertTrue(blocklist.isCompromised(Long.toString(4000_0000_0000_0000L + i * 7)));
+        }
+        int falsePositives = 0;
+        for (long i = 0; i < cards; i++) {
+            if (blocklist.isCompromised(Long.toString(5000_0000_0000_0000L + i * 7))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < cards * 0.002, falsePositives + " false positives");
+        assertEquals(cards, blocklist.compromisedCards());
+    }
+    
+    @Test
+    void testCardNumbersMatchIgnoringWhitespace() {
+        CardBlocklist blocklist = CardBlocklist.builder(1, 1e-6).addCompromisedCard("4111111111111111").build();
+        
+        assertTrue(blocklist.isCompromised("4111 1111 1111 1111"));
+        assertFalse(blocklist.isCompromised("4111-1111-1111-1111"));
+        assertFalse(blocklist.isCompromised(null));
+        assertFalse(CardBlocklist.EMPTY.isCompromised("4111111111111111"));
+    }
+    
+    @Test
+    void testServiceSwapsInRebuiltBlocklist() throws Exception {
+        Path binRanges = Files.writeString(tempDir.resolve("bin-ranges.txt"), """
+                # Test issuer
+                411111
+                """);
+        PaymentProperties paymentProperties = new PaymentProperties();
+        paymentProperties.getFraud().getBlocklist().setBinRangesFile(binRanges.toString());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CardBlocklistService service = new CardBlocklistService(paymentProperties, meterRegistry);
+        long visa = CardNumbers.inspect("4111111111111111");
+        long mastercard = CardNumbers.inspect("5555555555554444");
+        
+        assertTrue(service.isBlocked("4111111111111111", visa));
+        assertFalse(service.isBlocked("5555555555554444", mastercard));
+        
+        Files.writeString(binRanges, "555000-555999\n");
+        Files.setLastModifiedTime(binRanges, FileTime.from(Instant.now().plusSeconds(10)));
+        service.rebuildIfChanged().get();
+        
+        assertFalse(service.isBlocked("4111111111111111", visa));
+        assertTrue(service.isBlocked("5555555555554444", mastercard));
+        assertEquals(2, meterRegistry.get("payment.fraud.blocklist.hits").tag("list", "bin").counter().count());
+    }
+    
+    @Test
+    void testUnreadableFileKeepsCurrentBlocklist() throws Exception {
+        Path binRanges = Files.writeString(tempDir.resolve("bin-ranges.txt"), "411111\n");
+        PaymentProperties paymentProperties = new PaymentProperties();
+        paymentProperties.getFraud().getBlocklist().setBinRangesFile(binRanges.toString());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CardBlocklistService service = new CardBlocklistService(paymentProperties, meterRegistry);
+        
+        Files.writeString(binRanges, "not-a-bin\n");
+        Files.setLastModifiedTime(binRanges, FileTime.from(Instant.now().plusSeconds(10)));
+        service.rebuildIfChanged().get();
+        
+        assertTrue(service.isBlocked("4111111111111111", CardNumbers.inspect("4111111111111111")));
+        assertEquals(1, meterRegistry.get("payment.fraud.blocklist.reload.failures").counter().count());
+    }
+}
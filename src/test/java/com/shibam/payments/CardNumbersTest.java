@@ -0,0 +1,74 @@
+package com.shibam.payments;
+
+import com.shibam.payments.fraud.CardNumbers;
+import com.shibam.payments.fraud.CardNumbers.Brand;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class CardNumbersTest {
+    
+    @ParameterizedTest
+    @CsvSource({
+            "4111111111111111, VISA, 411111, 1111",
+            "4111 1111 1111 1111, VISA, 411111, 1111",
+            "5555555555554444, MASTERCARD, 555555, 4444",
+            "2223003122003222, MASTERCARD, 222300, 3222",
+            "378282246310005, AMEX, 378282, 0005",
+            "6011111111111117, DISCOVER, 601111, 1117",
+            "3530111333300000, JCB, 353011, 0000",
+            "30569309025904, DINERS, 305693, 5904",
+            "6200000000000005, UNIONPAY, 620000, 0005"
+    })
+    void testValidCardsAreInspectedInOnePass(String number, Brand brand, int bin, int lastFour) {
+        long card = CardNumbers.inspect(number);
+        
+        assertTrue(CardNumbers.isValid(card));
+        assertEquals(brand, CardNumbers.brand(card));
+        assertEquals(bin, CardNumbers.bin(card));
+        assertEquals(lastFour, CardNumbers.lastFour(card));
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"1234567890123456", "4111111111111112", "411111111111", "41111111111111111111", "4111-1111-1111-1111", ""})
+    void testInvalidCardsAreRejected(String number) {
+        assertFalse(CardNumbers.isValid(CardNumbers.inspect(number)));
+    }
+    
+    @Test
+    void testNullIsRejected() {
+        assertFalse(CardNumbers.isValid(CardNumbers.inspect(null)));
+    }
+    
+    @Test
+    void testInspectionDoesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "Per-thread allocation counters are not available on this JVM");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        String[] numbers = {"4111111111111111", "4111 1111 1111 1111", "378282246310005", "1234567890123456"};
+        long threadId = Thread.currentThread().getId();
+        
+        // Warm up so the measured loop runs compiled code
+        long sink = 0;
+        for (int i = 0; i < 200_000; i++) {
+            sink += CardNumbers.inspect(numbers[i & 3]);
+        }
+        
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1_000_000; i++) {
+            sink += CardNumbers.inspect(numbers[i & 3]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        
+        // The old path allocated hundreds of bytes per card; allow a little for the counter calls themselves
+        assertTrue(allocated < 1_024, "Allocated " + allocated + " bytes for 1,000,000 inspections");
+        assertNotEquals(0, sink);
+    }
+}
@@ -0,0 +1,74 @@
+package com.shibam.payments;
+
+import com.shibam.payments.fraud.CardNumbers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of card validation: the single-pass {@link CardNumbers}
+ * against the previous regex strip followed by a parse per digit.
+ *
+ * Run after {@code mvn test-compile} with the test classpath, for example
+ * from the IDE, or with
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.shibam.payments.CardValidationBenchmark}.
+ * The GC profiler reports bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardValidationBenchmark {
+    
+    @Param({"4111111111111111", "4111 1111 1111 1111", "378282246310005"})
+    private String cardNumber;
+    
+    @Benchmark
+    public long singlePass() {
+        return CardNumbers.inspect(cardNumber);
+    }
+    
+    @Benchmark
+    public boolean regexAndParse() {
+        if (cardNumber.length() < 13) {
+            return false;
+        }
+        String digits = cardNumber.replaceAll("\\s+", "");
+        int sum = 0;
+        boolean alternate = false;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            int n = Integer.parseInt(digits.substring(i, i + 1));
+            if (alternate) {
+                n *= 2;
+                if (n > 9) {
+                    n = (n % 10) + 1;
+                }
+            }
+            sum += n;
+            alternate = !alternate;
+        }
+        return sum % 10 == 0;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CardValidationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package com.shibam.payments;
+
+import com.shibam.payments.velocity.ClusterVelocityStore;
+import com.shibam.payments.velocity.RedisVelocityWindows;
+import com.shibam.payments.velocity.VelocityEngine;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import com.shibam.payments.velocity.VelocitySnapshot;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ClusterVelocityStoreTest {
+    
+    private final long key = VelocityEngine.keyOf(Dimension.USER, 42L);
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final RedisVelocityWindows windows = mock(RedisVelocityWindows.class);
+    private final ClusterVelocityStore store = new ClusterVelocityStore(windows, new VelocityEngine(10_000),
+            Duration.ofSeconds(5), nanoTime::get);
+    private final VelocitySnapshot totals = new VelocitySnapshot();
+    
+    @Test
+    void testReadsSharedCountersFromRedis() {
+        // Payments counted by other instances
+        VelocityEngine cluster = new VelocityEngine(10_000);
+        for (int i = 0; i < 7; i++) {
+            cluster.record(key, 1_000, totals);
+        }
+        doAnswer(invocation -> {
+            cluster.read(key, invocation.getArgument(1));
+            return null;
+        }).when(windows).read(eq(key), any());
+        
+        store.record(key, 1_000, totals);
+        
+        store.read(key, totals);
+        assertEquals(7, totals.count(Window.MINUTE));
+        verify(windows).record(eq(key), eq(1_000L), any());
+    }
+    
+    @Test
+    void testFallsBackToLocalCountersWhileRedisIsDown() {
+        doThrow(new RedisConnectionFailureException("Connection refused")).when(windows).record(anyLong(), anyLong(), any());
+        
+        assertTrue(store.record(key, 1_000, totals));
+        assertTrue(store.record(key, 2_000, totals));
+        assertTrue(store.record(key, 3_000, totals));
+        
+        store.read(key, totals);
+        assertEquals(3, totals.count(Window.HOUR));
+        assertEquals(6_000, totals.amount(Window.DAY));
+        // Only the first call waits for the failure; the rest skip Redis until the retry interval
+        verify(windows, times(1)).record(anyLong(), anyLong(), any());
+        verify(windows, never()).read(anyLong(), any());
+        
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        reset(windows);
+        store.record(key, 1_000, totals);
+        verify(windows).record(eq(key), eq(1_000L), any());
+    }
+    
+    @Test
+    void testReleaseTakesPaymentBackEverywhere() {
+        store.record(key, 1_000, totals);
+        
+        store.release(key, 1_000);
+        
+        verify(windows).release(key, 1_000);
+        doThrow(new RedisConnectionFailureException("Connection refused")).when(windows).read(eq(key), any());
+        store.read(key, totals);
+        assertEquals(0, totals.count(Window.DAY));
+    }
+}
\ No newline at end of file
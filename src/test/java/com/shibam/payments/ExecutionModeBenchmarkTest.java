@@ -0,0 +1,87 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.ExecutionConfig;
+import com.shibam.payments.config.PaymentProperties;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares platform and virtual thread execution for in-flight payments that
+ * spend most of their time blocked on the gateway.
+ *
+ * The platform pool is sized like Tomcat's default 200 request threads, so its
+ * throughput is capped at 200 / gateway latency no matter how many payments
+ * are waiting. Virtual threads only need memory per in-flight payment.
+ *
+ * Asserts on wall-clock time, so it is left out of the default build: run it
+ * with {@code mvn test -Pperformance}.
+ */
+@Tag("performance")
+class ExecutionModeBenchmarkTest {
+    
+    private static final int PLATFORM_THREADS = 200;
+    private static final long GATEWAY_LATENCY_MS = 100;
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 10_000})
+    void testVirtualThreadsOutperformPlatformPoolUnderGatewayLatency(int inFlightPayments) throws Exception {
+        assumeTrue(JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE),
+                "Virtual threads require Java 21");
+        
+        long platformMillis = runInFlightPayments(false, inFlightPayments);
+        long virtualMillis = runInFlightPayments(true, inFlightPayments);
+        
+        long platformFloorMillis = inFlightPayments / PLATFORM_THREADS * GATEWAY_LATENCY_MS;
+        assertTrue(platformMillis >= platformFloorMillis,
+                "Platform pool cannot beat " + platformFloorMillis + " ms, took " + platformMillis + " ms");
+        assertTrue(virtualMillis * 2 < platformMillis,
+                String.format("%d in-flight payments: virtual %d ms vs platform %d ms",
+                        inFlightPayments, virtualMillis, platformMillis));
+    }
+    
+    private long runInFlightPayments(boolean virtualThreads, int inFlightPayments) throws Exception {
+        PaymentProperties.Execution execution = new PaymentProperties.Execution();
+        execution.setPoolSize(PLATFORM_THREADS);
+        execution.setQueueCapacity(Integer.MAX_VALUE);
+        execution.setVirtualConcurrencyLimit(-1);
+        
+        AsyncTaskExecutor executor = ExecutionConfig.createTaskExecutor("benchmark-", virtualThreads, execution);
+        if (executor instanceof InitializingBean initializingBean) {
+            initializingBean.afterPropertiesSet();
+        }
+        
+        try {
+            List<Future<?>> futures = new ArrayList<>(inFlightPayments);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < inFlightPayments; i++) {
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(GATEWAY_LATENCY_MS);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        } finally {
+            if (executor instanceof DisposableBean disposableBean) {
+                disposableBean.destroy();
+            } else if (executor instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.service.FraudCheckWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FraudCheckWriterTest {
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PaymentProperties paymentProperties;
+    private JdbcTemplate jdbcTemplate;
+    private FraudCheckWriter writer;
+    
+    @BeforeEach
+    void setUp() {
+        paymentProperties = new PaymentProperties();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:fraud-checks-" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("""
+                CREATE TABLE fraud_checks (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    transaction_id VARCHAR(50) NOT NULL,
+                    risk_score DECIMAL(5,4),
+                    rules_triggered TEXT,
+                    decision ENUM('APPROVE', 'DECLINE', 'REVIEW') NOT NULL,
+                    reason TEXT,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+                """);
+    }
+    
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+    
+    @Test
+    void testDecisionsAreWrittenInBatches() throws InterruptedException {
+        paymentProperties.getFraud().getChecks().setBatchSize(3);
+        paymentProperties.getFraud().getChecks().setFlushInterval(Duration.ofSeconds(30));
+        writer = new FraudCheckWriter(paymentProperties, jdbcTemplate, meterRegistry);
+        
+        writer.record("TXN_1", new FraudEvaluation(0.3, List.of("method-CRYPTO"), null));
+        writer.record("TXN_2", new FraudEvaluation(1.0, List.of("max-amount"), "Transaction amount exceeds limit"));
+        writer.record("TXN_3", new FraudEvaluation(0, List.of(), null));
+        
+        awaitWritten(3);
+        Map<String, Object> declined = jdbcTemplate.queryForMap(
+                "SELECT risk_score, rules_triggered, decision, reason FROM fraud_checks WHERE transaction_id = 'TXN_2'");
+        assertEquals("DECLINE", declined.get("DECISION"));
+        assertEquals("max-amount", declined.get("RULES_TRIGGERED"));
+        assertEquals("Transaction amount exceeds limit", declined.get("REASON"));
+        assertEquals("APPROVE", jdbcTemplate.queryForObject(
+                "SELECT decision FROM fraud_checks WHERE transaction_id = 'TXN_1'", String.class));
+    }
+    
+    @Test
+    void testPartialBatchIsFlushedAfterInterval() throws InterruptedException {
+        paymentProperties.getFraud().getChecks().setFlushInterval(Duration.ofMillis(50));
+        writer = new FraudCheckWriter(paymentProperties, jdbcTemplate, meterRegistry);
+        
+        writer.record("TXN_1", new FraudEvaluation(0, List.of(), null));
+        
+        awaitWritten(1);
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM fraud_checks", Integer.class));
+    }
+    
+    @Test
+    void testFullQueueDropsInsteadOfBlocking() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        JdbcTemplate stalledJdbc = mock(JdbcTemplate.class);
+        when(stalledJdbc.batchUpdate(anyString(), anyCollection(), anyInt(), any())).thenAnswer(invocation -> {
+            release.await();
+            return new int[0][];
+        });
+        paymentProperties.getFraud().getChecks().setQueueCapacity(2);
+        paymentProperties.getFraud().getChecks().setBatchSize(1);
+        writer = new FraudCheckWriter(paymentProperties, stalledJdbc, meterRegistry);
+        
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            writer.record("TXN_" + i, new FraudEvaluation(0, List.of(), null));
+        }
+        
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(meterRegistry.get("payment.fraud.checks.dropped").counter().count() >= 7);
+        assertTrue(meterRegistry.get("payment.fraud.checks.queue.depth").gauge().value() >= 1);
+        release.countDown();
+    }
+    
+    @Test
+    void testFailedInsertIsCountedAsDropped() throws InterruptedException {
+        jdbcTemplate.execute("DROP TABLE fraud_checks");
+        paymentProperties.getFraud().getChecks().setFlushInterval(Duration.ofMillis(10));
+        writer = new FraudCheckWriter(paymentProperties, jdbcTemplate, meterRegistry);
+        
+        writer.record("TXN_1", new FraudEvaluation(0, List.of(), null));
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("payment.fraud.checks.dropped").counter().count() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, meterRegistry.get("payment.fraud.checks.dropped").counter().count());
+    }
+    
+    private void awaitWritten(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("payment.fraud.checks.written").counter().count() < expected
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, meterRegistry.get("payment.fraud.checks.written").counter().count());
+    }
+}
@@ -1,27 +1,54 @@
 package com.shibam.payments;
 
+import com.shibam.payments.config.PaymentProperties;
 import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.service.CardBlocklistService;
+import com.shibam.payments.service.FraudCheckWriter;
 import com.shibam.payments.service.FraudDetectionService;
+import com.shibam.payments.service.FraudRuleService;
+import com.shibam.payments.service.UserProfileService;
+import com.shibam.payments.service.VelocityService;
+import com.shibam.payments.velocity.VelocityEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.env.StandardEnvironment;
 
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 class FraudDetectionServiceTest {
     
-    @InjectMocks
+    @Mock
+    private FraudCheckWriter fraudCheckWriter;
+    
+    @TempDir
+    Path tempDir;
+    
+    private PaymentProperties paymentProperties;
+    
     private FraudDetectionService fraudDetectionService;
     
     private PaymentRequest paymentRequest;
     
     @BeforeEach
     void setUp() {
+        paymentProperties = new PaymentProperties();
+        fraudDetectionService = newService();
+        
         paymentRequest = new PaymentRequest();
         paymentRequest.setUserId(1L);
         paymentRequest.setAmount(new BigDecimal("100.00"));
@@ -33,7 +60,7 @@ class FraudDetectionServiceTest {
     
     @Test
     void testIsPaymentSafe_ValidPayment() {
-        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest);
+        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null);
         assertTrue(result);
     }
     
@@ -41,7 +68,7 @@ class FraudDetectionServiceTest {
     void testIsPaymentSafe_AmountTooHigh() {
         paymentRequest.setAmount(new BigDecimal("15000.00"));
         
-        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest);
+        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null);
         assertFalse(result);
     }
     
@@ -49,17 +76,70 @@ class FraudDetectionServiceTest {
     void testIsPaymentSafe_InvalidCard() {
         paymentRequest.setCardNumber("1234567890123456"); // Invalid Luhn
         
-        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest);
+        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null);
         assertFalse(result);
     }
     
+    @Test
+    void testDecisionIsRecorded() {
+        paymentRequest.setCardNumber("1234567890123456");
+        ArgumentCaptor<FraudEvaluation> evaluation = ArgumentCaptor.forClass(FraudEvaluation.class);
+        
+        fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null);
+        
+        verify(fraudCheckWriter).record(eq("TXN_1"), evaluation.capture());
+        assertTrue(evaluation.getValue().isDeclined());
+        assertEquals(List.of("invalid-card"), evaluation.getValue().rulesTriggered());
+    }
+    
     @Test
     void testIsPaymentSafe_CryptoPayment() {
         paymentRequest.setPaymentMethod("CRYPTO");
         paymentRequest.setAmount(new BigDecimal("5000.00"));
         
-        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest);
+        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null);
         // Should pass but with higher risk score
         assertTrue(result);
     }
-}
\ No newline at end of file
+    
+    @Test
+    void testIsPaymentSafe_VelocityLimitExceeded() {
+        VelocityService.Breach breach =
+                new VelocityService.Breach(VelocityEngine.Dimension.CARD, VelocityEngine.Window.HOUR, "count");
+        
+        boolean result = fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", breach);
+        assertFalse(result);
+    }
+    
+    @Test
+    void testIsPaymentSafe_BlockedBin() throws Exception {
+        Path binRanges = Files.writeString(tempDir.resolve("bin-ranges.txt"), "411100-411199\n");
+        paymentProperties.getFraud().getBlocklist().setBinRangesFile(binRanges.toString());
+        fraudDetectionService = newService();
+        
+        assertFalse(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null));
+        
+        paymentRequest.setCardNumber("5555555555554444");
+        assertTrue(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null));
+    }
+    
+    @Test
+    void testIsPaymentSafe_CompromisedCard() throws Exception {
+        Path compromisedCards = Files.writeString(tempDir.resolve("compromised.txt"), "4111 1111 1111 1111\n");
+        paymentProperties.getFraud().getBlocklist().setCompromisedCardsFile(compromisedCards.toString());
+        fraudDetectionService = newService();
+        
+        assertFalse(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null));
+    }
+    
+    private FraudDetectionService newService() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UserProfileService userProfileService = new UserProfileService(paymentProperties, meterRegistry);
+        return new FraudDetectionService(
+                new FraudRuleService(paymentProperties, new StandardEnvironment(), userProfileService, meterRegistry),
+                new CardBlocklistService(paymentProperties, meterRegistry),
+                fraudCheckWriter,
+                paymentProperties,
+                meterRegistry);
+    }
+}
@@ -0,0 +1,208 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.FraudDecision;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.service.CacheService;
+import com.shibam.payments.service.FraudCheckWriter;
+import com.shibam.payments.service.FraudReviewService;
+import com.shibam.payments.service.FraudRuleService;
+import com.shibam.payments.service.PaymentStateService;
+import com.shibam.payments.service.UserProfileService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FraudReviewServiceTest {
+    
+    private static final Clock NOON = Clock.fixed(Instant.parse("2026-01-15T12:00:00Z"), ZoneOffset.UTC);
+    
+    @Mock
+    private FraudCheckWriter fraudCheckWriter;
+    
+    @Mock
+    private PaymentStateService paymentStateService;
+    
+    @Mock
+    private CacheService cacheService;
+    
+    @TempDir
+    Path tempDir;
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PaymentProperties paymentProperties;
+    private UserProfileService userProfileService;
+    private FraudReviewService fraudReviewService;
+    
+    @BeforeEach
+    void setUp() {
+        paymentProperties = new PaymentProperties();
+        paymentProperties.getFraud().setRiskThreshold(0.5);
+        paymentProperties.getFraud().getDeep().setReviewThreshold(0.15);
+    }
+    
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (fraudReviewService != null) {
+            fraudReviewService.shutdown();
+        }
+    }
+    
+    @Test
+    void testUsualPaymentIsApprovedAndProfiled() {
+        fraudReviewService = newService();
+        
+        review(payment("TXN_1", "45.00", "CARD", "MERCHANT_001"));
+        
+        assertEquals(11, userProfileService.profileOf(1L).payments());
+        verify(fraudCheckWriter).record(eq("TXN_1"), argThat(evaluation -> evaluation.decision() == FraudDecision.APPROVE));
+        verifyNoInteractions(paymentStateService);
+    }
+    
+    @Test
+    void testUnusualPaymentIsHeldForReview() {
+        fraudReviewService = newService();
+        Payment payment = payment("TXN_1", "40.00", "WALLET", "MERCHANT_001");
+        Payment held = payment("TXN_1", "40.00", "WALLET", "MERCHANT_001");
+        held.setStatus(PaymentStatus.REVIEW);
+        when(paymentStateService.transition(eq("TXN_1"), eq(PaymentStatus.AUTHORIZED), eq(PaymentStatus.REVIEW), anyString()))
+                .thenReturn(Optional.of(held));
+        
+        review(payment);
+        
+        verify(cacheService).set(eq("payment:TXN_1"), eq(held), any());
+        assertEquals(10, userProfileService.profileOf(1L).payments());
+        assertEquals(1, meterRegistry.get("payment.fraud.deep.outcomes").tag("decision", "REVIEW").counter().count());
+    }
+    
+    @Test
+    void testHighRiskPaymentIsCancelled() {
+        fraudReviewService = newService();
+        when(paymentStateService.transition(eq("TXN_1"), eq(PaymentStatus.AUTHORIZED), eq(PaymentStatus.CANCELLED), anyString()))
+                .thenReturn(Optional.empty());
+        
+        review(payment("TXN_1", "900.00", "WALLET", "MERCHANT_002"));
+        
+        ArgumentCaptor<FraudEvaluation> evaluation = ArgumentCaptor.forClass(FraudEvaluation.class);
+        verify(fraudCheckWriter).record(eq("TXN_1"), evaluation.capture());
+        assertTrue(evaluation.getValue().isDeclined());
+        // The payment was captured or cancelled in the meantime, so there is nothing to move
+        verify(cacheService, never()).set(eq("payment:TXN_1"), any(), any());
+    }
+    
+    @Test
+    void testShadowRulesDoNotAffectDecisions() throws Exception {
+        Path shadowRulesFile = Files.writeString(tempDir.resolve("shadow-rules.yml"), """
+                payment:
+                  fraud:
+                    method-weights:
+                      CARD: 0.9
+                """);
+        paymentProperties.getFraud().setShadowRulesFile(shadowRulesFile.toString());
+        fraudReviewService = newService();
+        
+        review(payment("TXN_1", "45.00", "CARD", "MERCHANT_001"));
+        
+        verifyNoInteractions(paymentStateService);
+        assertEquals(1, meterRegistry.get("payment.fraud.shadow.decisions")
+                .tags("live", "APPROVE", "shadow", "DECLINE").counter().count());
+    }
+    
+    @Test
+    void testPaymentIsMarkedPendingUntilScored() {
+        fraudReviewService = newService();
+        
+        review(payment("TXN_1", "45.00", "CARD", "MERCHANT_001"));
+        
+        InOrder inOrder = inOrder(cacheService, fraudCheckWriter);
+        inOrder.verify(cacheService).set(eq("fraud-review:TXN_1"), any(), eq(Duration.ofMinutes(5)));
+        inOrder.verify(fraudCheckWriter).record(eq("TXN_1"), any());
+        inOrder.verify(cacheService).delete("fraud-review:TXN_1");
+    }
+    
+    @Test
+    void testCaptureOnAnotherInstanceWaitsForPendingScoring() {
+        fraudReviewService = newService();
+        // Scoring on the instance that authorized the payment finishes on the third look
+        when(cacheService.exists("fraud-review:TXN_1")).thenReturn(true, true, false);
+        
+        fraudReviewService.awaitReview("TXN_1");
+        
+        verify(cacheService, times(3)).exists("fraud-review:TXN_1");
+    }
+    
+    @Test
+    void testCaptureStopsWaitingAfterCaptureWait() {
+        paymentProperties.getFraud().getDeep().setCaptureWait(Duration.ofMillis(100));
+        fraudReviewService = newService();
+        when(cacheService.exists("fraud-review:TXN_1")).thenReturn(true);
+        
+        long startTime = System.nanoTime();
+        fraudReviewService.awaitReview("TXN_1");
+        
+        assertTrue(System.nanoTime() - startTime < Duration.ofSeconds(1).toNanos());
+    }
+    
+    private void review(Payment payment) {
+        fraudReviewService.review(payment);
+        fraudReviewService.awaitReview(payment.getTransactionId());
+    }
+    
+    private FraudReviewService newService() {
+        userProfileService = new UserProfileService(paymentProperties, meterRegistry, NOON);
+        for (int i = 0; i < 10; i++) {
+            userProfileService.record(request("40.00", "CARD", "MERCHANT_001"));
+        }
+        FraudRuleService fraudRuleService = new FraudRuleService(paymentProperties, new StandardEnvironment(),
+                userProfileService, meterRegistry, NOON);
+        return new FraudReviewService(fraudRuleService, fraudCheckWriter, userProfileService, paymentStateService,
+                cacheService, paymentProperties, meterRegistry);
+    }
+    
+    private static Payment payment(String transactionId, String amount, String paymentMethod, String merchantId) {
+        Payment payment = new Payment();
+        payment.setTransactionId(transactionId);
+        payment.setUserId(1L);
+        payment.setAmount(new BigDecimal(amount));
+        payment.setCurrency("USD");
+        payment.setPaymentMethod(paymentMethod);
+        payment.setMerchantId(merchantId);
+        payment.setStatus(PaymentStatus.AUTHORIZED);
+        return payment;
+    }
+    
+    private static PaymentRequest request(String amount, String paymentMethod, String merchantId) {
+        PaymentRequest request = new PaymentRequest();
+        request.setUserId(1L);
+        request.setAmount(new BigDecimal(amount));
+        request.setCurrency("USD");
+        request.setPaymentMethod(paymentMethod);
+        request.setMerchantId(merchantId);
+        return request;
+    }
+}
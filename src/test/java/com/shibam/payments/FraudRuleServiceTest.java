@@ -0,0 +1,231 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.fraud.FraudDecision;
+import com.shibam.payments.fraud.FraudEvaluation;
+import com.shibam.payments.service.FraudRuleService;
+import com.shibam.payments.service.UserProfileService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FraudRuleServiceTest {
+    
+    private static final Clock NOON = Clock.fixed(Instant.parse("2026-01-15T12:00:00Z"), ZoneOffset.UTC);
+    private static final Clock MIDNIGHT = Clock.fixed(Instant.parse("2026-01-15T00:30:00Z"), ZoneOffset.UTC);
+    
+    @TempDir
+    Path tempDir;
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PaymentProperties paymentProperties;
+    
+    @BeforeEach
+    void setUp() {
+        paymentProperties = new PaymentProperties();
+    }
+    
+    @Test
+    void testScoreAddsWeightsOfMatchingRules() {
+        paymentProperties.getFraud().setRiskThreshold(0.55);
+        
+        FraudEvaluation night = newService(MIDNIGHT).evaluate(request("5000.00", "CRYPTO", "MERCHANT_001"));
+        FraudEvaluation day = newService(NOON).evaluate(request("5000.00", "CRYPTO", "MERCHANT_001"));
+        
+        assertTrue(night.isDeclined());
+        assertEquals(0.6, night.riskScore(), 1e-9);
+        assertEquals(List.of("method-CRYPTO", "amount-over-1000", "time-23-6"), night.rulesTriggered());
+        assertFalse(day.isDeclined());
+        assertEquals(0.5, day.riskScore(), 1e-9);
+    }
+    
+    @Test
+    void testMaxAmountDeclinesOutright() {
+        FraudEvaluation evaluation = newService(NOON).evaluate(request("15000.00", "WALLET", "MERCHANT_001"));
+        
+        assertTrue(evaluation.isDeclined());
+        assertEquals(List.of("max-amount"), evaluation.rulesTriggered());
+    }
+    
+    @Test
+    void testHighRiskScoreDeclines() {
+        paymentProperties.getFraud().getMethodWeights().put("CRYPTO", 0.7);
+        
+        FraudEvaluation evaluation = newService(NOON).evaluate(request("5000.00", "CRYPTO", "MERCHANT_001"));
+        
+        assertTrue(evaluation.isDeclined());
+        assertEquals(0.9, evaluation.riskScore(), 1e-9);
+    }
+    
+    @Test
+    void testEvaluationStopsOnceOutcomeIsSettled() {
+        PaymentProperties.Fraud.Profile profile = paymentProperties.getFraud().getProfile();
+        profile.setAmountWeight(0);
+        profile.setMerchantWeight(0);
+        profile.setHourWeight(0);
+        profile.setMethodWeight(0);
+        FraudRuleService service = newService(NOON);
+        
+        // 0.3 + 0.2 + 0.1 can never pass 0.8, so no rule needs to run
+        FraudEvaluation evaluation = service.evaluate(request("5000.00", "CRYPTO", "MERCHANT_001"));
+        
+        assertFalse(evaluation.isDeclined());
+        assertTrue(evaluation.rulesTriggered().isEmpty());
+        assertEquals(0, meterRegistry.get("payment.fraud.rule.hits").tag("rule", "method-CRYPTO").counter().count());
+    }
+    
+    @Test
+    void testDeviationFromUserProfileIsScoredAfterAuthorization() {
+        paymentProperties.getFraud().setRiskThreshold(0.5);
+        paymentProperties.getFraud().getDeep().setReviewThreshold(0.15);
+        UserProfileService profiles = new UserProfileService(paymentProperties, meterRegistry, NOON);
+        FraudRuleService service = new FraudRuleService(paymentProperties, new StandardEnvironment(), profiles,
+                meterRegistry, NOON);
+        for (int i = 0; i < 10; i++) {
+            profiles.record(request("40.00", "CARD", "MERCHANT_001"));
+        }
+        
+        assertEquals(FraudDecision.APPROVE, service.evaluateDeep(request("45.00", "CARD", "MERCHANT_001")).decision());
+        
+        // The profile rules only run in the deep stage
+        assertFalse(service.evaluate(request("900.00", "WALLET", "MERCHANT_002")).isDeclined());
+        
+        FraudEvaluation evaluation = service.evaluateDeep(request("900.00", "WALLET", "MERCHANT_002"));
+        assertTrue(evaluation.isDeclined());
+        assertEquals(List.of("profile-amount", "profile-method", "profile-merchant"), evaluation.rulesTriggered());
+        
+        FraudEvaluation unusualMethod = service.evaluateDeep(request("40.00", "WALLET", "MERCHANT_001"));
+        assertTrue(unusualMethod.isFlaggedForReview());
+        assertEquals(List.of("profile-method"), unusualMethod.rulesTriggered());
+        assertEquals(3, meterRegistry.get("payment.fraud.deep.evaluation").timer().count());
+    }
+    
+    @Test
+    void testShadowRulesAreScoredApartFromLiveRules() throws Exception {
+        Path shadowRulesFile = tempDir.resolve("shadow-rules.yml");
+        Files.writeString(shadowRulesFile, """
+                payment:
+                  fraud:
+                    method-weights:
+                      WALLET: 0.9
+                """);
+        FraudRuleService service = newService(NOON);
+        assertNull(service.evaluateShadow(request("100.00", "WALLET", "MERCHANT_001")));
+        
+        paymentProperties.getFraud().setShadowRulesFile(shadowRulesFile.toString());
+        service.reload();
+        
+        assertTrue(service.evaluateShadow(request("100.00", "WALLET", "MERCHANT_001")).isDeclined());
+        assertFalse(service.evaluateDeep(request("100.00", "WALLET", "MERCHANT_001")).isDeclined());
+        assertEquals(1, meterRegistry.get("payment.fraud.rule.hits")
+                .tags("rule", "method-WALLET", "plan", "shadow").counter().count());
+    }
+    
+    @Test
+    void testMerchantOverrides() {
+        PaymentProperties.Fraud.MerchantRules marketplace = new PaymentProperties.Fraud.MerchantRules();
+        marketplace.setMaxAmount(new BigDecimal("50000"));
+        marketplace.setRiskThreshold(0.4);
+        paymentProperties.getFraud().getMerchants().put("MARKETPLACE", marketplace);
+        FraudRuleService service = newService(NOON);
+        
+        assertFalse(service.evaluate(request("20000.00", "WALLET", "MARKETPLACE")).isDeclined());
+        assertTrue(service.evaluate(request("20000.00", "WALLET", "MERCHANT_001")).isDeclined());
+        assertTrue(service.evaluate(request("2000.00", "CRYPTO", "MARKETPLACE")).isDeclined());
+        assertFalse(service.evaluate(request("2000.00", "CRYPTO", "MERCHANT_001")).isDeclined());
+    }
+    
+    @Test
+    void testRuleHitsAndEvaluationTimeAreRecorded() {
+        paymentProperties.getFraud().setRiskThreshold(0.1);
+        FraudRuleService service = newService(NOON);
+        
+        service.evaluate(request("5000.00", "CRYPTO", "MERCHANT_001"));
+        service.evaluate(request("20000.00", "CRYPTO", "MERCHANT_001"));
+        
+        assertEquals(1, meterRegistry.get("payment.fraud.rule.hits").tag("rule", "method-CRYPTO").counter().count());
+        assertEquals(1, meterRegistry.get("payment.fraud.rule.hits").tag("rule", "max-amount").counter().count());
+        assertEquals(2, meterRegistry.get("payment.fraud.evaluation").timer().count());
+    }
+    
+    @Test
+    void testRulesFileIsReloadedWhenItChanges() throws Exception {
+        Path rulesFile = tempDir.resolve("fraud-rules.yml");
+        Files.writeString(rulesFile, """
+                payment:
+                  fraud:
+                    max-amount: 500
+                """);
+        paymentProperties.getFraud().setRulesFile(rulesFile.toString());
+        FraudRuleService service = newService(NOON);
+        
+        assertTrue(service.evaluate(request("600.00", "WALLET", "MERCHANT_001")).isDeclined());
+        
+        Files.writeString(rulesFile, """
+                payment:
+                  fraud:
+                    max-amount: 1000
+                    method-weights:
+                      WALLET: 0.9
+                """);
+        Files.setLastModifiedTime(rulesFile, FileTime.from(Instant.now().plusSeconds(10)));
+        service.reload();
+        
+        FraudEvaluation evaluation = service.evaluate(request("600.00", "WALLET", "MERCHANT_001"));
+        assertTrue(evaluation.isDeclined());
+        assertEquals(List.of("method-WALLET"), evaluation.rulesTriggered());
+    }
+    
+    @Test
+    void testInvalidRulesFileKeepsCurrentRules() throws Exception {
+        Path rulesFile = tempDir.resolve("fraud-rules.yml");
+        Files.writeString(rulesFile, """
+                payment:
+                  fraud:
+                    max-amount: 500
+                """);
+        paymentProperties.getFraud().setRulesFile(rulesFile.toString());
+        FraudRuleService service = newService(NOON);
+        
+        Files.writeString(rulesFile, """
+                payment:
+                  fraud:
+                    method-weights:
+                      WALLET: -1
+                """);
+        Files.setLastModifiedTime(rulesFile, FileTime.from(Instant.now().plusSeconds(10)));
+        service.reload();
+        
+        assertTrue(service.evaluate(request("600.00", "WALLET", "MERCHANT_001")).isDeclined());
+        assertEquals(1, meterRegistry.get("payment.fraud.rules.reload.failures").counter().count());
+    }
+    
+    private FraudRuleService newService(Clock clock) {
+        return new FraudRuleService(paymentProperties, new StandardEnvironment(),
+                new UserProfileService(paymentProperties, meterRegistry, clock), meterRegistry, clock);
+    }
+    
+    private static PaymentRequest request(String amount, String paymentMethod, String merchantId) {
+        PaymentRequest request = new PaymentRequest();
+        request.setUserId(1L);
+        request.setAmount(new BigDecimal(amount));
+        request.setCurrency("USD");
+        request.setPaymentMethod(paymentMethod);
+        request.setMerchantId(merchantId);
+        return request;
+    }
+}
@@ -0,0 +1,226 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.gateway.GatewayConnector;
+import com.shibam.payments.gateway.GatewayOperation;
+import com.shibam.payments.gateway.GatewayRouter;
+import com.shibam.payments.gateway.ResilientGatewayConnector;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatewayRouterTest {
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    
+    private PaymentProperties.Gateway config;
+    
+    private GatewayRouter router;
+    
+    private Payment payment;
+    
+    @BeforeEach
+    void setUp() {
+        config = new PaymentProperties.Gateway();
+        config.setTimeout(Duration.ofSeconds(5));
+        config.getRouting().setExplorationRate(0);
+        config.getRouting().setMinHedgeDelay(Duration.ofMillis(10));
+        
+        payment = new Payment();
+        payment.setTransactionId("TXN_123456789");
+        payment.setPaymentMethod("CARD");
+        payment.setCurrency("USD");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        if (router != null) {
+            router.close();
+        }
+    }
+    
+    @Test
+    void testNewPaymentsGoToFasterConnector() {
+        FakeConnector slow = new FakeConnector("slow", 40, false);
+        FakeConnector fast = new FakeConnector("fast", 5, false);
+        router = router(route(slow, "acquirer", List.of()), route(fast, "acquirer", List.of()));
+        
+        // Give both connectors an authorization p95
+        for (int i = 0; i < 25; i++) {
+            payment.setGateway("slow");
+            router.execute(GatewayOperation.AUTHORIZE, payment);
+            payment.setGateway("fast");
+            router.execute(GatewayOperation.AUTHORIZE, payment);
+        }
+        
+        payment.setGateway(null);
+        assertEquals("fast", router.select(payment));
+    }
+    
+    @Test
+    void testSelectionRespectsCurrencies() {
+        FakeConnector usd = new FakeConnector("usd-only", 5, true);
+        FakeConnector eur = new FakeConnector("eur-only", 5, true);
+        router = router(route(usd, "a", List.of("USD")), route(eur, "b", List.of("EUR")));
+        
+        payment.setCurrency("EUR");
+        
+        assertEquals("eur-only", router.select(payment));
+    }
+    
+    @Test
+    void testSlowInquiryIsHedgedToPeer() {
+        FakeConnector primary = new FakeConnector("primary", 5, false);
+        FakeConnector peer = new FakeConnector("peer", 5, false);
+        router = router(route(primary, "acquirer", List.of()), route(peer, "acquirer", List.of()));
+        payment.setGateway("primary");
+        for (int i = 0; i < 25; i++) {
+            router.execute(GatewayOperation.INQUIRE, payment);
+        }
+        
+        primary.latencyMillis = 2_000;
+        long startTime = System.nanoTime();
+        PaymentResponse response = router.execute(GatewayOperation.INQUIRE, payment);
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+        
+        assertEquals("peer", response.getMessage());
+        assertTrue(elapsedMillis < 500, "Hedge should answer well before the slow call: " + elapsedMillis + " ms");
+    }
+    
+    @Test
+    void testAuthorizationIsNotHedgedWhenAcquirerDoesNotDeduplicate() {
+        FakeConnector primary = new FakeConnector("primary", 5, false);
+        FakeConnector peer = new FakeConnector("peer", 5, false);
+        router = router(route(primary, "acquirer", List.of()), route(peer, "acquirer", List.of()));
+        payment.setGateway("primary");
+        for (int i = 0; i < 25; i++) {
+            router.execute(GatewayOperation.AUTHORIZE, payment);
+        }
+        
+        primary.latencyMillis = 200;
+        PaymentResponse response = router.execute(GatewayOperation.AUTHORIZE, payment);
+        
+        assertEquals("primary", response.getMessage());
+        assertEquals(0, peer.calls.get());
+    }
+    
+    @Test
+    void testAuthorizationIsNotHedgedToPeerThatDoesNotDeduplicate() {
+        FakeConnector primary = new FakeConnector("primary", 5, true);
+        FakeConnector peer = new FakeConnector("peer", 5, false);
+        router = router(route(primary, "acquirer", List.of()), route(peer, "acquirer", List.of()));
+        payment.setGateway("primary");
+        for (int i = 0; i < 25; i++) {
+            router.execute(GatewayOperation.AUTHORIZE, payment);
+        }
+        
+        primary.latencyMillis = 200;
+        PaymentResponse response = router.execute(GatewayOperation.AUTHORIZE, payment);
+        
+        assertEquals("primary", response.getMessage());
+        assertEquals(0, peer.calls.get());
+    }
+    
+    @Test
+    void testUnavailableConnectorFailsOverToPeer() {
+        config.setMaxConcurrentCalls(1);
+        config.getCircuitBreaker().setFailureThreshold(1);
+        FakeConnector broken = new FakeConnector("broken", 5, false);
+        FakeConnector peer = new FakeConnector("peer", 5, false);
+        router = router(route(broken, "acquirer", List.of()), route(peer, "acquirer", List.of()));
+        payment.setGateway("broken");
+        
+        broken.failing = true;
+        assertThrows(IllegalStateException.class, () -> router.execute(GatewayOperation.CAPTURE, payment));
+        
+        // The circuit is open now, so the call never reaches "broken" and is safe to send to its peer
+        PaymentResponse response = router.execute(GatewayOperation.CAPTURE, payment);
+        assertEquals("peer", response.getMessage());
+        assertEquals(1, broken.calls.get());
+    }
+    
+    private GatewayRouter router(GatewayRouter.Route... routes) {
+        return new GatewayRouter(List.of(routes), config.getRouting(), meterRegistry);
+    }
+    
+    private GatewayRouter.Route route(GatewayConnector connector, String acquirer, List<String> currencies) {
+        return new GatewayRouter.Route(new ResilientGatewayConnector(connector, config, meterRegistry),
+                acquirer, List.of(), currencies, 100);
+    }
+    
+    /**
+     * Answers every call after a fixed delay, with its own name as the message.
+     */
+    private static class FakeConnector implements GatewayConnector {
+        
+        private final String name;
+        private final boolean deduplicates;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile long latencyMillis;
+        private volatile boolean failing;
+        
+        FakeConnector(String name, long latencyMillis, boolean deduplicates) {
+            this.name = name;
+            this.latencyMillis = latencyMillis;
+            this.deduplicates = deduplicates;
+        }
+        
+        @Override
+        public String name() {
+            return name;
+        }
+        
+        @Override
+        public boolean deduplicatesRequests() {
+            return deduplicates;
+        }
+        
+        @Override
+        public PaymentResponse authorize(Payment payment) {
+            return answer(payment, PaymentStatus.AUTHORIZED);
+        }
+        
+        @Override
+        public PaymentResponse capture(Payment payment) {
+            return answer(payment, PaymentStatus.CAPTURED);
+        }
+        
+        @Override
+        public PaymentResponse cancel(Payment payment) {
+            return answer(payment, PaymentStatus.CANCELLED);
+        }
+        
+        @Override
+        public PaymentResponse refund(Payment payment) {
+            return answer(payment, PaymentStatus.REFUNDED);
+        }
+        
+        @Override
+        public PaymentResponse inquire(Payment payment) {
+            return answer(payment, PaymentStatus.AUTHORIZED);
+        }
+        
+        private PaymentResponse answer(Payment payment, PaymentStatus status) {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("Connection reset");
+            }
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return PaymentResponse.success(payment.getTransactionId(), status, name);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.IdempotencyConflictException;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.service.CacheService;
+import com.shibam.payments.service.IdempotencyService;
+import com.shibam.payments.service.IdempotencyService.StoredResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyServiceTest {
+    
+    @Mock
+    private CacheService cacheService;
+    
+    private IdempotencyService idempotencyService;
+    
+    private final AtomicInteger executions = new AtomicInteger();
+    
+    @BeforeEach
+    void setUp() {
+        idempotencyService = new IdempotencyService(cacheService, new PaymentProperties(), new SimpleMeterRegistry());
+        lenient().when(cacheService.setIfAbsent(anyString(), any(), any())).thenReturn(true);
+    }
+    
+    @Test
+    void testReplaysStoredResponseForRetry() {
+        PaymentResponse first = idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        PaymentResponse retry = idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        
+        assertSame(first, retry);
+        assertEquals(1, executions.get());
+        verify(cacheService).set(eq("idempotency:client-a:key-1"), any(StoredResponse.class), any());
+    }
+    
+    @Test
+    void testRejectsDuplicateWhileOriginalInFlight() {
+        IdempotencyConflictException conflict = assertThrows(IdempotencyConflictException.class,
+                () -> idempotencyService.execute("client-a", "key-1", "process", "request",
+                        () -> idempotencyService.execute("client-a", "key-1", "process", "request", this::charge)));
+        
+        assertEquals(IdempotencyConflictException.IN_PROGRESS, conflict.getErrorCode());
+        assertEquals(0, executions.get());
+    }
+    
+    @Test
+    void testRejectsKeyReusedForDifferentRequest() {
+        idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        
+        IdempotencyConflictException conflict = assertThrows(IdempotencyConflictException.class,
+                () -> idempotencyService.execute("client-a", "key-1", "refund", "TXN_1", this::charge));
+        
+        assertEquals(IdempotencyConflictException.REUSED, conflict.getErrorCode());
+        assertEquals(1, executions.get());
+    }
+    
+    @Test
+    void testReplaysResponseStoredByAnotherInstance() {
+        idempotencyService.execute("client-a", "probe", "process", "request", this::charge);
+        StoredResponse stored = captureStored("idempotency:client-a:probe");
+        when(cacheService.setIfAbsent(eq("idempotency:client-a:key-2"), any(), any())).thenReturn(false);
+        when(cacheService.get("idempotency:client-a:key-2")).thenReturn(stored);
+        
+        PaymentResponse response = idempotencyService.execute("client-a", "key-2", "process", "request", this::charge);
+        
+        assertSame(stored.getResponse(), response);
+        assertEquals(1, executions.get());
+    }
+    
+    @Test
+    void testFailedRequestReleasesKey() {
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("client-a", "key-1", "process", "request", () -> {
+            throw new IllegalStateException("Database unavailable");
+        }));
+        
+        PaymentResponse response = idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        
+        assertEquals(PaymentStatus.AUTHORIZED, response.getStatus());
+        verify(cacheService).delete("idempotency:client-a:key-1");
+    }
+    
+    @Test
+    void testFailedResponseReleasesKey() {
+        PaymentResponse unavailable = idempotencyService.execute("client-a", "key-1", "process", "request",
+                () -> PaymentResponse.error("TXN_0", "Payment gateway unavailable, please retry"));
+        PaymentResponse retry = idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        
+        assertEquals(PaymentStatus.FAILED, unavailable.getStatus());
+        assertEquals(PaymentStatus.AUTHORIZED, retry.getStatus());
+        verify(cacheService).delete("idempotency:client-a:key-1");
+        verify(cacheService, times(1)).set(anyString(), any(), any());
+    }
+    
+    @Test
+    void testKeysAreScopedToCaller() {
+        PaymentResponse first = idempotencyService.execute("client-a", "key-1", "process", "request", this::charge);
+        PaymentResponse other = idempotencyService.execute("client-b", "key-1", "refund", "TXN_1", this::charge);
+        
+        assertNotEquals(first.getTransactionId(), other.getTransactionId());
+        assertEquals(2, executions.get());
+        verify(cacheService).set(eq("idempotency:client-b:key-1"), any(StoredResponse.class), any());
+    }
+    
+    @Test
+    void testFingerprintLeavesOutCardSecrets() {
+        PaymentRequest request = new PaymentRequest(1L, new BigDecimal("100.00"), "USD", "CARD", "MERCHANT_001",
+                null, "4111111111111111", "12", "2030", "123", "Test Holder");
+        PaymentRequest retry = new PaymentRequest(1L, new BigDecimal("100.0"), "USD", "CARD", "MERCHANT_001",
+                null, "4000000000001111", "12", "2030", "999", "Test Holder");
+        
+        PaymentResponse first = idempotencyService.execute("client-a", "key-1", "process", request, this::charge);
+        PaymentResponse replayed = idempotencyService.execute("client-a", "key-1", "process", retry, this::charge);
+        
+        assertSame(first, replayed);
+        assertEquals(1, executions.get());
+    }
+    
+    @Test
+    void testRunsEveryRequestWithoutKey() {
+        idempotencyService.execute("client-a", null, "process", "request", this::charge);
+        idempotencyService.execute("client-a", null, "process", "request", this::charge);
+        
+        assertEquals(2, executions.get());
+        verifyNoInteractions(cacheService);
+    }
+    
+    private PaymentResponse charge() {
+        int n = executions.incrementAndGet();
+        return PaymentResponse.success("TXN_" + n, PaymentStatus.AUTHORIZED, "Payment authorized successfully");
+    }
+    
+    private StoredResponse captureStored(String key) {
+        ArgumentCaptor<StoredResponse> captor = ArgumentCaptor.forClass(StoredResponse.class);
+        verify(cacheService).set(eq(key), captor.capture(), any());
+        return captor.getValue();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.shibam.payments;
+
+import com.shibam.payments.cache.LocalCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCacheTest {
+    
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final LocalCache cache = new LocalCache(1_280, Duration.ofSeconds(30), now::get);
+    
+    @Test
+    void testEntriesExpireAfterTheShorterTtl() {
+        cache.put("payment:TXN_1", "authorized", Duration.ofMinutes(15));
+        cache.put("payment:TXN_2", "captured", Duration.ofSeconds(5));
+        
+        now.addAndGet(Duration.ofSeconds(6).toMillis());
+        assertEquals("authorized", cache.get("payment:TXN_1"));
+        assertNull(cache.get("payment:TXN_2"));
+        
+        now.addAndGet(Duration.ofSeconds(30).toMillis());
+        assertNull(cache.get("payment:TXN_1"));
+        assertEquals(2, cache.expirations());
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    void testSizeIsBoundedAndRecentlyReadEntriesSurvive() {
+        cache.put("payment:HOT", "hot", Duration.ofMinutes(1));
+        for (int i = 0; i < 20_000; i++) {
+            cache.put("payment:TXN_" + i, i, Duration.ofMinutes(1));
+            assertNotNull(cache.get("payment:HOT"));
+            assertTrue(cache.size() <= 1_280);
+        }
+        
+        assertTrue(cache.sizeEvictions() >= 20_000 - 1_280);
+    }
+    
+    @Test
+    void testInvalidatedEntriesAreGone() {
+        cache.put("payment:TXN_1", "authorized", Duration.ofMinutes(1));
+        
+        cache.invalidate("payment:TXN_1");
+        cache.invalidate("payment:TXN_2");
+        
+        assertNull(cache.get("payment:TXN_1"));
+        assertEquals(1, cache.invalidations());
+    }
+    
+    @Test
+    void testStaleReadIsNotCachedOverConcurrentWrite() {
+        long stamp = cache.stamp("payment:TXN_1");
+        // Another thread writes the new value while this one is reading the old one from Redis
+        cache.put("payment:TXN_1", "captured", Duration.ofMinutes(1));
+        
+        assertFalse(cache.putIfUnchanged("payment:TXN_1", "authorized", stamp));
+        assertEquals("captured", cache.get("payment:TXN_1"));
+        
+        stamp = cache.stamp("payment:TXN_2");
+        cache.invalidate("payment:TXN_2");
+        assertFalse(cache.putIfUnchanged("payment:TXN_2", "authorized", stamp));
+        assertNull(cache.get("payment:TXN_2"));
+        
+        assertTrue(cache.putIfUnchanged("payment:TXN_2", "captured", cache.stamp("payment:TXN_2")));
+        assertEquals("captured", cache.get("payment:TXN_2"));
+    }
+    
+    @Test
+    void testMatchesMapUnderRandomOperations() {
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String key = "payment:TXN_" + random.nextInt(3_000);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    cache.put(key, i, Duration.ofMinutes(1));
+                    expected.put(key, i);
+                }
+                case 1 -> {
+                    cache.invalidate(key);
+                    expected.remove(key);
+                }
+                default -> {
+                    // Entries may have been evicted, but never hold another key's or an older value
+                    Object value = cache.get(key);
+                    if (value != null) {
+                        assertEquals(expected.get(key), value);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,47 +1,55 @@
 package com.shibam.payments;
 
+import com.shibam.payments.config.PaymentProperties;
 import com.shibam.payments.model.Merchant;
 import com.shibam.payments.repository.MerchantRepository;
 import com.shibam.payments.service.MerchantService;
+import com.shibam.payments.service.MerchantService.MerchantChanged;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class MerchantServiceTest {
     
+    private static final LocalDateTime LOADED_AT = LocalDateTime.of(2026, 10, 1, 12, 0);
+    
     @Mock
     private MerchantRepository merchantRepository;
     
-    @InjectMocks
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    
     private MerchantService merchantService;
     
     private Merchant merchant;
     
     @BeforeEach
     void setUp() {
-        merchant = new Merchant();
-        merchant.setMerchantId("MERCHANT_001");
+        merchant = merchant("MERCHANT_001", "USA", true, LOADED_AT);
         merchant.setName("Test Merchant");
         merchant.setEmail("test@merchant.com");
-        merchant.setCountry("USA");
         merchant.setCurrency("USD");
-        merchant.setIsActive(true);
+        
+        when(merchantRepository.findAll()).thenReturn(List.of(merchant));
+        merchantService = newMerchantService();
     }
     
     @Test
     void testFindByMerchantId_Found() {
-        when(merchantRepository.findByMerchantId(anyString())).thenReturn(Optional.of(merchant));
-        
         Optional<Merchant> result = merchantService.findByMerchantId("MERCHANT_001");
         
         assertTrue(result.isPresent());
@@ -51,8 +59,6 @@ class MerchantServiceTest {
     
     @Test
     void testFindByMerchantId_NotFound() {
-        when(merchantRepository.findByMerchantId(anyString())).thenReturn(Optional.empty());
-        
         Optional<Merchant> result = merchantService.findByMerchantId("INVALID_MERCHANT");
         
         assertFalse(result.isPresent());
@@ -60,20 +66,93 @@ class MerchantServiceTest {
     
     @Test
     void testIsValidMerchant_Active() {
-        when(merchantRepository.findByMerchantId(anyString())).thenReturn(Optional.of(merchant));
+        assertTrue(merchantService.isValidMerchant("MERCHANT_001"));
+        assertTrue(merchantService.isValidMerchant("MERCHANT_001"));
         
-        boolean result = merchantService.isValidMerchant("MERCHANT_001");
-        
-        assertTrue(result);
+        // Answered from the snapshot, without a query per payment
+        verify(merchantRepository, never()).findByMerchantId(anyString());
     }
     
     @Test
     void testIsValidMerchant_Inactive() {
-        merchant.setIsActive(false);
-        when(merchantRepository.findByMerchantId(anyString())).thenReturn(Optional.of(merchant));
+        when(merchantRepository.findByUpdatedAtGreaterThanEqual(LOADED_AT.minusSeconds(5)))
+                .thenReturn(List.of(merchant("MERCHANT_001", "USA", false, LOADED_AT.plusMinutes(1))));
+        
+        merchantService.refresh();
         
-        boolean result = merchantService.isValidMerchant("MERCHANT_001");
+        assertFalse(merchantService.isValidMerchant("MERCHANT_001"));
+        assertFalse(merchantService.isValidMerchant("INVALID_MERCHANT"));
+    }
+    
+    @Test
+    void testRefreshMergesMerchantsUpdatedSinceLastLoad() {
+        Merchant added = merchant("MERCHANT_003", "GBR", true, LOADED_AT.plusMinutes(1));
+        when(merchantRepository.findByUpdatedAtGreaterThanEqual(LOADED_AT.minusSeconds(5)))
+                .thenReturn(List.of(merchant, added));
+        when(merchantRepository.findByUpdatedAtGreaterThanEqual(LOADED_AT.plusMinutes(1).minusSeconds(5)))
+                .thenReturn(List.of(added));
+        
+        merchantService.refresh();
+        merchantService.refresh();
+        
+        assertEquals(List.of(merchant, added), merchantService.findActiveMerchants());
+        assertEquals(List.of(added), merchantService.findByCountry("GBR"));
+        assertEquals(List.of(), merchantService.findByCountry("IND"));
+        verify(merchantRepository, times(1)).findAll();
+    }
+    
+    @Test
+    void testUpdateIsVisibleOnceCommitted() {
+        Merchant deactivated = merchant("MERCHANT_001", "USA", false, LOADED_AT.plusMinutes(1));
+        when(merchantRepository.save(deactivated)).thenReturn(deactivated);
         
-        assertFalse(result);
+        merchantService.updateMerchant(deactivated);
+        verify(eventPublisher).publishEvent(new MerchantChanged(deactivated));
+        merchantService.onMerchantChanged(new MerchantChanged(deactivated));
+        
+        assertFalse(merchantService.isValidMerchant("MERCHANT_001"));
+        assertEquals(List.of(), merchantService.findActiveMerchants());
+    }
+    
+    @Test
+    void testOlderRowDoesNotUndoNewerChange() {
+        Merchant deactivated = merchant("MERCHANT_001", "USA", false, LOADED_AT.plusMinutes(1));
+        merchantService.onMerchantChanged(new MerchantChanged(deactivated));
+        // A refresh that read the row before the update committed
+        when(merchantRepository.findByUpdatedAtGreaterThanEqual(LOADED_AT.plusMinutes(1).minusSeconds(5)))
+                .thenReturn(List.of(merchant));
+        
+        merchantService.refresh();
+        
+        assertFalse(merchantService.isValidMerchant("MERCHANT_001"));
+    }
+    
+    @Test
+    void testLookupsGoToDatabaseUntilFirstLoad() {
+        when(merchantRepository.findAll()).thenThrow(new DataAccessResourceFailureException("Database is down"));
+        MerchantService unloaded = newMerchantService();
+        when(merchantRepository.findByMerchantId("MERCHANT_001")).thenReturn(Optional.of(merchant));
+        
+        assertTrue(unloaded.isValidMerchant("MERCHANT_001"));
+        
+        doReturn(List.of(merchant)).when(merchantRepository).findAll();
+        unloaded.refresh();
+        assertTrue(unloaded.isValidMerchant("MERCHANT_001"));
+        verify(merchantRepository, times(1)).findByMerchantId("MERCHANT_001");
+    }
+    
+    private MerchantService newMerchantService() {
+        return new MerchantService(merchantRepository, eventPublisher, new PaymentProperties(),
+                new SimpleMeterRegistry());
+    }
+    
+    private static Merchant merchant(String merchantId, String country, boolean active, LocalDateTime updatedAt) {
+        Merchant merchant = new Merchant();
+        merchant.setId(Long.parseLong(merchantId.substring(merchantId.length() - 3)));
+        merchant.setMerchantId(merchantId);
+        merchant.setCountry(country);
+        merchant.setIsActive(active);
+        merchant.setUpdatedAt(updatedAt);
+        return merchant;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.service.CacheService;
+import com.shibam.payments.service.NodeIdLease;
+import com.shibam.payments.service.TransactionIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NodeIdLeaseTest {
+    
+    private static final String POD_NAME = "payments-7f9c-abcde";
+    private static final Duration LEASE_TTL = Duration.ofSeconds(30);
+    
+    @Mock
+    private CacheService cacheService;
+    
+    private final int preferred = Math.floorMod(POD_NAME.hashCode(), TransactionIdGenerator.MAX_NODE_ID + 1);
+    private NodeIdLease lease;
+    
+    @BeforeEach
+    void setUp() {
+        when(cacheService.setIfAbsent(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(true);
+        
+        PaymentProperties paymentProperties = new PaymentProperties();
+        paymentProperties.getIdGenerator().setLeaseTtl(LEASE_TTL);
+        paymentProperties.getIdGenerator().setLeaseRenewInterval(Duration.ofHours(1));
+        lease = new NodeIdLease(cacheService, paymentProperties, new MockEnvironment().withProperty("POD_NAME", POD_NAME));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        lease.release();
+    }
+    
+    @Test
+    void testRenewalExtendsLeaseOnlyWhileOwned() {
+        when(cacheService.renewIfOwner(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(true);
+        
+        lease.renew();
+        
+        assertEquals(preferred, lease.currentNodeId());
+        verify(cacheService, times(1)).setIfAbsent(anyString(), any(), any());
+    }
+    
+    @Test
+    void testLostLeaseIsReacquiredUnderFreeNode() {
+        // Given another pod took the node while this one was paused
+        int next = (preferred + 1) & TransactionIdGenerator.MAX_NODE_ID;
+        when(cacheService.renewIfOwner(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(false);
+        when(cacheService.setIfAbsent(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(false);
+        when(cacheService.get(startsWith("txn-node:"))).thenReturn("payments-7f9c-fghij");
+        when(cacheService.setIfAbsent(key(next), POD_NAME, LEASE_TTL)).thenReturn(true);
+        
+        // When
+        lease.renew();
+        
+        // Then
+        assertEquals(next, lease.currentNodeId());
+    }
+    
+    @Test
+    void testStopsIssuingIdsWhenLeaseCannotBeReacquired() {
+        // Given the lease has expired and Redis is now unreachable
+        when(cacheService.renewIfOwner(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(false);
+        when(cacheService.setIfAbsent(key(preferred), POD_NAME, LEASE_TTL)).thenReturn(null);
+        TransactionIdGenerator generator = new TransactionIdGenerator(lease::currentNodeId, System::currentTimeMillis);
+        
+        // When
+        lease.renew();
+        
+        // Then
+        assertThrows(IllegalStateException.class, generator::nextTransactionId);
+    }
+    
+    @Test
+    void testReleaseDeletesLeaseOnlyIfStillOwned() {
+        // When
+        lease.release();
+        
+        // Then the owner check and delete happen in one step in Redis
+        verify(cacheService).deleteIfOwner(key(preferred), POD_NAME);
+        verify(cacheService, never()).delete(anyString());
+    }
+    
+    private static String key(int nodeId) {
+        return "txn-node:" + nodeId;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.shibam.payments;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.model.OutboxEvent;
+import com.shibam.payments.repository.OutboxEventRepository;
+import com.shibam.payments.service.OutboxRelay;
+import com.shibam.payments.service.PaymentNotificationEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+    
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+    
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    
+    private SimpleMeterRegistry meterRegistry;
+    
+    private OutboxRelay outboxRelay;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        outboxRelay = new OutboxRelay(outboxEventRepository, kafkaTemplate, objectMapper, transactionManager,
+                new PaymentProperties(), meterRegistry);
+    }
+    
+    @Test
+    void testPublishesInOrderAndDeletesDelivered() throws Exception {
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(event(1, "TXN_A"), event(2, "TXN_B"), event(3, "TXN_A")));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        assertEquals(3, delivered);
+        InOrder inOrder = inOrder(kafkaTemplate);
+        inOrder.verify(kafkaTemplate).send(eq("payment-notifications"), eq("TXN_A"), argThat(this::isNotificationFor1));
+        inOrder.verify(kafkaTemplate).send(eq("payment-notifications"), eq("TXN_B"), any(PaymentNotificationEvent.class));
+        inOrder.verify(kafkaTemplate).send(eq("payment-notifications"), eq("TXN_A"), any(PaymentNotificationEvent.class));
+        verify(outboxEventRepository).updateClaimedUntil(eq(List.of(1L, 2L, 3L)), any(LocalDateTime.class));
+        verify(outboxEventRepository).deleteAllByIdInBatch(List.of(1L, 2L, 3L));
+        verify(outboxEventRepository, never()).updateClaimedUntil(any(), isNull());
+        assertEquals(3, meterRegistry.counter("payment.outbox.published").count());
+    }
+    
+    @Test
+    void testSendsOutsideTheClaimTransaction() throws Exception {
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(event(1, "TXN_A")));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        
+        outboxRelay.relayBatch();
+        
+        // The claim commits before Kafka is waited on, and the delete runs in a transaction of its own
+        InOrder inOrder = inOrder(transactionManager, kafkaTemplate, outboxEventRepository);
+        inOrder.verify(outboxEventRepository).updateClaimedUntil(eq(List.of(1L)), any(LocalDateTime.class));
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(kafkaTemplate).send(anyString(), anyString(), any());
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(outboxEventRepository).deleteAllByIdInBatch(List.of(1L));
+        inOrder.verify(transactionManager).commit(any());
+    }
+    
+    @Test
+    void testStopsAtFirstFailedEvent() throws Exception {
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(event(1, "TXN_A"), event(2, "TXN_B"), event(3, "TXN_C")));
+        when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Broker unavailable")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        // Event 3 was acknowledged but must not overtake event 2
+        assertEquals(1, delivered);
+        verify(outboxEventRepository).deleteAllByIdInBatch(List.of(1L));
+        verify(outboxEventRepository).updateClaimedUntil(List.of(2L, 3L), null);
+        assertEquals(1, meterRegistry.counter("payment.outbox.failures").count());
+    }
+    
+    @Test
+    void testDropsUndecodablePayload() throws Exception {
+        OutboxEvent broken = event(2, "TXN_B");
+        broken.setPayload("{not json");
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(event(1, "TXN_A"), broken));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        assertEquals(2, delivered);
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any());
+        verify(outboxEventRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+    }
+    
+    @Test
+    void testSkipsRoundWhileAnotherRelayHoldsTheLock() {
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenThrow(new CannotAcquireLockException("NOWAIT"));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        assertEquals(0, delivered);
+        verifyNoInteractions(kafkaTemplate);
+        verify(outboxEventRepository, never()).deleteAllByIdInBatch(any());
+    }
+    
+    @Test
+    void testLeavesBatchClaimedByAnotherRelay() throws Exception {
+        OutboxEvent claimed = event(1, "TXN_A");
+        claimed.setClaimedUntil(LocalDateTime.now().plusMinutes(1));
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(claimed, event(2, "TXN_B")));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        assertEquals(0, delivered);
+        verifyNoInteractions(kafkaTemplate);
+        verify(outboxEventRepository, never()).updateClaimedUntil(any(), any());
+    }
+    
+    @Test
+    void testResendsBatchWhoseClaimExpired() throws Exception {
+        // The relay that claimed it died before recording delivery
+        OutboxEvent abandoned = event(1, "TXN_A");
+        abandoned.setClaimedUntil(LocalDateTime.now().minusSeconds(1));
+        when(outboxEventRepository.lockNextBatch(anyInt())).thenReturn(List.of(abandoned));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        
+        int delivered = outboxRelay.relayBatch();
+        
+        assertEquals(1, delivered);
+        verify(outboxEventRepository).deleteAllByIdInBatch(List.of(1L));
+    }
+    
+    private boolean isNotificationFor1(Object payload) {
+        return payload instanceof PaymentNotificationEvent event && event.getUserId() == 1L;
+    }
+    
+    private OutboxEvent event(long id, String transactionId) throws Exception {
+        PaymentNotificationEvent payload = PaymentNotificationEvent.builder()
+                .transactionId(transactionId)
+                .userId(id)
+                .status("AUTHORIZED")
+                .timestamp(LocalDateTime.now())
+                .build();
+        return new OutboxEvent(id, "payment-notifications", transactionId, PaymentNotificationEvent.class.getName(),
+                objectMapper.writeValueAsString(payload), LocalDateTime.now(), null);
+    }
+}
\ No newline at end of file
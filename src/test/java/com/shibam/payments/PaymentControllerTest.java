@@ -1,21 +1,30 @@
 package com.shibam.payments;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shibam.payments.config.SecurityConfig;
 import com.shibam.payments.controller.PaymentController;
+import com.shibam.payments.dto.PaymentLookupRequest;
+import com.shibam.payments.dto.PaymentLookupResponse;
 import com.shibam.payments.dto.PaymentRequest;
 import com.shibam.payments.dto.PaymentResponse;
 import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.service.IdempotencyService;
 import com.shibam.payments.service.PaymentService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithAnonymousUser;
+import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -24,6 +33,8 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(PaymentController.class)
+@Import(SecurityConfig.class)
+@WithMockUser
 class PaymentControllerTest {
     
     @Autowired
@@ -32,6 +43,9 @@ class PaymentControllerTest {
     @MockBean
     private PaymentService paymentService;
     
+    @MockBean
+    private IdempotencyService idempotencyService;
+    
     @Autowired
     private ObjectMapper objectMapper;
     
@@ -58,6 +72,9 @@ class PaymentControllerTest {
                 .merchantId("MERCHANT_001")
                 .message("Payment authorized successfully")
                 .build();
+        
+        when(idempotencyService.execute(anyString(), any(), anyString(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<PaymentResponse>>getArgument(4).get());
     }
     
     @Test
@@ -101,6 +118,31 @@ class PaymentControllerTest {
                 .andExpect(status().isNotFound());
     }
     
+    @Test
+    void testLookupPayments() throws Exception {
+        PaymentLookupResponse lookup = PaymentLookupResponse.builder()
+                .payments(List.of(paymentResponse))
+                .notFound(List.of("INVALID_TXN"))
+                .build();
+        when(paymentService.getPaymentsByTransactionIds(List.of("TXN_123456789", "INVALID_TXN"))).thenReturn(lookup);
+        
+        mockMvc.perform(post("/api/v1/payments/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(
+                        new PaymentLookupRequest(List.of("TXN_123456789", "INVALID_TXN")))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.payments[0].transactionId").value("TXN_123456789"))
+                .andExpect(jsonPath("$.notFound[0]").value("INVALID_TXN"));
+    }
+    
+    @Test
+    void testLookupPayments_ValidationError() throws Exception {
+        mockMvc.perform(post("/api/v1/payments/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"transactionIds\": []}"))
+                .andExpect(status().isBadRequest());
+    }
+    
     @Test
     void testRefundPayment_Success() throws Exception {
         PaymentResponse refundResponse = PaymentResponse.success("TXN_123456789", PaymentStatus.REFUNDED, "Refund processed");
@@ -117,4 +159,13 @@ class PaymentControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(content().string("Payment service is healthy"));
     }
+    
+    @Test
+    @WithAnonymousUser
+    void testPaymentsRequireAuthentication() throws Exception {
+        mockMvc.perform(get("/api/v1/payments/TXN_123456789"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/api/v1/payments/health"))
+                .andExpect(status().isOk());
+    }
 }
\ No newline at end of file
@@ -1,40 +1,79 @@
 package com.shibam.payments;
 
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.BatchPaymentResponse;
+import com.shibam.payments.dto.PaymentLookupResponse;
 import com.shibam.payments.dto.PaymentRequest;
 import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.ServiceBusyException;
 import com.shibam.payments.model.Payment;
 import com.shibam.payments.model.Payment.PaymentStatus;
 import com.shibam.payments.repository.PaymentRepository;
 import com.shibam.payments.service.*;
+import com.shibam.payments.service.PreAuthorizationService.Screening;
+import com.shibam.payments.service.VelocityService.Reservation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
+import org.mockito.InOrder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class PaymentServiceTest {
     
+    private static final Screening ADMITTED = Screening.admitted(Reservation.NONE);
+    
     @Mock
     private PaymentRepository paymentRepository;
     
     @Mock
-    private FraudDetectionService fraudDetectionService;
+    private PaymentGatewayService paymentGatewayService;
     
     @Mock
-    private PaymentGatewayService paymentGatewayService;
+    private CacheService cacheService;
+    
+    @Mock
+    private PaymentStateService paymentStateService;
+    
+    @Mock
+    private FraudReviewService fraudReviewService;
+    
+    @Mock
+    private PreAuthorizationService preAuthorizationService;
     
     @Mock
-    private NotificationService notificationService;
+    private RateLimitService rateLimitService;
+    
+    @Mock
+    private PaymentWorkQueue paymentWorkQueue;
+    
+    @Spy
+    private PaymentProperties paymentProperties = new PaymentProperties();
+    
+    @Spy
+    private TaskExecutor paymentTaskExecutor = new SyncTaskExecutor();
+    
+    @Spy
+    private TransactionIdGenerator transactionIdGenerator = new TransactionIdGenerator(0);
     
     @InjectMocks
     private PaymentService paymentService;
@@ -66,11 +105,14 @@ class PaymentServiceTest {
     @Test
     void testProcessPayment_Success() {
         // Given
-        when(fraudDetectionService.isPaymentSafe(any(PaymentRequest.class))).thenReturn(true);
-        when(paymentRepository.save(any(Payment.class))).thenReturn(payment);
-        when(paymentRepository.countRecentPaymentsByUser(anyLong(), any())).thenReturn(0L);
+        Payment authorized = copyOf(payment, PaymentStatus.AUTHORIZED);
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(paymentStateService.createPending(any(Payment.class))).thenReturn(payment);
+        when(paymentStateService.claim("TXN_123456789")).thenReturn(true);
         when(paymentGatewayService.processPayment(any(Payment.class)))
                 .thenReturn(PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success"));
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.PROCESSING, PaymentStatus.AUTHORIZED, "Success"))
+                .thenReturn(Optional.of(authorized));
         
         // When
         PaymentResponse response = paymentService.processPayment(paymentRequest);
@@ -80,18 +122,109 @@ class PaymentServiceTest {
         assertEquals(PaymentStatus.AUTHORIZED, response.getStatus());
         assertNotNull(response.getTransactionId());
         
-        verify(fraudDetectionService).isPaymentSafe(paymentRequest);
-        verify(paymentRepository, times(2)).save(any(Payment.class));
-        verify(paymentGatewayService).processPayment(any(Payment.class));
-        verify(notificationService).sendPaymentNotification(any(Payment.class));
+        verify(preAuthorizationService).check(eq(paymentRequest), anyString());
+        InOrder inOrder = inOrder(paymentStateService, paymentGatewayService);
+        inOrder.verify(paymentStateService).createPending(any(Payment.class));
+        inOrder.verify(paymentStateService).claim("TXN_123456789");
+        inOrder.verify(paymentGatewayService).processPayment(any(Payment.class));
+        verify(cacheService).set(eq("payment:TXN_123456789"), eq(authorized), any());
+        verify(cacheService, times(1)).set(anyString(), any(), any());
+        verify(fraudReviewService).review(authorized);
+    }
+    
+    @Test
+    void testProcessPayment_GatewayOutcomeUnknown() {
+        // Given
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(paymentStateService.createPending(any(Payment.class))).thenReturn(payment);
+        when(paymentStateService.claim("TXN_123456789")).thenReturn(true);
+        when(paymentGatewayService.processPayment(any(Payment.class))).thenThrow(new IllegalStateException("Connection reset"));
+        
+        // When
+        PaymentResponse response = paymentService.processPayment(paymentRequest);
+        
+        // Then
+        assertEquals(PaymentStatus.PROCESSING, response.getStatus());
+        verify(paymentStateService, never()).transition(anyString(), any(), any(), any());
+    }
+    
+    @Test
+    void testProcessPayment_PendingInsertFailureReleasesVelocity() {
+        // Given
+        Reservation reservation = new Reservation(List.of(7L), 10_000, null, false);
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(Screening.admitted(reservation));
+        when(paymentStateService.createPending(any(Payment.class))).thenThrow(new IllegalStateException("Connection is closed"));
+        
+        // When
+        PaymentResponse response = paymentService.processPayment(paymentRequest);
+        
+        // Then the payment was never recorded, so it no longer counts towards the limits
+        assertEquals(PaymentStatus.FAILED, response.getStatus());
+        verify(preAuthorizationService).release(reservation);
+        verify(paymentGatewayService, never()).processPayment(any(Payment.class));
+    }
+    
+    @Test
+    void testProcessPayment_RecordingFailsAfterGatewayApproval() {
+        // Given
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(paymentStateService.createPending(any(Payment.class))).thenReturn(payment);
+        when(paymentStateService.claim("TXN_123456789")).thenReturn(true);
+        when(paymentGatewayService.processPayment(any(Payment.class)))
+                .thenReturn(PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success"));
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.PROCESSING, PaymentStatus.AUTHORIZED, "Success"))
+                .thenThrow(new IllegalStateException("Deadlock found when trying to get lock"));
+        when(cacheService.setIfAbsent(startsWith("idempotency:"), any(), any())).thenReturn(true);
+        IdempotencyService idempotencyService = new IdempotencyService(cacheService, paymentProperties,
+                new SimpleMeterRegistry());
+        
+        // When
+        PaymentResponse response = idempotencyService.execute("client-1", "key-1", "process", paymentRequest,
+                () -> paymentService.processPayment(paymentRequest));
+        
+        // Then the card was charged, so the outcome is left to recovery and a retry must not charge it again
+        assertEquals(PaymentStatus.PROCESSING, response.getStatus());
+        verify(cacheService, never()).delete(anyString());
+        assertSame(response, idempotencyService.execute("client-1", "key-1", "process", paymentRequest,
+                () -> fail("Retry ran the payment again")));
+    }
+    
+    @Test
+    void testResolvePendingPayment_FailsPaymentDeclinedAtGateway() {
+        // Given
+        payment.setStatus(PaymentStatus.PROCESSING);
+        Payment failed = copyOf(payment, PaymentStatus.FAILED);
+        when(paymentGatewayService.inquirePayment(payment))
+                .thenReturn(PaymentResponse.error("TXN_123456789", "Card declined by issuer"));
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.PROCESSING, PaymentStatus.FAILED, "Card declined by issuer"))
+                .thenReturn(Optional.of(failed));
+        
+        // When
+        paymentService.resolvePendingPayment(payment);
+        
+        // Then
+        verify(cacheService).set(eq("payment:TXN_123456789"), eq(failed), any());
+    }
+    
+    @Test
+    void testResolvePendingPayment_KeepsPaymentGatewayCannotConfirm() {
+        // Given
+        payment.setStatus(PaymentStatus.PROCESSING);
+        when(paymentGatewayService.inquirePayment(payment)).thenReturn(
+                PaymentResponse.success("TXN_123456789", PaymentStatus.PENDING, "No authorization record at gateway yet"));
+        
+        // When
+        paymentService.resolvePendingPayment(payment);
+        
+        // Then
+        verify(paymentStateService, never()).transition(anyString(), any(), any(), any());
     }
     
     @Test
     void testProcessPayment_FraudDetected() {
         // Given
-        when(fraudDetectionService.isPaymentSafe(any(PaymentRequest.class))).thenReturn(false);
-        when(paymentRepository.save(any(Payment.class))).thenReturn(payment);
-        when(paymentRepository.countRecentPaymentsByUser(anyLong(), any())).thenReturn(0L);
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenAnswer(invocation ->
+                Screening.rejected(PaymentResponse.error(invocation.getArgument(1), "Payment blocked by security checks")));
         
         // When
         PaymentResponse response = paymentService.processPayment(paymentRequest);
@@ -100,13 +233,135 @@ class PaymentServiceTest {
         assertNotNull(response);
         assertEquals("Payment blocked by security checks", response.getMessage());
         
-        verify(fraudDetectionService).isPaymentSafe(paymentRequest);
+        verify(paymentStateService, never()).createPending(any(Payment.class));
+        verify(paymentGatewayService, never()).processPayment(any(Payment.class));
+    }
+    
+    @Test
+    void testSubmitPayment_QueuesGatewayProcessing() {
+        // Given
+        when(paymentWorkQueue.hasCapacity()).thenReturn(true);
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(paymentStateService.createPending(any(Payment.class))).thenReturn(payment);
+        
+        // When
+        PaymentResponse response = paymentService.submitPayment(paymentRequest);
+        
+        // Then
+        assertEquals(PaymentStatus.PENDING, response.getStatus());
+        assertEquals("TXN_123456789", response.getTransactionId());
+        verify(paymentGatewayService, never()).processPayment(any(Payment.class));
+        
+        // When the queued work runs
+        when(paymentGatewayService.processPayment(payment))
+                .thenReturn(PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success"));
+        when(paymentStateService.claim("TXN_123456789")).thenReturn(true);
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.PROCESSING, PaymentStatus.AUTHORIZED, "Success"))
+                .thenReturn(Optional.of(copyOf(payment, PaymentStatus.AUTHORIZED)));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(paymentWorkQueue).submit(task.capture());
+        task.getValue().run();
+        
+        // Then
+        verify(paymentGatewayService).processPayment(payment);
+        verify(paymentStateService).transition("TXN_123456789", PaymentStatus.PROCESSING, PaymentStatus.AUTHORIZED, "Success");
+    }
+    
+    @Test
+    void testSubmitPayment_RecoveryOvertakesQueuedPayment() {
+        // Given a payment still waiting in the queue when recovery expires it
+        when(paymentWorkQueue.hasCapacity()).thenReturn(true);
+        when(preAuthorizationService.check(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(paymentStateService.createPending(any(Payment.class))).thenReturn(payment);
+        paymentService.submitPayment(paymentRequest);
+        
+        Payment failed = copyOf(payment, PaymentStatus.FAILED);
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.PENDING, PaymentStatus.FAILED,
+                "Payment was not processed in time")).thenReturn(Optional.of(failed));
+        paymentService.resolvePendingPayment(copyOf(payment, PaymentStatus.PENDING));
+        
+        // When the queued work finally runs
+        when(paymentStateService.claim("TXN_123456789")).thenReturn(false);
+        when(paymentRepository.findByTransactionId("TXN_123456789")).thenReturn(Optional.of(failed));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(paymentWorkQueue).submit(task.capture());
+        task.getValue().run();
+        
+        // Then the payment is never sent to the gateway
+        verify(paymentGatewayService, never()).inquirePayment(any(Payment.class));
+        verify(paymentGatewayService, never()).processPayment(any(Payment.class));
+        verify(paymentStateService, never()).transition(anyString(), eq(PaymentStatus.PROCESSING), any(), any());
+    }
+    
+    @Test
+    void testSubmitPayment_QueueFull() {
+        // Given
+        when(paymentWorkQueue.hasCapacity()).thenReturn(false);
+        
+        // When / Then
+        assertThrows(ServiceBusyException.class, () -> paymentService.submitPayment(paymentRequest));
+        verify(paymentStateService, never()).createPending(any(Payment.class));
+    }
+    
+    @Test
+    void testProcessBatch_InsertsAdmittedPaymentsTogether() {
+        // Given
+        PaymentRequest unknownMerchant = new PaymentRequest(2L, new BigDecimal("50.00"), "USD", "CARD",
+                "MERCHANT_999", null, null, null, null, null, null);
+        when(preAuthorizationService.checkSequentially(eq(paymentRequest), anyString())).thenReturn(ADMITTED);
+        when(preAuthorizationService.checkSequentially(eq(unknownMerchant), anyString())).thenAnswer(invocation ->
+                Screening.rejected(PaymentResponse.error(invocation.getArgument(1), "Invalid merchant ID")));
+        when(paymentStateService.createPendingBatch(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(paymentGatewayService.processPayment(any(Payment.class))).thenAnswer(invocation -> {
+            Payment pending = invocation.getArgument(0);
+            return PaymentResponse.success(pending.getTransactionId(), PaymentStatus.AUTHORIZED, "Success");
+        });
+        when(paymentStateService.claim(anyString())).thenReturn(true);
+        when(paymentStateService.transition(anyString(), eq(PaymentStatus.PROCESSING), eq(PaymentStatus.AUTHORIZED), anyString()))
+                .thenAnswer(invocation -> Optional.of(copyOf(payment, PaymentStatus.AUTHORIZED)));
+        
+        // When
+        BatchPaymentResponse response = paymentService.processBatch(List.of(paymentRequest, unknownMerchant, paymentRequest));
+        
+        // Then
+        assertEquals(3, response.getTotal());
+        assertEquals(2, response.getSucceeded());
+        assertEquals(1, response.getFailed());
+        assertEquals(PaymentStatus.AUTHORIZED, response.getResults().get(0).getStatus());
+        assertEquals("Invalid merchant ID", response.getResults().get(1).getMessage());
+        assertEquals(PaymentStatus.AUTHORIZED, response.getResults().get(2).getStatus());
+        
+        verify(paymentStateService).createPendingBatch(argThat(payments -> payments.size() == 2));
+        verify(paymentStateService, never()).createPending(any(Payment.class));
+        verify(paymentGatewayService, times(2)).processPayment(any(Payment.class));
+        verify(preAuthorizationService, never()).release(any());
+    }
+    
+    @Test
+    void testProcessBatch_InsertFailureReleasesVelocity() {
+        // Given
+        Reservation first = new Reservation(List.of(7L), 10_000, null, false);
+        Reservation second = new Reservation(List.of(8L), 5_000, null, false);
+        PaymentRequest another = new PaymentRequest(2L, new BigDecimal("50.00"), "USD", "CARD",
+                "MERCHANT_001", null, null, null, null, null, null);
+        when(preAuthorizationService.checkSequentially(eq(paymentRequest), anyString())).thenReturn(Screening.admitted(first));
+        when(preAuthorizationService.checkSequentially(eq(another), anyString())).thenReturn(Screening.admitted(second));
+        when(paymentStateService.createPendingBatch(anyList())).thenThrow(new IllegalStateException("Connection is closed"));
+        
+        // When
+        BatchPaymentResponse response = paymentService.processBatch(List.of(paymentRequest, another));
+        
+        // Then the insert rolled back, so neither payment counts towards the limits
+        assertEquals(2, response.getFailed());
+        verify(preAuthorizationService).release(first);
+        verify(preAuthorizationService).release(second);
         verify(paymentGatewayService, never()).processPayment(any(Payment.class));
     }
     
     @Test
     void testGetPaymentByTransactionId_Found() {
         // Given
+        loadThroughCache();
         when(paymentRepository.findByTransactionId("TXN_123456789")).thenReturn(Optional.of(payment));
         
         // When
@@ -121,6 +376,7 @@ class PaymentServiceTest {
     @Test
     void testGetPaymentByTransactionId_NotFound() {
         // Given
+        loadThroughCache();
         when(paymentRepository.findByTransactionId("INVALID_TXN")).thenReturn(Optional.empty());
         
         // When
@@ -130,6 +386,30 @@ class PaymentServiceTest {
         assertFalse(response.isPresent());
     }
     
+    @Test
+    void testGetPaymentsByTransactionIds_LoadsMissesInOneQuery() {
+        // Given
+        Payment cached = copyOf(payment, PaymentStatus.CAPTURED);
+        cached.setTransactionId("TXN_CACHED");
+        when(cacheService.getAll(List.of("payment:TXN_CACHED", "payment:TXN_123456789", "payment:TXN_UNKNOWN")))
+                .thenReturn(Map.of("payment:TXN_CACHED", cached));
+        when(paymentRepository.findByTransactionIdIn(List.of("TXN_123456789", "TXN_UNKNOWN")))
+                .thenReturn(List.of(payment));
+        
+        // When
+        PaymentLookupResponse response = paymentService.getPaymentsByTransactionIds(
+                List.of("TXN_CACHED", "TXN_123456789", "TXN_UNKNOWN", "TXN_CACHED"));
+        
+        // Then
+        assertEquals(List.of("TXN_CACHED", "TXN_123456789"), response.getPayments().stream()
+                .map(PaymentResponse::getTransactionId)
+                .toList());
+        assertEquals(List.of("TXN_UNKNOWN"), response.getNotFound());
+        verify(cacheService).setAllIfAbsent(eq(Map.of("payment:TXN_123456789", payment)), any());
+        verify(cacheService).setAllIfAbsent(eq(Map.of("payment:TXN_UNKNOWN", CacheService.ABSENT)), any());
+        verify(paymentRepository, never()).findByTransactionId(anyString());
+    }
+    
     @Test
     void testRefundPayment_Success() {
         // Given
@@ -137,7 +417,8 @@ class PaymentServiceTest {
         when(paymentRepository.findByTransactionId("TXN_123456789")).thenReturn(Optional.of(payment));
         when(paymentGatewayService.refundPayment(any(Payment.class)))
                 .thenReturn(PaymentResponse.success("TXN_123456789", PaymentStatus.REFUNDED, "Refund successful"));
-        when(paymentRepository.save(any(Payment.class))).thenReturn(payment);
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.SETTLED, PaymentStatus.REFUNDED, "Refund successful"))
+                .thenReturn(Optional.of(copyOf(payment, PaymentStatus.REFUNDED)));
         
         // When
         PaymentResponse response = paymentService.refundPayment("TXN_123456789");
@@ -147,7 +428,40 @@ class PaymentServiceTest {
         assertEquals(PaymentStatus.REFUNDED, response.getStatus());
         
         verify(paymentGatewayService).refundPayment(payment);
-        verify(notificationService).sendRefundNotification(any(Payment.class));
+        verify(cacheService).set(eq("payment:TXN_123456789"), argThat(cached -> ((Payment) cached).getStatus() == PaymentStatus.REFUNDED), any());
+    }
+    
+    @Test
+    void testCapturePayment_WaitsForDeepFraudScoring() {
+        // Given
+        payment.setStatus(PaymentStatus.REVIEW);
+        when(paymentRepository.findByTransactionId("TXN_123456789")).thenReturn(Optional.of(payment));
+        
+        // When
+        PaymentResponse response = paymentService.capturePayment("TXN_123456789");
+        
+        // Then
+        assertEquals("Payment cannot be captured. Current status: REVIEW", response.getMessage());
+        InOrder inOrder = inOrder(fraudReviewService, paymentRepository);
+        inOrder.verify(fraudReviewService).awaitReview("TXN_123456789");
+        inOrder.verify(paymentRepository).findByTransactionId("TXN_123456789");
+        verify(paymentStateService, never()).transition(anyString(), any(), any(), any());
+    }
+    
+    @Test
+    void testReleasePayment_Success() {
+        // Given
+        payment.setStatus(PaymentStatus.REVIEW);
+        when(paymentRepository.findByTransactionId("TXN_123456789")).thenReturn(Optional.of(payment));
+        when(paymentStateService.transition("TXN_123456789", PaymentStatus.REVIEW, PaymentStatus.AUTHORIZED, null))
+                .thenReturn(Optional.of(copyOf(payment, PaymentStatus.AUTHORIZED)));
+        
+        // When
+        PaymentResponse response = paymentService.releasePayment("TXN_123456789");
+        
+        // Then
+        assertEquals(PaymentStatus.AUTHORIZED, response.getStatus());
+        verify(fraudReviewService, never()).review(any());
     }
     
     @Test
@@ -164,4 +478,22 @@ class PaymentServiceTest {
         
         verify(paymentGatewayService, never()).refundPayment(any(Payment.class));
     }
+    
+    private void loadThroughCache() {
+        when(cacheService.getOrLoad(anyString(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(2).get());
+    }
+    
+    private Payment copyOf(Payment source, PaymentStatus status) {
+        Payment copy = new Payment();
+        copy.setId(source.getId());
+        copy.setTransactionId(source.getTransactionId());
+        copy.setUserId(source.getUserId());
+        copy.setAmount(source.getAmount());
+        copy.setCurrency(source.getCurrency());
+        copy.setStatus(status);
+        copy.setPaymentMethod(source.getPaymentMethod());
+        copy.setMerchantId(source.getMerchantId());
+        return copy;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import com.shibam.payments.repository.PaymentRepository;
+import com.shibam.payments.service.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Load test for the payment flow's transaction boundaries.
+ *
+ * Transactions run against a simulated connection pool that is much smaller
+ * than the number of concurrent payments. If a connection were held across
+ * the gateway call, throughput would be capped at pool size / gateway latency;
+ * instead it has to grow with the number of concurrent gateway calls.
+ *
+ * Asserts on wall-clock throughput, so it is left out of the default build:
+ * run it with {@code mvn test -Pperformance}.
+ */
+@Tag("performance")
+@SpringJUnitConfig(PaymentThroughputTest.Config.class)
+class PaymentThroughputTest {
+    
+    private static final int POOL_SIZE = 4;
+    private static final long GATEWAY_LATENCY_MS = 50;
+    private static final long QUERY_LATENCY_MS = 1;
+    private static final int PAYMENTS = 200;
+    
+    @Autowired
+    private PaymentService paymentService;
+    
+    @Autowired
+    private PaymentRepository paymentRepository;
+    
+    @Autowired
+    private PaymentGatewayService paymentGatewayService;
+    
+    @Autowired
+    private MerchantService merchantService;
+    
+    @Autowired
+    private FraudDetectionService fraudDetectionService;
+    
+    @BeforeEach
+    void setUp() {
+        reset(paymentRepository, paymentGatewayService, merchantService, fraudDetectionService);
+        
+        when(merchantService.isValidMerchant(anyString())).thenReturn(true);
+        when(fraudDetectionService.isPaymentSafe(any(PaymentRequest.class), anyString(), any())).thenReturn(true);
+        when(paymentRepository.save(any(Payment.class))).thenAnswer(invocation -> {
+            sleep(QUERY_LATENCY_MS);
+            return invocation.getArgument(0);
+        });
+        when(paymentRepository.updateStatusIfCurrent(anyString(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            sleep(QUERY_LATENCY_MS);
+            return 1;
+        });
+        when(paymentRepository.findByTransactionId(anyString())).thenAnswer(invocation -> {
+            Payment payment = new Payment();
+            payment.setTransactionId(invocation.getArgument(0));
+            payment.setStatus(PaymentStatus.AUTHORIZED);
+            return Optional.of(payment);
+        });
+        when(paymentGatewayService.processPayment(any(Payment.class))).thenAnswer(invocation -> {
+            sleep(GATEWAY_LATENCY_MS);
+            Payment payment = invocation.getArgument(0);
+            return PaymentResponse.success(payment.getTransactionId(), PaymentStatus.AUTHORIZED, "Authorized");
+        });
+    }
+    
+    @Test
+    void testThroughputIsNotCappedByConnectionPool() throws Exception {
+        double poolBoundTps = POOL_SIZE * 1000.0 / GATEWAY_LATENCY_MS;
+        
+        double tps = measureTps(40);
+        
+        assertTrue(tps > poolBoundTps * 4,
+                String.format("Throughput %.0f TPS should far exceed pool-bound %.0f TPS", tps, poolBoundTps));
+    }
+    
+    @Test
+    void testThroughputScalesWithGatewayConcurrency() throws Exception {
+        double lowConcurrencyTps = measureTps(10);
+        double highConcurrencyTps = measureTps(40);
+        
+        assertTrue(highConcurrencyTps > lowConcurrencyTps * 2,
+                String.format("Expected TPS to scale with gateway concurrency: %.0f at 10, %.0f at 40",
+                        lowConcurrencyTps, highConcurrencyTps));
+    }
+    
+    private double measureTps(int concurrency) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<PaymentResponse>> futures = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < PAYMENTS; i++) {
+                futures.add(executor.submit(() -> paymentService.processPayment(createPaymentRequest())));
+            }
+            for (Future<PaymentResponse> future : futures) {
+                assertEquals(PaymentStatus.AUTHORIZED, future.get(30, TimeUnit.SECONDS).getStatus());
+            }
+            long elapsedNanos = System.nanoTime() - startTime;
+            return PAYMENTS / (elapsedNanos / 1_000_000_000.0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private PaymentRequest createPaymentRequest() {
+        PaymentRequest request = new PaymentRequest();
+        request.setUserId(1L);
+        request.setAmount(new BigDecimal("100.00"));
+        request.setCurrency("USD");
+        request.setPaymentMethod("WALLET");
+        request.setMerchantId("MERCHANT_001");
+        return request;
+    }
+    
+    private static void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+    
+    @Configuration
+    @EnableTransactionManagement
+    static class Config {
+        
+        @Bean
+        PlatformTransactionManager transactionManager() {
+            return new PooledTransactionManager(POOL_SIZE);
+        }
+        
+        @Bean
+        PaymentRepository paymentRepository() {
+            return mock(PaymentRepository.class);
+        }
+        
+        @Bean
+        PaymentGatewayService paymentGatewayService() {
+            return mock(PaymentGatewayService.class);
+        }
+        
+        @Bean
+        MerchantService merchantService() {
+            return mock(MerchantService.class);
+        }
+        
+        @Bean
+        FraudDetectionService fraudDetectionService() {
+            return mock(FraudDetectionService.class);
+        }
+        
+        @Bean
+        PaymentStateService paymentStateService(PaymentRepository paymentRepository) {
+            return new PaymentStateService(paymentRepository, mock(AuditService.class), mock(NotificationService.class));
+        }
+        
+        @Bean
+        PreAuthorizationService preAuthorizationService(MerchantService merchantService,
+                                                        FraudDetectionService fraudDetectionService) {
+            VelocityService velocityService = mock(VelocityService.class);
+            when(velocityService.reserve(any())).thenReturn(VelocityService.Reservation.NONE);
+            return new PreAuthorizationService(velocityService, merchantService, fraudDetectionService,
+                    new PaymentProperties(), new SyncTaskExecutor());
+        }
+        
+        @Bean
+        PaymentService paymentService(PaymentRepository paymentRepository, PaymentGatewayService paymentGatewayService,
+                                      PaymentStateService paymentStateService,
+                                      PreAuthorizationService preAuthorizationService) {
+            return new PaymentService(paymentRepository, paymentGatewayService, mock(CacheService.class),
+                    paymentStateService, mock(FraudReviewService.class), preAuthorizationService,
+                    mock(RateLimitService.class), mock(PaymentWorkQueue.class), new PaymentProperties(),
+                    new SyncTaskExecutor(), new TransactionIdGenerator(0));
+        }
+    }
+    
+    /**
+     * Transaction manager that checks a "connection" out of a fixed-size pool
+     * for the lifetime of each transaction, like Hikari behind JPA does.
+     */
+    static class PooledTransactionManager extends AbstractPlatformTransactionManager {
+        
+        private static final Object EXISTING = new Object();
+        
+        private final Semaphore connections;
+        
+        PooledTransactionManager(int poolSize) {
+            this.connections = new Semaphore(poolSize, true);
+        }
+        
+        @Override
+        protected Object doGetTransaction() {
+            return TransactionSynchronizationManager.hasResource(this) ? EXISTING : new Object();
+        }
+        
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return transaction == EXISTING;
+        }
+        
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            connections.acquireUninterruptibly();
+            TransactionSynchronizationManager.bindResource(this, transaction);
+        }
+        
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+        
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+        
+        @Override
+        protected void doCleanupAfterCompletion(Object transaction) {
+            TransactionSynchronizationManager.unbindResource(this);
+            connections.release();
+        }
+    }
+}
\ No newline at end of file
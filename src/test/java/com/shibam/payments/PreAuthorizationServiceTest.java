@@ -0,0 +1,155 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.service.FraudDetectionService;
+import com.shibam.payments.service.MerchantService;
+import com.shibam.payments.service.PreAuthorizationService;
+import com.shibam.payments.service.VelocityService;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PreAuthorizationServiceTest {
+    
+    private static final long CHECK_LATENCY_MS = 200;
+    
+    @Mock
+    private VelocityService velocityService;
+    
+    @Mock
+    private MerchantService merchantService;
+    
+    @Mock
+    private FraudDetectionService fraudDetectionService;
+    
+    private PreAuthorizationService preAuthorizationService;
+    
+    private PaymentRequest paymentRequest;
+    
+    @BeforeEach
+    void setUp() {
+        PaymentProperties paymentProperties = new PaymentProperties();
+        paymentProperties.getPreAuthorization().setTimeout(Duration.ofSeconds(1));
+        preAuthorizationService = new PreAuthorizationService(velocityService, merchantService, fraudDetectionService,
+                paymentProperties, new SimpleAsyncTaskExecutor("preauth-test-"));
+        
+        paymentRequest = new PaymentRequest();
+        paymentRequest.setUserId(1L);
+        paymentRequest.setAmount(new BigDecimal("100.00"));
+        paymentRequest.setCurrency("USD");
+        paymentRequest.setPaymentMethod("WALLET");
+        paymentRequest.setMerchantId("MERCHANT_001");
+    }
+    
+    @Test
+    void testLatencyIsSlowestCheckNotSum() {
+        when(velocityService.reserve(paymentRequest)).thenReturn(VelocityService.Reservation.NONE);
+        when(merchantService.isValidMerchant("MERCHANT_001")).thenAnswer(invocation -> {
+            Thread.sleep(CHECK_LATENCY_MS);
+            return true;
+        });
+        when(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null)).thenAnswer(invocation -> {
+            Thread.sleep(CHECK_LATENCY_MS);
+            return true;
+        });
+        
+        long startTime = System.nanoTime();
+        PreAuthorizationService.Screening screening = preAuthorizationService.check(paymentRequest, "TXN_1");
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+        
+        assertNull(screening.rejection());
+        assertSame(VelocityService.Reservation.NONE, screening.reservation());
+        verify(velocityService, never()).release(any());
+        assertTrue(elapsedMillis < CHECK_LATENCY_MS * 2,
+                "Checks should overlap: took " + elapsedMillis + " ms for two " + CHECK_LATENCY_MS + " ms checks");
+    }
+    
+    @Test
+    void testFirstRejectionShortCircuits() {
+        when(velocityService.reserve(paymentRequest)).thenReturn(VelocityService.Reservation.NONE);
+        lenient().when(merchantService.isValidMerchant("MERCHANT_001")).thenAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return true;
+        });
+        when(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null)).thenReturn(false);
+        
+        long startTime = System.nanoTime();
+        PaymentResponse rejection = preAuthorizationService.check(paymentRequest, "TXN_1").rejection();
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+        
+        assertEquals("Payment blocked by security checks", rejection.getMessage());
+        assertEquals("TXN_1", rejection.getTransactionId());
+        assertTrue(elapsedMillis < 1_000, "Rejection should not wait for the slow check: " + elapsedMillis + " ms");
+        verify(velocityService).release(VelocityService.Reservation.NONE);
+    }
+    
+    @Test
+    void testVelocityViolationIsThrown() {
+        VelocityService.Reservation reservation = new VelocityService.Reservation(List.of(7L), 10_000, null, true);
+        when(velocityService.reserve(paymentRequest)).thenReturn(reservation);
+        
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> preAuthorizationService.check(paymentRequest, "TXN_1"));
+        
+        assertEquals("Too many payment attempts. Please try again later.", error.getMessage());
+        verify(velocityService).release(reservation);
+        verifyNoInteractions(merchantService, fraudDetectionService);
+    }
+    
+    @Test
+    void testVelocityBreachIsDecidedFromReservation() {
+        VelocityService.Breach breach = new VelocityService.Breach(Dimension.CARD, Window.HOUR, "count");
+        VelocityService.Reservation reservation = new VelocityService.Reservation(List.of(7L), 10_000, breach, false);
+        when(velocityService.reserve(paymentRequest)).thenReturn(reservation);
+        lenient().when(merchantService.isValidMerchant("MERCHANT_001")).thenReturn(true);
+        when(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", breach)).thenReturn(false);
+        
+        PaymentResponse rejection = preAuthorizationService.check(paymentRequest, "TXN_1").rejection();
+        
+        assertEquals("Payment blocked by security checks", rejection.getMessage());
+        verify(velocityService).release(reservation);
+    }
+    
+    @Test
+    void testChecksMissingDeadlineRejectPayment() {
+        when(velocityService.reserve(paymentRequest)).thenReturn(VelocityService.Reservation.NONE);
+        when(merchantService.isValidMerchant("MERCHANT_001")).thenAnswer(invocation -> {
+            Thread.sleep(3_000);
+            return true;
+        });
+        when(fraudDetectionService.isPaymentSafe(paymentRequest, "TXN_1", null)).thenReturn(true);
+        
+        PaymentResponse rejection = preAuthorizationService.check(paymentRequest, "TXN_1").rejection();
+        
+        assertEquals("Payment checks timed out, please retry", rejection.getMessage());
+        verify(velocityService).release(VelocityService.Reservation.NONE);
+    }
+    
+    @Test
+    void testSequentialChecksStopAtFirstRejection() {
+        when(velocityService.reserve(paymentRequest)).thenReturn(VelocityService.Reservation.NONE);
+        when(merchantService.isValidMerchant("MERCHANT_001")).thenReturn(false);
+        
+        PaymentResponse rejection = preAuthorizationService.checkSequentially(paymentRequest, "TXN_1").rejection();
+        
+        assertEquals("Invalid merchant ID", rejection.getMessage());
+        verifyNoInteractions(fraudDetectionService);
+        verify(velocityService).release(VelocityService.Reservation.NONE);
+    }
+}
\ No newline at end of file
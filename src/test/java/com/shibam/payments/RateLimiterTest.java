@@ -0,0 +1,161 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.exception.RateLimitExceededException;
+import com.shibam.payments.model.Merchant;
+import com.shibam.payments.ratelimit.ClusterTokenBucket;
+import com.shibam.payments.ratelimit.RedisTokenLeases;
+import com.shibam.payments.ratelimit.TokenBucket;
+import com.shibam.payments.repository.MerchantRepository;
+import com.shibam.payments.service.RateLimitService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RateLimiterTest {
+    
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    
+    @Test
+    void testBucketAllowsBurstThenRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 5, clock::get);
+        
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire());
+        }
+        long waitNanos = bucket.tryAcquire();
+        assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.MILLISECONDS.toNanos(100), "wait " + waitNanos);
+        
+        clock.addAndGet(waitNanos);
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+        
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(bucket.isIdle());
+    }
+    
+    @Test
+    void testConcurrentCallersNeverExceedBurst() throws Exception {
+        // Frozen clock: no refill, so exactly the burst may be granted however the threads interleave
+        TokenBucket bucket = new TokenBucket(1_000, 10_000, clock::get);
+        AtomicLong granted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5_000; i++) {
+                        if (bucket.tryAcquire() == 0) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(10_000, granted.get());
+    }
+    
+    @Test
+    void testClusterBucketReservesTokensInBatches() {
+        RedisTokenLeases leases = mock(RedisTokenLeases.class);
+        when(leases.reserve(eq("ratelimit:merchant:M1"), eq(100), eq(200), anyInt())).thenReturn(10L);
+        ClusterTokenBucket bucket = new ClusterTokenBucket("ratelimit:merchant:M1", 100, 200, leases,
+                10, Duration.ofMillis(500), clock::get);
+        
+        for (int i = 0; i < 25; i++) {
+            assertEquals(0, bucket.tryAcquire());
+        }
+        
+        verify(leases, times(3)).reserve("ratelimit:merchant:M1", 100, 200, 10);
+    }
+    
+    @Test
+    void testClusterBucketDiscardsExpiredLeaseAndHonoursRedisWait() {
+        RedisTokenLeases leases = mock(RedisTokenLeases.class);
+        when(leases.reserve(anyString(), anyInt(), anyInt(), anyInt())).thenReturn(10L, -50_000L);
+        ClusterTokenBucket bucket = new ClusterTokenBucket("key", 100, 200, leases, 10, Duration.ofMillis(500), clock::get);
+        
+        assertEquals(0, bucket.tryAcquire());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        
+        // The nine tokens left over have expired, and Redis reports the bucket empty for 50 ms
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+        verify(leases, times(2)).reserve(anyString(), anyInt(), anyInt(), anyInt());
+    }
+    
+    @Test
+    void testClusterBucketFallsBackToLocalLimitWithoutRedis() {
+        RedisTokenLeases leases = mock(RedisTokenLeases.class);
+        when(leases.reserve(anyString(), anyInt(), anyInt(), anyInt())).thenThrow(new QueryTimeoutException("down"));
+        ClusterTokenBucket bucket = new ClusterTokenBucket("key", 10, 3, leases, 10, Duration.ofMillis(500), clock::get);
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire());
+        }
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+    
+    @Test
+    void testMerchantLimitsReloadWithoutRestart() {
+        MerchantRepository merchantRepository = mock(MerchantRepository.class);
+        Merchant flashSale = new Merchant();
+        flashSale.setMerchantId("MERCHANT_001");
+        flashSale.setRateLimitPerSecond(1);
+        flashSale.setRateLimitBurst(2);
+        when(merchantRepository.findByRateLimitPerSecondIsNotNull()).thenReturn(List.of(flashSale));
+        
+        PaymentProperties paymentProperties = new PaymentProperties();
+        RateLimitService rateLimitService = new RateLimitService(merchantRepository, mock(StringRedisTemplate.class),
+                paymentProperties, new SimpleMeterRegistry());
+        rateLimitService.refresh();
+        
+        PaymentRequest request = request("MERCHANT_001");
+        rateLimitService.checkPayment(request);
+        rateLimitService.checkPayment(request);
+        RateLimitExceededException error = assertThrows(RateLimitExceededException.class,
+                () -> rateLimitService.checkPayment(request));
+        assertEquals(1, error.getRetryAfterSeconds());
+        
+        // Other merchants keep the default allowance
+        for (int i = 0; i < 10; i++) {
+            rateLimitService.checkPayment(request("MERCHANT_002"));
+        }
+        
+        // Exempting the merchant takes effect on the next reload
+        flashSale.setRateLimitPerSecond(0);
+        rateLimitService.refresh();
+        for (int i = 0; i < 10; i++) {
+            rateLimitService.checkPayment(request);
+        }
+    }
+    
+    private static PaymentRequest request(String merchantId) {
+        PaymentRequest request = new PaymentRequest();
+        request.setUserId(1L);
+        request.setMerchantId(merchantId);
+        return request;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,134 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentResponse;
+import com.shibam.payments.exception.GatewayTimeoutException;
+import com.shibam.payments.exception.GatewayUnavailableException;
+import com.shibam.payments.gateway.CircuitBreaker;
+import com.shibam.payments.gateway.GatewayConnector;
+import com.shibam.payments.gateway.ResilientGatewayConnector;
+import com.shibam.payments.model.Payment;
+import com.shibam.payments.model.Payment.PaymentStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ResilientGatewayConnectorTest {
+    
+    @Mock
+    private GatewayConnector delegate;
+    
+    private final AtomicLong clock = new AtomicLong();
+    
+    private PaymentProperties.Gateway config;
+    
+    private ResilientGatewayConnector connector;
+    
+    private Payment payment;
+    
+    @BeforeEach
+    void setUp() {
+        when(delegate.name()).thenReturn("test");
+        
+        config = new PaymentProperties.Gateway();
+        config.setTimeout(Duration.ofMillis(200));
+        config.setMaxConcurrentCalls(2);
+        config.getCircuitBreaker().setFailureThreshold(3);
+        config.getCircuitBreaker().setRecoveryTimeout(Duration.ofSeconds(30));
+        connector = new ResilientGatewayConnector(delegate, config, new SimpleMeterRegistry(), clock::get);
+        
+        payment = new Payment();
+        payment.setTransactionId("TXN_123456789");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        connector.close();
+    }
+    
+    @Test
+    void testSlowCallIsCutOffAtDeadline() {
+        when(delegate.authorize(payment)).thenAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success");
+        });
+        
+        long startTime = System.nanoTime();
+        assertThrows(GatewayTimeoutException.class, () -> connector.authorize(payment));
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+        
+        assertTrue(elapsedMillis < 1_000, "Caller should be released at the deadline: " + elapsedMillis + " ms");
+    }
+    
+    @Test
+    void testFullBulkheadFailsFast() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        config.setTimeout(Duration.ofSeconds(10));
+        connector.close();
+        connector = new ResilientGatewayConnector(delegate, config, new SimpleMeterRegistry(), clock::get);
+        when(delegate.authorize(payment)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success");
+        });
+        
+        CompletableFuture<PaymentResponse> first = CompletableFuture.supplyAsync(() -> connector.authorize(payment));
+        CompletableFuture<PaymentResponse> second = CompletableFuture.supplyAsync(() -> connector.authorize(payment));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        long startTime = System.nanoTime();
+        assertThrows(GatewayUnavailableException.class, () -> connector.authorize(payment));
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - startTime).toMillis();
+        
+        release.countDown();
+        assertEquals(PaymentStatus.AUTHORIZED, first.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(PaymentStatus.AUTHORIZED, second.get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(elapsedMillis < 100, "Rejection should not wait for a slot: " + elapsedMillis + " ms");
+    }
+    
+    @Test
+    void testCircuitOpensAfterConsecutiveFailuresAndRecovers() {
+        when(delegate.authorize(payment)).thenThrow(new IllegalStateException("Connection reset"));
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> connector.authorize(payment));
+        }
+        
+        assertEquals(CircuitBreaker.State.OPEN, connector.getCircuitState());
+        assertThrows(GatewayUnavailableException.class, () -> connector.authorize(payment));
+        verify(delegate, times(3)).authorize(any());
+        
+        // After the recovery timeout one trial call goes through and closes the circuit
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        doReturn(PaymentResponse.success("TXN_123456789", PaymentStatus.AUTHORIZED, "Success")).when(delegate).authorize(payment);
+        
+        assertEquals(PaymentStatus.AUTHORIZED, connector.authorize(payment).getStatus());
+        assertEquals(CircuitBreaker.State.CLOSED, connector.getCircuitState());
+    }
+    
+    @Test
+    void testDeclinesDoNotOpenCircuit() {
+        when(delegate.authorize(payment)).thenReturn(PaymentResponse.error("TXN_123456789", "Insufficient funds"));
+        
+        for (int i = 0; i < 10; i++) {
+            assertEquals(PaymentStatus.FAILED, connector.authorize(payment).getStatus());
+        }
+        
+        assertEquals(CircuitBreaker.State.CLOSED, connector.getCircuitState());
+    }
+}
\ No newline at end of file
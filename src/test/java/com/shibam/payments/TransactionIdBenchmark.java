@@ -0,0 +1,56 @@
+package com.shibam.payments;
+
+import com.shibam.payments.service.TransactionIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of transaction id generation: {@link TransactionIdGenerator}
+ * against the previous truncated random UUID.
+ *
+ * Run after {@code mvn test-compile} with the test classpath, for example
+ * from the IDE, or with
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.shibam.payments.TransactionIdBenchmark}.
+ * The GC profiler reports bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionIdBenchmark {
+    
+    private final TransactionIdGenerator generator = new TransactionIdGenerator(1);
+    
+    @Benchmark
+    public String generator() {
+        return generator.nextTransactionId();
+    }
+    
+    @Benchmark
+    public String randomUuid() {
+        return "TXN_" + UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TransactionIdBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package com.shibam.payments;
+
+import com.shibam.payments.service.TransactionIdGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionIdGeneratorTest {
+    
+    private static final int NODES = 8;
+    private static final int THREADS_PER_NODE = 4;
+    private static final int IDS_PER_THREAD = 25_000;
+    
+    @Test
+    void testNoCollisionsAcrossSimulatedNodes() throws Exception {
+        // All nodes share one frozen clock, the worst case for the per-millisecond sequence
+        long frozenMillis = System.currentTimeMillis();
+        List<TransactionIdGenerator> nodes = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            nodes.add(new TransactionIdGenerator(node, () -> frozenMillis));
+        }
+        
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (TransactionIdGenerator node : nodes) {
+                for (int t = 0; t < THREADS_PER_NODE; t++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < IDS_PER_THREAD; i++) {
+                            ids.add(node.nextTransactionId());
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(NODES * THREADS_PER_NODE * IDS_PER_THREAD, ids.size());
+    }
+    
+    @Test
+    void testIdsAreTimeOrderedEvenWhenClockStepsBack() {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        TransactionIdGenerator generator = new TransactionIdGenerator(7, clock::get);
+        
+        String previous = generator.nextTransactionId();
+        for (int i = 0; i < 10_000; i++) {
+            // Mostly forward, with an occasional NTP-style step back
+            clock.addAndGet(i % 100 == 99 ? -50 : i % 3);
+            String next = generator.nextTransactionId();
+            assertTrue(next.compareTo(previous) > 0, next + " should sort after " + previous);
+            previous = next;
+        }
+    }
+    
+    @Test
+    void testFormatMatchesExistingTransactionIds() {
+        TransactionIdGenerator generator = new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID);
+        
+        String transactionId = generator.nextTransactionId();
+        long id = generator.nextId();
+        
+        assertTrue(transactionId.matches("TXN_[0-9A-F]{16}"), transactionId);
+        assertEquals(TransactionIdGenerator.MAX_NODE_ID, TransactionIdGenerator.nodeIdOf(id));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID + 1));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.shibam.payments;
+
+import com.shibam.payments.fraud.UserProfile;
+import com.shibam.payments.fraud.UserProfiles;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserProfilesTest {
+    
+    private final AtomicLong now = new AtomicLong(Duration.ofDays(365).toMillis());
+    private final UserProfiles profiles = new UserProfiles(10_000, 0.1, Duration.ofDays(30), now::get);
+    
+    @Test
+    void testAmountMeanAndDeviation() {
+        for (int i = 0; i < 50; i++) {
+            profiles.record(1L, i % 2 == 0 ? 90 : 110, 12, "CARD", "MERCHANT_001");
+        }
+        
+        UserProfile profile = profiles.read(1L);
+        assertEquals(50, profile.payments());
+        assertEquals(100, profile.meanAmount(), 2);
+        assertEquals(10, profile.amountStdDev(), 1);
+        assertTrue(profile.amountDeviation(500) > 3);
+        assertTrue(profile.amountDeviation(115) < 3);
+        assertNull(profiles.read(2L));
+    }
+    
+    @Test
+    void testConstantAmountStillAllowsSomeSpread() {
+        for (int i = 0; i < 20; i++) {
+            profiles.record(1L, 100, 12, "CARD", "MERCHANT_001");
+        }
+        
+        UserProfile profile = profiles.read(1L);
+        assertEquals(0, profile.amountStdDev(), 1e-9);
+        assertEquals(1.0, profile.amountDeviation(110), 1e-9);
+    }
+    
+    @Test
+    void testHourAndMethodShares() {
+        for (int i = 0; i < 9; i++) {
+            profiles.record(1L, 50, 13, "CARD", "MERCHANT_001");
+        }
+        profiles.record(1L, 50, 2, "WALLET", "MERCHANT_001");
+        
+        UserProfile profile = profiles.read(1L);
+        assertEquals(0.9, profile.hourShare(14), 1e-9);
+        assertEquals(0.1, profile.hourShare(1), 1e-9);
+        assertEquals(0, profile.hourShare(20));
+        assertEquals(0.9, profile.methodShare("CARD"), 1e-9);
+        assertEquals(0.1, profile.methodShare("WALLET"), 1e-9);
+        assertEquals(0, profile.methodShare("BANK_TRANSFER"));
+    }
+    
+    @Test
+    void testLeastUsedMerchantIsReplaced() {
+        for (int i = 0; i < 5; i++) {
+            profiles.record(1L, 50, 12, "CARD", "MERCHANT_001");
+            profiles.record(1L, 50, 12, "CARD", "MERCHANT_002");
+            profiles.record(1L, 50, 12, "CARD", "MERCHANT_003");
+        }
+        profiles.record(1L, 50, 12, "CARD", "MERCHANT_004");
+        profiles.record(1L, 50, 12, "CARD", "MERCHANT_005");
+        
+        UserProfile profile = profiles.read(1L);
+        assertTrue(profile.isUsualMerchant("MERCHANT_001"));
+        assertTrue(profile.isUsualMerchant("MERCHANT_002"));
+        assertTrue(profile.isUsualMerchant("MERCHANT_003"));
+        assertFalse(profile.isUsualMerchant("MERCHANT_004"));
+        assertTrue(profile.isUsualMerchant("MERCHANT_005"));
+    }
+    
+    @Test
+    void testCountersFadeInsteadOfOverflowing() {
+        for (int i = 0; i < 1_000; i++) {
+            profiles.record(1L, 50, 12, "CARD", "MERCHANT_001");
+        }
+        for (int i = 0; i < 100; i++) {
+            profiles.record(1L, 50, 0, "WALLET", "MERCHANT_001");
+        }
+        
+        UserProfile profile = profiles.read(1L);
+        assertEquals(1_100, profile.payments());
+        assertTrue(profile.hourShare(0) > 100.0 / 1_100);
+        assertTrue(profile.methodShare("WALLET") > 100.0 / 1_100);
+    }
+    
+    @Test
+    void testIdleUsersAreEvicted() {
+        profiles.record(1L, 50, 12, "CARD", "MERCHANT_001");
+        now.addAndGet(Duration.ofDays(20).toMillis());
+        profiles.record(2L, 50, 12, "CARD", "MERCHANT_001");
+        now.addAndGet(Duration.ofDays(15).toMillis());
+        
+        profiles.evictIdle();
+        
+        assertNull(profiles.read(1L));
+        assertNotNull(profiles.read(2L));
+        assertEquals(1, profiles.size());
+    }
+    
+    @Test
+    void testUserCountIsBounded() {
+        UserProfiles small = new UserProfiles(10_000, 0.1, Duration.ofDays(30), now::get);
+        int profiled = 0;
+        for (long user = 0; user < 100_000; user++) {
+            if (small.record(user, 50, 12, "CARD", "MERCHANT_001")) {
+                profiled++;
+            }
+        }
+        
+        assertTrue(small.size() <= 10_000);
+        assertEquals(small.size(), profiled);
+    }
+}
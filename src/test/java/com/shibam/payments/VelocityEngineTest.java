@@ -0,0 +1,206 @@
+package com.shibam.payments;
+
+import com.shibam.payments.velocity.VelocityEngine;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import com.shibam.payments.velocity.VelocitySnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VelocityEngineTest {
+    
+    private final AtomicLong now = new AtomicLong(Duration.ofDays(365).toMillis());
+    private final VelocityEngine engine = new VelocityEngine(10_000, now::get);
+    private final VelocitySnapshot totals = new VelocitySnapshot();
+    
+    @Test
+    void testCountsAndAmountsPerWindow() {
+        long user = VelocityEngine.keyOf(Dimension.USER, 42L);
+        
+        engine.record(user, 1_000, totals);
+        engine.record(user, 2_500, totals);
+        
+        for (Window window : Window.values()) {
+            assertEquals(2, engine.count(user, window));
+            assertEquals(3_500, engine.amount(user, window));
+        }
+        assertEquals(0, engine.count(VelocityEngine.keyOf(Dimension.USER, 43L), Window.DAY));
+    }
+    
+    @Test
+    void testWindowsSlide() {
+        long card = VelocityEngine.keyOf(Dimension.CARD, "4111111111111111");
+        
+        engine.record(card, 100, totals);
+        advance(Duration.ofSeconds(30));
+        engine.record(card, 100, totals);
+        advance(Duration.ofSeconds(36));
+        
+        // The first payment has left the minute window but not the hour or day
+        assertEquals(1, engine.count(card, Window.MINUTE));
+        assertEquals(2, engine.count(card, Window.HOUR));
+        
+        advance(Duration.ofHours(2));
+        assertEquals(0, engine.count(card, Window.MINUTE));
+        assertEquals(0, engine.count(card, Window.HOUR));
+        assertEquals(2, engine.count(card, Window.DAY));
+        assertEquals(200, engine.amount(card, Window.DAY));
+    }
+    
+    @Test
+    void testReleaseTakesBackRecordedPayment() {
+        long user = VelocityEngine.keyOf(Dimension.USER, 42L);
+        engine.record(user, 1_000, totals);
+        
+        assertTrue(engine.record(user, 2_500, totals));
+        assertEquals(2, totals.count(Window.MINUTE));
+        assertEquals(3_500, totals.amount(Window.DAY));
+        
+        // Rejected after the minute window moved on to a new bucket
+        advance(Duration.ofSeconds(7));
+        engine.release(user, 2_500);
+        
+        for (Window window : Window.values()) {
+            assertEquals(1, engine.count(user, window));
+            assertEquals(1_000, engine.amount(user, window));
+        }
+    }
+    
+    @Test
+    void testFormattedCardNumberMatches() {
+        assertEquals(VelocityEngine.keyOf(Dimension.CARD, "4111111111111111"),
+                VelocityEngine.keyOf(Dimension.CARD, "4111 1111 1111 1111"));
+        assertNotEquals(VelocityEngine.keyOf(Dimension.USER, "42"),
+                VelocityEngine.keyOf(Dimension.MERCHANT, "42"));
+    }
+    
+    @Test
+    void testIdleKeysAreEvicted() {
+        for (long user = 0; user < 1_000; user++) {
+            engine.record(VelocityEngine.keyOf(Dimension.USER, user), 100, totals);
+        }
+        advance(Duration.ofHours(12));
+        long active = VelocityEngine.keyOf(Dimension.USER, 0L);
+        engine.record(active, 100, totals);
+        
+        advance(Duration.ofHours(13));
+        engine.evictIdle();
+        
+        assertEquals(1, engine.size());
+        assertEquals(1, engine.count(active, Window.DAY));
+    }
+    
+    @Test
+    void testKeysAreBoundedByMaxKeys() {
+        VelocityEngine small = new VelocityEngine(10_000, now::get);
+        int untracked = 0;
+        for (long user = 0; user < 50_000; user++) {
+            if (!small.record(VelocityEngine.keyOf(Dimension.USER, user), 100, totals)) {
+                untracked++;
+            }
+        }
+        
+        assertTrue(small.size() <= 10_000, "Tracked " + small.size() + " keys");
+        assertEquals(50_000, small.size() + untracked);
+        
+        // Room frees up once the tracked keys go idle
+        advance(Duration.ofDays(2));
+        small.evictIdle();
+        assertEquals(0, small.size());
+        assertTrue(small.record(VelocityEngine.keyOf(Dimension.USER, 50_000L), 100, totals));
+    }
+    
+    @Test
+    void testConcurrentRecordsAreNotLost() throws Exception {
+        long merchant = VelocityEngine.keyOf(Dimension.MERCHANT, "MERCHANT_001");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    VelocitySnapshot own = new VelocitySnapshot();
+                    for (int i = 0; i < 10_000; i++) {
+                        engine.record(merchant, 1, own);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        
+        assertEquals(80_000, engine.count(merchant, Window.MINUTE));
+        assertEquals(80_000, engine.amount(merchant, Window.MINUTE));
+    }
+    
+    @Test
+    void testConcurrentRecordsEachSeeTheirOwnCount() throws Exception {
+        long user = VelocityEngine.keyOf(Dimension.USER, 42L);
+        Set<Long> counts = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    VelocitySnapshot own = new VelocitySnapshot();
+                    for (int i = 0; i < 1_000; i++) {
+                        engine.record(user, 1, own);
+                        counts.add(own.count(Window.MINUTE));
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        
+        // No two payments were checked against the same count
+        assertEquals(8_000, counts.size());
+    }
+    
+    @Test
+    void testRecordingAndReadingDoNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "Per-thread allocation counters are not available on this JVM");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long[] keys = new long[64];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = VelocityEngine.keyOf(Dimension.USER, (long) i);
+        }
+        long threadId = Thread.currentThread().getId();
+        
+        // Warm up so the measured loop runs compiled code, and so every key already has a slot
+        long sink = 0;
+        for (int i = 0; i < 200_000; i++) {
+            engine.record(keys[i & 63], 100, totals);
+            engine.read(keys[i & 63], totals);
+            sink += totals.count(Window.DAY);
+        }
+        
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1_000_000; i++) {
+            engine.record(keys[i & 63], 100, totals);
+            engine.read(keys[i & 63], totals);
+            sink += totals.count(Window.DAY);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        
+        // Two snapshots per event would be over 100 MB here; allow a little for the counter calls themselves
+        assertTrue(allocated < 1_024, "Allocated " + allocated + " bytes for 1,000,000 records and reads");
+        assertNotEquals(0, sink);
+    }
+    
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toMillis());
+    }
+}
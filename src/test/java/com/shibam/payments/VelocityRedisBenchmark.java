@@ -0,0 +1,95 @@
+package com.shibam.payments;
+
+import com.shibam.payments.velocity.RedisVelocityWindows;
+import com.shibam.payments.velocity.VelocityEngine;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import com.shibam.payments.velocity.VelocitySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of recording a payment in the Redis velocity windows: the
+ * single script call of {@link RedisVelocityWindows} against the previous
+ * INCR followed by a separate EXPIRE per window counter, both against a real
+ * Redis started with Testcontainers.
+ *
+ * Needs Docker. Run after {@code mvn test-compile} with the test classpath,
+ * for example from the IDE, or with
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.shibam.payments.VelocityRedisBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelocityRedisBenchmark {
+    
+    private static final long KEY = VelocityEngine.keyOf(Dimension.USER, 42L);
+    
+    private GenericContainer<?> redis;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private RedisVelocityWindows windows;
+    private final VelocitySnapshot totals = new VelocitySnapshot();
+    
+    @Setup(Level.Trial)
+    public void startRedis() {
+        redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory(redis.getHost(), redis.getMappedPort(6379));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        windows = new RedisVelocityWindows(redisTemplate);
+    }
+    
+    @TearDown(Level.Trial)
+    public void stopRedis() {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+    
+    @Benchmark
+    public VelocitySnapshot script() {
+        windows.record(KEY, 100, totals);
+        return totals;
+    }
+    
+    @Benchmark
+    public Long incrementThenExpire() {
+        Long count = null;
+        for (Window window : Window.values()) {
+            String counter = "velocity:42:" + window;
+            count = redisTemplate.opsForValue().increment(counter);
+            redisTemplate.expire(counter, Duration.ofDays(1));
+        }
+        return count;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VelocityRedisBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,67 @@
+package com.shibam.payments;
+
+import com.shibam.payments.config.PaymentProperties;
+import com.shibam.payments.dto.PaymentRequest;
+import com.shibam.payments.service.VelocityService;
+import com.shibam.payments.service.VelocityService.Reservation;
+import com.shibam.payments.velocity.VelocityEngine;
+import com.shibam.payments.velocity.VelocityEngine.Dimension;
+import com.shibam.payments.velocity.VelocityEngine.Window;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VelocityServiceTest {
+    
+    private final VelocityEngine engine = new VelocityEngine(10_000);
+    private PaymentProperties paymentProperties;
+    private VelocityService velocityService;
+    private PaymentRequest request;
+    
+    @BeforeEach
+    void setUp() {
+        paymentProperties = new PaymentProperties();
+        paymentProperties.getVelocity().getUser().setPerMinute(2);
+        velocityService = new VelocityService(paymentProperties, engine, new SimpleMeterRegistry());
+        
+        request = new PaymentRequest();
+        request.setUserId(42L);
+        request.setAmount(new BigDecimal("25.00"));
+        request.setCardNumber("4111111111111111");
+        request.setMerchantId("MERCHANT_001");
+    }
+    
+    @Test
+    void testBreachIsDecidedFromCountIncludingPayment() {
+        assertNull(velocityService.reserve(request).breach());
+        assertNull(velocityService.reserve(request).breach());
+        
+        Reservation third = velocityService.reserve(request);
+        
+        assertEquals("user count per minute", third.breach().toString());
+    }
+    
+    @Test
+    void testReleasedPaymentIsNoLongerCounted() {
+        Reservation first = velocityService.reserve(request);
+        velocityService.release(first);
+        
+        assertNull(velocityService.reserve(request).breach());
+        assertNull(velocityService.reserve(request).breach());
+        long user = VelocityEngine.keyOf(Dimension.USER, 42L);
+        assertEquals(2, engine.count(user, Window.MINUTE));
+        assertEquals(5_000, engine.amount(user, Window.DAY));
+    }
+    
+    @Test
+    void testAttemptLimitCountsPaymentsInFlight() {
+        paymentProperties.getVelocity().setUserAttemptsPerMinute(1);
+        
+        assertFalse(velocityService.reserve(request).overAttemptLimit());
+        assertTrue(velocityService.reserve(request).overAttemptLimit());
+    }
+}
\ No newline at end of file